@@ -0,0 +1,42 @@
+package io.github.theprez.triggermanager;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Change payloads shaped like the trigger's: a JSON row image with an integer key, a few short columns and as many
+ * 100 character columns as it takes to reach the requested size.
+ */
+final class BenchmarkPayloads {
+    static final String TABLE_NAME = "BENCHTABLE";
+    /** How many different rows the benchmarks cycle through, so consecutive payloads have different keys */
+    static final int ROW_COUNT = 1024;
+    private static final int FILLER_COLUMN_CHARACTERS = 100;
+
+    private BenchmarkPayloads() {
+        // No instances
+    }
+
+    /** Payloads of about the given number of bytes, one per row */
+    static byte[][] rows(final int _bytes) {
+        final byte[][] ret = new byte[ROW_COUNT][];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            ret[i] = row(i, _bytes);
+        }
+        return ret;
+    }
+
+    static byte[] row(final int _id, final int _bytes) {
+        final StringBuilder json = new StringBuilder(_bytes + FILLER_COLUMN_CHARACTERS);
+        json.append("{\"table\":\"").append(TABLE_NAME).append("\",\"operation\":\"UPDATE\",\"row\":{\"ID\":").append(_id);
+        json.append(",\"NAME\":\"Customer ").append(_id).append("\",\"BALANCE\":").append(_id * 17 % 10000).append(".25");
+        json.append(",\"UPDATED\":\"2024-01-01-12.00.00.000000\"");
+        for (int column = 0; json.length() + FILLER_COLUMN_CHARACTERS + 16 < _bytes; column++) {
+            json.append(",\"TEXT").append(column).append("\":\"");
+            for (int i = 0; i < FILLER_COLUMN_CHARACTERS; i++) {
+                json.append((char) ('a' + (_id + column + i) % 26));
+            }
+            json.append('"');
+        }
+        return json.append("}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.theprez.triggermanager;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always adding the GC profiler so that every result
+ * includes its allocation rate (<code>gc.alloc.rate.norm</code> is bytes allocated per operation).
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // No instances
+    }
+
+    public static void main(final String[] _args) throws Exception {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(_args)).addProfiler(GCProfiler.class).build()).run();
+    }
+}
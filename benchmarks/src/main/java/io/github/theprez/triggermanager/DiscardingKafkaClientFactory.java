@@ -0,0 +1,88 @@
+package io.github.theprez.triggermanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.camel.component.kafka.KafkaClientFactory;
+import org.apache.camel.component.kafka.KafkaConfiguration;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * Gives the Camel Kafka component producers that serialize each record as a real producer would and then
+ * acknowledge it at once, without a broker. Nothing is kept, so the benchmarks can run for as long as needed.
+ */
+final class DiscardingKafkaClientFactory implements KafkaClientFactory {
+    private final LongAdder m_records = new LongAdder();
+    private final LongAdder m_bytes = new LongAdder();
+
+    /** The number of records acknowledged so far */
+    long getRecords() {
+        return m_records.sum();
+    }
+
+    long getBytes() {
+        return m_bytes.sum();
+    }
+
+    @Override
+    public Producer getProducer(final Properties _props) {
+        return new DiscardingProducer();
+    }
+
+    @Override
+    public Consumer getConsumer(final Properties _props) {
+        throw new UnsupportedOperationException("The benchmarks only publish");
+    }
+
+    @Override
+    public String getBrokers(final KafkaConfiguration _configuration) {
+        return _configuration.getBrokers();
+    }
+
+    private final class DiscardingProducer extends MockProducer<Object, Object> {
+        private final StringSerializer m_serializer = new StringSerializer();
+
+        DiscardingProducer() {
+            super(true, null, null);
+        }
+
+        @Override
+        public Future<RecordMetadata> send(final ProducerRecord<Object, Object> _record) {
+            return send(_record, null);
+        }
+
+        @Override
+        public Future<RecordMetadata> send(final ProducerRecord<Object, Object> _record, final Callback _callback) {
+            final byte[] key = serialize(_record.topic(), _record.key());
+            final byte[] value = serialize(_record.topic(), _record.value());
+            m_records.increment();
+            m_bytes.add(value.length);
+            final TopicPartition partition = new TopicPartition(_record.topic(), (null == _record.partition()) ? 0 : _record.partition());
+            final RecordMetadata metadata = new RecordMetadata(partition, 0, 0, System.currentTimeMillis(), null, key.length, value.length);
+            if (null != _callback) {
+                _callback.onCompletion(metadata, null);
+            }
+            return CompletableFuture.completedFuture(metadata);
+        }
+
+        private byte[] serialize(final String _topic, final Object _data) {
+            if (null == _data) {
+                return new byte[0];
+            }
+            if (_data instanceof byte[]) {
+                return (byte[]) _data;
+            }
+            return (_data instanceof String) ? m_serializer.serialize(_topic, (String) _data) : _data.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
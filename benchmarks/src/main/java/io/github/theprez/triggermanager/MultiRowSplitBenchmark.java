@@ -0,0 +1,86 @@
+package io.github.theprez.triggermanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * The daemon's side of a STATEMENT trigger: splitting the trigger's multi-row messages into one payload per row. Each
+ * operation reads one row, so the results compare with the per-row cost of the other benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiRowSplitBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int rowsPerMessage;
+
+    @Param({ "1024", "8192" })
+    public int payloadBytes;
+
+    private MultiRowPayloadChangeSource m_source;
+
+    @Setup
+    public void setUp() {
+        final byte[][] messages = new byte[BenchmarkPayloads.ROW_COUNT / rowsPerMessage][];
+        for (int i = 0; i < messages.length; i++) {
+            final StringBuilder message = new StringBuilder("{\"table\":\"").append(BenchmarkPayloads.TABLE_NAME).append("\",\"operation\":\"UPDATE\",\"rows\":[");
+            for (int row = 0; row < rowsPerMessage; row++) {
+                final String payload = new String(BenchmarkPayloads.row(i * rowsPerMessage + row, payloadBytes), StandardCharsets.UTF_8);
+                // The row image of a row trigger's payload, without the enclosing object
+                message.append((0 == row) ? "" : ",").append(payload, payload.indexOf("\"row\":") + 6, payload.length() - 1);
+            }
+            messages[i] = message.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+        m_source = new MultiRowPayloadChangeSource(AppLogger.getSingleton(false), new ReplayingChangeSource(messages));
+    }
+
+    @Benchmark
+    public byte[] readRow() throws Exception {
+        return m_source.read(0);
+    }
+
+    /** Returns the same messages over and over */
+    private static final class ReplayingChangeSource implements IChangeSource {
+        private final byte[][] m_messages;
+        private int m_next = 0;
+
+        ReplayingChangeSource(final byte[][] _messages) {
+            m_messages = _messages;
+        }
+
+        @Override
+        public byte[] read(final int _waitMillis) {
+            final byte[] ret = m_messages[m_next];
+            m_next = (m_next + 1) % m_messages.length;
+            return ret;
+        }
+
+        @Override
+        public String getDescription() {
+            return "replay";
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.github.theprez.triggermanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.TypeConverter;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of turning a data queue entry into the bytes of a Kafka record: decoding the UTF-8 bytes to a String,
+ * as the route does, and encoding it again in the producer's serializer. The bytes are also passed through as they
+ * are, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadConversionBenchmark {
+    private static final String TOPIC = "bench";
+
+    @Param({ "1024", "8192", "61440" })
+    public int payloadBytes;
+
+    private byte[][] m_payloads;
+    private int m_next = 0;
+    private final StringSerializer m_stringSerializer = new StringSerializer();
+    private final ByteArraySerializer m_byteArraySerializer = new ByteArraySerializer();
+    private CamelContext m_context;
+    private TypeConverter m_typeConverter;
+    private Exchange m_exchange;
+
+    @Setup
+    public void setUp() {
+        m_payloads = BenchmarkPayloads.rows(payloadBytes);
+        m_context = new DefaultCamelContext();
+        m_context.start();
+        m_typeConverter = m_context.getTypeConverter();
+        m_exchange = new DefaultExchange(m_context);
+        m_exchange.setProperty(Exchange.CHARSET_NAME, "UTF-8");
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_context.stop();
+    }
+
+    private byte[] nextPayload() {
+        final byte[] ret = m_payloads[m_next];
+        m_next = (m_next + 1) % m_payloads.length;
+        return ret;
+    }
+
+    /** Decoding with the JDK, then serializing as the Kafka producer does */
+    @Benchmark
+    public byte[] decodeAndSerialize() {
+        return m_stringSerializer.serialize(TOPIC, new String(nextPayload(), StandardCharsets.UTF_8));
+    }
+
+    /** Decoding through Camel's type converter, as the route's convertBodyTo step does, then serializing */
+    @Benchmark
+    public byte[] convertAndSerialize() {
+        return m_stringSerializer.serialize(TOPIC, m_typeConverter.convertTo(String.class, m_exchange, nextPayload()));
+    }
+
+    /** Handing the bytes to the producer as they are */
+    @Benchmark
+    public byte[] passThrough() {
+        return m_byteArraySerializer.serialize(TOPIC, nextPayload());
+    }
+}
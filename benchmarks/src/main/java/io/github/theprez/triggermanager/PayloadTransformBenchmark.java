@@ -0,0 +1,88 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * The per-payload cost of a table's {@link PayloadTransform}, for each kind of rule on its own and all of them together.
+ * Every payload passes the filter, so each operation produces a transformed payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadTransformBenchmark {
+
+    @Param({ "PROJECT", "RENAME_MASK", "FILTER", "ALL" })
+    public String rules;
+
+    @Param({ "1024", "8192", "61440" })
+    public int payloadBytes;
+
+    private byte[][] m_payloads;
+    private int m_next = 0;
+    private PayloadTransform m_transform;
+
+    @Setup
+    public void setUp() throws IOException {
+        loadSettings();
+        final AppLogger logger = AppLogger.getSingleton(false);
+        m_transform = PayloadTransform.forTable(logger,
+                new TableConfiguration(logger, new TableDescriptor("BENCHLIB", "BENCHLIB", BenchmarkPayloads.TABLE_NAME, BenchmarkPayloads.TABLE_NAME)),
+                Collections.singletonList("ID"), TriggerDescriptor.UpdateMode.FULL);
+        m_payloads = BenchmarkPayloads.rows(payloadBytes);
+    }
+
+    private void loadSettings() throws IOException {
+        final String project = "TRANSFORM_COLUMNS=ID,NAME,BALANCE\n";
+        final String renameMask = "TRANSFORM_RENAME=NAME=CUSTOMER_NAME\nTRANSFORM_MASK=BALANCE\n";
+        final String filter = "TRANSFORM_FILTER=BALANCE>=0,operation=UPDATE\n";
+        final String settings;
+        switch (rules) {
+            case "PROJECT":
+                settings = project;
+                break;
+            case "RENAME_MASK":
+                settings = renameMask;
+                break;
+            case "FILTER":
+                settings = filter;
+                break;
+            default:
+                settings = project + renameMask + filter + "TRANSFORM_ADD=source=bench\n";
+        }
+        final File config = File.createTempFile("aistream-bench", ".conf");
+        config.deleteOnExit();
+        Files.write(config.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+        IBMiDotEnv.loadDotEnv(config);
+    }
+
+    @Benchmark
+    public byte[] transform() throws IOException {
+        final byte[] payload = m_payloads[m_next];
+        m_next = (m_next + 1) % m_payloads.length;
+        return m_transform.apply(payload);
+    }
+}
@@ -0,0 +1,150 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.kafka.KafkaComponent;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.kafka.clients.producer.Producer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * Publishes change payloads through a table's Camel route, or its {@link DirectKafkaForwarder}, to a Kafka producer
+ * that acknowledges every record at once, so the results are the daemon's own cost per change, without a broker or a
+ * system to read from.
+ * <ul>
+ * <li>{@link #route()} hands each payload to the publisher directly, as a consumer thread does.</li>
+ * <li>{@link #pipeline()} offers a block of payloads to an in-memory stand-in for the data queue and waits until
+ * all of them are acknowledged, through the same pump, consumer pool and metrics as the daemon's table routes.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RouteThroughputBenchmark {
+    private static final int PIPELINE_BLOCK = 1000;
+    private static final int PIPELINE_CONSUMERS = 4;
+    private static final String ROUTE_URI = "direct:bench";
+
+    @Param({ "1024", "8192", "61440" })
+    public int payloadBytes;
+
+    @Param({ "SINGLE", "BATCH" })
+    public String publishMode;
+
+    @Param({ "CAMEL", "DIRECT" })
+    public String forwarder;
+
+    private AppLogger m_logger;
+    private byte[][] m_payloads;
+    private String[] m_keys;
+    private int m_next = 0;
+    private DiscardingKafkaClientFactory m_clientFactory;
+    private IChangeHandler m_publisher;
+    private AutoCloseable m_closer;
+    private InMemoryChangeSource m_source;
+    private ChangeSourcePump m_pump;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_logger = AppLogger.getSingleton(false);
+        loadSettings();
+        final TriggerDescriptor trigger = new TriggerDescriptor("AISTREAM", "ZBENCH0001",
+                new TableDescriptor("BENCHLIB", "BENCHLIB", BenchmarkPayloads.TABLE_NAME, BenchmarkPayloads.TABLE_NAME));
+        final KafkaPublishSettings settings = KafkaPublishSettings.forTable(m_logger, new TableConfiguration(m_logger, trigger.getTableDescriptor()));
+
+        m_payloads = BenchmarkPayloads.rows(payloadBytes);
+        final PayloadKeyExtractor keyExtractor = new PayloadKeyExtractor(Collections.singletonList("ID"));
+        m_keys = new String[m_payloads.length];
+        for (int i = 0; i < m_payloads.length; i++) {
+            m_keys[i] = keyExtractor.extractKey(m_payloads[i]);
+        }
+
+        m_clientFactory = new DiscardingKafkaClientFactory();
+        if (settings.isDirect()) {
+            @SuppressWarnings("unchecked")
+            final Producer<String, byte[]> producer = m_clientFactory.getProducer(settings.getProducerProperties("localhost:9092"));
+            final DirectKafkaForwarder directForwarder = new DirectKafkaForwarder(m_logger, "bench", settings, producer);
+            m_publisher = directForwarder;
+            m_closer = directForwarder;
+        } else {
+            final DefaultCamelContext context = new DefaultCamelContext();
+            context.getComponent("kafka", KafkaComponent.class).setKafkaClientFactory(m_clientFactory);
+            context.addRoutes(new KafkaRouteBuilder(m_logger, ROUTE_URI, "aistream-bench", "bench", "localhost:9092", settings));
+            context.start();
+            final ProducerTemplate producer = context.createProducerTemplate();
+            m_publisher = entry -> KafkaRouteBuilder.send(producer, ROUTE_URI, entry.getData(), entry.getKey());
+            m_closer = context;
+        }
+
+        final TableMetrics metrics = new TableMetrics(trigger);
+        m_source = new InMemoryChangeSource("bench", PIPELINE_BLOCK * 2);
+        final ConsumerPool consumers = new ConsumerPool(m_logger, trigger.getTriggerId(),
+                new AcknowledgingChangeHandler(m_logger, m_source, metrics.instrument(m_publisher)),
+                PIPELINE_CONSUMERS, PIPELINE_CONSUMERS, 100, 500, 1000);
+        m_pump = new ChangeSourcePump(m_logger, m_source, keyExtractor, consumers, metrics);
+        m_pump.start();
+    }
+
+    /** Sets the publish mode and forwarder, with a short linger so a partial batch does not hold up a block */
+    private void loadSettings() throws IOException {
+        final File config = File.createTempFile("aistream-bench", ".conf");
+        config.deleteOnExit();
+        final String settings = "KAFKA_PUBLISH_MODE=" + publishMode + "\nKAFKA_FORWARDER=" + forwarder + "\nKAFKA_LINGER_MS=5\n";
+        Files.write(config.toPath(), settings.getBytes(StandardCharsets.UTF_8));
+        IBMiDotEnv.loadDotEnv(config);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        m_pump.stop();
+        m_closer.close();
+        m_pump.close();
+        m_logger.printfln_verbose("Published %d record(s), %d byte(s)", m_clientFactory.getRecords(), m_clientFactory.getBytes());
+    }
+
+    @Benchmark
+    public void route() throws Exception {
+        final int index = m_next;
+        m_next = (m_next + 1) % m_payloads.length;
+        m_publisher.handle(new ChangeEntry(m_payloads[index], m_keys[index]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_BLOCK)
+    public void pipeline() throws InterruptedException {
+        final long target = m_clientFactory.getRecords() + PIPELINE_BLOCK;
+        for (int i = 0; i < PIPELINE_BLOCK; i++) {
+            m_source.offer(m_payloads[m_next], Long.MAX_VALUE);
+            m_next = (m_next + 1) % m_payloads.length;
+        }
+        while (m_clientFactory.getRecords() < target) {
+            LockSupport.parkNanos(10000);
+        }
+    }
+}
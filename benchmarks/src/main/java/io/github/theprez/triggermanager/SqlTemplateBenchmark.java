@@ -0,0 +1,83 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the trigger templates with the values {@link TriggerManager} passes for a table of the given width.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlTemplateBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int columns;
+
+    private Map<String, Object> m_values;
+
+    @Setup
+    public void setUp() throws IOException {
+        final List<String> columnNames = new ArrayList<>();
+        for (int i = 0; i < columns; i++) {
+            columnNames.add("\"COLUMN" + i + "\"");
+        }
+        m_values = new HashMap<>();
+        m_values.put("LIBRARY", "AISTREAM");
+        m_values.put("TRIGGER_NAME", "ZBENCH0001");
+        m_values.put("SOURCE_SCHEMA", "BENCHLIB");
+        m_values.put("SOURCE_TABLE", BenchmarkPayloads.TABLE_NAME);
+        m_values.put("COLUMNS", columnNames);
+        m_values.put("KEY_COLUMNS", columnNames.subList(0, 1));
+        m_values.put("COMPACT_FORMAT_VERSION", CompactPayloadExpander.FORMAT_VERSION);
+        m_values.put("INCLUDE_BEFORE", true);
+        m_values.put("PAYLOAD_SIZE", 64512);
+        m_values.put("CHANGES_SIZE", 32768);
+        m_values.put("CHANGED_VALUE_SIZE", 4096);
+        m_values.put("LOCAL_PAYLOAD", false);
+        m_values.put("PAYLOAD", "AISTREAM.ZBENCH0001");
+        m_values.put("ROWS_PER_MESSAGE", 100);
+        m_values.put("DATA_QUEUE_NAME", "ZBENCH0001");
+        m_values.put("MAX_ENTRY_BYTES", 64512);
+        m_values.put("CHUNK_CHARACTERS", 16000);
+        m_values.put("WHEN_CONDITION", "inserting or updating or deleting");
+        // Parse the templates outside of the measurement, as the daemon does once per process
+        SqlTemplateProcessor.getTemplate("create.sql");
+        SqlTemplateProcessor.getTemplate("create_changes.sql");
+        SqlTemplateProcessor.getTemplate("create_statement.sql");
+    }
+
+    @Benchmark
+    public String create() throws IOException {
+        return SqlTemplateProcessor.getProcessed("create.sql", m_values);
+    }
+
+    @Benchmark
+    public String createChanges() throws IOException {
+        return SqlTemplateProcessor.getProcessed("create_changes.sql", m_values);
+    }
+
+    @Benchmark
+    public String createStatement() throws IOException {
+        return SqlTemplateProcessor.getProcessed("create_statement.sql", m_values);
+    }
+}
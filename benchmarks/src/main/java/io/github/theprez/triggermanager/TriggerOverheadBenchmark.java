@@ -0,0 +1,116 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400JDBCDataSource;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * The time a trigger adds to the statement that fires it: an UPDATE of 1 or 1000 rows of a scratch table with no
+ * trigger, and with a trigger of each {@link TriggerDescriptor.TriggerType}. Unlike the other benchmarks, this one needs
+ * an IBM i system, which it connects to with the AIStream configuration file named by the AISTREAM_CONFIG_FILE
+ * environment variable. The scratch table is created in the trigger manager library and dropped afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TriggerOverheadBenchmark {
+    private static final String TABLE_NAME = "AIBENCH";
+    private static final String NO_TRIGGER = "NONE";
+
+    @Param({ NO_TRIGGER, "ROW", "ROW_DIRECT", "STATEMENT" })
+    public String trigger;
+
+    @Param({ "1", "1000" })
+    public int rows;
+
+    private AS400 m_system;
+    private Connection m_connection;
+    private TriggerManager m_triggerManager;
+    private TriggerDescriptor m_trigger;
+    private String m_library;
+
+    @Setup
+    public void setUp() throws Exception {
+        final AppLogger logger = AppLogger.getSingleton(false);
+        final String configPath = IBMiDotEnv.getDotEnv().get(ITriggerConfigurationConstants.ENV_AISTREAM_CONFIG_FILE, "");
+        if (configPath.isEmpty()) {
+            throw new IllegalStateException("Set " + ITriggerConfigurationConstants.ENV_AISTREAM_CONFIG_FILE + " to the AIStream configuration file of an IBM i system");
+        }
+        IBMiDotEnv.loadDotEnv(new File(configPath));
+        m_library = IBMiDotEnv.getDotEnv().get(ITriggerConfigurationConstants.KEY_TRIGGER_MANAGER_LIBRARY, "triggerman").toUpperCase();
+        m_system = IBMiDotEnv.getCachedSystemConnection(true);
+        m_connection = new AS400JDBCDataSource(m_system).getConnection();
+        m_triggerManager = new TriggerManager(m_system, m_connection, m_library, logger, new CatalogCache(logger, null));
+
+        try (Statement stmt = m_connection.createStatement()) {
+            stmt.execute(String.format("CREATE OR REPLACE TABLE %s.%s (ID INTEGER NOT NULL PRIMARY KEY, NAME VARCHAR(50), BALANCE DECIMAL(11, 2), "
+                    + "UPDATED TIMESTAMP)", m_library, TABLE_NAME));
+            stmt.execute(String.format("INSERT INTO %s.%s SELECT X, 'Customer ' CONCAT X, X, CURRENT TIMESTAMP "
+                    + "FROM (SELECT ROW_NUMBER() OVER () AS X FROM QSYS2.SYSCOLUMNS FETCH FIRST %d ROWS ONLY) N", m_library, TABLE_NAME, rows));
+        }
+        if (!NO_TRIGGER.equals(trigger)) {
+            final Properties options = new Properties();
+            options.setProperty(TriggerManager.OPTION_TRIGGER_TYPE, trigger);
+            m_trigger = m_triggerManager.createTrigger(TableDescriptor.lookup(m_library, TABLE_NAME, m_connection), TriggerDescriptor.CaptureMode.TRIGGER,
+                    options);
+        }
+    }
+
+    /** Empties the trigger's data queue, so that it cannot fill up as nothing reads it */
+    @Setup(Level.Iteration)
+    public void clearDataQueue() throws SQLException {
+        if (null != m_trigger) {
+            try (Statement stmt = m_connection.createStatement()) {
+                stmt.execute(String.format("CALL QSYS2.QCMDEXC('QSYS/CLRDTAQ DTAQ(%s/%s)')", m_library, m_trigger.getDataQueueName()));
+            }
+        }
+    }
+
+    @Benchmark
+    public int update() throws SQLException {
+        try (Statement stmt = m_connection.createStatement()) {
+            return stmt.executeUpdate(String.format("UPDATE %s.%s SET BALANCE = BALANCE + 1, UPDATED = CURRENT TIMESTAMP", m_library, TABLE_NAME));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try {
+            if (null != m_trigger) {
+                m_triggerManager.deleteTrigger(m_trigger);
+            }
+            try (Statement stmt = m_connection.createStatement()) {
+                stmt.execute(String.format("DROP TABLE %s.%s", m_library, TABLE_NAME));
+            }
+        } finally {
+            m_connection.close();
+            m_system.disconnectAllServices();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.github.theprez.triggermanager;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Acknowledges each entry to its change source once Kafka has accepted it, as reported through
+ * {@link ChangeEntry#published()}. For an asynchronous send that happens on the producer's callback, after the entry
+ * has been handled. Entries from a source that keeps them until they are acknowledged (such as a
+ * {@link SpoolChangeSource}) are retried until they are handled, so a failure holds up the entry's consumer instead
+ * of losing the entry. An asynchronous send that fails is not acknowledged, so the source delivers the entry again
+ * when it is next opened. Other entries are handled once.
+ */
+class AcknowledgingChangeHandler implements IChangeHandler {
+    private static final long INITIAL_RETRY_MILLIS = 500;
+    private static final long MAX_RETRY_MILLIS = 30000;
+
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final IChangeHandler m_handler;
+
+    AcknowledgingChangeHandler(final AppLogger _logger, final IChangeSource _source, final IChangeHandler _handler) {
+        m_logger = _logger;
+        m_source = _source;
+        m_handler = _handler;
+    }
+
+    @Override
+    public void handle(final ChangeEntry _entry) throws Exception {
+        if (_entry.getPosition() < 0) {
+            m_handler.handle(_entry);
+            return;
+        }
+        final long position = _entry.getPosition();
+        final ChangeEntry entry = _entry.withPublishedListener(() -> m_source.acknowledge(position));
+        long retryMillis = INITIAL_RETRY_MILLIS;
+        while (true) {
+            try {
+                m_handler.handle(entry);
+                return;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                m_logger.printfln_err("ERROR: Failed to route entry from %s, retrying in %dms: %s", m_source.getDescription(), retryMillis,
+                        e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+                Thread.sleep(retryMillis);
+                retryMillis = Math.min(MAX_RETRY_MILLIS, retryMillis * 2);
+            }
+        }
+    }
+}
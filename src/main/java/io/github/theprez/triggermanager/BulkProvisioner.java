@@ -0,0 +1,125 @@
+package io.github.theprez.triggermanager;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400JDBCDataSource;
+
+/**
+ * Adds or removes many tables at once for the bulk ADD and REMOVE actions. The tables are shared out between a
+ * bounded number of worker threads, each with its own connection and {@link TriggerManager}, so the statements
+ * and CL commands for different tables run in parallel. A failure only affects its own table.
+ */
+class BulkProvisioner {
+
+    /** The outcome for one table */
+    static final class Result {
+        private final TableDescriptor m_table;
+        private final TriggerDescriptor m_trigger;
+        private final String m_error;
+
+        private Result(final TableDescriptor _table, final TriggerDescriptor _trigger, final String _error) {
+            m_table = _table;
+            m_trigger = _trigger;
+            m_error = _error;
+        }
+
+        TableDescriptor getTable() {
+            return m_table;
+        }
+
+        /** The trigger that was added or removed, or null if the table failed */
+        TriggerDescriptor getTrigger() {
+            return m_trigger;
+        }
+
+        /** Why the table failed, or null if it succeeded */
+        String getError() {
+            return m_error;
+        }
+    }
+
+    private interface Task {
+        TriggerDescriptor run(TriggerManager _manager, int _index) throws Exception;
+    }
+
+    private final AppLogger m_logger;
+    private final AS400 m_system;
+    private final String m_library;
+    private final int m_parallelism;
+    private final CatalogCache m_catalog;
+
+    /**
+     * @param _system      the signed-on system, copied for each worker's connection
+     * @param _parallelism the number of tables provisioned at the same time
+     * @param _catalog     the catalog cache shared by the workers
+     */
+    BulkProvisioner(final AppLogger _logger, final AS400 _system, final String _library, final int _parallelism, final CatalogCache _catalog) {
+        m_logger = _logger;
+        m_system = _system;
+        m_library = _library;
+        m_parallelism = Math.max(1, _parallelism);
+        m_catalog = _catalog;
+    }
+
+    /**
+     * @param _triggerIds one trigger ID per table, as reserved by {@link TriggerManager#getUniqueTriggerNames(int)}
+     */
+    List<Result> add(final List<TableDescriptor> _tables, final List<String> _triggerIds, final TriggerDescriptor.CaptureMode _mode,
+            final Properties _options) throws InterruptedException {
+        return run(_tables, (manager, index) -> manager.createTrigger(_tables.get(index), _mode, _options, _triggerIds.get(index)));
+    }
+
+    /**
+     * @param _triggers the triggers of the tables to remove, as returned by {@link TriggerManager#listTriggers()}
+     */
+    List<Result> remove(final List<TriggerDescriptor> _triggers) throws InterruptedException {
+        final List<TableDescriptor> tables = new ArrayList<>(_triggers.size());
+        for (final TriggerDescriptor trigger : _triggers) {
+            tables.add(trigger.getTableDescriptor());
+        }
+        return run(tables, (manager, index) -> manager.deleteTrigger(_triggers.get(index)));
+    }
+
+    private List<Result> run(final List<TableDescriptor> _tables, final Task _task) throws InterruptedException {
+        final Result[] results = new Result[_tables.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(m_parallelism, _tables.size()); i++) {
+            final Thread worker = new Thread(() -> {
+                try (AS400 system = new AS400(m_system);
+                        Connection connection = new AS400JDBCDataSource(system).getConnection()) {
+                    final TriggerManager manager = new TriggerManager(system, connection, m_library, m_logger, m_catalog);
+                    for (int index; (index = next.getAndIncrement()) < results.length;) {
+                        try {
+                            results[index] = new Result(_tables.get(index), _task.run(manager, index), null);
+                        } catch (Exception e) {
+                            m_logger.printExceptionStack_verbose(e);
+                            results[index] = new Result(_tables.get(index), null, e.getLocalizedMessage());
+                        }
+                        m_logger.printfln_verbose("[%d/%d] %s", done.incrementAndGet(), results.length, _tables.get(index));
+                    }
+                } catch (Exception e) {
+                    // Without a connection this worker cannot take any tables, the others carry on
+                    m_logger.printfln_err("ERROR: Unable to connect bulk worker: %s", e.getLocalizedMessage());
+                }
+            }, "AIStream-bulk-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final List<Result> ret = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            ret.add((null == results[i]) ? new Result(_tables.get(i), null, "No worker was able to connect") : results[i]);
+        }
+        return ret;
+    }
+}
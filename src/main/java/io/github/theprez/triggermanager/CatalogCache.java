@@ -0,0 +1,261 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Caches resolved tables with their column and key column lists, so repeated lookups do not go back to the
+ * catalog. An entry is checked against the table's LAST_ALTERED_TIMESTAMP in SYSTABLES before it is used (at most
+ * once per {@link #REVALIDATE_MILLIS}), and read from the catalog again if the table has been altered or dropped.
+ * <p>
+ * The cache is thread safe and shared by the CLI, the bulk workers and the daemon. If CATALOG_CACHE_FILE is set it
+ * is loaded from and saved to that file, so that each CLI invocation does not start cold.
+ * <p>
+ * Triggers are not cached: a stale answer to whether a table is monitored could create a second trigger.
+ */
+final class CatalogCache implements ITriggerConfigurationConstants {
+    /** How long a validated entry is trusted before its timestamp is checked again */
+    static final long REVALIDATE_MILLIS = 60000;
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String LOOKUP_PREFIX = "lookup.";
+    private static final String TABLE_PREFIX = "table.";
+
+    private static final class Entry {
+        private final TableDescriptor m_table;
+        private volatile List<String> m_columns;
+        private volatile List<String> m_keyColumns;
+        private volatile long m_validatedMillis;
+
+        private Entry(final TableDescriptor _table, final long _validatedMillis) {
+            m_table = _table;
+            m_validatedMillis = _validatedMillis;
+        }
+    }
+
+    private final AppLogger m_logger;
+    private final File m_file;
+    // Entries by system schema and system table name
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<>();
+    // System table keys by the schema and table names as they were looked up
+    private final Map<String, String> m_lookups = new ConcurrentHashMap<>();
+    private volatile boolean m_dirty = false;
+
+    /**
+     * @param _file the file the cache is persisted to, or null to keep it in memory only
+     */
+    CatalogCache(final AppLogger _logger, final File _file) {
+        m_logger = _logger;
+        m_file = _file;
+        if (null != m_file && m_file.isFile()) {
+            load();
+        }
+    }
+
+    /** Creates the cache, persisted to CATALOG_CACHE_FILE if that is set */
+    static CatalogCache open(final AppLogger _logger) {
+        final String path = TableConfiguration.daemonWide(_logger).get(KEY_CATALOG_CACHE_FILE, null);
+        return new CatalogCache(_logger, (null == path) ? null : new File(path));
+    }
+
+    /** Looks up a table by its SQL or system schema and table names, as {@link TableDescriptor#lookup} does */
+    TableDescriptor lookup(final Connection _conn, final String _schema, final String _table) throws SQLException {
+        final String lookupKey = _schema + FIELD_SEPARATOR + _table;
+        final String key = m_lookups.get(lookupKey);
+        final Entry cached = (null == key) ? null : validated(_conn, m_entries.get(key));
+        if (null != cached) {
+            return cached.m_table;
+        }
+        final TableDescriptor ret = TableDescriptor.lookup(_schema, _table, _conn);
+        if (null != ret) {
+            put(ret);
+            m_lookups.put(lookupKey, keyOf(ret));
+            m_dirty = true;
+        }
+        return ret;
+    }
+
+    /** Adds a table that was just read from the catalog, such as by {@link TableDescriptor#lookupAll} */
+    void put(final TableDescriptor _table) {
+        if (null == _table.getLastAltered()) {
+            return;
+        }
+        final Entry existing = m_entries.get(keyOf(_table));
+        if (null != existing && _table.getLastAltered().equals(existing.m_table.getLastAltered())) {
+            existing.m_validatedMillis = System.currentTimeMillis();
+            return;
+        }
+        m_entries.put(keyOf(_table), new Entry(_table, System.currentTimeMillis()));
+        m_dirty = true;
+    }
+
+    /** The delimited names of all of the table's columns, in column order */
+    List<String> getColumnNames(final Connection _conn, final TableDescriptor _table) throws SQLException {
+        final Entry entry = entryFor(_conn, _table);
+        if (null != entry && null != entry.m_columns) {
+            return entry.m_columns;
+        }
+        final List<String> ret = Collections.unmodifiableList(new ArrayList<>(_table.getColumnNames(_conn)));
+        if (null != entry) {
+            entry.m_columns = ret;
+            m_dirty = true;
+        }
+        return ret;
+    }
+
+    /** The delimited names of the table's primary or unique key columns, in key order, see {@link TableDescriptor#getKeyColumns} */
+    List<String> getKeyColumns(final Connection _conn, final TableDescriptor _table) throws SQLException {
+        final Entry entry = entryFor(_conn, _table);
+        if (null != entry && null != entry.m_keyColumns) {
+            return entry.m_keyColumns;
+        }
+        final List<String> ret = Collections.unmodifiableList(new ArrayList<>(_table.getKeyColumns(_conn)));
+        if (null != entry) {
+            entry.m_keyColumns = ret;
+            m_dirty = true;
+        }
+        return ret;
+    }
+
+    /** The valid entry for the table, creating one if needed, or null if the table's timestamp cannot be read */
+    private Entry entryFor(final Connection _conn, final TableDescriptor _table) throws SQLException {
+        final Entry cached = validated(_conn, m_entries.get(keyOf(_table)));
+        if (null != cached) {
+            return cached;
+        }
+        final Timestamp lastAltered = readLastAltered(_conn, _table);
+        if (null == lastAltered) {
+            return null;
+        }
+        final Entry ret = new Entry(new TableDescriptor(_table.getSchema(), _table.getSystemSchema(), _table.getName(), _table.getSystemName(), lastAltered),
+                System.currentTimeMillis());
+        m_entries.put(keyOf(_table), ret);
+        m_dirty = true;
+        return ret;
+    }
+
+    /** Returns the entry if it is still current, removing it otherwise */
+    private Entry validated(final Connection _conn, final Entry _entry) throws SQLException {
+        if (null == _entry) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - _entry.m_validatedMillis < REVALIDATE_MILLIS) {
+            return _entry;
+        }
+        final Timestamp lastAltered = readLastAltered(_conn, _entry.m_table);
+        if (null != lastAltered && lastAltered.equals(_entry.m_table.getLastAltered())) {
+            _entry.m_validatedMillis = now;
+            return _entry;
+        }
+        m_logger.printfln_verbose("Table %s has changed since it was cached", _entry.m_table);
+        m_entries.remove(keyOf(_entry.m_table), _entry);
+        m_dirty = true;
+        return null;
+    }
+
+    private static Timestamp readLastAltered(final Connection _conn, final TableDescriptor _table) throws SQLException {
+        try (PreparedStatement stmt = _conn.prepareStatement(
+                "SELECT LAST_ALTERED_TIMESTAMP FROM QSYS2.SYSTABLES WHERE SYSTEM_TABLE_SCHEMA = ? AND SYSTEM_TABLE_NAME = ?")) {
+            stmt.setString(1, _table.getSystemSchema());
+            stmt.setString(2, _table.getSystemName());
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getTimestamp(1) : null;
+        }
+    }
+
+    private static String keyOf(final TableDescriptor _table) {
+        return _table.getSystemSchema().trim() + "/" + _table.getSystemName().trim();
+    }
+
+    /** Writes the cache to its file, if it has one and anything has changed */
+    synchronized void save() {
+        if (null == m_file || !m_dirty) {
+            return;
+        }
+        m_dirty = false;
+        final Properties props = new Properties();
+        for (final Map.Entry<String, String> lookup : m_lookups.entrySet()) {
+            if (m_entries.containsKey(lookup.getValue())) {
+                props.setProperty(LOOKUP_PREFIX + lookup.getKey(), lookup.getValue());
+            }
+        }
+        for (final Map.Entry<String, Entry> entry : m_entries.entrySet()) {
+            final TableDescriptor table = entry.getValue().m_table;
+            props.setProperty(TABLE_PREFIX + entry.getKey(), String.join(String.valueOf(FIELD_SEPARATOR), table.getSchema(), table.getSystemSchema(),
+                    table.getName(), table.getSystemName(), table.getLastAltered().toString(), joinColumns(entry.getValue().m_columns),
+                    joinColumns(entry.getValue().m_keyColumns)));
+        }
+        try {
+            final File dir = m_file.getAbsoluteFile().getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory " + dir.getPath());
+            }
+            final File temp = File.createTempFile(m_file.getName(), ".tmp", dir);
+            try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                props.store(out, "AIStream catalog cache");
+            }
+            Files.move(temp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            m_logger.printfln_warn("Warning: Unable to save catalog cache to %s: %s", m_file.getPath(), e.getLocalizedMessage());
+        }
+    }
+
+    private void load() {
+        final Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(m_file.toPath())) {
+            props.load(in);
+        } catch (IOException e) {
+            m_logger.printfln_warn("Warning: Unable to load catalog cache from %s: %s", m_file.getPath(), e.getLocalizedMessage());
+            return;
+        }
+        for (final String name : props.stringPropertyNames()) {
+            if (name.startsWith(LOOKUP_PREFIX)) {
+                m_lookups.put(name.substring(LOOKUP_PREFIX.length()), props.getProperty(name));
+            } else if (name.startsWith(TABLE_PREFIX)) {
+                final String[] fields = props.getProperty(name).split(String.valueOf(FIELD_SEPARATOR), -1);
+                if (7 != fields.length) {
+                    continue;
+                }
+                try {
+                    // Loaded entries are checked against the catalog before their first use
+                    final Entry entry = new Entry(new TableDescriptor(fields[0], fields[1], fields[2], fields[3], Timestamp.valueOf(fields[4])), 0);
+                    entry.m_columns = splitColumns(fields[5]);
+                    entry.m_keyColumns = splitColumns(fields[6]);
+                    m_entries.put(name.substring(TABLE_PREFIX.length()), entry);
+                } catch (IllegalArgumentException e) {
+                    m_logger.printfln_verbose("Ignoring malformed catalog cache entry %s", name);
+                }
+            }
+        }
+        m_logger.printfln_verbose("Loaded %d table(s) from catalog cache %s", m_entries.size(), m_file.getPath());
+    }
+
+    // A list that was never read is saved as a lone "-", so it can be told apart from an empty key list
+    private static String joinColumns(final List<String> _columns) {
+        return (null == _columns) ? "-" : String.join(",", _columns);
+    }
+
+    private static List<String> splitColumns(final String _text) {
+        if ("-".equals(_text)) {
+            return null;
+        }
+        return Collections.unmodifiableList(new ArrayList<>(TriggerManager.splitColumns(_text)));
+    }
+}
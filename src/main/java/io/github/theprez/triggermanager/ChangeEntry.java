@@ -0,0 +1,110 @@
+package io.github.theprez.triggermanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single captured change on its way from a change source to Kafka.
+ */
+final class ChangeEntry {
+    private final byte[] m_data;
+    private final String m_key;
+    private final long m_receivedNanos;
+    private final long m_position;
+    // Run once Kafka has accepted the entry, or null if nothing waits for that
+    private final Runnable m_onPublished;
+    // Whether the entry goes to every partition of the topic, in order with the entries of every key
+    private final boolean m_broadcast;
+
+    ChangeEntry(final byte[] _data, final String _key) {
+        this(_data, _key, -1);
+    }
+
+    ChangeEntry(final byte[] _data, final String _key, final long _position) {
+        this(_data, _key, _position, System.nanoTime(), null, false);
+    }
+
+    private ChangeEntry(final byte[] _data, final String _key, final long _position, final long _receivedNanos, final Runnable _onPublished,
+            final boolean _broadcast) {
+        m_data = _data;
+        m_key = _key;
+        m_receivedNanos = _receivedNanos;
+        m_position = _position;
+        m_onPublished = _onPublished;
+        m_broadcast = _broadcast;
+    }
+
+    /** The same entry with a different payload, such as one reshaped by a {@link PayloadTransform} */
+    ChangeEntry withData(final byte[] _data) {
+        return new ChangeEntry(_data, m_key, m_position, m_receivedNanos, m_onPublished, m_broadcast);
+    }
+
+    /** The same entry, running the given listener from {@link #published()} */
+    ChangeEntry withPublishedListener(final Runnable _onPublished) {
+        return new ChangeEntry(m_data, m_key, m_position, m_receivedNanos, _onPublished, m_broadcast);
+    }
+
+    /**
+     * The same entry, to be sent to every partition of the topic rather than to the one its key hashes to, after
+     * every entry dispatched before it and before every entry dispatched after it. Used for snapshot watermarks.
+     */
+    ChangeEntry asBroadcast() {
+        return new ChangeEntry(m_data, m_key, m_position, m_receivedNanos, m_onPublished, true);
+    }
+
+    /** Whether the entry goes to every partition (see {@link #asBroadcast()}) */
+    boolean isBroadcast() {
+        return m_broadcast;
+    }
+
+    /**
+     * The same entry, for a publisher that sends it as several records: {@link #published()} must be called once for
+     * each of them before this entry is reported as published.
+     */
+    ChangeEntry publishedAfter(final int _records) {
+        if (null == m_onPublished || 1 == _records) {
+            return this;
+        }
+        final AtomicInteger remaining = new AtomicInteger(_records);
+        final Runnable onPublished = m_onPublished;
+        return withPublishedListener(() -> {
+            if (0 == remaining.decrementAndGet()) {
+                onPublished.run();
+            }
+        });
+    }
+
+    /** Whether anything waits for {@link #published()}, so a publisher needs to report it */
+    boolean hasPublishedListener() {
+        return null != m_onPublished;
+    }
+
+    /**
+     * Reports that Kafka has accepted the entry, or that it was dropped on purpose and will never be published. A
+     * publisher that sends asynchronously reports it from the producer's completion callback, and only on success.
+     */
+    void published() {
+        if (null != m_onPublished) {
+            m_onPublished.run();
+        }
+    }
+
+    /** The UTF-8 payload */
+    byte[] getData() {
+        return m_data;
+    }
+
+    /** The row key (see {@link PayloadKeyExtractor}), or null if the row key is not known */
+    String getKey() {
+        return m_key;
+    }
+
+    /** The entry's position in its source, for {@link IChangeSource#acknowledge(long)}, or -1 if not tracked */
+    long getPosition() {
+        return m_position;
+    }
+
+    /** The {@link System#nanoTime()} at which the entry was read from its source */
+    long getReceivedNanos() {
+        return m_receivedNanos;
+    }
+}
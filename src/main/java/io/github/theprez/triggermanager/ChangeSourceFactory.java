@@ -0,0 +1,146 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Creates the {@link IChangeSource} that the daemon reads a monitored table's changes from, as selected by the
+ * CHANGE_SOURCE property. Journal-captured tables are read from their journal instead of a data queue, and tables
+ * whose trigger sends to a shared data queue are read from it by key.
+ */
+class ChangeSourceFactory implements ITriggerConfigurationConstants {
+
+    enum SourceType {
+        /** The data queue populated by the table's trigger */
+        DTAQ,
+        /** A file of captured payloads, replayed at a configurable rate */
+        REPLAY
+    }
+
+    private static final int DEFAULT_JOURNAL_FETCH_SIZE = 500;
+    private static final long DEFAULT_CHUNK_TIMEOUT_MS = 600000;
+    private static final int DEFAULT_SPOOL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_SPOOL_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private final AppLogger m_logger;
+    private final SystemConnectionPool m_connectionPool;
+    private final TriggerManager m_triggerManager;
+    private final Map<String, SharedDataQueue> m_sharedDataQueues = new HashMap<>();
+
+    ChangeSourceFactory(final AppLogger _logger, final SystemConnectionPool _connectionPool, final TriggerManager _triggerManager) {
+        m_logger = _logger;
+        m_connectionPool = _connectionPool;
+        m_triggerManager = _triggerManager;
+    }
+
+    IChangeSource create(final TriggerDescriptor _trigger, final TableConfiguration _config) throws IOException {
+        IChangeSource source = createSource(_trigger, _config);
+        if (TriggerDescriptor.CaptureMode.TRIGGER == _trigger.getCaptureMode()) {
+            // Payloads too large for one data queue entry arrive in chunks
+            final File spoolDir = new File(_config.get(KEY_CHUNK_SPOOL_DIR, new File(System.getProperty("java.io.tmpdir"), "aistream-chunks").getPath()),
+                    _trigger.getTriggerId());
+            source = new ChunkAssemblingChangeSource(m_logger, source, spoolDir, _config.getLong(KEY_CHUNK_TIMEOUT_MS, DEFAULT_CHUNK_TIMEOUT_MS));
+            if (TriggerDescriptor.TriggerType.STATEMENT == _trigger.getTriggerType()) {
+                // Each message from a statement trigger holds several rows
+                source = new MultiRowPayloadChangeSource(m_logger, source);
+            }
+        }
+        if (TriggerDescriptor.PayloadFormat.COMPACT == _trigger.getPayloadFormat() && _config.getBoolean(KEY_COMPACT_PAYLOAD_EXPAND, true)) {
+            final List<String> columns = TriggerManager.splitColumns(_trigger.getOptions().getProperty(TriggerManager.OPTION_CAPTURED_COLUMNS));
+            if (columns.isEmpty()) {
+                source.close();
+                throw new IOException("No captured columns recorded for " + _trigger);
+            }
+            source = new CompactPayloadChangeSource(m_logger, source, new CompactPayloadExpander(_trigger.getTableDescriptor().getName(), columns));
+        }
+        if (_config.getBoolean(KEY_SPOOL, false)) {
+            final File spoolDir = new File(_config.get(KEY_SPOOL_DIR, new File(System.getProperty("java.io.tmpdir"), "aistream-spool").getPath()),
+                    _trigger.getTriggerId());
+            source = new SpoolChangeSource(m_logger, source, spoolDir, _config.getInt(KEY_SPOOL_SEGMENT_BYTES, DEFAULT_SPOOL_SEGMENT_BYTES),
+                    _config.getLong(KEY_SPOOL_MAX_BYTES, DEFAULT_SPOOL_MAX_BYTES));
+        }
+        return source;
+    }
+
+    private IChangeSource createSource(final TriggerDescriptor _trigger, final TableConfiguration _config) throws IOException {
+        final String typeValue = _config.get(KEY_CHANGE_SOURCE, SourceType.DTAQ.name());
+        final SourceType type;
+        try {
+            type = SourceType.valueOf(typeValue.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(String.format("Invalid value '%s' for property '%s'", typeValue, KEY_CHANGE_SOURCE));
+        }
+        switch (type) {
+            case REPLAY:
+                final String replayDir = _config.get(KEY_CHANGE_SOURCE_REPLAY_DIR, null);
+                if (null == replayDir) {
+                    throw new IOException(String.format("Property '%s' is required when '%s' is %s", KEY_CHANGE_SOURCE_REPLAY_DIR, KEY_CHANGE_SOURCE, type));
+                }
+                final File journalFile = new File(replayDir, _trigger.getTriggerId() + ".journal.jsonl");
+                if (TriggerDescriptor.CaptureMode.JOURNAL == _trigger.getCaptureMode() && journalFile.isFile()) {
+                    // Recorded journal entries go through the same decoding as entries read from the journal
+                    final RecordedJournalReader reader = new RecordedJournalReader(journalFile);
+                    final JournalRecordLayout layout = (null == reader.getLayout()) ? getRecordLayout(_trigger) : projected(reader.getLayout(), _trigger);
+                    return new JournalChangeSource(reader, layout, _trigger.getTableDescriptor(), getJournalFetchSize(_config));
+                }
+                final File captureFile = new File(replayDir, _trigger.getTriggerId() + ".jsonl");
+                if (!captureFile.isFile()) {
+                    throw new IOException("Capture file not found: " + captureFile.getPath());
+                }
+                return new FileReplayChangeSource(captureFile,
+                        _config.getLong(KEY_CHANGE_SOURCE_REPLAY_RATE, 0),
+                        _config.getBoolean(KEY_CHANGE_SOURCE_REPLAY_LOOP, false));
+            case DTAQ:
+            default:
+                if (TriggerDescriptor.CaptureMode.JOURNAL == _trigger.getCaptureMode()) {
+                    final DisplayJournalReader reader = new DisplayJournalReader(m_triggerManager.getSystem(), m_triggerManager.getRegistry(), _trigger);
+                    return new JournalChangeSource(reader, getRecordLayout(_trigger), _trigger.getTableDescriptor(), getJournalFetchSize(_config));
+                }
+                if (_trigger.isSharedDataQueue()) {
+                    return getSharedDataQueue(_trigger).open(_trigger.getTriggerId());
+                }
+                return new DataQueueChangeSource(m_connectionPool, _trigger.getLibrary(), _trigger.getTriggerId(), DataQueueWaitSettings.forTable(_config));
+        }
+    }
+
+    /** The shared data queues are watched by one thread each, however many of their tables are routed */
+    private synchronized SharedDataQueue getSharedDataQueue(final TriggerDescriptor _trigger) {
+        final String path = _trigger.getLibrary() + "/" + _trigger.getDataQueueName();
+        SharedDataQueue ret = m_sharedDataQueues.get(path);
+        if (null == ret) {
+            ret = new SharedDataQueue(m_logger, m_triggerManager.getSystem(), m_connectionPool, _trigger.getLibrary(), _trigger.getDataQueueName(),
+                    DataQueueWaitSettings.forTable(TableConfiguration.daemonWide(m_logger)));
+            m_sharedDataQueues.put(path, ret);
+        }
+        return ret;
+    }
+
+    private JournalRecordLayout getRecordLayout(final TriggerDescriptor _trigger) throws IOException {
+        try {
+            return projected(JournalRecordLayout.fromCatalog(m_triggerManager.getConnection(), _trigger.getTableDescriptor()), _trigger);
+        } catch (SQLException e) {
+            throw new IOException("Error reading record layout of " + _trigger.getTableDescriptor() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /** Applies the column options the table was added with */
+    private static JournalRecordLayout projected(final JournalRecordLayout _layout, final TriggerDescriptor _trigger) throws IOException {
+        final List<String> allColumns = new ArrayList<>();
+        for (final JournalRecordLayout.Column column : _layout.getColumns()) {
+            allColumns.add(column.getName());
+        }
+        return _layout.withCapturedColumns(TriggerManager.selectColumns(allColumns, _trigger.getOptions()));
+    }
+
+    private static int getJournalFetchSize(final TableConfiguration _config) {
+        return _config.getInt(KEY_JOURNAL_FETCH_SIZE, DEFAULT_JOURNAL_FETCH_SIZE);
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Reads entries from an {@link IChangeSource} on a dedicated thread and dispatches each one, by row key, to the
+ * table's {@link ConsumerPool}, counting the entries read in the table's {@link TableMetrics}.
+ */
+class ChangeSourcePump implements Runnable {
+    // Long enough for a data queue source to wait on the host for its full DTAQ_WAIT_MS
+    private static final int READ_WAIT_MILLIS = 10000;
+    private static final long ERROR_RETRY_MILLIS = 5000;
+
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final PayloadKeyExtractor m_keyExtractor;
+    private final ConsumerPool m_consumers;
+    private final TableMetrics m_metrics;
+    private volatile boolean m_stopped = false;
+    private Thread m_thread;
+
+    ChangeSourcePump(final AppLogger _logger, final IChangeSource _source, final PayloadKeyExtractor _keyExtractor, final ConsumerPool _consumers,
+            final TableMetrics _metrics) {
+        m_logger = _logger;
+        m_source = _source;
+        m_keyExtractor = _keyExtractor;
+        m_consumers = _consumers;
+        m_metrics = _metrics;
+        m_metrics.attach(_consumers);
+    }
+
+    synchronized void start() {
+        m_consumers.start();
+        m_thread = DaemonThreads.newThread(this, "AIStream-" + m_source.getDescription());
+        m_thread.start();
+    }
+
+    /** Stops reading and waits for the entries already read to be handed to the publisher */
+    synchronized void stop() throws InterruptedException {
+        m_stopped = true;
+        if (null != m_thread) {
+            m_thread.interrupt();
+            m_thread.join();
+        }
+        m_consumers.stop();
+    }
+
+    /**
+     * Closes the change source. Called once the publisher has been closed too, so the entries it still held have been
+     * acknowledged before the source records its position.
+     */
+    synchronized void close() {
+        try {
+            m_source.close();
+        } catch (IOException e) {
+            m_logger.printfln_verbose("Error closing %s: %s", m_source.getDescription(), e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!m_stopped) {
+            try {
+                dispatch(m_source.read(READ_WAIT_MILLIS));
+                final int depth = m_source.getDepth();
+                m_metrics.recordBuffered(depth);
+                m_consumers.rescaleIfNeeded(depth);
+            } catch (InterruptedException e) {
+                dispatchReadAhead();
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                m_logger.printfln_err("ERROR: %s", e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+                try {
+                    Thread.sleep(ERROR_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    dispatchReadAhead();
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        dispatchReadAhead();
+    }
+
+    private void dispatch(final byte[] _entry) throws InterruptedException {
+        if (null != _entry) {
+            m_metrics.recordRead();
+            final String key = m_keyExtractor.extractKey(_entry);
+            final ChangeEntry entry = new ChangeEntry(_entry, key, m_source.getLastReadPosition());
+            m_consumers.dispatch(null == key && m_keyExtractor.isWatermark(_entry) ? entry.asBroadcast() : entry);
+        }
+    }
+
+    /** Hands on the entries the source has already taken from its queue, which would be lost once it is closed */
+    private void dispatchReadAhead() {
+        if (!m_stopped || 0 == m_source.getReadAhead()) {
+            return;
+        }
+        // The consumers are still running, and are only stopped once this thread has ended
+        Thread.interrupted();
+        try {
+            while (0 < m_source.getReadAhead()) {
+                dispatch(m_source.read(0));
+            }
+        } catch (IOException | InterruptedException e) {
+            m_logger.printfln_err("ERROR: Unable to forward the entries read ahead from %s: %s", m_source.getDescription(), e.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Reassembles payloads that the trigger was too large to send in one data queue entry (see send_payload.sql).
+ * Each chunk entry starts with a header of <code>#&lt;chunk id&gt;:&lt;index&gt;:&lt;count&gt;:</code>. The chunks of
+ * one payload arrive in order, but can be interleaved with other entries, including chunks of other payloads.
+ * <p>
+ * Chunks are appended to a spool file as they arrive, so partially received payloads do not occupy the heap.
+ * A payload is only read into memory once all of its chunks have arrived. Chunks are taken off the data queue as
+ * they are read, so after each chunk an index file beside the spool file records the chunk ID, the next index, the
+ * count and the length of the chunks received. Partial payloads are kept when the source is closed, and resumed from
+ * their index files when it is next opened. They are only discarded if the rest of their chunks do not arrive in
+ * time.
+ */
+class ChunkAssemblingChangeSource implements IChangeSource {
+    private static final byte CHUNK_MARKER = '#';
+    private static final String PART_SUFFIX = ".part";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final class PartialPayload {
+        private final String m_id;
+        private final File m_file;
+        private final File m_indexFile;
+        private final FileChannel m_channel;
+        private final int m_count;
+        private int m_nextIndex = 0;
+        private long m_lastChunkMillis = System.currentTimeMillis();
+
+        /** Starts a payload, replacing any earlier one with the same ID */
+        private PartialPayload(final String _id, final int _count) throws IOException {
+            m_id = _id;
+            m_file = new File(m_spoolDir, _id + PART_SUFFIX);
+            m_indexFile = new File(m_spoolDir, _id + INDEX_SUFFIX);
+            m_channel = FileChannel.open(m_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            m_count = _count;
+        }
+
+        /** Resumes a payload left by a previous run, dropping anything written after its index was last saved */
+        private PartialPayload(final String _id, final int _nextIndex, final int _count, final long _length) throws IOException {
+            m_id = _id;
+            m_file = new File(m_spoolDir, _id + PART_SUFFIX);
+            m_indexFile = new File(m_spoolDir, _id + INDEX_SUFFIX);
+            if (m_file.length() < _length) {
+                throw new IOException(String.format("%s is shorter than its index records", m_file.getPath()));
+            }
+            m_channel = FileChannel.open(m_file.toPath(), StandardOpenOption.WRITE);
+            m_channel.truncate(_length);
+            m_channel.position(_length);
+            m_count = _count;
+            m_nextIndex = _nextIndex;
+        }
+
+        private void append(final byte[] _data, final int _offset, final int _length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(_data, _offset, _length);
+            while (buffer.hasRemaining()) {
+                m_channel.write(buffer);
+            }
+            m_nextIndex++;
+            m_lastChunkMillis = System.currentTimeMillis();
+            if (m_nextIndex < m_count) {
+                saveIndex();
+            }
+        }
+
+        /** Records the chunks received so far, replacing the index file in one step */
+        private void saveIndex() throws IOException {
+            final File temp = new File(m_spoolDir, m_id + INDEX_SUFFIX + ".tmp");
+            final String index = String.format("%s %d %d %d", m_id, m_nextIndex, m_count, m_channel.position());
+            Files.write(temp.toPath(), index.getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp.toPath(), m_indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /** Closes the spool file, which is kept with its index so that the payload can be resumed */
+        private void close() {
+            try {
+                m_channel.close();
+            } catch (IOException e) {
+                m_logger.printfln_warn("Warning: Unable to close %s: %s", m_file.getPath(), e.getLocalizedMessage());
+            }
+        }
+
+        private void discard() {
+            close();
+            delete(m_indexFile);
+            delete(m_file);
+        }
+    }
+
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final File m_spoolDir;
+    private final long m_timeoutMillis;
+    private final Map<String, PartialPayload> m_partials = new HashMap<>();
+
+    /**
+     * @param _spoolDir      the directory for this source's partial payloads, which is created if needed
+     * @param _timeoutMillis how long to wait for the next chunk of a payload before discarding it
+     */
+    ChunkAssemblingChangeSource(final AppLogger _logger, final IChangeSource _source, final File _spoolDir, final long _timeoutMillis) throws IOException {
+        m_logger = _logger;
+        m_source = _source;
+        m_spoolDir = _spoolDir;
+        m_timeoutMillis = _timeoutMillis;
+        if (!m_spoolDir.isDirectory() && !m_spoolDir.mkdirs()) {
+            throw new IOException("Unable to create chunk spool directory " + m_spoolDir.getPath());
+        }
+        resumePartialPayloads();
+    }
+
+    /** Picks up the partial payloads left by a previous run, whose remaining chunks are still to be read */
+    private void resumePartialPayloads() {
+        final File[] indexes = m_spoolDir.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        for (final File indexFile : (null == indexes) ? new File[0] : indexes) {
+            final String name = indexFile.getName();
+            final String id = name.substring(0, name.length() - INDEX_SUFFIX.length());
+            try {
+                final String[] index = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.US_ASCII).trim().split(" ");
+                if (4 != index.length || !id.equals(index[0])) {
+                    throw new IOException("Malformed index file " + indexFile.getPath());
+                }
+                final int nextIndex = Integer.parseInt(index[1]);
+                final int count = Integer.parseInt(index[2]);
+                if (nextIndex <= 0 || nextIndex >= count) {
+                    throw new IOException("Malformed index file " + indexFile.getPath());
+                }
+                final PartialPayload partial = new PartialPayload(id, nextIndex, count, Long.parseLong(index[3]));
+                m_partials.put(id, partial);
+                m_logger.printfln_verbose("Resuming chunked payload %s for %s: %d of %d chunks arrived", id, m_source.getDescription(), partial.m_nextIndex,
+                        partial.m_count);
+            } catch (IOException | NumberFormatException e) {
+                m_logger.printfln_warn("Warning: Discarding incomplete chunked payload %s for %s: %s", id, m_source.getDescription(), e.getLocalizedMessage());
+                delete(indexFile);
+                delete(new File(m_spoolDir, id + PART_SUFFIX));
+            }
+        }
+        // A spool file without an index never had its first chunk recorded
+        final File[] leftovers = m_spoolDir.listFiles((dir, name) -> name.endsWith(PART_SUFFIX) || name.endsWith(INDEX_SUFFIX + ".tmp"));
+        for (final File leftover : (null == leftovers) ? new File[0] : leftovers) {
+            final String name = leftover.getName();
+            if (!name.endsWith(PART_SUFFIX) || !m_partials.containsKey(name.substring(0, name.length() - PART_SUFFIX.length()))) {
+                delete(leftover);
+            }
+        }
+    }
+
+    private static void delete(final File _file) {
+        if (_file.exists() && !_file.delete()) {
+            _file.deleteOnExit();
+        }
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + Math.max(0, _waitMillis);
+        do {
+            discardStalePayloads();
+            final byte[] entry = m_source.read((int) Math.max(0, deadline - System.currentTimeMillis()));
+            if (null == entry) {
+                return null;
+            }
+            if (0 == entry.length || CHUNK_MARKER != entry[0]) {
+                return entry;
+            }
+            final byte[] payload = addChunk(entry);
+            if (null != payload) {
+                return payload;
+            }
+        } while (System.currentTimeMillis() < deadline);
+        return null;
+    }
+
+    /** Adds the chunk to its payload, returning the payload once it is complete */
+    private byte[] addChunk(final byte[] _entry) throws IOException {
+        // Header fields are ASCII, so they can be located byte by byte
+        final int idEnd = indexOf(_entry, ':', 1);
+        final int indexEnd = indexOf(_entry, ':', idEnd + 1);
+        final int countEnd = indexOf(_entry, ':', indexEnd + 1);
+        final String id;
+        final int index;
+        final int count;
+        try {
+            if (countEnd < 0) {
+                throw new NumberFormatException();
+            }
+            id = new String(_entry, 1, idEnd - 1, StandardCharsets.US_ASCII);
+            // The ID names the payload's files, so it must be a plain name (the trigger uses hex digits)
+            if (id.isEmpty() || !id.chars().allMatch(Character::isLetterOrDigit)) {
+                throw new NumberFormatException();
+            }
+            index = Integer.parseInt(new String(_entry, idEnd + 1, indexEnd - idEnd - 1, StandardCharsets.US_ASCII).trim());
+            count = Integer.parseInt(new String(_entry, indexEnd + 1, countEnd - indexEnd - 1, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            m_logger.printfln_warn("Warning: Discarding malformed chunk from %s", m_source.getDescription());
+            return null;
+        }
+
+        PartialPayload partial = m_partials.get(id);
+        if (0 == index) {
+            if (null != partial) {
+                partial.discard();
+            }
+            partial = new PartialPayload(id, count);
+            m_partials.put(id, partial);
+        } else if (null == partial || index != partial.m_nextIndex || count != partial.m_count) {
+            m_logger.printfln_warn("Warning: Discarding chunked payload %s from %s: chunk %d of %d arrived out of sequence", id, m_source.getDescription(),
+                    index + 1, count);
+            if (null != partial) {
+                m_partials.remove(id).discard();
+            }
+            return null;
+        }
+        partial.append(_entry, countEnd + 1, _entry.length - countEnd - 1);
+        if (partial.m_nextIndex < partial.m_count) {
+            return null;
+        }
+        m_partials.remove(id);
+        partial.close();
+        try {
+            return Files.readAllBytes(partial.m_file.toPath());
+        } finally {
+            partial.discard();
+        }
+    }
+
+    private void discardStalePayloads() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Map.Entry<String, PartialPayload>> it = m_partials.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, PartialPayload> partial = it.next();
+            if (now - partial.getValue().m_lastChunkMillis > m_timeoutMillis) {
+                m_logger.printfln_warn("Warning: Discarding chunked payload %s from %s: %d of %d chunks arrived", partial.getKey(), m_source.getDescription(),
+                        partial.getValue().m_nextIndex, partial.getValue().m_count);
+                partial.getValue().discard();
+                it.remove();
+            }
+        }
+    }
+
+    private static int indexOf(final byte[] _data, final char _c, final int _from) {
+        if (_from <= 0) {
+            return -1;
+        }
+        for (int i = _from; i < _data.length; i++) {
+            if (_c == _data[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getDepth() {
+        return m_source.getDepth();
+    }
+
+    @Override
+    public int getReadAhead() {
+        return m_source.getReadAhead();
+    }
+
+    @Override
+    public String getDescription() {
+        return m_source.getDescription();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Their remaining chunks are still on the data queue, so they are resumed when the source is next opened
+        for (final PartialPayload partial : m_partials.values()) {
+            partial.close();
+        }
+        m_partials.clear();
+        m_source.close();
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Expands the compact records read from another change source back into the standard JSON payload, so that
+ * tables captured with the compact trigger template are published in the same shape as every other table.
+ * Entries that are already JSON objects, such as those written before the table was switched to the compact
+ * template, are passed through unchanged.
+ */
+class CompactPayloadChangeSource implements IChangeSource {
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final CompactPayloadExpander m_expander;
+
+    CompactPayloadChangeSource(final AppLogger _logger, final IChangeSource _source, final CompactPayloadExpander _expander) {
+        m_logger = _logger;
+        m_source = _source;
+        m_expander = _expander;
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        final byte[] entry = m_source.read(_waitMillis);
+        if (null == entry || !CompactPayloadExpander.isCompact(entry)) {
+            return entry;
+        }
+        try {
+            return m_expander.expand(entry);
+        } catch (IOException e) {
+            // Publish the record as it is rather than lose it
+            m_logger.printfln_warn("Warning: Unable to expand compact record from %s: %s", m_source.getDescription(), e.getLocalizedMessage());
+            return entry;
+        }
+    }
+
+    @Override
+    public int getDepth() {
+        return m_source.getDepth();
+    }
+
+    @Override
+    public int getReadAhead() {
+        return m_source.getReadAhead();
+    }
+
+    @Override
+    public String getDescription() {
+        return m_source.getDescription();
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_source.close();
+    }
+}
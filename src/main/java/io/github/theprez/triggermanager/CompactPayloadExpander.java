@@ -0,0 +1,130 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Expands the positional records written by the compact trigger template (create_compact.sql) into the
+ * table/operation/row JSON that the standard template writes. A compact record is a JSON array holding the
+ * format version, the operation code and then one value per captured column, for example
+ * <code>[1,"I",42,"Sample"]</code>. The column names are held here instead of in every record.
+ * <p>
+ * The value bytes are copied through unchanged. Instances are not thread safe; use one per thread.
+ */
+final class CompactPayloadExpander {
+    /** The version of the positional record format written by create_compact.sql */
+    static final int FORMAT_VERSION = 1;
+
+    private static final byte[] FORMAT_VERSION_TEXT = Integer.toString(FORMAT_VERSION).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INSERT = "INSERT".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UPDATE = "UPDATE".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DELETE = "DELETE".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROW_PREFIX = "\",\"row\":{".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] m_prefix;
+    // For each column, the JSON field name and separator that precede its value, for example "ID":
+    private final byte[][] m_fieldPrefixes;
+    private final JsonTokenizer m_tokenizer = new JsonTokenizer();
+    private byte[] m_out = new byte[1024];
+    private int m_outLength;
+
+    /**
+     * @param _tableName the table name, as written into the payload by the standard template
+     * @param _columns   the delimited names of the captured columns, in the order the trigger writes them
+     */
+    CompactPayloadExpander(final String _tableName, final List<String> _columns) {
+        final StringBuilder prefix = new StringBuilder("{\"table\":\"");
+        PayloadKeyExtractor.appendEscaped(prefix, _tableName);
+        prefix.append("\",\"operation\":\"");
+        m_prefix = prefix.toString().getBytes(StandardCharsets.UTF_8);
+        m_fieldPrefixes = new byte[_columns.size()][];
+        for (int i = 0; i < m_fieldPrefixes.length; i++) {
+            final StringBuilder field = new StringBuilder((0 == i) ? "\"" : ",\"");
+            PayloadKeyExtractor.appendEscaped(field, _columns.get(i));
+            field.append("\":");
+            m_fieldPrefixes[i] = field.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Whether the payload looks like a compact record rather than a JSON object */
+    static boolean isCompact(final byte[] _payload) {
+        for (final byte b : _payload) {
+            if (' ' != b && '\t' != b && '\r' != b && '\n' != b) {
+                return '[' == b;
+            }
+        }
+        return false;
+    }
+
+    byte[] expand(final byte[] _payload) throws IOException {
+        final JsonTokenizer tokenizer = m_tokenizer.reset(_payload);
+        if (JsonTokenizer.Token.START_ARRAY != tokenizer.next()) {
+            throw new IOException("Not a compact record");
+        }
+        if (JsonTokenizer.Token.NUMBER != tokenizer.next() || !rawEquals(tokenizer, FORMAT_VERSION_TEXT)) {
+            throw new IOException("Unsupported compact record format version: " + tokenizer.getText());
+        }
+        if (JsonTokenizer.Token.STRING != tokenizer.next()) {
+            throw new IOException("Compact record has no operation");
+        }
+        final byte[] operation;
+        if (tokenizer.textEquals("I")) {
+            operation = INSERT;
+        } else if (tokenizer.textEquals("U")) {
+            operation = UPDATE;
+        } else if (tokenizer.textEquals("D")) {
+            operation = DELETE;
+        } else {
+            throw new IOException("Unknown compact record operation: " + tokenizer.getText());
+        }
+        m_outLength = 0;
+        write(m_prefix, 0, m_prefix.length);
+        write(operation, 0, operation.length);
+        write(ROW_PREFIX, 0, ROW_PREFIX.length);
+        for (final byte[] fieldPrefix : m_fieldPrefixes) {
+            final JsonTokenizer.Token t = tokenizer.next();
+            if (JsonTokenizer.Token.END_ARRAY == t || JsonTokenizer.Token.END == t) {
+                throw new IOException("Compact record has fewer values than the " + m_fieldPrefixes.length + " captured columns");
+            }
+            final int start = tokenizer.getTokenStart();
+            tokenizer.skipValue();
+            write(fieldPrefix, 0, fieldPrefix.length);
+            write(_payload, start, tokenizer.getTokenEnd() - start);
+        }
+        if (JsonTokenizer.Token.END_ARRAY != tokenizer.next()) {
+            throw new IOException("Compact record has more values than the " + m_fieldPrefixes.length + " captured columns");
+        }
+        ensureCapacity(2);
+        m_out[m_outLength++] = '}';
+        m_out[m_outLength++] = '}';
+        return Arrays.copyOf(m_out, m_outLength);
+    }
+
+    private static boolean rawEquals(final JsonTokenizer _tokenizer, final byte[] _text) {
+        final int length = _tokenizer.getTokenEnd() - _tokenizer.getTokenStart();
+        if (length != _text.length) {
+            return false;
+        }
+        final byte[] buf = _tokenizer.getBuffer();
+        for (int i = 0; i < length; i++) {
+            if (buf[_tokenizer.getTokenStart() + i] != _text[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(final byte[] _data, final int _offset, final int _length) {
+        ensureCapacity(_length);
+        System.arraycopy(_data, _offset, m_out, m_outLength, _length);
+        m_outLength += _length;
+    }
+
+    private void ensureCapacity(final int _additional) {
+        if (m_outLength + _additional > m_out.length) {
+            m_out = Arrays.copyOf(m_out, Math.max(m_out.length * 2, m_outLength + _additional));
+        }
+    }
+}
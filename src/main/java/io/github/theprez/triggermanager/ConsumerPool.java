@@ -0,0 +1,359 @@
+package io.github.theprez.triggermanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * A pool of consumer threads that forward the entries of one monitored table. Entries are assigned to a
+ * consumer by hashing their row key, so all changes to the same row are forwarded by the same consumer, in
+ * the order they were read. Entries without a key all go to the first consumer.
+ * <p>
+ * The pool grows towards its maximum size while entries back up or wait too long before being forwarded, and
+ * shrinks back towards its minimum size once it has been idle for a while. Resizing changes which consumer some
+ * keys map to. So that the changes to such a key stay in order, the first entry of a moved key that a consumer is
+ * handed after a resize makes it wait until every consumer of the old size has forwarded the entries it was handed
+ * before the resize. Entries of keys that keep their consumer are not held up. The reading thread hands each
+ * consumer a marker for the resize, waiting for room in the queues of the consumers of the old size as it does for
+ * entries, but does not wait for the consumers it retires to finish. The pool only shrinks once nothing is pending, so
+ * a shrink never waits at all.
+ * <p>
+ * A broadcast entry (see {@link ChangeEntry#asBroadcast()}) is handed to every consumer. The first consumer forwards
+ * it once every consumer has forwarded the entries it was handed before it, and no consumer moves on until then.
+ * <p>
+ * {@link #dispatch(ChangeEntry)} and {@link #rescaleIfNeeded(int)} must only be called from the single thread
+ * that reads the table's change source.
+ */
+class ConsumerPool {
+    private static final int CONSUMER_QUEUE_CAPACITY = 1000;
+    // The number of consecutive quiet checks before the pool shrinks
+    private static final int QUIET_CHECKS_BEFORE_SHRINK = 10;
+    // How long stop() waits for the consumers to forward the entries they were handed before interrupting them
+    private static final long STOP_TIMEOUT_MILLIS = 10000;
+
+    private final AppLogger m_logger;
+    private final String m_name;
+    private final IChangeHandler m_handler;
+    private final int m_minConsumers;
+    private final int m_maxConsumers;
+    private final int m_scaleUpBacklog;
+    private final long m_scaleUpLagNanos;
+    private final long m_checkIntervalNanos;
+
+    private final List<Consumer> m_consumers = new ArrayList<>();
+    // Consumers retired by a shrink that may still be forwarding the entries they were handed, waited for by stop()
+    private final List<Consumer> m_retired = new ArrayList<>();
+    // Held while the consumers are started, resized or handed a broadcast entry, which can wait for full queues
+    private final ReentrantLock m_lock = new ReentrantLock();
+    // The fence of the last resize, until every consumer of the old size has passed it
+    private Fence m_fence = null;
+    private final AtomicInteger m_pending = new AtomicInteger();
+    private final AtomicLong m_maxLagNanos = new AtomicLong();
+    private long m_lastCheckNanos = System.nanoTime();
+    private int m_quietChecks = 0;
+
+    ConsumerPool(final AppLogger _logger, final String _name, final IChangeHandler _handler, final int _minConsumers, final int _maxConsumers,
+            final int _scaleUpBacklog, final long _scaleUpLagMillis, final long _checkIntervalMillis) {
+        m_logger = _logger;
+        m_name = _name;
+        m_handler = _handler;
+        m_minConsumers = Math.max(1, _minConsumers);
+        m_maxConsumers = Math.max(m_minConsumers, _maxConsumers);
+        m_scaleUpBacklog = Math.max(1, _scaleUpBacklog);
+        m_scaleUpLagNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, _scaleUpLagMillis));
+        m_checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, _checkIntervalMillis));
+    }
+
+    void start() {
+        m_lock.lock();
+        try {
+            grow(m_minConsumers);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /**
+     * Forwards the entries already dispatched, then stops the consumers. Consumers that have not finished within
+     * {@link #STOP_TIMEOUT_MILLIS}, for instance because Kafka cannot be reached, are interrupted. The entries they
+     * have not forwarded are delivered again by sources that keep entries until they are acknowledged.
+     */
+    void stop() throws InterruptedException {
+        m_lock.lock();
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+            while (!m_consumers.isEmpty()) {
+                final Consumer consumer = m_consumers.remove(m_consumers.size() - 1);
+                m_retired.add(consumer);
+                if (!consumer.m_queue.offer(RETIRE, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    consumer.m_thread.interrupt();
+                }
+            }
+            m_fence = null;
+            for (final Consumer consumer : m_retired) {
+                consumer.m_thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (consumer.m_thread.isAlive()) {
+                    m_logger.printfln_warn("Warning: %s did not finish forwarding within %dms. Interrupting it.", consumer.m_thread.getName(), STOP_TIMEOUT_MILLIS);
+                    consumer.m_thread.interrupt();
+                    consumer.m_thread.join(STOP_TIMEOUT_MILLIS);
+                }
+            }
+            m_retired.clear();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    int getConsumerCount() {
+        return m_consumers.size();
+    }
+
+    /** The number of entries dispatched but not yet forwarded */
+    int getPending() {
+        return m_pending.get();
+    }
+
+    /** Hands an entry to the consumer that owns its key, waiting while that consumer's queue is full. */
+    void dispatch(final ChangeEntry _entry) throws InterruptedException {
+        if (_entry.isBroadcast()) {
+            dispatchToAll(_entry);
+            return;
+        }
+        final String key = _entry.getKey();
+        final int hash = (null == key) ? 0 : (key.hashCode() & Integer.MAX_VALUE);
+        final Consumer consumer = m_consumers.get(hash % m_consumers.size());
+        final Fence fence = getFence();
+        if (null != fence && fence != consumer.m_waitedFence && hash % fence.m_oldSize != hash % m_consumers.size()) {
+            // The key was forwarded by another consumer before the resize
+            consumer.m_waitedFence = fence;
+            consumer.m_queue.put(fence);
+        }
+        m_pending.incrementAndGet();
+        consumer.m_queue.put(_entry);
+    }
+
+    /** Hands a broadcast entry to every consumer, which are held until the first consumer has forwarded it */
+    private void dispatchToAll(final ChangeEntry _entry) {
+        m_lock.lock();
+        try {
+            final Barrier barrier = new Barrier(_entry, m_consumers.get(0), m_consumers.size());
+            m_pending.incrementAndGet();
+            // Handed out even if interrupted, so no consumer is left waiting on a partial barrier
+            for (final Consumer consumer : m_consumers) {
+                putUninterruptibly(consumer, barrier);
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /** The fence of the last resize, or null once every consumer of the old size has passed it */
+    private Fence getFence() {
+        if (null != m_fence && 0 == m_fence.m_passed.getCount()) {
+            m_fence = null;
+        }
+        return m_fence;
+    }
+
+    /**
+     * Grows or shrinks the pool based on the backlog and lag observed since the last check.
+     *
+     * @param _sourceDepth the number of entries waiting in the change source, or a negative number if unknown
+     */
+    void rescaleIfNeeded(final int _sourceDepth) throws InterruptedException {
+        if (m_minConsumers == m_maxConsumers) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (now - m_lastCheckNanos < m_checkIntervalNanos) {
+            return;
+        }
+        m_lastCheckNanos = now;
+        if (null != getFence()) {
+            // Keys moved by the last resize may still be waiting for their earlier changes
+            return;
+        }
+        final int consumers = m_consumers.size();
+        final int backlog = m_pending.get() + Math.max(0, _sourceDepth);
+        final long maxLagNanos = m_maxLagNanos.getAndSet(0);
+
+        if (consumers < m_maxConsumers && (backlog > m_scaleUpBacklog * consumers || maxLagNanos > m_scaleUpLagNanos)) {
+            m_quietChecks = 0;
+            final int target = Math.min(m_maxConsumers, consumers * 2);
+            m_logger.printfln_verbose("%s: backlog %d, lag %dms. Growing from %d to %d consumers", m_name, backlog,
+                    TimeUnit.NANOSECONDS.toMillis(maxLagNanos), consumers, target);
+            resize(target);
+        } else if (consumers > m_minConsumers && 0 == backlog && maxLagNanos < m_scaleUpLagNanos / 4) {
+            if (++m_quietChecks >= QUIET_CHECKS_BEFORE_SHRINK) {
+                m_quietChecks = 0;
+                final int target = Math.max(m_minConsumers, consumers / 2);
+                m_logger.printfln_verbose("%s: idle. Shrinking from %d to %d consumers", m_name, consumers, target);
+                resize(target);
+            }
+        } else {
+            m_quietChecks = 0;
+        }
+    }
+
+    /**
+     * Changes the number of consumers. Each consumer of the old size is first handed the fence's marker, after the
+     * entries it already has. Retired consumers forward their remaining entries before they end, and are only waited
+     * for by {@link #stop()}. The fence and retirements are handed out even if interrupted, so no consumer is left
+     * waiting on a partial fence.
+     */
+    private void resize(final int _target) {
+        m_lock.lock();
+        try {
+            if (0 < _target && !m_consumers.isEmpty()) {
+                final Fence fence = new Fence(m_consumers.size());
+                for (final Consumer consumer : m_consumers) {
+                    putUninterruptibly(consumer, fence.m_passed);
+                }
+                m_fence = fence;
+            }
+            m_retired.removeIf(consumer -> !consumer.m_thread.isAlive());
+            while (m_consumers.size() > _target) {
+                final Consumer consumer = m_consumers.remove(m_consumers.size() - 1);
+                putUninterruptibly(consumer, RETIRE);
+                m_retired.add(consumer);
+            }
+            grow(_target);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private void grow(final int _target) {
+        while (m_consumers.size() < _target) {
+            final Consumer consumer = new Consumer(m_consumers.size());
+            m_consumers.add(consumer);
+            consumer.m_thread.start();
+        }
+    }
+
+    private static void putUninterruptibly(final Consumer _consumer, final Object _item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                _consumer.m_queue.put(_item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Ends the consumer that takes it from its queue
+    private static final Object RETIRE = new Object();
+
+    /**
+     * Separates the entries dispatched before a resize from those dispatched after it. Its latch is put in the queue of
+     * each consumer of the old size, which counts it down once it has forwarded the entries before it. The fence itself
+     * is put ahead of the first entry of a moved key in a consumer's queue, and holds that consumer until the latch is
+     * down.
+     */
+    private static final class Fence {
+        private final int m_oldSize;
+        private final CountDownLatch m_passed;
+
+        Fence(final int _oldSize) {
+            m_oldSize = _oldSize;
+            m_passed = new CountDownLatch(_oldSize);
+        }
+    }
+
+    /**
+     * Holds every consumer at a broadcast entry. Each consumer counts down the arrival latch when it takes the barrier
+     * from its queue, after forwarding everything before it. The leader then forwards the entry and releases the rest.
+     */
+    private static final class Barrier {
+        private final ChangeEntry m_entry;
+        private final Consumer m_leader;
+        private final CountDownLatch m_arrived;
+        private final CountDownLatch m_forwarded = new CountDownLatch(1);
+
+        Barrier(final ChangeEntry _entry, final Consumer _leader, final int _consumers) {
+            m_entry = _entry;
+            m_leader = _leader;
+            m_arrived = new CountDownLatch(_consumers);
+        }
+    }
+
+    private class Consumer implements Runnable {
+        // Entries, the fences and fence latches of resizes, and the barriers of broadcast entries
+        private final BlockingQueue<Object> m_queue = new ArrayBlockingQueue<>(CONSUMER_QUEUE_CAPACITY);
+        private final Thread m_thread;
+        // The last fence put in the queue, only used by the reading thread
+        private Fence m_waitedFence = null;
+
+        Consumer(final int _index) {
+            m_thread = DaemonThreads.newThread(this, String.format("AIStream-%s-%d", m_name, _index));
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Object item;
+                try {
+                    item = m_queue.take();
+                    if (RETIRE == item) {
+                        return;
+                    }
+                    if (item instanceof Fence) {
+                        ((Fence) item).m_passed.await();
+                        continue;
+                    }
+                    if (item instanceof Barrier) {
+                        final Barrier barrier = (Barrier) item;
+                        barrier.m_arrived.countDown();
+                        if (this != barrier.m_leader) {
+                            barrier.m_forwarded.await();
+                            continue;
+                        }
+                        try {
+                            barrier.m_arrived.await();
+                            forward(barrier.m_entry);
+                        } finally {
+                            barrier.m_forwarded.countDown();
+                        }
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (item instanceof CountDownLatch) {
+                    // A fence's marker: every entry this consumer was handed before the resize has been forwarded
+                    ((CountDownLatch) item).countDown();
+                    continue;
+                }
+                forward((ChangeEntry) item);
+            }
+        }
+
+        private void forward(final ChangeEntry _entry) {
+            final long lag = System.nanoTime() - _entry.getReceivedNanos();
+            m_maxLagNanos.accumulateAndGet(lag, Math::max);
+            try {
+                m_handler.handle(_entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                m_logger.printfln_err("ERROR: Failed to route entry from %s: %s", m_name, e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+            } finally {
+                m_pending.decrementAndGet();
+            }
+        }
+    }
+}
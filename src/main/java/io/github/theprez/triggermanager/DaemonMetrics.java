@@ -0,0 +1,274 @@
+package io.github.theprez.triggermanager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The daemon's per-table {@link TableMetrics}. Each table's metrics are registered as an MBean, and can also be
+ * scraped in the Prometheus text format from a local HTTP endpoint. A sampler thread periodically updates the
+ * rates and reads the depth of the trigger data queues from QSYS2.DATA_QUEUE_INFO.
+ */
+class DaemonMetrics {
+    static final String JMX_DOMAIN = "io.github.theprez.aistream";
+    static final String METRICS_PATH = "/metrics";
+    /** The endpoint only listens locally unless configured otherwise */
+    static final String DEFAULT_HOST = "127.0.0.1";
+    private static final String PUBLISH_RATE_METRIC = "aistream_publish_rate";
+    private static final String MONITOR_ID_LABEL = "monitor_id=\"";
+
+    private final AppLogger m_logger;
+    private final TriggerManager m_triggerManager;
+    private final List<TableMetrics> m_tables = new CopyOnWriteArrayList<>();
+    private final Map<TableMetrics, ObjectName> m_mbeanNames = new ConcurrentHashMap<>();
+    private ScheduledExecutorService m_sampler;
+    private HttpServer m_server;
+
+    DaemonMetrics(final AppLogger _logger, final TriggerManager _triggerManager) {
+        m_logger = _logger;
+        m_triggerManager = _triggerManager;
+    }
+
+    /** Creates the metrics for a table's route, and registers them with the platform MBean server */
+    TableMetrics register(final TriggerDescriptor _trigger) {
+        final TableMetrics ret = new TableMetrics(_trigger);
+        m_tables.add(ret);
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(JMX_DOMAIN + ":type=MonitoredTable,name=" + ObjectName.quote(ret.getTable()));
+            mbeanServer.registerMBean(ret, name);
+            m_mbeanNames.put(ret, name);
+        } catch (JMException e) {
+            m_logger.printfln_warn("Warning: Unable to register JMX metrics for %s: %s", ret.getTable(), e.getLocalizedMessage());
+        }
+        return ret;
+    }
+
+    /** Removes the metrics of a route that is no longer running */
+    void unregister(final TableMetrics _table) {
+        m_tables.remove(_table);
+        final ObjectName name = m_mbeanNames.remove(_table);
+        if (null != name) {
+            unregisterMBean(name);
+        }
+    }
+
+    private static void unregisterMBean(final ObjectName _name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_name);
+        } catch (JMException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Starts sampling and, if a port is given, the HTTP endpoint.
+     *
+     * @param _port the port to serve {@link #METRICS_PATH} on, or 0 for no endpoint
+     */
+    synchronized void start(final long _sampleIntervalMillis, final String _host, final int _port) throws IOException {
+        m_sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "AIStream-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        final long interval = Math.max(1000, _sampleIntervalMillis);
+        m_sampler.scheduleWithFixedDelay(this::sample, interval, interval, TimeUnit.MILLISECONDS);
+        if (0 < _port) {
+            m_server = HttpServer.create(new InetSocketAddress(_host, _port), 0);
+            m_server.createContext(METRICS_PATH, exchange -> {
+                final byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            m_server.start();
+            m_logger.printfln_verbose("Serving metrics on http://%s:%d%s", _host, _port, METRICS_PATH);
+        }
+    }
+
+    synchronized void stop() {
+        if (null != m_server) {
+            m_server.stop(0);
+            m_server = null;
+        }
+        if (null != m_sampler) {
+            m_sampler.shutdownNow();
+            m_sampler = null;
+        }
+        for (final ObjectName name : m_mbeanNames.values()) {
+            unregisterMBean(name);
+        }
+        m_mbeanNames.clear();
+    }
+
+    private void sample() {
+        Map<String, Long> depths;
+        try {
+            depths = m_triggerManager.getDataQueueDepths();
+        } catch (SQLException e) {
+            m_logger.printfln_verbose("Unable to read data queue depths: %s", e.getLocalizedMessage());
+            depths = Collections.emptyMap();
+        }
+        for (final TableMetrics table : m_tables) {
+            final boolean hasQueue = TriggerDescriptor.CaptureMode.TRIGGER == table.getTrigger().getCaptureMode();
+            final Long depth = hasQueue ? depths.get(table.getMonitorId()) : null;
+            table.sample((null == depth) ? -1 : depth);
+        }
+    }
+
+    /** The current metrics, in the Prometheus text exposition format */
+    String render() {
+        final StringBuilder ret = new StringBuilder();
+        appendCounter(ret, "aistream_entries_read_total", "Entries read from the change source", TableMetrics::getEntriesRead);
+        appendCounter(ret, "aistream_entries_published_total", "Entries published to Kafka", TableMetrics::getEntriesPublished);
+        appendCounter(ret, "aistream_publish_failures_total", "Failed attempts to publish an entry", TableMetrics::getPublishFailures);
+        appendCounter(ret, "aistream_entries_filtered_total", "Entries dropped by the table's transform", TableMetrics::getEntriesFiltered);
+        appendGauge(ret, "aistream_read_rate", "Entries read per second over the last sampling interval", TableMetrics::getReadRate);
+        appendGauge(ret, PUBLISH_RATE_METRIC, "Entries published per second over the last sampling interval", TableMetrics::getPublishRate);
+        appendGauge(ret, "aistream_queue_depth", "Entries waiting in the table's data queue", TableMetrics::getQueueDepth);
+        appendGauge(ret, "aistream_buffered_entries", "Entries buffered by the daemon's change source", TableMetrics::getBufferedEntries);
+        appendGauge(ret, "aistream_pending_entries", "Entries read but not yet published", TableMetrics::getPendingEntries);
+        appendGauge(ret, "aistream_consumers", "Consumer threads publishing the table's entries", TableMetrics::getConsumers);
+        appendHistogram(ret, "aistream_publish_latency_seconds", "Time taken to hand an entry to Kafka", TableMetrics::getPublishLatency);
+        appendHistogram(ret, "aistream_lag_seconds", "Time from reading an entry to publishing it", TableMetrics::getLag);
+        return ret.toString();
+    }
+
+    private interface Value {
+        double of(TableMetrics _table);
+    }
+
+    private interface HistogramValue {
+        LatencyHistogram of(TableMetrics _table);
+    }
+
+    private void appendCounter(final StringBuilder _out, final String _name, final String _help, final Value _value) {
+        appendHeader(_out, _name, _help, "counter");
+        for (final TableMetrics table : m_tables) {
+            appendSample(_out, _name, table, null, _value.of(table));
+        }
+    }
+
+    private void appendGauge(final StringBuilder _out, final String _name, final String _help, final Value _value) {
+        appendHeader(_out, _name, _help, "gauge");
+        for (final TableMetrics table : m_tables) {
+            final double value = _value.of(table);
+            // Depths that cannot be determined are left out rather than reported as -1
+            if (0 <= value) {
+                appendSample(_out, _name, table, null, value);
+            }
+        }
+    }
+
+    private void appendHistogram(final StringBuilder _out, final String _name, final String _help, final HistogramValue _value) {
+        appendHeader(_out, _name, _help, "histogram");
+        for (final TableMetrics table : m_tables) {
+            final LatencyHistogram histogram = _value.of(table);
+            final long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                final String le = (i < LatencyHistogram.BOUNDS_MILLIS.length) ? Double.toString(LatencyHistogram.BOUNDS_MILLIS[i] / 1000) : "+Inf";
+                appendSample(_out, _name + "_bucket", table, le, cumulative);
+            }
+            appendSample(_out, _name + "_sum", table, null, histogram.getSumSeconds());
+            appendSample(_out, _name + "_count", table, null, cumulative);
+        }
+    }
+
+    private static void appendHeader(final StringBuilder _out, final String _name, final String _help, final String _type) {
+        _out.append("# HELP ").append(_name).append(' ').append(_help).append('\n');
+        _out.append("# TYPE ").append(_name).append(' ').append(_type).append('\n');
+    }
+
+    private static void appendSample(final StringBuilder _out, final String _name, final TableMetrics _table, final String _le, final double _value) {
+        _out.append(_name).append("{table=\"");
+        appendLabelValue(_out, _table.getTable());
+        _out.append("\",").append(MONITOR_ID_LABEL);
+        appendLabelValue(_out, _table.getMonitorId());
+        _out.append('"');
+        if (null != _le) {
+            _out.append(",le=\"").append(_le).append('"');
+        }
+        _out.append("} ");
+        if (_value == Math.rint(_value) && Math.abs(_value) < 1e15) {
+            _out.append((long) _value);
+        } else {
+            _out.append(_value);
+        }
+        _out.append('\n');
+    }
+
+    private static void appendLabelValue(final StringBuilder _out, final String _value) {
+        for (int i = 0; i < _value.length(); i++) {
+            final char c = _value.charAt(i);
+            if ('\\' == c || '"' == c) {
+                _out.append('\\').append(c);
+            } else if ('\n' == c) {
+                _out.append("\\n");
+            } else {
+                _out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Reads the publish rate of each table from a running daemon's metrics endpoint.
+     *
+     * @return the entries published per second, by trigger ID
+     */
+    static Map<String, Double> fetchPublishRates(final String _host, final int _port) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL("http", _host, _port, METRICS_PATH).openConnection();
+        conn.setConnectTimeout(2000);
+        conn.setReadTimeout(5000);
+        final Map<String, Double> ret = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (!line.startsWith(PUBLISH_RATE_METRIC + "{")) {
+                    continue;
+                }
+                final int idStart = line.indexOf(MONITOR_ID_LABEL);
+                final int idEnd = (idStart < 0) ? -1 : line.indexOf('"', idStart + MONITOR_ID_LABEL.length());
+                final int valueStart = line.lastIndexOf(' ');
+                if (idEnd < 0 || valueStart < idEnd) {
+                    continue;
+                }
+                try {
+                    ret.put(line.substring(idStart + MONITOR_ID_LABEL.length(), idEnd), Double.parseDouble(line.substring(valueStart + 1)));
+                } catch (NumberFormatException e) {
+                    // Not a sample we understand
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
+        return ret;
+    }
+}
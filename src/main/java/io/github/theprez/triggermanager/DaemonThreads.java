@@ -0,0 +1,109 @@
+package io.github.theprez.triggermanager;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Creates the threads that run each table's blocking read and forward loops: the change source pump, the consumer
+ * threads and the spool drainer. On Java 21 and later these can be virtual threads, so that an idle table costs a
+ * small heap object instead of a platform thread and its stack, and the daemon's thread count stays flat as tables are
+ * added. The virtual thread API is looked up reflectively, so the daemon still builds for and runs on Java 8, where
+ * platform threads are always used.
+ * <p>
+ * Before Java 24, a virtual thread that blocks inside a synchronized block pins its carrier thread. The daemon's own
+ * waits are on locks and conditions, but the IBM i host server reads in jt400 block inside synchronized blocks, so
+ * with a few carrier threads a handful of tables waiting on the host could hold up every other table. AUTO therefore
+ * only chooses virtual threads from Java 24 on.
+ */
+final class DaemonThreads implements ITriggerConfigurationConstants {
+
+    enum Mode {
+        /** Virtual threads on Java 24 and later, where blocking in a synchronized block does not pin them */
+        AUTO,
+        /** Always platform threads */
+        PLATFORM,
+        /** Virtual threads, falling back to platform threads with a warning if the JVM does not have them */
+        VIRTUAL
+    }
+
+    // The first Java release whose virtual threads can block in a synchronized block without pinning their carrier
+    private static final int UNPINNED_MONITORS_VERSION = 24;
+
+    // Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.unstarted(Runnable), or null before Java 21
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderUnstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            builderName = builder.getMethod("name", String.class);
+            builderUnstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_UNSTARTED = builderUnstarted;
+    }
+
+    private static volatile boolean s_virtual = false;
+
+    private DaemonThreads() {
+        // No instances
+    }
+
+    /** Chooses the kind of thread from the THREAD_MODE setting. Called once as the daemon starts. */
+    static void configure(final AppLogger _logger, final TableConfiguration _config) {
+        Mode mode = Mode.AUTO;
+        final String modeValue = _config.get(KEY_THREAD_MODE, Mode.AUTO.name());
+        try {
+            mode = Mode.valueOf(modeValue.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            _logger.printfln_warn("Warning: Invalid value '%s' for property '%s'. Using default value '%s'.", modeValue, KEY_THREAD_MODE, mode);
+        }
+        final boolean available = null != OF_VIRTUAL;
+        final boolean unpinned = getFeatureVersion() >= UNPINNED_MONITORS_VERSION;
+        if (Mode.VIRTUAL == mode && !available) {
+            _logger.printfln_warn("Warning: Virtual threads need Java 21 or later, this is Java %s. Using platform threads.", System.getProperty("java.version"));
+        } else if (Mode.VIRTUAL == mode && !unpinned) {
+            _logger.printfln_warn("Warning: On Java %s, virtual threads waiting on the host pin their carrier threads. Tables may be held up by each other.",
+                    System.getProperty("java.version"));
+        }
+        s_virtual = available && (Mode.VIRTUAL == mode || (Mode.AUTO == mode && unpinned));
+        _logger.printfln_verbose("Table read and forward loops run on %s threads", s_virtual ? "virtual" : "platform");
+    }
+
+    /** The Java release, such as 8 or 21 */
+    private static int getFeatureVersion() {
+        final String version = System.getProperty("java.specification.version", "1.8");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        } catch (NumberFormatException e) {
+            return 8;
+        }
+    }
+
+    static boolean isVirtual() {
+        return s_virtual;
+    }
+
+    /** Creates an unstarted thread. Platform threads are daemon threads, as virtual threads always are. */
+    static Thread newThread(final Runnable _task, final String _name) {
+        if (s_virtual) {
+            try {
+                return (Thread) BUILDER_UNSTARTED.invoke(BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), _name), _task);
+            } catch (ReflectiveOperationException e) {
+                // Not expected once the methods were found, so use a platform thread
+            }
+        }
+        final Thread ret = new Thread(_task, _name);
+        ret.setDaemon(true);
+        return ret;
+    }
+}
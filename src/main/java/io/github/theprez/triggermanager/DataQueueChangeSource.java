@@ -0,0 +1,117 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+import com.ibm.as400.access.DataQueue;
+import com.ibm.as400.access.DataQueueEntry;
+
+/**
+ * Reads entries from the non-keyed data queue that the trigger sends to. Connections are borrowed from the
+ * daemon's {@link SystemConnectionPool} for the duration of each read only, so a connection is never tied up
+ * waiting on an idle queue while other queues have entries.
+ * <p>
+ * How the queue is waited on adapts to its traffic, see {@link DataQueueWaitSettings}. While the queue has entries, each
+ * read waits on the host until an entry arrives, as long as another connection is left in the pool for other queues, and
+ * then takes the entries that are already waiting too. Once a wait or poll finds the queue empty, it is polled with an
+ * exponentially growing interval, without holding a connection in between, until it has entries again.
+ */
+class DataQueueChangeSource implements IChangeSource {
+    private final SystemConnectionPool m_pool;
+    private final String m_path;
+    private final String m_description;
+    private final DataQueueWaitSettings m_settings;
+    // One data queue object per pooled connection, created on first use
+    private final DataQueue[] m_dataQueues;
+    // Entries taken from the queue but not yet returned. Only used by the reading thread.
+    private final ArrayDeque<byte[]> m_readAhead = new ArrayDeque<>();
+    // The current poll interval, or 0 while the queue has entries, and when the queue is next polled
+    private long m_backoffMillis = 0;
+    private long m_nextPollMillis = 0;
+
+    DataQueueChangeSource(final SystemConnectionPool _pool, final String _library, final String _dataQueueName, final DataQueueWaitSettings _settings) {
+        m_pool = _pool;
+        m_path = String.format("/qsys.lib/%s.lib/%s.dtaq", _library, _dataQueueName);
+        m_description = String.format("dtaq:%s/%s", _library, _dataQueueName);
+        m_settings = _settings;
+        m_dataQueues = new DataQueue[_pool.getSize()];
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        if (!m_readAhead.isEmpty()) {
+            return m_readAhead.poll();
+        }
+        final long deadline = System.currentTimeMillis() + Math.max(0, _waitMillis);
+        while (true) {
+            final long now = System.currentTimeMillis();
+            if (now < m_nextPollMillis) {
+                if (deadline <= now) {
+                    return null;
+                }
+                Thread.sleep(Math.min(m_nextPollMillis, deadline) - now);
+                continue;
+            }
+            // Only a queue that had entries at the last poll is waited on, for as long as the caller can wait
+            final long waitMillis = (0 == m_backoffMillis) ? Math.min(m_settings.getWaitMillis(), deadline - now) : 0;
+            if (readEntries((int) (Math.max(0, waitMillis) / 1000))) {
+                m_backoffMillis = 0;
+                m_nextPollMillis = 0;
+                return m_readAhead.poll();
+            }
+            m_backoffMillis = m_settings.nextBackoff(m_backoffMillis);
+            m_nextPollMillis = System.currentTimeMillis() + m_backoffMillis;
+        }
+    }
+
+    /**
+     * Reads the next entry, waiting the given number of seconds for one, and then the entries already waiting behind
+     * it, up to the drain limit.
+     *
+     * @return whether any entries were read
+     */
+    private boolean readEntries(final int _waitSeconds) throws IOException, InterruptedException {
+        final SystemConnectionPool.PooledSystem pooled = m_pool.borrow(0 < _waitSeconds);
+        boolean failed = true;
+        try {
+            DataQueue dataQueue = m_dataQueues[pooled.getIndex()];
+            if (null == dataQueue) {
+                dataQueue = m_dataQueues[pooled.getIndex()] = new DataQueue(pooled.getSystem(), m_path);
+            }
+            // Waiting ties up the connection, so the pool only allows it if another queue can still be read meanwhile
+            DataQueueEntry entry = dataQueue.read(pooled.mayWait() ? _waitSeconds : 0);
+            while (null != entry) {
+                m_readAhead.add(entry.getData());
+                entry = (m_readAhead.size() < m_settings.getDrainMax()) ? dataQueue.read(0) : null;
+            }
+            failed = false;
+            return !m_readAhead.isEmpty();
+        } catch (IOException e) {
+            // Communication failure, have the pool check the connection before it is used again
+            throw e;
+        } catch (InterruptedException e) {
+            failed = false;
+            throw e;
+        } catch (Exception e) {
+            failed = false;
+            throw new IOException("Error reading data queue " + m_description + ": " + e.getLocalizedMessage(), e);
+        } finally {
+            m_pool.release(pooled, failed);
+        }
+    }
+
+    @Override
+    public int getReadAhead() {
+        return m_readAhead.size();
+    }
+
+    @Override
+    public String getDescription() {
+        return m_description;
+    }
+
+    @Override
+    public void close() {
+        // The connections belong to the pool
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.theprez.triggermanager;
+
+/**
+ * How a table's data queue is waited on, as resolved from the AIStream configuration file. A queue that has had
+ * entries is waited on by the host, so an entry is read as soon as it arrives; a queue that stays empty is polled
+ * less and less often.
+ */
+class DataQueueWaitSettings implements ITriggerConfigurationConstants {
+    private static final long DEFAULT_WAIT_MS = 5000;
+    private static final int DEFAULT_DRAIN_MAX = 100;
+    private static final long DEFAULT_BACKOFF_MIN_MS = 100;
+    private static final long DEFAULT_BACKOFF_MAX_MS = 5000;
+
+    private final long m_waitMillis;
+    private final int m_drainMax;
+    private final long m_backoffMinMillis;
+    private final long m_backoffMaxMillis;
+
+    DataQueueWaitSettings(final long _waitMillis, final int _drainMax, final long _backoffMinMillis, final long _backoffMaxMillis) {
+        m_waitMillis = Math.max(0, _waitMillis);
+        m_drainMax = Math.max(1, _drainMax);
+        m_backoffMinMillis = Math.max(1, _backoffMinMillis);
+        m_backoffMaxMillis = Math.max(m_backoffMinMillis, _backoffMaxMillis);
+    }
+
+    static DataQueueWaitSettings forTable(final TableConfiguration _config) {
+        return new DataQueueWaitSettings(_config.getLong(KEY_DTAQ_WAIT_MS, DEFAULT_WAIT_MS),
+                _config.getInt(KEY_DTAQ_DRAIN_MAX, DEFAULT_DRAIN_MAX),
+                _config.getLong(KEY_DTAQ_BACKOFF_MIN_MS, DEFAULT_BACKOFF_MIN_MS),
+                _config.getLong(KEY_DTAQ_BACKOFF_MAX_MS, DEFAULT_BACKOFF_MAX_MS));
+    }
+
+    /** The longest the host waits for an entry on a busy queue. Data queue waits are in whole seconds. */
+    long getWaitMillis() {
+        return m_waitMillis;
+    }
+
+    /** The most entries read in one go once the queue has entries */
+    int getDrainMax() {
+        return m_drainMax;
+    }
+
+    /**
+     * The time to the next poll after an empty one: the minimum after the first, and double the time before after
+     * each further empty poll, up to the maximum.
+     *
+     * @param _backoffMillis the time before, or 0 if the poll before had entries
+     */
+    long nextBackoff(final long _backoffMillis) {
+        return (0 == _backoffMillis) ? m_backoffMinMillis : Math.min(m_backoffMaxMillis, _backoffMillis * 2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("wait %dms, drain %d, backoff %d-%dms", m_waitMillis, m_drainMax, m_backoffMinMillis, m_backoffMaxMillis);
+    }
+}
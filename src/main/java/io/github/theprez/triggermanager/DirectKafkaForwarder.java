@@ -0,0 +1,95 @@
+package io.github.theprez.triggermanager;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Publishes a table's entries to its Kafka topic with a Kafka producer of its own, as an alternative to the table's
+ * Camel route. Each entry's UTF-8 bytes, as read from the change source, become the record value as they are: there
+ * is no exchange, no conversion to a String and no encoding back to bytes, so the only objects made for an entry
+ * are the record and the producer's own.
+ * <p>
+ * As with the Camel route, a SINGLE mode send waits for Kafka to acknowledge the record, and a BATCH mode send
+ * returns once the record is in the producer's buffer, with the outcome reported from the producer's callback.
+ * Either way, {@link ChangeEntry#published()} is only reported once Kafka has accepted the record. A broadcast entry
+ * is sent to each partition of the topic by number, and is only reported once every partition has accepted it.
+ */
+class DirectKafkaForwarder implements IChangeHandler, AutoCloseable {
+    private final AppLogger m_logger;
+    private final String m_topicName;
+    private final boolean m_synchronous;
+    private final Producer<String, byte[]> m_producer;
+    // One callback for every asynchronous send of an entry that nothing waits for, as there is nothing to it but failures
+    private final Callback m_callback;
+
+    /** Creates a forwarder with a Kafka producer for the given brokers and the table's publish settings */
+    DirectKafkaForwarder(final AppLogger _logger, final String _topicName, final String _brokers, final KafkaPublishSettings _settings) {
+        this(_logger, _topicName, _settings, new KafkaProducer<>(_settings.getProducerProperties(_brokers)));
+    }
+
+    DirectKafkaForwarder(final AppLogger _logger, final String _topicName, final KafkaPublishSettings _settings, final Producer<String, byte[]> _producer) {
+        m_logger = _logger;
+        m_topicName = _topicName;
+        m_synchronous = !_settings.isBatched();
+        m_producer = _producer;
+        m_callback = (RecordMetadata _metadata, Exception _exception) -> {
+            if (null != _exception) {
+                m_logger.printfln_err("ERROR: Failed to publish 1 message(s) to %s: %s", m_topicName, _exception.getLocalizedMessage());
+            }
+        };
+    }
+
+    @Override
+    public void handle(final ChangeEntry _entry) throws Exception {
+        if (!_entry.isBroadcast()) {
+            send(new ProducerRecord<>(m_topicName, _entry.getKey(), _entry.getData()), _entry);
+            return;
+        }
+        // The producer keeps the topic's metadata, so this only asks the brokers when it has none yet
+        final List<PartitionInfo> partitions = m_producer.partitionsFor(m_topicName);
+        final ChangeEntry entry = _entry.publishedAfter(partitions.size());
+        for (final PartitionInfo partition : partitions) {
+            send(new ProducerRecord<>(m_topicName, partition.partition(), _entry.getKey(), _entry.getData()), entry);
+        }
+    }
+
+    private void send(final ProducerRecord<String, byte[]> _record, final ChangeEntry _entry) throws Exception {
+        if (!m_synchronous) {
+            if (!_entry.hasPublishedListener()) {
+                m_producer.send(_record, m_callback);
+                return;
+            }
+            m_producer.send(_record, (RecordMetadata _metadata, Exception _exception) -> {
+                if (null == _exception) {
+                    _entry.published();
+                } else {
+                    m_callback.onCompletion(_metadata, _exception);
+                }
+            });
+            return;
+        }
+        try {
+            m_producer.send(_record).get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        _entry.published();
+    }
+
+    /** Sends any buffered records and waits for Kafka to acknowledge them, then closes the producer */
+    @Override
+    public void close() {
+        m_producer.flush();
+        m_producer.close();
+        m_logger.printfln_verbose("Closed Kafka producer for %s", m_topicName);
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400JDBCDataSource;
+
+/**
+ * Reads a journaled table's entries with the QSYS2.DISPLAY_JOURNAL table function. The read position is kept in
+ * the {@link MonitorRegistry}, so a restarted daemon continues where it left off. Each reader has its own connection,
+ * so a long journal query does not hold up the daemon's other SQL or the other readers.
+ */
+class DisplayJournalReader implements IJournalReader {
+    private final AS400 m_system;
+    private final Connection m_conn;
+    private final MonitorRegistry m_registry;
+    private final TriggerDescriptor m_trigger;
+    private final String m_journalLibrary;
+    private final String m_journalName;
+    // The OBJECT column of DISPLAY_JOURNAL holds the object name, library and member, each padded to 10 characters
+    private final String m_objectPrefix;
+
+    /**
+     * @param _system the signed-on system object, which the reader's connection is copied from
+     */
+    DisplayJournalReader(final AS400 _system, final MonitorRegistry _registry, final TriggerDescriptor _trigger) throws IOException {
+        m_trigger = _trigger;
+        m_journalLibrary = _trigger.getOptions().getProperty(TriggerManager.OPTION_JOURNAL_LIBRARY);
+        m_journalName = _trigger.getOptions().getProperty(TriggerManager.OPTION_JOURNAL_NAME);
+        if (null == m_journalLibrary || null == m_journalName) {
+            throw new IOException("No journal recorded for " + _trigger);
+        }
+        final TableDescriptor table = _trigger.getTableDescriptor();
+        m_objectPrefix = String.format("%-10s%-10s", table.getSystemName(), table.getSystemSchema());
+        m_system = new AS400(_system);
+        try {
+            m_conn = new AS400JDBCDataSource(m_system).getConnection();
+        } catch (SQLException e) {
+            m_system.close();
+            throw new IOException("Unable to connect to read journal " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+        m_registry = _registry.on(m_conn);
+    }
+
+    @Override
+    public List<JournalEntry> read(final long _afterSequence, final int _maxEntries) throws IOException {
+        // Commitment control entries are not associated with the table, so the journal cannot be filtered
+        // by object in the table function itself. Record entries for other objects are filtered out instead.
+        final String startingPoint = (0 == _afterSequence) ? "STARTING_TIMESTAMP => ?" : "STARTING_SEQUENCE => ?";
+        final String sql = "SELECT SEQUENCE_NUMBER, JOURNAL_CODE, JOURNAL_ENTRY_TYPE, COALESCE(COMMIT_CYCLE, 0), ENTRY_DATA, NULL_VALUE_INDICATORS, MINIMIZED_ENTRY_DATA " +
+                "FROM TABLE(QSYS2.DISPLAY_JOURNAL(" +
+                "JOURNAL_LIBRARY => ?, JOURNAL_NAME => ?, STARTING_RECEIVER_NAME => '*CURCHAIN', " + startingPoint + ", " +
+                "JOURNAL_CODES => 'RC', JOURNAL_ENTRY_TYPES => 'PT PX UP DL CM RB')) " +
+                "WHERE JOURNAL_CODE = 'C' OR SUBSTR(OBJECT, 1, 20) = ? " +
+                "ORDER BY SEQUENCE_NUMBER FETCH FIRST " + Math.max(1, _maxEntries) + " ROWS ONLY";
+        try (PreparedStatement stmt = m_conn.prepareStatement(sql)) {
+            stmt.setString(1, m_journalLibrary);
+            stmt.setString(2, m_journalName);
+            if (0 == _afterSequence) {
+                stmt.setTimestamp(3, m_registry.getAddedTimestamp(m_trigger.getTriggerId()));
+            } else {
+                stmt.setLong(3, _afterSequence + 1);
+            }
+            stmt.setString(4, m_objectPrefix);
+            final List<JournalEntry> ret = new ArrayList<>();
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final String code = rs.getString(2);
+                final String minimized = rs.getString(7);
+                if ("R".equals(code) && null != minimized && !"0".equals(minimized.trim())) {
+                    // Only the changed bytes of the record are journaled, so the entry would be decoded into wrong values.
+                    // Stopping here keeps the read position at the entry, rather than publishing it wrong or not at all,
+                    // once the entries before it have been handed on
+                    if (!ret.isEmpty()) {
+                        break;
+                    }
+                    throw new IOException(String.format("Entry %d of journal %s has minimized entry data, which cannot be decoded. "
+                            + "Change the journal to MINENTDTA(*NONE), then REMOVE and ADD the table to capture it from then on.", rs.getLong(1), getDescription()));
+                }
+                ret.add(new JournalEntry(rs.getLong(1), (null == code || code.isEmpty()) ? ' ' : code.charAt(0), rs.getString(3).trim(), rs.getLong(4),
+                        rs.getBytes(5), rs.getString(6)));
+            }
+            return ret;
+        } catch (SQLException e) {
+            throw new IOException("Error reading journal " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public void savePosition(final long _sequence) throws IOException {
+        try {
+            m_registry.setJournalPosition(m_trigger.getTriggerId(), _sequence);
+        } catch (SQLException e) {
+            throw new IOException("Error saving journal position for " + m_trigger + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public long getSavedPosition() throws IOException {
+        try {
+            return m_registry.getJournalPosition(m_trigger.getTriggerId());
+        } catch (SQLException e) {
+            throw new IOException("Error reading journal position for " + m_trigger + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("jrn:%s/%s(%s)", m_journalLibrary, m_journalName, m_trigger.getTableDescriptor());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            m_conn.close();
+        } catch (SQLException e) {
+            throw new IOException("Error closing the connection of " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        } finally {
+            m_system.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.theprez.triggermanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Replays captured payloads from a file, one JSON document per line (the same shape that create.sql sends to
+ * the data queue). Entries are released at a fixed rate so that production bursts can be reproduced off-host.
+ * The file is streamed, so arbitrarily large captures can be replayed. Reads are guarded by a lock rather than an
+ * object monitor, as they wait to release entries on time.
+ */
+class FileReplayChangeSource implements IChangeSource {
+    private final File m_file;
+    private final double m_messagesPerSecond;
+    private final boolean m_loop;
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private BufferedReader m_reader;
+    private long m_startNanos = -1;
+    private long m_released = 0;
+
+    /**
+     * @param _messagesPerSecond the replay rate, or zero to replay as fast as the entries are consumed
+     * @param _loop              whether to start over at the beginning of the file once the end is reached
+     */
+    FileReplayChangeSource(final File _file, final double _messagesPerSecond, final boolean _loop) throws IOException {
+        m_file = _file;
+        m_messagesPerSecond = Math.max(0, _messagesPerSecond);
+        m_loop = _loop;
+        m_reader = open();
+    }
+
+    private BufferedReader open() throws IOException {
+        return Files.newBufferedReader(m_file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        m_lock.lock();
+        try {
+            final String line = nextLine();
+            if (null == line) {
+                // End of the capture, behave like an empty data queue
+                TimeUnit.MILLISECONDS.sleep(Math.max(0, _waitMillis));
+                return null;
+            }
+            if (0 < m_messagesPerSecond) {
+                if (m_startNanos < 0) {
+                    m_startNanos = System.nanoTime();
+                }
+                final long dueNanos = m_startNanos + (long) (m_released * 1_000_000_000d / m_messagesPerSecond);
+                final long delayNanos = dueNanos - System.nanoTime();
+                if (0 < delayNanos) {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                }
+            }
+            m_released++;
+            return line.getBytes(StandardCharsets.UTF_8);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private String nextLine() throws IOException {
+        if (null == m_reader) {
+            return null;
+        }
+        boolean restarted = false;
+        while (true) {
+            final String line = m_reader.readLine();
+            if (null == line) {
+                if (!m_loop || restarted) {
+                    m_reader.close();
+                    m_reader = null;
+                    return null;
+                }
+                m_reader.close();
+                m_reader = open();
+                restarted = true;
+                continue;
+            }
+            if (!line.trim().isEmpty()) {
+                return line;
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return String.format("replay:%s?rate=%s&loop=%s", m_file.getPath(), (0 < m_messagesPerSecond) ? m_messagesPerSecond : "max", m_loop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_lock.lock();
+        try {
+            if (null != m_reader) {
+                m_reader.close();
+                m_reader = null;
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.theprez.triggermanager;
+
+/**
+ * Forwards a captured change to its destination. Implementations must be safe for use by several consumer
+ * threads at once.
+ */
+interface IChangeHandler {
+    void handle(ChangeEntry _entry) throws Exception;
+}
@@ -0,0 +1,57 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+
+/**
+ * A source of captured row changes for a single monitored table. Each entry is the UTF-8 payload
+ * produced by the trigger (see create.sql). The daemon reads from the source and routes each entry to Kafka.
+ */
+interface IChangeSource extends AutoCloseable {
+
+    /**
+     * Reads the next entry, waiting up to the given number of milliseconds for one to arrive.
+     *
+     * @return the entry data, or null if no entry arrived within the wait time
+     */
+    byte[] read(int _waitMillis) throws IOException, InterruptedException;
+
+    /**
+     * The number of entries currently waiting to be read, if the source can tell cheaply.
+     *
+     * @return the number of waiting entries, or -1 if unknown
+     */
+    default int getDepth() {
+        return -1;
+    }
+
+    /**
+     * The number of entries the source has taken from where they are kept and holds in memory until they are read.
+     * They are lost if the source is closed before they are read, so a reader that stops reads them first.
+     */
+    default int getReadAhead() {
+        return 0;
+    }
+
+    /**
+     * Identifies the entry most recently returned by {@link #read(int)}, for {@link #acknowledge(long)}.
+     *
+     * @return the entry's position, or -1 if the source does not track acknowledgements
+     */
+    default long getLastReadPosition() {
+        return -1;
+    }
+
+    /**
+     * Records that the entry at the given position has been published, so the source no longer needs to keep it.
+     * Entries can be acknowledged in any order, from any thread.
+     */
+    default void acknowledge(final long _position) {
+        // Entries are gone from the source once read
+    }
+
+    /** A description of the source, suitable for log output. Must not contain credentials. */
+    String getDescription();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,40 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * The state that sharded daemon instances share to split the monitored tables between them: a membership lease for
+ * each running instance, and a lease for each table, held by the instance that routes it. A lease lasts for the time
+ * it was last taken or renewed for, so the tables of an instance that stops without leaving are taken over once its
+ * leases run out. See {@link ShardCoordinator}.
+ */
+interface ICoordinationStore extends AutoCloseable {
+
+    /** Takes or renews the instance's membership lease, and renews the leases of the tables it holds */
+    void heartbeat(String _instanceId, long _leaseMillis) throws IOException;
+
+    /** The instances whose membership lease has not run out */
+    Set<String> getLiveInstances() throws IOException;
+
+    /**
+     * Takes the lease of a table if no instance holds it, or the holder's lease has run out, and renews it if the
+     * instance already holds it.
+     *
+     * @param _tableId the table's monitor ID
+     * @return whether the instance now holds the lease
+     */
+    boolean tryAcquire(String _tableId, String _instanceId, long _leaseMillis) throws IOException;
+
+    /** Gives up the instance's lease of a table, if it holds it */
+    void release(String _tableId, String _instanceId) throws IOException;
+
+    /** Gives up the instance's membership lease and the leases of all the tables it holds */
+    void leave(String _instanceId) throws IOException;
+
+    /** A description of the store, suitable for log output. Must not contain credentials. */
+    String getDescription();
+
+    @Override
+    void close() throws IOException;
+}
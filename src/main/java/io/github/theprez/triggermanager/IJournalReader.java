@@ -0,0 +1,31 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the journal entries for a single journaled table. The host implementation uses QSYS2.DISPLAY_JOURNAL;
+ * a recorded-entries file can stand in for it so that decoding and translation can be exercised off-host.
+ */
+interface IJournalReader extends AutoCloseable {
+
+    /**
+     * Reads the record and commitment control entries that follow the given sequence number, in sequence order.
+     *
+     * @param _afterSequence the sequence number of the last entry already read, or 0 to start at the point the
+     *                       table was added to monitoring
+     * @return at most _maxEntries entries; an empty list if there are no new entries
+     */
+    List<JournalEntry> read(long _afterSequence, int _maxEntries) throws IOException;
+
+    /** Records that every entry up to and including the given sequence number has been processed. */
+    void savePosition(long _sequence) throws IOException;
+
+    /** The sequence number saved by {@link #savePosition(long)}, or 0 if none has been saved. */
+    long getSavedPosition() throws IOException;
+
+    String getDescription();
+
+    @Override
+    void close() throws IOException;
+}
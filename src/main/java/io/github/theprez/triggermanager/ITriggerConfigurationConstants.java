@@ -7,6 +7,163 @@ interface ITriggerConfigurationConstants {
     // The Kafka broker uri
     static final String KEY_KAFKA_BROKER_URI = "KAFKA_BROKER_URI";
 
+    // How messages are published to Kafka: SINGLE (one send per data queue entry) or BATCH
+    static final String KEY_KAFKA_PUBLISH_MODE = "KAFKA_PUBLISH_MODE";
+
+    // The maximum number of data queue entries grouped into one Kafka publish (BATCH mode)
+    static final String KEY_KAFKA_BATCH_SIZE = "KAFKA_BATCH_SIZE";
+
+    // The Kafka producer batch size in bytes (BATCH mode)
+    static final String KEY_KAFKA_BATCH_BYTES = "KAFKA_BATCH_BYTES";
+
+    // How long, in milliseconds, to wait for a batch to fill before publishing it (BATCH mode)
+    static final String KEY_KAFKA_LINGER_MS = "KAFKA_LINGER_MS";
+
+    // The Kafka compression codec: none, gzip, snappy, lz4 or zstd (BATCH mode)
+    static final String KEY_KAFKA_COMPRESSION_CODEC = "KAFKA_COMPRESSION_CODEC";
+
+    // The maximum number of unacknowledged Kafka requests per connection (BATCH mode)
+    static final String KEY_KAFKA_MAX_IN_FLIGHT = "KAFKA_MAX_IN_FLIGHT";
+
+    // How entries are handed to Kafka: CAMEL (through the table's Camel route) or DIRECT (as bytes, to a Kafka producer)
+    static final String KEY_KAFKA_FORWARDER = "KAFKA_FORWARDER";
+
+    // Where the daemon reads captured changes from: DTAQ (the trigger's data queue) or REPLAY (captured payload files)
+    static final String KEY_CHANGE_SOURCE = "CHANGE_SOURCE";
+
+    // REPLAY source: the directory holding one <trigger id>.jsonl capture file per monitored table
+    static final String KEY_CHANGE_SOURCE_REPLAY_DIR = "CHANGE_SOURCE_REPLAY_DIR";
+
+    // REPLAY source: the number of payloads released per second (0 replays as fast as possible)
+    static final String KEY_CHANGE_SOURCE_REPLAY_RATE = "CHANGE_SOURCE_REPLAY_RATE";
+
+    // REPLAY source: whether to start over at the beginning of the capture file once the end is reached
+    static final String KEY_CHANGE_SOURCE_REPLAY_LOOP = "CHANGE_SOURCE_REPLAY_LOOP";
+
+    // Journal-captured tables: the maximum number of journal entries fetched at a time
+    static final String KEY_JOURNAL_FETCH_SIZE = "JOURNAL_FETCH_SIZE";
+
+    // Tables added with the compact payload format: whether to expand records to the standard JSON before publishing
+    static final String KEY_COMPACT_PAYLOAD_EXPAND = "COMPACT_PAYLOAD_EXPAND";
+
+    // The largest payload, in bytes, that a table's trigger can capture. Payloads larger than one data queue entry are sent in chunks.
+    static final String KEY_MAX_PAYLOAD_SIZE = "MAX_PAYLOAD_SIZE";
+
+    // The largest number of rows in one message from a STATEMENT trigger
+    static final String KEY_STATEMENT_ROWS_PER_MESSAGE = "STATEMENT_ROWS_PER_MESSAGE";
+
+    // Where partially received chunked payloads are kept until all of their chunks have arrived
+    static final String KEY_CHUNK_SPOOL_DIR = "CHUNK_SPOOL_DIR";
+
+    // How long, in milliseconds, to wait for the rest of a chunked payload before discarding it
+    static final String KEY_CHUNK_TIMEOUT_MS = "CHUNK_TIMEOUT_MS";
+
+    // Whether to drain each table's changes into a local spool and publish them from there
+    static final String KEY_SPOOL = "SPOOL";
+
+    // The directory holding the spool, with one subdirectory per monitored table
+    static final String KEY_SPOOL_DIR = "SPOOL_DIR";
+
+    // The size, in bytes, of each spool segment file
+    static final String KEY_SPOOL_SEGMENT_BYTES = "SPOOL_SEGMENT_BYTES";
+
+    // The disk budget, in bytes, for a table's spool segment files
+    static final String KEY_SPOOL_MAX_BYTES = "SPOOL_MAX_BYTES";
+
+    // The minimum number of consumer threads forwarding a table's changes
+    static final String KEY_CONSUMERS_MIN = "CONSUMERS_MIN";
+
+    // The maximum number of consumer threads forwarding a table's changes
+    static final String KEY_CONSUMERS_MAX = "CONSUMERS_MAX";
+
+    // Add consumers when more than this many entries per consumer are waiting to be forwarded
+    static final String KEY_CONSUMERS_SCALE_UP_BACKLOG = "CONSUMERS_SCALE_UP_BACKLOG";
+
+    // Add consumers when an entry waits longer than this many milliseconds before being forwarded
+    static final String KEY_CONSUMERS_SCALE_UP_LAG_MS = "CONSUMERS_SCALE_UP_LAG_MS";
+
+    // How often, in milliseconds, the consumer count is reevaluated
+    static final String KEY_CONSUMERS_CHECK_INTERVAL_MS = "CONSUMERS_CHECK_INTERVAL_MS";
+
+    // Comma-separated row key columns, overriding the table's primary or unique key. Changes with the same key keep their order
+    // and are published with the same Kafka record key.
+    static final String KEY_ROW_KEY_COLUMNS = "ROW_KEY_COLUMNS";
+
+    // Comma-separated columns that the daemon keeps in a table's payloads, leaving out all others
+    static final String KEY_TRANSFORM_COLUMNS = "TRANSFORM_COLUMNS";
+
+    // Comma-separated columns that the daemon leaves out of a table's payloads
+    static final String KEY_TRANSFORM_EXCLUDE_COLUMNS = "TRANSFORM_EXCLUDE_COLUMNS";
+
+    // Comma-separated OLD=NEW pairs of columns that the daemon renames in a table's payloads
+    static final String KEY_TRANSFORM_RENAME = "TRANSFORM_RENAME";
+
+    // Comma-separated columns whose values the daemon masks in a table's payloads
+    static final String KEY_TRANSFORM_MASK = "TRANSFORM_MASK";
+
+    // Comma-separated NAME=VALUE pairs of constant members that the daemon adds to a table's payloads
+    static final String KEY_TRANSFORM_ADD = "TRANSFORM_ADD";
+
+    // Comma-separated predicates, such as STATUS=A or BALANCE>=100, that a row must satisfy to be published
+    static final String KEY_TRANSFORM_FILTER = "TRANSFORM_FILTER";
+
+    // The longest time, in milliseconds, that the host waits for an entry on a table's data queue while it has entries
+    static final String KEY_DTAQ_WAIT_MS = "DTAQ_WAIT_MS";
+
+    // The largest number of entries read from a table's data queue at a time
+    static final String KEY_DTAQ_DRAIN_MAX = "DTAQ_DRAIN_MAX";
+
+    // The time, in milliseconds, before polling a data queue again after it was first found empty
+    static final String KEY_DTAQ_BACKOFF_MIN_MS = "DTAQ_BACKOFF_MIN_MS";
+
+    // The longest time, in milliseconds, between polls of a data queue that stays empty
+    static final String KEY_DTAQ_BACKOFF_MAX_MS = "DTAQ_BACKOFF_MAX_MS";
+
+    // The number of host server connections shared by all data queue readers
+    static final String KEY_CONNECTION_POOL_SIZE = "CONNECTION_POOL_SIZE";
+
+    // The longest time, in milliseconds, to wait between attempts to reestablish a lost connection
+    static final String KEY_CONNECTION_RETRY_MAX_MS = "CONNECTION_RETRY_MAX_MS";
+
+    // How often, in milliseconds, the daemon checks for tables added or removed without a notification, or 0 for never
+    static final String KEY_RECONCILE_INTERVAL_MS = "RECONCILE_INTERVAL_MS";
+
+    // The file that resolved tables and their columns are cached in between runs. Not set means memory only.
+    static final String KEY_CATALOG_CACHE_FILE = "CATALOG_CACHE_FILE";
+
+    // The port of the daemon's local metrics endpoint, or 0 for no endpoint
+    static final String KEY_METRICS_PORT = "METRICS_PORT";
+
+    // The address the metrics endpoint listens on
+    static final String KEY_METRICS_HOST = "METRICS_HOST";
+
+    // How often, in milliseconds, the rates and data queue depths are sampled
+    static final String KEY_METRICS_SAMPLE_INTERVAL_MS = "METRICS_SAMPLE_INTERVAL_MS";
+
+    // Whether each table's read and forward loops run on virtual threads: AUTO (if available), PLATFORM or VIRTUAL
+    static final String KEY_THREAD_MODE = "THREAD_MODE";
+
+    // The number of record ranges of a table that SNAPSHOT reads at the same time
+    static final String KEY_SNAPSHOT_PARALLELISM = "SNAPSHOT_PARALLELISM";
+
+    // The number of rows SNAPSHOT fetches from the server at a time
+    static final String KEY_SNAPSHOT_FETCH_SIZE = "SNAPSHOT_FETCH_SIZE";
+
+    // Whether several daemon instances split the monitored tables between them
+    static final String KEY_SHARDING = "SHARDING";
+
+    // The name of this daemon instance among the sharded instances
+    static final String KEY_SHARD_INSTANCE_ID = "SHARD_INSTANCE_ID";
+
+    // How long, in milliseconds, an instance keeps its tables after its last heartbeat
+    static final String KEY_SHARD_LEASE_MS = "SHARD_LEASE_MS";
+
+    // How often, in milliseconds, an instance renews its leases and reevaluates which tables it routes
+    static final String KEY_SHARD_HEARTBEAT_MS = "SHARD_HEARTBEAT_MS";
+
+    // The number of shared keyed data queues that tables added from now on send their changes to, or 0 for a data queue per table
+    static final String KEY_SHARED_DATA_QUEUES = "SHARED_DATA_QUEUES";
+
     // The root path for AIStream on IBM i
     static final String AISTREAM_ROOT_PATH = "/opt/aistream";
 
@@ -0,0 +1,48 @@
+package io.github.theprez.triggermanager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, in-memory stand-in for a data queue. Entries are supplied by the embedding code (for example a
+ * load generator or benchmark) through {@link #offer(byte[], long)}, which blocks while the queue is full.
+ */
+class InMemoryChangeSource implements IChangeSource {
+    private final BlockingQueue<byte[]> m_queue;
+    private final String m_description;
+
+    InMemoryChangeSource(final String _name, final int _capacity) {
+        m_queue = new ArrayBlockingQueue<>(_capacity);
+        m_description = String.format("memory:%s?capacity=%d", _name, _capacity);
+    }
+
+    /**
+     * Adds an entry, waiting up to the given number of milliseconds for space to become available.
+     *
+     * @return false if the queue was still full when the wait time elapsed
+     */
+    boolean offer(final byte[] _data, final long _waitMillis) throws InterruptedException {
+        return m_queue.offer(_data, _waitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getDepth() {
+        return m_queue.size();
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws InterruptedException {
+        return m_queue.poll(Math.max(0, _waitMillis), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getDescription() {
+        return m_description;
+    }
+
+    @Override
+    public void close() {
+        m_queue.clear();
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.theprez.triggermanager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+/**
+ * A coordination store held in memory, shared by the {@link ShardCoordinator}s of the instances it is given to. It
+ * lets rebalancing be exercised within one process, for example by tests or load generators, with a clock that the
+ * embedding code can advance to let leases run out.
+ */
+class InMemoryCoordinationStore implements ICoordinationStore {
+    private final LongSupplier m_clockMillis;
+    // Expiry times by instance ID
+    private final Map<String, Long> m_members = new HashMap<>();
+    // Holding instance and expiry time by table ID
+    private final Map<String, String> m_tableOwners = new HashMap<>();
+    private final Map<String, Long> m_tableExpiries = new HashMap<>();
+
+    InMemoryCoordinationStore() {
+        this(System::currentTimeMillis);
+    }
+
+    InMemoryCoordinationStore(final LongSupplier _clockMillis) {
+        m_clockMillis = _clockMillis;
+    }
+
+    @Override
+    public synchronized void heartbeat(final String _instanceId, final long _leaseMillis) {
+        final long expires = m_clockMillis.getAsLong() + _leaseMillis;
+        m_members.put(_instanceId, expires);
+        for (final Map.Entry<String, String> owner : m_tableOwners.entrySet()) {
+            if (owner.getValue().equals(_instanceId)) {
+                m_tableExpiries.put(owner.getKey(), expires);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Set<String> getLiveInstances() {
+        final long now = m_clockMillis.getAsLong();
+        final Set<String> ret = new TreeSet<>();
+        for (final Map.Entry<String, Long> member : m_members.entrySet()) {
+            if (now <= member.getValue()) {
+                ret.add(member.getKey());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire(final String _tableId, final String _instanceId, final long _leaseMillis) {
+        final long now = m_clockMillis.getAsLong();
+        final String owner = m_tableOwners.get(_tableId);
+        if (null != owner && !owner.equals(_instanceId) && now <= m_tableExpiries.get(_tableId)) {
+            return false;
+        }
+        m_tableOwners.put(_tableId, _instanceId);
+        m_tableExpiries.put(_tableId, now + _leaseMillis);
+        return true;
+    }
+
+    @Override
+    public synchronized void release(final String _tableId, final String _instanceId) {
+        if (_instanceId.equals(m_tableOwners.get(_tableId))) {
+            m_tableOwners.remove(_tableId);
+            m_tableExpiries.remove(_tableId);
+        }
+    }
+
+    @Override
+    public synchronized void leave(final String _instanceId) {
+        m_members.remove(_instanceId);
+        for (final Iterator<Map.Entry<String, String>> it = m_tableOwners.entrySet().iterator(); it.hasNext();) {
+            final Map.Entry<String, String> owner = it.next();
+            if (owner.getValue().equals(_instanceId)) {
+                m_tableExpiries.remove(owner.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "memory";
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
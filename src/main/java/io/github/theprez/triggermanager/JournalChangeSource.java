@@ -0,0 +1,198 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Turns a journaled table's journal entries into the same table/operation/row payloads that the trigger in
+ * create.sql sends to its data queue, so that the rest of the daemon cannot tell the two capture modes apart.
+ * <p>
+ * Changes made under commitment control are held back until their commit (CM) entry is read, and discarded
+ * if the commit cycle is rolled back (RB). Each change's position is its journal sequence number. The saved
+ * journal position never passes a change that has not been acknowledged yet, so a restarted daemon re-reads
+ * anything that was still waiting for its commit or had not been published.
+ * <p>
+ * The source's state is guarded by a lock rather than an object monitor, and is not held while waiting between
+ * polls of the journal, so a virtual thread that waits does not hold on to its carrier thread.
+ */
+class JournalChangeSource implements IChangeSource {
+    private static final int POLL_INTERVAL_MILLIS = 500;
+
+    private static final class Change {
+        private final long m_sequence;
+        private final byte[] m_payload;
+
+        private Change(final long _sequence, final byte[] _payload) {
+            m_sequence = _sequence;
+            m_payload = _payload;
+        }
+    }
+
+    private final IJournalReader m_reader;
+    private final JournalRecordLayout m_layout;
+    private final String m_tableName;
+    private final int m_fetchSize;
+    private final ArrayDeque<Change> m_ready = new ArrayDeque<>();
+    // Uncommitted changes by commit cycle, in the order the cycles started
+    private final Map<Long, ArrayDeque<Change>> m_pending = new LinkedHashMap<>();
+    private final Map<String, String> m_operations = new HashMap<>();
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private final StringBuilder m_json = new StringBuilder();
+    // Sequence numbers of the changes handed out but not yet acknowledged
+    private final ConcurrentSkipListSet<Long> m_unacknowledged = new ConcurrentSkipListSet<>();
+    private long m_lastRead;
+    private long m_lastSaved;
+    private long m_lastReadPosition = -1;
+
+    /**
+     * @param _fetchSize the maximum number of journal entries to fetch at a time
+     */
+    JournalChangeSource(final IJournalReader _reader, final JournalRecordLayout _layout, final TableDescriptor _table, final int _fetchSize) throws IOException {
+        m_reader = _reader;
+        m_layout = _layout;
+        m_tableName = _table.getName();
+        m_fetchSize = Math.max(1, _fetchSize);
+        m_lastRead = m_lastSaved = _reader.getSavedPosition();
+        m_operations.put("PT", "INSERT");
+        m_operations.put("PX", "INSERT");
+        m_operations.put("UP", "UPDATE");
+        m_operations.put("DL", "DELETE");
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + Math.max(0, _waitMillis);
+        while (true) {
+            m_lock.lock();
+            try {
+                final Change next = m_ready.poll();
+                if (null != next) {
+                    m_unacknowledged.add(next.m_sequence);
+                    m_lastReadPosition = next.m_sequence;
+                    return next.m_payload;
+                }
+                savePosition();
+                if (0 < fetch()) {
+                    continue;
+                }
+            } finally {
+                m_lock.unlock();
+            }
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.MILLISECONDS.sleep(Math.min(remaining, POLL_INTERVAL_MILLIS));
+        }
+    }
+
+    /** Reads the next batch of journal entries, returning the number of entries read */
+    private int fetch() throws IOException {
+        final List<JournalEntry> entries = m_reader.read(m_lastRead, m_fetchSize);
+        for (final JournalEntry entry : entries) {
+            m_lastRead = entry.getSequence();
+            final long cycle = entry.getCommitCycle();
+            if ('C' == entry.getCode()) {
+                final ArrayDeque<Change> cycleChanges = m_pending.remove(cycle);
+                if (null != cycleChanges && "CM".equals(entry.getType())) {
+                    m_ready.addAll(cycleChanges);
+                }
+                continue;
+            }
+            final String operation = m_operations.get(entry.getType());
+            if (null == operation) {
+                continue;
+            }
+            final Change change = new Change(entry.getSequence(), toPayload(operation, entry));
+            if (0 == cycle) {
+                m_ready.add(change);
+            } else {
+                m_pending.computeIfAbsent(cycle, c -> new ArrayDeque<>()).add(change);
+            }
+        }
+        return entries.size();
+    }
+
+    private byte[] toPayload(final String _operation, final JournalEntry _entry) {
+        m_json.setLength(0);
+        m_json.append("{\"table\":\"");
+        PayloadKeyExtractor.appendEscaped(m_json, m_tableName);
+        m_json.append("\",\"operation\":\"").append(_operation).append("\",\"row\":");
+        m_layout.appendRow(m_json, _entry);
+        m_json.append('}');
+        return m_json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long getLastReadPosition() {
+        m_lock.lock();
+        try {
+            return m_lastReadPosition;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public void acknowledge(final long _position) {
+        m_unacknowledged.remove(_position);
+    }
+
+    private void savePosition() throws IOException {
+        // Everything read so far has been published, except for changes still waiting for their commit, waiting to be
+        // handed out or not acknowledged yet. A commit cycle's changes can follow later ones, so take the lowest of each.
+        long safe = m_lastRead;
+        for (final ArrayDeque<Change> cycleChanges : m_pending.values()) {
+            safe = Math.min(safe, cycleChanges.peekFirst().m_sequence - 1);
+        }
+        for (final Change change : m_ready) {
+            safe = Math.min(safe, change.m_sequence - 1);
+        }
+        final Long firstUnacknowledged = m_unacknowledged.isEmpty() ? null : m_unacknowledged.first();
+        if (null != firstUnacknowledged) {
+            safe = Math.min(safe, firstUnacknowledged - 1);
+        }
+        if (safe > m_lastSaved) {
+            m_reader.savePosition(safe);
+            m_lastSaved = safe;
+        }
+    }
+
+    @Override
+    public int getDepth() {
+        m_lock.lock();
+        try {
+            return m_ready.size();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return m_reader.getDescription();
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_lock.lock();
+        try {
+            try {
+                // The entries handed out have been published or given up on by now
+                savePosition();
+            } finally {
+                m_reader.close();
+            }
+        } finally {
+            m_lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.theprez.triggermanager;
+
+/**
+ * A single journal entry, as returned by the QSYS2.DISPLAY_JOURNAL table function.
+ */
+final class JournalEntry {
+    private final long m_sequence;
+    private final char m_code;
+    private final String m_type;
+    private final long m_commitCycle;
+    private final byte[] m_data;
+    private final String m_nullIndicators;
+
+    /**
+     * @param _sequence       the journal sequence number
+     * @param _code           the journal code, for instance 'R' for record operations and 'C' for commitment control
+     * @param _type           the entry type, for instance PT, UP, DL, CM or RB
+     * @param _commitCycle    the commit cycle identifier, or 0 if the change was not made under commitment control
+     * @param _data           the record image, for record entries
+     * @param _nullIndicators one character per column, '1' where the column is null
+     */
+    JournalEntry(final long _sequence, final char _code, final String _type, final long _commitCycle, final byte[] _data, final String _nullIndicators) {
+        m_sequence = _sequence;
+        m_code = _code;
+        m_type = _type;
+        m_commitCycle = _commitCycle;
+        m_data = _data;
+        m_nullIndicators = _nullIndicators;
+    }
+
+    long getSequence() {
+        return m_sequence;
+    }
+
+    char getCode() {
+        return m_code;
+    }
+
+    String getType() {
+        return m_type;
+    }
+
+    long getCommitCycle() {
+        return m_commitCycle;
+    }
+
+    byte[] getData() {
+        return m_data;
+    }
+
+    boolean isNull(final int _column) {
+        return null != m_nullIndicators && _column < m_nullIndicators.length() && '1' == m_nullIndicators.charAt(_column);
+    }
+}
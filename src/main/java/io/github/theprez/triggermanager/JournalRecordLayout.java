@@ -0,0 +1,266 @@
+package io.github.theprez.triggermanager;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import com.ibm.as400.access.AS400Bin2;
+import com.ibm.as400.access.AS400Bin4;
+import com.ibm.as400.access.AS400Bin8;
+import com.ibm.as400.access.AS400DataType;
+import com.ibm.as400.access.AS400Float4;
+import com.ibm.as400.access.AS400Float8;
+import com.ibm.as400.access.AS400PackedDecimal;
+import com.ibm.as400.access.AS400Text;
+import com.ibm.as400.access.AS400ZonedDecimal;
+
+/**
+ * The physical layout of a table's record image, as found in the ENTRY_DATA of a journal entry, and the
+ * means to decode a record image into the same JSON row object that the trigger builds with JSON_OBJECT.
+ * <p>
+ * LOB, XML, DECFLOAT, ROWID and DATALINK columns are not stored inline in the record image and are emitted as null.
+ */
+final class JournalRecordLayout {
+    private static final int CCSID_BINARY = 65535;
+    // Date and time values in a record image are in their ISO character form
+    private static final int CCSID_DATETIME = 37;
+    // Marks columns that are decoded without a converter (binary data, or values whose length varies)
+    private static final Object NO_CONVERTER = new Object();
+
+    static final class Column {
+        private final String m_name;
+        private final String m_type;
+        private final int m_length;
+        private final int m_scale;
+        private final int m_ccsid;
+        private final int m_storage;
+
+        /**
+         * @param _name    the delimited column name, as used for the JSON key
+         * @param _type    the SYSCOLUMNS DATA_TYPE, for instance DECIMAL or TIMESTMP
+         * @param _length  the SYSCOLUMNS LENGTH (digits for numeric columns, characters for text columns)
+         * @param _scale   the SYSCOLUMNS NUMERIC_SCALE
+         * @param _ccsid   the SYSCOLUMNS CCSID
+         * @param _storage the number of bytes the column occupies in the record image
+         */
+        Column(final String _name, final String _type, final int _length, final int _scale, final int _ccsid, final int _storage) {
+            m_name = _name;
+            m_type = _type.trim().toUpperCase(Locale.ROOT);
+            m_length = _length;
+            m_scale = _scale;
+            m_ccsid = _ccsid;
+            m_storage = _storage;
+        }
+
+        String getName() {
+            return m_name;
+        }
+    }
+
+    private final List<Column> m_columns;
+    private final int[] m_offsets;
+    private final Object[] m_converters;
+    // Whether each column is part of the JSON row; columns left out still occupy their place in the record image
+    private final boolean[] m_captured;
+
+    JournalRecordLayout(final List<Column> _columns) {
+        this(_columns, null);
+    }
+
+    private JournalRecordLayout(final List<Column> _columns, final List<String> _captured) {
+        m_columns = Collections.unmodifiableList(new ArrayList<>(_columns));
+        m_offsets = new int[m_columns.size()];
+        m_converters = new Object[m_columns.size()];
+        m_captured = new boolean[m_columns.size()];
+        int offset = 0;
+        for (int i = 0; i < m_columns.size(); i++) {
+            final Column column = m_columns.get(i);
+            m_offsets[i] = offset;
+            m_converters[i] = createConverter(column);
+            m_captured[i] = null == _captured || _captured.contains(column.m_name);
+            offset += column.m_storage;
+        }
+    }
+
+    List<Column> getColumns() {
+        return m_columns;
+    }
+
+    /** Returns a layout that only includes the given delimited column names in the JSON row */
+    JournalRecordLayout withCapturedColumns(final List<String> _columns) {
+        return new JournalRecordLayout(m_columns, _columns);
+    }
+
+    static JournalRecordLayout fromCatalog(final Connection _conn, final TableDescriptor _table) throws SQLException {
+        final List<Column> columns = new ArrayList<>();
+        try (PreparedStatement stmt = _conn.prepareStatement(
+                "SELECT " +
+                "QSYS2.DELIMIT_NAME(COLUMN_NAME), DATA_TYPE, LENGTH, COALESCE(NUMERIC_SCALE, 0), COALESCE(CCSID, 0), STORAGE " +
+                "FROM QSYS2.SYSCOLUMNS " +
+                "WHERE SYSTEM_TABLE_SCHEMA = ? AND SYSTEM_TABLE_NAME = ? ORDER BY ORDINAL_POSITION")) {
+            stmt.setString(1, _table.getSystemSchema());
+            stmt.setString(2, _table.getSystemName());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                columns.add(new Column(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6)));
+            }
+        }
+        return new JournalRecordLayout(columns);
+    }
+
+    /**
+     * Appends the JSON object for the record image in the given entry, for instance <code>{"ID":1,"NAME":"X"}</code>.
+     */
+    void appendRow(final StringBuilder _json, final JournalEntry _entry) {
+        final byte[] data = _entry.getData();
+        _json.append('{');
+        boolean first = true;
+        for (int i = 0; i < m_columns.size(); i++) {
+            if (!m_captured[i]) {
+                continue;
+            }
+            final Column column = m_columns.get(i);
+            if (!first) {
+                _json.append(',');
+            }
+            first = false;
+            _json.append('"');
+            PayloadKeyExtractor.appendEscaped(_json, column.m_name);
+            _json.append("\":");
+            if (_entry.isNull(i) || null == m_converters[i] || m_offsets[i] + column.m_storage > data.length) {
+                _json.append("null");
+            } else {
+                appendValue(_json, column, m_converters[i], data, m_offsets[i]);
+            }
+        }
+        _json.append('}');
+    }
+
+    private static Object createConverter(final Column _column) {
+        switch (_column.m_type) {
+            case "SMALLINT":
+                return new AS400Bin2();
+            case "INTEGER":
+                return new AS400Bin4();
+            case "BIGINT":
+                return new AS400Bin8();
+            case "DECIMAL":
+                return new AS400PackedDecimal(_column.m_length, _column.m_scale);
+            case "NUMERIC":
+                return new AS400ZonedDecimal(_column.m_length, _column.m_scale);
+            case "REAL":
+                return new AS400Float4();
+            case "DOUBLE":
+                return new AS400Float8();
+            case "FLOAT":
+                return (4 == _column.m_storage) ? new AS400Float4() : new AS400Float8();
+            case "CHAR":
+            case "GRAPHIC":
+                return (CCSID_BINARY == _column.m_ccsid) ? NO_CONVERTER : new AS400Text(_column.m_storage, _column.m_ccsid);
+            case "VARCHAR":
+            case "VARGRAPHIC":
+            case "BINARY":
+            case "VARBINARY":
+                return NO_CONVERTER;
+            case "DATE":
+            case "TIME":
+            case "TIMESTMP":
+                return new AS400Text(_column.m_storage, CCSID_DATETIME);
+            default:
+                return null;
+        }
+    }
+
+    private static void appendValue(final StringBuilder _json, final Column _column, final Object _converter, final byte[] _data, final int _offset) {
+        switch (_column.m_type) {
+            case "SMALLINT":
+                _json.append(((AS400Bin2) _converter).toShort(_data, _offset));
+                return;
+            case "INTEGER":
+                _json.append(((AS400Bin4) _converter).toInt(_data, _offset));
+                return;
+            case "BIGINT":
+                _json.append(((AS400Bin8) _converter).toLong(_data, _offset));
+                return;
+            case "DECIMAL":
+            case "NUMERIC":
+                _json.append(((BigDecimal) ((AS400DataType) _converter).toObject(_data, _offset)).toPlainString());
+                return;
+            case "REAL":
+            case "DOUBLE":
+            case "FLOAT":
+                final double d = (_converter instanceof AS400Float4) ? ((AS400Float4) _converter).toFloat(_data, _offset)
+                        : ((AS400Float8) _converter).toDouble(_data, _offset);
+                if (Double.isNaN(d) || Double.isInfinite(d)) {
+                    _json.append("null");
+                } else {
+                    _json.append(d);
+                }
+                return;
+            case "CHAR":
+            case "GRAPHIC":
+            case "BINARY":
+                if (_converter instanceof AS400Text) {
+                    appendString(_json, (String) ((AS400Text) _converter).toObject(_data, _offset));
+                } else {
+                    appendHex(_json, _data, _offset, _column.m_storage);
+                }
+                return;
+            case "VARCHAR":
+            case "VARGRAPHIC":
+            case "VARBINARY":
+                // Two byte length prefix, in characters for graphic data and bytes otherwise
+                int length = ((_data[_offset] & 0xFF) << 8) | (_data[_offset + 1] & 0xFF);
+                if ("VARGRAPHIC".equals(_column.m_type)) {
+                    length *= 2;
+                }
+                length = Math.min(length, _column.m_storage - 2);
+                if ("VARBINARY".equals(_column.m_type) || CCSID_BINARY == _column.m_ccsid) {
+                    appendHex(_json, _data, _offset + 2, length);
+                } else {
+                    appendString(_json, (String) new AS400Text(length, _column.m_ccsid).toObject(_data, _offset + 2));
+                }
+                return;
+            case "DATE":
+                appendString(_json, ((String) ((AS400Text) _converter).toObject(_data, _offset)).trim());
+                return;
+            case "TIME":
+                // hh.mm.ss -> hh:mm:ss
+                appendString(_json, ((String) ((AS400Text) _converter).toObject(_data, _offset)).trim().replace('.', ':'));
+                return;
+            case "TIMESTMP":
+                // yyyy-mm-dd-hh.mm.ss.ffffff -> yyyy-mm-ddThh:mm:ss.ffffff
+                final char[] ts = ((String) ((AS400Text) _converter).toObject(_data, _offset)).trim().toCharArray();
+                if (19 <= ts.length) {
+                    ts[10] = 'T';
+                    ts[13] = ':';
+                    ts[16] = ':';
+                }
+                appendString(_json, new String(ts));
+                return;
+            default:
+                _json.append("null");
+        }
+    }
+
+    private static void appendString(final StringBuilder _json, final String _value) {
+        _json.append('"');
+        PayloadKeyExtractor.appendEscaped(_json, _value);
+        _json.append('"');
+    }
+
+    private static void appendHex(final StringBuilder _json, final byte[] _data, final int _offset, final int _length) {
+        final char[] digits = "0123456789ABCDEF".toCharArray();
+        _json.append('"');
+        for (int i = _offset; i < _offset + _length; i++) {
+            _json.append(digits[(_data[i] >> 4) & 0x0F]).append(digits[_data[i] & 0x0F]);
+        }
+        _json.append('"');
+    }
+}
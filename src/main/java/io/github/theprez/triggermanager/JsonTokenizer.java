@@ -0,0 +1,291 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal streaming (pull) tokenizer for UTF-8 JSON held in a byte array. No object tree is built; callers
+ * walk the tokens and inspect or copy the raw bytes of the ones they care about. A tokenizer can be reset and
+ * reused for each payload, so tokenizing allocates nothing unless a string is explicitly decoded.
+ */
+final class JsonTokenizer {
+
+    enum Token {
+        START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, FIELD_NAME, STRING, NUMBER, TRUE, FALSE, NULL, END
+    }
+
+    private static final int MAX_DEPTH = 256;
+
+    private byte[] m_buf;
+    private int m_pos;
+    private int m_end;
+    private int m_tokenStart;
+    private int m_tokenEnd;
+    private boolean m_tokenHasEscapes;
+    private Token m_token;
+    // For each nesting level, whether it is an object (true) or an array (false), and whether the next
+    // string within an object is expected to be a field name
+    private final boolean[] m_isObject = new boolean[MAX_DEPTH];
+    private final boolean[] m_expectName = new boolean[MAX_DEPTH];
+    private int m_depth;
+
+    JsonTokenizer reset(final byte[] _buf) {
+        return reset(_buf, 0, _buf.length);
+    }
+
+    JsonTokenizer reset(final byte[] _buf, final int _offset, final int _length) {
+        m_buf = _buf;
+        m_pos = _offset;
+        m_end = _offset + _length;
+        m_depth = 0;
+        m_token = null;
+        return this;
+    }
+
+    /** The nesting depth after the current token; 1 while inside the top-level object. */
+    int getDepth() {
+        return m_depth;
+    }
+
+    Token getToken() {
+        return m_token;
+    }
+
+    /** Offset of the first byte of the current token. For strings and field names this is the opening quote. */
+    int getTokenStart() {
+        return m_tokenStart;
+    }
+
+    /** Offset just past the last byte of the current token. For strings and field names this includes the closing quote. */
+    int getTokenEnd() {
+        return m_tokenEnd;
+    }
+
+    byte[] getBuffer() {
+        return m_buf;
+    }
+
+    Token next() throws IOException {
+        skipWhitespaceAndSeparators();
+        if (m_pos >= m_end) {
+            if (0 != m_depth) {
+                throw malformed("unexpected end of data");
+            }
+            return m_token = Token.END;
+        }
+        m_tokenStart = m_pos;
+        final byte b = m_buf[m_pos];
+        switch (b) {
+            case '{':
+                push(true);
+                m_pos++;
+                m_tokenEnd = m_pos;
+                return m_token = Token.START_OBJECT;
+            case '[':
+                push(false);
+                m_pos++;
+                m_tokenEnd = m_pos;
+                return m_token = Token.START_ARRAY;
+            case '}':
+            case ']':
+                if (0 == m_depth || m_isObject[m_depth - 1] != ('}' == b)) {
+                    throw malformed("unbalanced '" + (char) b + "'");
+                }
+                m_depth--;
+                m_pos++;
+                m_tokenEnd = m_pos;
+                valueCompleted();
+                return m_token = ('}' == b) ? Token.END_OBJECT : Token.END_ARRAY;
+            case '"':
+                scanString();
+                if (0 < m_depth && m_isObject[m_depth - 1] && m_expectName[m_depth - 1]) {
+                    m_expectName[m_depth - 1] = false;
+                    skipWhitespace();
+                    if (m_pos >= m_end || ':' != m_buf[m_pos]) {
+                        throw malformed("expected ':'");
+                    }
+                    m_pos++;
+                    return m_token = Token.FIELD_NAME;
+                }
+                valueCompleted();
+                return m_token = Token.STRING;
+            case 't':
+                return literal("true", Token.TRUE);
+            case 'f':
+                return literal("false", Token.FALSE);
+            case 'n':
+                return literal("null", Token.NULL);
+            default:
+                if ('-' == b || (b >= '0' && b <= '9')) {
+                    m_pos++;
+                    while (m_pos < m_end && isNumberChar(m_buf[m_pos])) {
+                        m_pos++;
+                    }
+                    m_tokenEnd = m_pos;
+                    valueCompleted();
+                    return m_token = Token.NUMBER;
+                }
+                throw malformed("unexpected character '" + (char) b + "'");
+        }
+    }
+
+    /**
+     * Skips the value that follows the current field name (or, if the current token starts an object or array,
+     * the rest of that object or array). Afterwards the current token is the last token of the skipped value.
+     */
+    void skipValue() throws IOException {
+        Token t = m_token;
+        if (Token.FIELD_NAME == t) {
+            t = next();
+        }
+        if (Token.START_OBJECT == t || Token.START_ARRAY == t) {
+            final int targetDepth = m_depth - 1;
+            while (m_depth > targetDepth) {
+                if (Token.END == next()) {
+                    throw malformed("unexpected end of data");
+                }
+            }
+        }
+    }
+
+    /** Whether the current string or field name token equals the given (unescaped) text. */
+    boolean textEquals(final String _text) {
+        final int len = m_tokenEnd - m_tokenStart - 2;
+        if (m_tokenHasEscapes || len != _text.length()) {
+            return (m_tokenHasEscapes || len > _text.length()) && _text.equals(getText());
+        }
+        for (int i = 0; i < len; i++) {
+            final char c = _text.charAt(i);
+            if (c >= 0x80) {
+                return _text.equals(getText());
+            }
+            if (m_buf[m_tokenStart + 1 + i] != (byte) c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The decoded text of the current string or field name token, or the raw text of any other token. */
+    String getText() {
+        if (Token.STRING != m_token && Token.FIELD_NAME != m_token) {
+            return new String(m_buf, m_tokenStart, m_tokenEnd - m_tokenStart, StandardCharsets.UTF_8);
+        }
+        if (!m_tokenHasEscapes) {
+            return new String(m_buf, m_tokenStart + 1, m_tokenEnd - m_tokenStart - 2, StandardCharsets.UTF_8);
+        }
+        // Escape sequences are plain ASCII, so they survive decoding the raw bytes first
+        final String raw = new String(m_buf, m_tokenStart + 1, m_tokenEnd - m_tokenStart - 2, StandardCharsets.UTF_8);
+        final StringBuilder out = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            final char c = raw.charAt(i);
+            if ('\\' != c || i + 1 == raw.length()) {
+                out.append(c);
+                continue;
+            }
+            final char e = raw.charAt(++i);
+            switch (e) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    out.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    out.append(e);
+            }
+        }
+        return out.toString();
+    }
+
+    private void push(final boolean _isObject) throws IOException {
+        if (MAX_DEPTH == m_depth) {
+            throw malformed("nesting too deep");
+        }
+        m_isObject[m_depth] = _isObject;
+        m_expectName[m_depth] = _isObject;
+        m_depth++;
+    }
+
+    private void valueCompleted() {
+        if (0 < m_depth && m_isObject[m_depth - 1]) {
+            m_expectName[m_depth - 1] = true;
+        }
+    }
+
+    private Token literal(final String _text, final Token _token) throws IOException {
+        final int len = _text.length();
+        if (m_pos + len > m_end) {
+            throw malformed("unexpected end of data");
+        }
+        for (int i = 0; i < len; i++) {
+            if (m_buf[m_pos + i] != _text.charAt(i)) {
+                throw malformed("invalid literal");
+            }
+        }
+        m_pos += len;
+        m_tokenEnd = m_pos;
+        valueCompleted();
+        return m_token = _token;
+    }
+
+    private void scanString() throws IOException {
+        m_tokenHasEscapes = false;
+        int i = m_pos + 1;
+        while (i < m_end) {
+            final byte b = m_buf[i];
+            if ('"' == b) {
+                m_pos = i + 1;
+                m_tokenEnd = m_pos;
+                return;
+            }
+            if ('\\' == b) {
+                m_tokenHasEscapes = true;
+                i++;
+            }
+            i++;
+        }
+        throw malformed("unterminated string");
+    }
+
+    private static boolean isNumberChar(final byte _b) {
+        return (_b >= '0' && _b <= '9') || '.' == _b || 'e' == _b || 'E' == _b || '+' == _b || '-' == _b;
+    }
+
+    private void skipWhitespace() {
+        while (m_pos < m_end) {
+            final byte b = m_buf[m_pos];
+            if (' ' != b && '\n' != b && '\r' != b && '\t' != b) {
+                return;
+            }
+            m_pos++;
+        }
+    }
+
+    private void skipWhitespaceAndSeparators() {
+        while (m_pos < m_end) {
+            final byte b = m_buf[m_pos];
+            if (' ' != b && '\n' != b && '\r' != b && '\t' != b && ',' != b) {
+                return;
+            }
+            m_pos++;
+        }
+    }
+
+    private IOException malformed(final String _reason) {
+        return new IOException(String.format("Malformed JSON at offset %d: %s", m_pos, _reason));
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.theprez.triggermanager;
+
+import java.util.List;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Invoked once the Kafka producer has completed a send (successfully or not), which for the asynchronous
+ * batch mode happens on the producer's callback thread rather than on the data queue consumer thread. On success,
+ * the entries the batch's exchanges were sent for are reported as published.
+ */
+class KafkaPublishCallback implements Processor {
+    private final AppLogger m_logger;
+    private final String m_topicName;
+
+    KafkaPublishCallback(final AppLogger _logger, final String _topicName) {
+        m_logger = _logger;
+        m_topicName = _topicName;
+    }
+
+    @Override
+    public void process(final Exchange _exchange) {
+        final Object body = _exchange.getIn().getBody();
+        final int messageCount = (body instanceof List) ? ((List<?>) body).size() : 1;
+        Throwable failure = _exchange.getException();
+        if (null == failure) {
+            failure = _exchange.getProperty(Exchange.EXCEPTION_CAUGHT, Throwable.class);
+        }
+        if (null == failure) {
+            m_logger.printfln_verbose("Published %d message(s) to %s", messageCount, m_topicName);
+            if (body instanceof List) {
+                for (final Object element : (List<?>) body) {
+                    if (element instanceof Exchange) {
+                        KafkaRouteBuilder.reportPublished((Exchange) element);
+                    }
+                }
+            } else {
+                KafkaRouteBuilder.reportPublished(_exchange);
+            }
+        } else {
+            m_logger.printfln_err("ERROR: Failed to publish %d message(s) to %s: %s", messageCount, m_topicName, failure.getLocalizedMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.github.theprez.triggermanager;
+
+import java.util.Locale;
+import java.util.Properties;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * The Kafka publishing settings for a single monitored table, as resolved from the AIStream configuration file.
+ */
+class KafkaPublishSettings implements ITriggerConfigurationConstants {
+
+    enum PublishMode {
+        /** One Kafka send per data queue entry, using the default producer settings */
+        SINGLE,
+        /** Data queue entries are grouped and sent asynchronously using the tuned producer settings */
+        BATCH
+    }
+
+    enum Forwarder {
+        /** Entries are published through the table's Camel route, which converts them to Strings */
+        CAMEL,
+        /** Entries are handed to a Kafka producer as the UTF-8 bytes they were read as, see {@link DirectKafkaForwarder} */
+        DIRECT
+    }
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_BATCH_BYTES = 256 * 1024;
+    private static final long DEFAULT_LINGER_MS = 20;
+    private static final String DEFAULT_COMPRESSION_CODEC = "none";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 5;
+
+    private final PublishMode m_mode;
+    private final Forwarder m_forwarder;
+    private final int m_batchSize;
+    private final int m_batchBytes;
+    private final long m_lingerMs;
+    private final String m_compressionCodec;
+    private final int m_maxInFlight;
+
+    private KafkaPublishSettings(final PublishMode _mode, final Forwarder _forwarder, final int _batchSize, final int _batchBytes, final long _lingerMs, final String _compressionCodec,
+            final int _maxInFlight) {
+        m_mode = _mode;
+        m_forwarder = _forwarder;
+        m_batchSize = _batchSize;
+        m_batchBytes = _batchBytes;
+        m_lingerMs = _lingerMs;
+        m_compressionCodec = _compressionCodec;
+        m_maxInFlight = _maxInFlight;
+    }
+
+    static KafkaPublishSettings forTable(final AppLogger _logger, final TableConfiguration _config) {
+        PublishMode mode = PublishMode.SINGLE;
+        final String modeValue = _config.get(KEY_KAFKA_PUBLISH_MODE, PublishMode.SINGLE.name());
+        try {
+            mode = PublishMode.valueOf(modeValue.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            _logger.printfln_warn("Warning: Invalid value '%s' for property '%s'. Using default value '%s'.", modeValue, KEY_KAFKA_PUBLISH_MODE, mode);
+        }
+        Forwarder forwarder = Forwarder.CAMEL;
+        final String forwarderValue = _config.get(KEY_KAFKA_FORWARDER, Forwarder.CAMEL.name());
+        try {
+            forwarder = Forwarder.valueOf(forwarderValue.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            _logger.printfln_warn("Warning: Invalid value '%s' for property '%s'. Using default value '%s'.", forwarderValue, KEY_KAFKA_FORWARDER, forwarder);
+        }
+        return new KafkaPublishSettings(mode, forwarder,
+                Math.max(1, _config.getInt(KEY_KAFKA_BATCH_SIZE, DEFAULT_BATCH_SIZE)),
+                Math.max(1, _config.getInt(KEY_KAFKA_BATCH_BYTES, DEFAULT_BATCH_BYTES)),
+                Math.max(0, _config.getLong(KEY_KAFKA_LINGER_MS, DEFAULT_LINGER_MS)),
+                _config.get(KEY_KAFKA_COMPRESSION_CODEC, DEFAULT_COMPRESSION_CODEC).toLowerCase(Locale.ROOT),
+                Math.max(1, _config.getInt(KEY_KAFKA_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT)));
+    }
+
+    /** The same settings in BATCH mode, for bulk publishing such as a snapshot */
+    KafkaPublishSettings asBatched() {
+        return new KafkaPublishSettings(PublishMode.BATCH, m_forwarder, m_batchSize, m_batchBytes, m_lingerMs, m_compressionCodec, m_maxInFlight);
+    }
+
+    /** The table's topic name, made of the host name, schema name and table name */
+    static String getTopicName(final String _hostname, final TableDescriptor _table) {
+        return _hostname + "_" + _table.getSchema() + "_" + _table.getName();
+    }
+
+    boolean isBatched() {
+        return PublishMode.BATCH == m_mode;
+    }
+
+    boolean isDirect() {
+        return Forwarder.DIRECT == m_forwarder;
+    }
+
+    int getBatchSize() {
+        return m_batchSize;
+    }
+
+    long getLingerMs() {
+        return m_lingerMs;
+    }
+
+    String getEndpointUri(final String _topicName, final String _brokers) {
+        final String uri = String.format("kafka:%s?brokers=%s", _topicName, _brokers);
+        if (!isBatched()) {
+            return uri;
+        }
+        // The producer sends asynchronously and completes the exchange from its callback, so the route
+        // does not wait on one broker round-trip per row. A linger time lets the producer fill its
+        // batches from the grouped exchanges before issuing a request.
+        return uri + String.format("&synchronous=false&lingerMs=%d&producerBatchSize=%d&compressionCodec=%s&maxInFlightRequest=%d",
+                m_lingerMs, m_batchBytes, m_compressionCodec, m_maxInFlight);
+    }
+
+    /**
+     * The producer configuration for a {@link DirectKafkaForwarder}: the same settings that
+     * {@link #getEndpointUri(String, String)} gives the Camel route, with a byte array value serializer.
+     */
+    Properties getProducerProperties(final String _brokers) {
+        final Properties ret = new Properties();
+        ret.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, _brokers);
+        ret.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        ret.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        if (isBatched()) {
+            ret.put(ProducerConfig.LINGER_MS_CONFIG, Long.toString(m_lingerMs));
+            ret.put(ProducerConfig.BATCH_SIZE_CONFIG, Integer.toString(m_batchBytes));
+            ret.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, m_compressionCodec);
+            ret.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, Integer.toString(m_maxInFlight));
+        }
+        return ret;
+    }
+
+    /** The number of partitions of a topic, asked of the brokers with a producer that is closed straight after */
+    int getPartitionCount(final String _topicName, final String _brokers) {
+        try (Producer<String, byte[]> producer = new KafkaProducer<>(getProducerProperties(_brokers))) {
+            return producer.partitionsFor(_topicName).size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final String forwarder = isDirect() ? ", " + m_forwarder : "";
+        if (!isBatched()) {
+            return m_mode.name() + forwarder;
+        }
+        return String.format("%s(size=%d, linger=%dms, compression=%s, inFlight=%d)%s", m_mode, m_batchSize, m_lingerMs, m_compressionCodec, m_maxInFlight, forwarder);
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.theprez.triggermanager;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.apache.camel.processor.aggregate.GroupedExchangeAggregationStrategy;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * The Camel route that publishes the payloads sent to an in-JVM direct endpoint to a table's Kafka topic, one record
+ * per payload, with the table's {@link KafkaPublishSettings}. Payloads are sent to the route with {@link #send}.
+ */
+class KafkaRouteBuilder extends RouteBuilder {
+    // The exchange property holding the entry an exchange was sent for, so it can be reported as published
+    private static final String PROPERTY_ENTRY = "AIStreamEntry";
+
+    private final AppLogger m_logger;
+    private final String m_routeUri;
+    private final String m_routeId;
+    private final String m_topicName;
+    private final String m_kafkaUri;
+    private final KafkaPublishSettings m_settings;
+
+    KafkaRouteBuilder(final AppLogger _logger, final String _routeUri, final String _routeId, final String _topicName, final String _kafkaBrokerUri,
+            final KafkaPublishSettings _settings) {
+        m_logger = _logger;
+        m_routeUri = _routeUri;
+        m_routeId = _routeId;
+        m_topicName = _topicName;
+        m_kafkaUri = _settings.getEndpointUri(_topicName, _kafkaBrokerUri);
+        m_settings = _settings;
+    }
+
+    String getKafkaUri() {
+        return m_kafkaUri;
+    }
+
+    /**
+     * Sends a payload to the route. The row key, if there is one, becomes the Kafka record key, so all changes to a
+     * row go to the same partition and keep their order there. Batched payloads keep their own keys.
+     */
+    static void send(final ProducerTemplate _producer, final String _routeUri, final Object _payload, final String _key) {
+        if (null == _key) {
+            _producer.sendBody(_routeUri, _payload);
+        } else {
+            _producer.sendBodyAndHeader(_routeUri, _payload, KafkaConstants.KEY, _key);
+        }
+    }
+
+    /**
+     * Sends an entry to the route. The entry is reported as published once Kafka has accepted its record: before this
+     * returns in SINGLE mode, and from the route once its batch has been sent in BATCH mode.
+     *
+     * @throws Exception if the route failed to publish the entry in SINGLE mode
+     */
+    static void send(final ProducerTemplate _producer, final String _routeUri, final ChangeEntry _entry) throws Exception {
+        if (!_entry.hasPublishedListener()) {
+            send(_producer, _routeUri, _entry.getData(), _entry.getKey());
+            return;
+        }
+        sendToPartition(_producer, _routeUri, _entry, null);
+    }
+
+    /**
+     * Sends an entry to every partition of the topic by number, so that it is in order with the records of every key.
+     * The entry is reported as published once every partition has accepted it.
+     *
+     * @throws Exception if the route failed to publish the entry to a partition in SINGLE mode
+     */
+    static void sendToAllPartitions(final ProducerTemplate _producer, final String _routeUri, final ChangeEntry _entry, final int _partitions) throws Exception {
+        final ChangeEntry entry = _entry.publishedAfter(_partitions);
+        for (int partition = 0; partition < _partitions; partition++) {
+            sendToPartition(_producer, _routeUri, entry, partition);
+        }
+    }
+
+    private static void sendToPartition(final ProducerTemplate _producer, final String _routeUri, final ChangeEntry _entry, final Integer _partition) throws Exception {
+        final Exchange result = _producer.send(_routeUri, exchange -> {
+            exchange.getIn().setBody(_entry.getData());
+            if (null != _entry.getKey()) {
+                exchange.getIn().setHeader(KafkaConstants.KEY, _entry.getKey());
+            }
+            if (null != _partition) {
+                exchange.getIn().setHeader(KafkaConstants.PARTITION_KEY, _partition);
+            }
+            exchange.setProperty(PROPERTY_ENTRY, _entry);
+        });
+        if (null != result.getException()) {
+            throw result.getException();
+        }
+    }
+
+    /** Reports the entry an exchange was sent for, if any, as published */
+    static void reportPublished(final Exchange _exchange) {
+        final ChangeEntry entry = _exchange.getProperty(PROPERTY_ENTRY, ChangeEntry.class);
+        if (null != entry) {
+            entry.published();
+        }
+    }
+
+    @Override
+    public void configure() {
+        if (!m_settings.isBatched()) {
+            from(m_routeUri).routeId(m_routeId)
+                    // We do this to convert the bytes from the data queue (UTF-8 JSON data) into a
+                    // String object in the message
+                    .convertBodyTo(String.class, "UTF-8")
+                    .to(m_kafkaUri)
+                    .process(KafkaRouteBuilder::reportPublished);
+            return;
+        }
+        final KafkaPublishCallback callback = new KafkaPublishCallback(m_logger, m_topicName);
+        onException(Exception.class).process(callback);
+        from(m_routeUri).routeId(m_routeId)
+                .convertBodyTo(String.class, "UTF-8")
+                // Group the entries so that one exchange carries a whole batch of records. The
+                // Kafka producer sends each element of the list as its own record, in order.
+                .aggregate(constant(true), new GroupedExchangeAggregationStrategy())
+                    .completionSize(m_settings.getBatchSize())
+                    .completionTimeout(Math.max(1, m_settings.getLingerMs()))
+                    .completionTimeoutCheckerInterval(Math.max(1, m_settings.getLingerMs()))
+                    .forceCompletionOnStop()
+                .to(m_kafkaUri)
+                .process(callback);
+    }
+}
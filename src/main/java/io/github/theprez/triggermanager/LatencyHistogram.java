@@ -0,0 +1,81 @@
+package io.github.theprez.triggermanager;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed bucket bounds, cheap enough to update from every consumer thread on every
+ * entry. Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+final class LatencyHistogram {
+    /** The bucket upper bounds, in milliseconds. Anything slower falls into a final unbounded bucket. */
+    static final double[] BOUNDS_MILLIS = { 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+
+    private final LongAdder[] m_buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+    private final LongAdder m_count = new LongAdder();
+    private final LongAdder m_sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < m_buckets.length; i++) {
+            m_buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long _nanos) {
+        final long nanos = Math.max(0, _nanos);
+        final double millis = nanos / 1e6;
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        m_buckets[bucket].increment();
+        m_count.increment();
+        m_sumNanos.add(nanos);
+    }
+
+    long getCount() {
+        return m_count.sum();
+    }
+
+    double getSumSeconds() {
+        return m_sumNanos.sum() / 1e9;
+    }
+
+    double getMeanMillis() {
+        final long count = m_count.sum();
+        return (0 == count) ? 0 : m_sumNanos.sum() / 1e6 / count;
+    }
+
+    /** The number of recorded latencies in each bucket, the last bucket being the unbounded one */
+    long[] getBucketCounts() {
+        final long[] ret = new long[m_buckets.length];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = m_buckets[i].sum();
+        }
+        return ret;
+    }
+
+    /**
+     * @param _percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in milliseconds, or infinity if it is beyond
+     *         the last bound
+     */
+    double getPercentileMillis(final double _percentile) {
+        final long[] counts = getBucketCounts();
+        long total = 0;
+        for (final long count : counts) {
+            total += count;
+        }
+        if (0 == total) {
+            return 0;
+        }
+        final double target = Math.ceil(total * _percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return BOUNDS_MILLIS[i];
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.IFSFile;
+
+/**
+ * Records every monitored table, with the capture mode and options it was added with, in a table in the
+ * trigger manager library. Trigger-captured tables are also visible through SYSTRIGGERS, but journal-captured
+ * tables have no trigger, so this is the only place they are recorded.
+ */
+class MonitorRegistry {
+    static final String REGISTRY_TABLE = "AIMONITOR";
+
+    private final Connection m_conn;
+    private final String m_library;
+
+    private MonitorRegistry(final Connection _conn, final String _library) {
+        m_conn = _conn;
+        m_library = _library;
+    }
+
+    MonitorRegistry(final AS400 _as400, final Connection _conn, final String _library, final AppLogger _logger) throws IOException, SQLException {
+        m_conn = _conn;
+        m_library = _library;
+        IFSFile checker = new IFSFile(_as400, "/qsys.lib/" + m_library + ".lib/" + REGISTRY_TABLE + ".file");
+        if (!checker.exists()) {
+            _logger.printfln_verbose("Creating monitor registry %s.%s", m_library, REGISTRY_TABLE);
+            try (Statement stmt = m_conn.createStatement()) {
+                stmt.execute(String.format("CREATE TABLE %s.%s (" +
+                        "MONITOR_ID VARCHAR(10) NOT NULL PRIMARY KEY, " +
+                        "TABLE_SCHEMA VARCHAR(258) NOT NULL, " +
+                        "SYSTEM_TABLE_SCHEMA VARCHAR(10) NOT NULL, " +
+                        "TABLE_NAME VARCHAR(258) NOT NULL, " +
+                        "SYSTEM_TABLE_NAME VARCHAR(10) NOT NULL, " +
+                        "CAPTURE_MODE VARCHAR(10) NOT NULL, " +
+                        "OPTIONS CLOB(1M) NOT NULL DEFAULT '', " +
+                        "JOURNAL_POSITION BIGINT NOT NULL DEFAULT 0, " +
+                        "ADDED TIMESTAMP NOT NULL DEFAULT CURRENT TIMESTAMP)", m_library, REGISTRY_TABLE));
+                stmt.execute(String.format("LABEL ON TABLE %s.%s IS 'AIStream - monitored tables'", m_library, REGISTRY_TABLE));
+            }
+        } else {
+            widenOptions(_logger);
+        }
+    }
+
+    /** Registries created by earlier versions held the options in a VARCHAR(8000), too small for long column lists */
+    private void widenOptions(final AppLogger _logger) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(
+                "SELECT DATA_TYPE FROM QSYS2.SYSCOLUMNS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND COLUMN_NAME = 'OPTIONS'")) {
+            stmt.setString(1, m_library);
+            stmt.setString(2, REGISTRY_TABLE);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next() || "CLOB".equals(rs.getString(1).trim())) {
+                return;
+            }
+        }
+        _logger.printfln_verbose("Widening the options of monitor registry %s.%s", m_library, REGISTRY_TABLE);
+        try (Statement stmt = m_conn.createStatement()) {
+            stmt.execute(String.format("ALTER TABLE %s.%s ALTER COLUMN OPTIONS SET DATA TYPE CLOB(1M)", m_library, REGISTRY_TABLE));
+        } catch (SQLException e) {
+            _logger.printfln_warn("Warning: Unable to widen the options of monitor registry %s.%s: %s", m_library, REGISTRY_TABLE, e.getLocalizedMessage());
+        }
+    }
+
+    /** The same registry, read and written through another connection */
+    MonitorRegistry on(final Connection _conn) {
+        return new MonitorRegistry(_conn, m_library);
+    }
+
+    void register(final TriggerDescriptor _trigger) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format(
+                "INSERT INTO %s.%s (MONITOR_ID, TABLE_SCHEMA, SYSTEM_TABLE_SCHEMA, TABLE_NAME, SYSTEM_TABLE_NAME, CAPTURE_MODE, OPTIONS) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)", m_library, REGISTRY_TABLE))) {
+            final TableDescriptor table = _trigger.getTableDescriptor();
+            stmt.setString(1, _trigger.getTriggerId());
+            stmt.setString(2, table.getSchema());
+            stmt.setString(3, table.getSystemSchema());
+            stmt.setString(4, table.getName());
+            stmt.setString(5, table.getSystemName());
+            stmt.setString(6, _trigger.getCaptureMode().name());
+            stmt.setString(7, toText(_trigger.getOptions()));
+            stmt.executeUpdate();
+        }
+    }
+
+    void unregister(final String _monitorId) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format("DELETE FROM %s.%s WHERE MONITOR_ID = ?", m_library, REGISTRY_TABLE))) {
+            stmt.setString(1, _monitorId);
+            stmt.executeUpdate();
+        }
+    }
+
+    boolean isRegistered(final String _monitorId) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format("SELECT COUNT(*) FROM %s.%s WHERE MONITOR_ID = ?", m_library, REGISTRY_TABLE))) {
+            stmt.setString(1, _monitorId);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return 0 < rs.getInt(1);
+        }
+    }
+
+    /**
+     * Looks up the registration for the given monitor ID.
+     *
+     * @return the registration, or null if the table was added before the registry existed
+     */
+    TriggerDescriptor get(final String _monitorId) throws SQLException {
+        final List<TriggerDescriptor> ret = query("MONITOR_ID = ?", _monitorId);
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    /** Looks up the registration for the given table, if any. */
+    TriggerDescriptor getForTable(final TableDescriptor _table) throws SQLException {
+        final List<TriggerDescriptor> ret = query("TABLE_SCHEMA = ? AND TABLE_NAME = ?", _table.getSchema(), _table.getName());
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    /** Every registration, with one query */
+    List<TriggerDescriptor> listAll() throws SQLException {
+        return query("1 = 1");
+    }
+
+    /** When the table was added to monitoring, or the current time if it is not registered */
+    Timestamp getAddedTimestamp(final String _monitorId) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format("SELECT ADDED FROM %s.%s WHERE MONITOR_ID = ?", m_library, REGISTRY_TABLE))) {
+            stmt.setString(1, _monitorId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getTimestamp(1) : new Timestamp(System.currentTimeMillis());
+        }
+    }
+
+    /** The sequence number of the last journal entry read for a journal-captured table, or 0 if none has been read yet */
+    long getJournalPosition(final String _monitorId) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format("SELECT JOURNAL_POSITION FROM %s.%s WHERE MONITOR_ID = ?", m_library, REGISTRY_TABLE))) {
+            stmt.setString(1, _monitorId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    void setJournalPosition(final String _monitorId, final long _sequence) throws SQLException {
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format("UPDATE %s.%s SET JOURNAL_POSITION = ? WHERE MONITOR_ID = ?", m_library, REGISTRY_TABLE))) {
+            stmt.setLong(1, _sequence);
+            stmt.setString(2, _monitorId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private List<TriggerDescriptor> query(final String _where, final String... _args) throws SQLException {
+        final List<TriggerDescriptor> ret = new LinkedList<>();
+        try (PreparedStatement stmt = m_conn.prepareStatement(String.format(
+                "SELECT MONITOR_ID, TABLE_SCHEMA, SYSTEM_TABLE_SCHEMA, TABLE_NAME, SYSTEM_TABLE_NAME, CAPTURE_MODE, OPTIONS " +
+                "FROM %s.%s WHERE %s ORDER BY TABLE_SCHEMA, TABLE_NAME", m_library, REGISTRY_TABLE, _where))) {
+            for (int i = 0; i < _args.length; i++) {
+                stmt.setString(i + 1, _args[i]);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final TableDescriptor table = new TableDescriptor(rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5));
+                ret.add(new TriggerDescriptor(m_library, rs.getString(1), table, TriggerDescriptor.CaptureMode.valueOf(rs.getString(6).trim()),
+                        fromText(rs.getString(7))));
+            }
+        }
+        return ret;
+    }
+
+    private static String toText(final Properties _options) {
+        final StringWriter out = new StringWriter();
+        try {
+            _options.store(out, null);
+        } catch (IOException e) {
+            // Not possible when writing to a StringWriter
+        }
+        // Drop the timestamp comment that Properties.store() always writes
+        final StringBuilder ret = new StringBuilder();
+        for (final String line : out.toString().split("\n")) {
+            if (!line.startsWith("#")) {
+                ret.append(line.trim()).append('\n');
+            }
+        }
+        return ret.toString();
+    }
+
+    private static Properties fromText(final String _text) {
+        final Properties ret = new Properties();
+        if (null != _text) {
+            try {
+                ret.load(new StringReader(_text));
+            } catch (IOException e) {
+                // Not possible when reading from a StringReader
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.theprez.triggermanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Splits the messages written by a statement trigger, each holding several of the rows a statement changed, into one
+ * entry per row in the shape a row trigger writes, so that every row is published as a record of its own, with its own
+ * key. A message such as
+ *
+ * <pre>
+ * {"table":"T","operation":"UPDATE","rows":[{"ID":1,...},{"ID":2,...}]}
+ * </pre>
+ *
+ * becomes <code>{"table":"T","operation":"UPDATE","row":{"ID":1,...}}</code> and so on. The rows are copied as they
+ * are, without being parsed. Entries without a rows array, such as snapshot watermarks, are passed through unchanged.
+ */
+class MultiRowPayloadChangeSource implements IChangeSource {
+    private static final byte[] ROW_MEMBER = "\"row\":".getBytes(StandardCharsets.US_ASCII);
+
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final JsonTokenizer m_tokenizer = new JsonTokenizer();
+    // The rows of the last message that have not been returned yet
+    private final ArrayDeque<byte[]> m_rows = new ArrayDeque<>();
+
+    MultiRowPayloadChangeSource(final AppLogger _logger, final IChangeSource _source) {
+        m_logger = _logger;
+        m_source = _source;
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        if (!m_rows.isEmpty()) {
+            return m_rows.poll();
+        }
+        final byte[] entry = m_source.read(_waitMillis);
+        if (null == entry) {
+            return null;
+        }
+        try {
+            if (!split(entry)) {
+                return entry;
+            }
+        } catch (IOException e) {
+            // Publish the message as it is rather than lose it
+            m_logger.printfln_warn("Warning: Unable to split multi-row message from %s: %s", m_source.getDescription(), e.getLocalizedMessage());
+            return entry;
+        }
+        return m_rows.poll();
+    }
+
+    /**
+     * Adds an entry for each element of the message's rows array, with the message's other members.
+     *
+     * @return whether the message has a rows array
+     */
+    private boolean split(final byte[] _message) throws IOException {
+        final JsonTokenizer tokenizer = m_tokenizer.reset(_message);
+        if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+            return false;
+        }
+        // The other members, and the start and end offsets of each row
+        final ByteArrayOutputStream head = new ByteArrayOutputStream(64);
+        head.write('{');
+        int[] rows = null;
+        int rowCount = 0;
+        while (JsonTokenizer.Token.FIELD_NAME == tokenizer.next()) {
+            final int memberStart = tokenizer.getTokenStart();
+            if (null == rows && tokenizer.textEquals("rows")) {
+                if (JsonTokenizer.Token.START_ARRAY != tokenizer.next()) {
+                    return false;
+                }
+                rows = new int[16];
+                while (JsonTokenizer.Token.END_ARRAY != tokenizer.next()) {
+                    final int rowStart = tokenizer.getTokenStart();
+                    tokenizer.skipValue();
+                    if (rows.length < 2 * rowCount + 2) {
+                        final int[] grown = new int[rows.length * 2];
+                        System.arraycopy(rows, 0, grown, 0, rows.length);
+                        rows = grown;
+                    }
+                    rows[2 * rowCount] = rowStart;
+                    rows[2 * rowCount + 1] = tokenizer.getTokenEnd();
+                    rowCount++;
+                }
+                continue;
+            }
+            tokenizer.skipValue();
+            head.write(_message, memberStart, tokenizer.getTokenEnd() - memberStart);
+            head.write(',');
+        }
+        if (null == rows) {
+            return false;
+        }
+        head.write(ROW_MEMBER, 0, ROW_MEMBER.length);
+        final byte[] prefix = head.toByteArray();
+        for (int i = 0; i < rowCount; i++) {
+            final int start = rows[2 * i];
+            final int end = rows[2 * i + 1];
+            final byte[] row = new byte[prefix.length + end - start + 1];
+            System.arraycopy(prefix, 0, row, 0, prefix.length);
+            System.arraycopy(_message, start, row, prefix.length, end - start);
+            row[row.length - 1] = '}';
+            m_rows.add(row);
+        }
+        return true;
+    }
+
+    @Override
+    public int getDepth() {
+        return m_source.getDepth();
+    }
+
+    @Override
+    public int getReadAhead() {
+        return m_rows.size() + m_source.getReadAhead();
+    }
+
+    @Override
+    public String getDescription() {
+        return m_source.getDescription();
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_source.close();
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Pulls the row key out of a payload without building an object tree. The key is rendered as a compact JSON
+ * object of the key columns, in key column order, for example <code>{"ID":42}</code>, using the raw bytes of
+ * each value so that the same row always produces exactly the same key.
+ * <p>
+ * Instances are not thread safe; use one per thread.
+ */
+final class PayloadKeyExtractor {
+    private final String[] m_keyColumns;
+    private final int[] m_valueStarts;
+    private final int[] m_valueEnds;
+    private final JsonTokenizer m_tokenizer = new JsonTokenizer();
+
+    PayloadKeyExtractor(final List<String> _keyColumns) {
+        m_keyColumns = _keyColumns.toArray(new String[0]);
+        m_valueStarts = new int[m_keyColumns.length];
+        m_valueEnds = new int[m_keyColumns.length];
+    }
+
+    boolean hasKeyColumns() {
+        return 0 < m_keyColumns.length;
+    }
+
+    /**
+     * @return the row key, or null if there are no key columns or the payload does not contain all of them
+     */
+    String extractKey(final byte[] _payload) {
+        if (!hasKeyColumns()) {
+            return null;
+        }
+        try {
+            return extract(_payload);
+        } catch (IOException e) {
+            // Not a JSON payload, so there is no key to route on
+            return null;
+        }
+    }
+
+    private String extract(final byte[] _payload) throws IOException {
+        final JsonTokenizer tokenizer = m_tokenizer.reset(_payload);
+        if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+            return null;
+        }
+        int found = 0;
+        for (int i = 0; i < m_keyColumns.length; i++) {
+            m_valueStarts[i] = -1;
+        }
+        JsonTokenizer.Token t;
+        while (JsonTokenizer.Token.END != (t = tokenizer.next()) && 0 < tokenizer.getDepth()) {
+            if (JsonTokenizer.Token.FIELD_NAME != t) {
+                continue;
+            }
+            // The key columns are found in the row image (or in the key image of a changed-columns update)
+            if (!tokenizer.textEquals("row") && !tokenizer.textEquals("key")) {
+                tokenizer.skipValue();
+                continue;
+            }
+            if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+                tokenizer.skipValue();
+                continue;
+            }
+            while (JsonTokenizer.Token.FIELD_NAME == (t = tokenizer.next())) {
+                final int column = indexOfKeyColumn(tokenizer);
+                final JsonTokenizer.Token value = tokenizer.next();
+                if (JsonTokenizer.Token.START_OBJECT == value || JsonTokenizer.Token.START_ARRAY == value) {
+                    tokenizer.skipValue();
+                } else if (0 <= column && m_valueStarts[column] < 0) {
+                    m_valueStarts[column] = tokenizer.getTokenStart();
+                    m_valueEnds[column] = tokenizer.getTokenEnd();
+                    if (++found == m_keyColumns.length) {
+                        return render(_payload);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the payload is a snapshot watermark ({@link TableSnapshot#OPERATION_START} or
+     * {@link TableSnapshot#OPERATION_END}), which has no row key and is published to every partition.
+     */
+    boolean isWatermark(final byte[] _payload) {
+        try {
+            final JsonTokenizer tokenizer = m_tokenizer.reset(_payload);
+            if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+                return false;
+            }
+            JsonTokenizer.Token t;
+            while (JsonTokenizer.Token.END != (t = tokenizer.next()) && 0 < tokenizer.getDepth()) {
+                if (JsonTokenizer.Token.FIELD_NAME != t) {
+                    continue;
+                }
+                if (!tokenizer.textEquals("operation")) {
+                    tokenizer.skipValue();
+                    continue;
+                }
+                return JsonTokenizer.Token.STRING == tokenizer.next()
+                        && (tokenizer.textEquals(TableSnapshot.OPERATION_START) || tokenizer.textEquals(TableSnapshot.OPERATION_END));
+            }
+        } catch (IOException e) {
+            // Not a JSON payload
+        }
+        return false;
+    }
+
+    private int indexOfKeyColumn(final JsonTokenizer _tokenizer) {
+        for (int i = 0; i < m_keyColumns.length; i++) {
+            if (_tokenizer.textEquals(m_keyColumns[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String render(final byte[] _payload) {
+        final StringBuilder key = new StringBuilder(16 * m_keyColumns.length);
+        key.append('{');
+        for (int i = 0; i < m_keyColumns.length; i++) {
+            if (0 < i) {
+                key.append(',');
+            }
+            key.append('"');
+            appendEscaped(key, m_keyColumns[i]);
+            key.append("\":");
+            key.append(new String(_payload, m_valueStarts[i], m_valueEnds[i] - m_valueStarts[i], StandardCharsets.UTF_8));
+        }
+        return key.append('}').toString();
+    }
+
+    static void appendEscaped(final StringBuilder _sb, final String _text) {
+        for (int i = 0; i < _text.length(); i++) {
+            final char c = _text.charAt(i);
+            if ('"' == c || '\\' == c) {
+                _sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                _sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                _sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,475 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Reshapes a table's payloads in the daemon before they are published: keeps or leaves out columns, renames and masks
+ * columns, adds constant members, and drops rows that do not satisfy the filter predicates. The rules are read from
+ * the table's TRANSFORM_ settings, so they can be changed by restarting the daemon, without touching the trigger.
+ * <p>
+ * Each payload is transformed in a single pass of a {@link JsonTokenizer} over its bytes, copying the bytes of the
+ * members that are kept, so no object tree is built. The column rules apply to the row images of a payload (the
+ * <code>row</code>, <code>key</code>, <code>changes</code> and <code>before</code> members). Payloads without a row
+ * image, such as snapshot watermarks, are passed on unchanged.
+ * <p>
+ * Instances are thread safe; each thread transforms with a tokenizer and buffer of its own.
+ */
+final class PayloadTransform implements ITriggerConfigurationConstants {
+    private static final String[] ROW_IMAGES = { "row", "key", "changes", "before" };
+    // The row image that only holds old values, which the filter predicates do not look at
+    private static final String BEFORE_IMAGE = "before";
+    // The members of every payload that a predicate can test, next to its columns
+    private static final List<String> PAYLOAD_MEMBERS = Arrays.asList("table", "operation");
+    private static final byte[] MASKED_VALUE = "\"*****\"".getBytes(StandardCharsets.UTF_8);
+    private static final String[] OPERATORS = { "!=", "<=", ">=", "=", "<", ">" };
+
+    private final AppLogger m_logger;
+    // The columns with rules, and for each whether it is kept, the name it is renamed to as "NAME": (or null),
+    // whether it is masked, and the predicates that test it
+    private final String[] m_columns;
+    private final boolean[] m_kept;
+    private final byte[][] m_renamed;
+    private final boolean[] m_masked;
+    private final int[][] m_columnPredicates;
+    // Whether only the columns listed in TRANSFORM_COLUMNS are kept
+    private final boolean m_projected;
+    // The members added to each payload, as ,"NAME":"VALUE"...
+    private final byte[] m_added;
+    private final Predicate[] m_predicates;
+    private final ThreadLocal<State> m_state = ThreadLocal.withInitial(State::new);
+
+    private PayloadTransform(final AppLogger _logger, final Map<String, ColumnRule> _rules, final boolean _projected, final byte[] _added,
+            final Predicate[] _predicates) {
+        m_logger = _logger;
+        m_columns = _rules.keySet().toArray(new String[0]);
+        m_kept = new boolean[m_columns.length];
+        m_renamed = new byte[m_columns.length][];
+        m_masked = new boolean[m_columns.length];
+        m_columnPredicates = new int[m_columns.length][];
+        for (int i = 0; i < m_columns.length; i++) {
+            final ColumnRule rule = _rules.get(m_columns[i]);
+            m_kept[i] = rule.m_kept;
+            m_renamed[i] = (null == rule.m_renamed) ? null : (quote(rule.m_renamed) + ":").getBytes(StandardCharsets.UTF_8);
+            m_masked[i] = rule.m_masked;
+            m_columnPredicates[i] = rule.m_predicates.stream().mapToInt(Integer::intValue).toArray();
+        }
+        m_projected = _projected;
+        m_added = _added;
+        m_predicates = _predicates;
+    }
+
+    /**
+     * Reads the table's transform rules.
+     *
+     * @param _keyColumns the table's row key columns. The Kafka record key is built from their untransformed values,
+     *                    so they cannot be left out, renamed or masked.
+     * @param _updateMode how the table's trigger captures updates. A CHANGES update only carries the key and the
+     *                    changed columns, so its predicates can only test the key columns and the payload members.
+     * @return the transform, or null if none of the TRANSFORM_ settings are set for the table
+     * @throws IOException if a setting is not valid
+     */
+    static PayloadTransform forTable(final AppLogger _logger, final TableConfiguration _config, final List<String> _keyColumns,
+            final TriggerDescriptor.UpdateMode _updateMode) throws IOException {
+        final List<String> columns = splitList(_config.get(KEY_TRANSFORM_COLUMNS, null));
+        final List<String> excluded = splitList(_config.get(KEY_TRANSFORM_EXCLUDE_COLUMNS, null));
+        final List<String> renames = splitList(_config.get(KEY_TRANSFORM_RENAME, null));
+        final List<String> masked = splitList(_config.get(KEY_TRANSFORM_MASK, null));
+        final List<String> added = splitList(_config.get(KEY_TRANSFORM_ADD, null));
+        final List<String> filters = splitList(_config.get(KEY_TRANSFORM_FILTER, null));
+        if (columns.isEmpty() && excluded.isEmpty() && renames.isEmpty() && masked.isEmpty() && added.isEmpty() && filters.isEmpty()) {
+            return null;
+        }
+
+        final Map<String, ColumnRule> rules = new LinkedHashMap<>();
+        for (final String column : columns) {
+            rules.computeIfAbsent(column, c -> new ColumnRule(true)).m_kept = true;
+        }
+        final boolean projected = !columns.isEmpty();
+        for (final String column : excluded) {
+            rules.computeIfAbsent(column, c -> new ColumnRule(!projected)).m_kept = false;
+        }
+        for (final String rename : renames) {
+            final String[] pair = splitPair(rename, "=", KEY_TRANSFORM_RENAME);
+            rules.computeIfAbsent(pair[0], c -> new ColumnRule(!projected)).m_renamed = pair[1];
+        }
+        for (final String column : masked) {
+            rules.computeIfAbsent(column, c -> new ColumnRule(!projected)).m_masked = true;
+        }
+        final StringBuilder addedMembers = new StringBuilder();
+        for (final String member : added) {
+            final String[] pair = splitPair(member, "=", KEY_TRANSFORM_ADD);
+            addedMembers.append(',').append(quote(pair[0])).append(':').append(quote(pair[1]));
+        }
+        final Predicate[] predicates = new Predicate[filters.size()];
+        for (int i = 0; i < predicates.length; i++) {
+            predicates[i] = Predicate.parse(filters.get(i));
+            if (TriggerDescriptor.UpdateMode.FULL != _updateMode && !_keyColumns.contains(predicates[i].m_name)
+                    && !PAYLOAD_MEMBERS.contains(predicates[i].m_name)) {
+                // An update that does not change the column would be tested as if it were null
+                throw new IOException(String.format("%s cannot test column %s, as the table's updates only carry the row key and the changed columns. "
+                        + "Test row key columns or %s, or add the table with --update-mode FULL.", KEY_TRANSFORM_FILTER, predicates[i].m_name,
+                        String.join(" or ", PAYLOAD_MEMBERS)));
+            }
+            // A predicate can test a column that is not kept, so it needs a rule too, but does not change it
+            rules.computeIfAbsent(predicates[i].m_name, c -> new ColumnRule(!projected)).m_predicates.add(i);
+        }
+        for (final String keyColumn : _keyColumns) {
+            final ColumnRule rule = rules.get(keyColumn);
+            final boolean kept = (null == rule) ? !projected : rule.m_kept;
+            if (!kept || (null != rule && (rule.m_masked || null != rule.m_renamed))) {
+                throw new IOException(String.format("Row key column %s is published in the Kafka record key, so it cannot be left out, renamed or masked. "
+                        + "Set %s to use other columns as the row key.", keyColumn, KEY_ROW_KEY_COLUMNS));
+            }
+        }
+        return new PayloadTransform(_logger, rules, projected, addedMembers.toString().getBytes(StandardCharsets.UTF_8), predicates);
+    }
+
+    /**
+     * Wraps the handler that publishes the table's entries, so that it is handed the transformed entries. Entries
+     * that the filter drops, or that cannot be transformed, are not handed on and are recorded as filtered. They are
+     * reported as published, as there is nothing left to wait for.
+     */
+    IChangeHandler wrap(final IChangeHandler _handler, final TableMetrics _metrics) {
+        return entry -> {
+            final byte[] data;
+            try {
+                data = apply(entry.getData());
+            } catch (IOException e) {
+                // Rather drop the entry than publish columns that were meant to be left out or masked
+                m_logger.printfln_err("ERROR: Unable to transform a payload of %s, dropping it: %s", _metrics.getTable(), e.getLocalizedMessage());
+                _metrics.recordFiltered();
+                entry.published();
+                return;
+            }
+            if (null == data) {
+                _metrics.recordFiltered();
+                entry.published();
+                return;
+            }
+            _handler.handle(entry.withData(data));
+        };
+    }
+
+    /**
+     * Transforms one payload.
+     *
+     * @return the transformed payload, the payload itself if it has no row image, or null if the filter drops it
+     * @throws IOException if the payload is not a JSON object
+     */
+    byte[] apply(final byte[] _payload) throws IOException {
+        final State state = m_state.get();
+        final JsonTokenizer tokenizer = state.m_tokenizer.reset(_payload);
+        if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+            throw new IOException("Not a JSON object");
+        }
+        state.m_length = 0;
+        Arrays.fill(state.m_found, false);
+        Arrays.fill(state.m_passed, false);
+        state.write('{');
+        boolean hasRowImage = false;
+        boolean first = true;
+        while (JsonTokenizer.Token.FIELD_NAME == tokenizer.next()) {
+            final int memberStart = tokenizer.getTokenStart();
+            final int image = indexOfRowImage(tokenizer);
+            final int named = findNamedPredicates(state, tokenizer);
+            final JsonTokenizer.Token value = tokenizer.next();
+            if (0 <= image && JsonTokenizer.Token.START_OBJECT == value) {
+                hasRowImage = true;
+                if (!first) {
+                    state.write(',');
+                }
+                state.write(_payload, memberStart, tokenizer.getTokenEnd() - memberStart);
+                transformRowImage(state, _payload, !BEFORE_IMAGE.equals(ROW_IMAGES[image]));
+            } else {
+                if (JsonTokenizer.Token.START_OBJECT == value || JsonTokenizer.Token.START_ARRAY == value) {
+                    tokenizer.skipValue();
+                } else {
+                    // Members of the payload itself, such as the operation, can be tested too, unless a row image
+                    // has a column of the same name
+                    for (int i = 0; i < named; i++) {
+                        final int predicate = state.m_named[i];
+                        state.m_found[predicate] = true;
+                        state.m_passed[predicate] = m_predicates[predicate].test(tokenizer);
+                    }
+                }
+                if (!first) {
+                    state.write(',');
+                }
+                state.write(_payload, memberStart, tokenizer.getTokenEnd() - memberStart);
+            }
+            first = false;
+        }
+        if (!hasRowImage) {
+            return _payload;
+        }
+        for (int i = 0; i < m_predicates.length; i++) {
+            // A member that is not in the payload is tested as null
+            if (!(state.m_found[i] ? state.m_passed[i] : m_predicates[i].testNull())) {
+                return null;
+            }
+        }
+        state.write(m_added, 0, m_added.length);
+        state.write('}');
+        return Arrays.copyOf(state.m_buffer, state.m_length);
+    }
+
+    /** Copies the members of the row image that starts at the current token, applying the column rules */
+    private void transformRowImage(final State _state, final byte[] _payload, final boolean _tested) throws IOException {
+        final JsonTokenizer tokenizer = _state.m_tokenizer;
+        boolean first = true;
+        while (JsonTokenizer.Token.FIELD_NAME == tokenizer.next()) {
+            final int nameStart = tokenizer.getTokenStart();
+            final int nameEnd = tokenizer.getTokenEnd();
+            final int column = indexOfColumn(tokenizer);
+            final JsonTokenizer.Token value = tokenizer.next();
+            final int valueStart = tokenizer.getTokenStart();
+            if (JsonTokenizer.Token.START_OBJECT == value || JsonTokenizer.Token.START_ARRAY == value) {
+                tokenizer.skipValue();
+            } else if (_tested && 0 <= column) {
+                for (final int predicate : m_columnPredicates[column]) {
+                    _state.m_found[predicate] = true;
+                    _state.m_passed[predicate] = m_predicates[predicate].test(tokenizer);
+                }
+            }
+            if ((0 <= column) ? !m_kept[column] : m_projected) {
+                continue;
+            }
+            if (!first) {
+                _state.write(',');
+            }
+            first = false;
+            if (0 <= column && null != m_renamed[column]) {
+                _state.write(m_renamed[column], 0, m_renamed[column].length);
+            } else {
+                // The name as it is, with its colon
+                _state.write(_payload, nameStart, nameEnd - nameStart);
+                _state.write(':');
+            }
+            if (0 <= column && m_masked[column] && JsonTokenizer.Token.NULL != value) {
+                _state.write(MASKED_VALUE, 0, MASKED_VALUE.length);
+            } else {
+                _state.write(_payload, valueStart, tokenizer.getTokenEnd() - valueStart);
+            }
+        }
+        _state.write('}');
+    }
+
+    /**
+     * Finds the predicates that test the member whose name the tokenizer is on, and that no row image has been
+     * found to have a column for yet.
+     *
+     * @return the number of predicates found, whose indexes are put in the state's named predicates
+     */
+    private int findNamedPredicates(final State _state, final JsonTokenizer _tokenizer) {
+        int ret = 0;
+        for (int i = 0; i < m_predicates.length; i++) {
+            if (!_state.m_found[i] && _tokenizer.textEquals(m_predicates[i].m_name)) {
+                _state.m_named[ret++] = i;
+            }
+        }
+        return ret;
+    }
+
+    private static int indexOfRowImage(final JsonTokenizer _tokenizer) {
+        for (int i = 0; i < ROW_IMAGES.length; i++) {
+            if (_tokenizer.textEquals(ROW_IMAGES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfColumn(final JsonTokenizer _tokenizer) {
+        for (int i = 0; i < m_columns.length; i++) {
+            if (_tokenizer.textEquals(m_columns[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        final List<String> ret = new ArrayList<>();
+        for (int i = 0; i < m_columns.length; i++) {
+            if (m_projected && m_kept[i]) {
+                ret.add("+" + m_columns[i]);
+            } else if (!m_projected && !m_kept[i]) {
+                ret.add("-" + m_columns[i]);
+            }
+            if (null != m_renamed[i]) {
+                ret.add(m_columns[i] + "->" + new String(m_renamed[i], StandardCharsets.UTF_8).replaceAll("[\":]", ""));
+            }
+            if (m_masked[i]) {
+                ret.add("mask " + m_columns[i]);
+            }
+        }
+        if (0 < m_added.length) {
+            ret.add("add " + new String(m_added, 1, m_added.length - 1, StandardCharsets.UTF_8));
+        }
+        for (final Predicate predicate : m_predicates) {
+            ret.add("where " + predicate);
+        }
+        return String.join(", ", ret);
+    }
+
+    private static List<String> splitList(final String _value) {
+        final List<String> ret = new ArrayList<>();
+        if (null != _value) {
+            for (final String item : _value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    ret.add(item.trim());
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static String[] splitPair(final String _item, final String _separator, final String _key) throws IOException {
+        final int separator = _item.indexOf(_separator);
+        if (separator <= 0 || separator == _item.length() - 1) {
+            throw new IOException(String.format("Invalid %s entry '%s', expected NAME%sVALUE", _key, _item, _separator));
+        }
+        return new String[] { _item.substring(0, separator).trim(), _item.substring(separator + 1).trim() };
+    }
+
+    private static String quote(final String _text) {
+        final StringBuilder ret = new StringBuilder(_text.length() + 2).append('"');
+        PayloadKeyExtractor.appendEscaped(ret, _text);
+        return ret.append('"').toString();
+    }
+
+    private static final class ColumnRule {
+        boolean m_kept;
+        String m_renamed = null;
+        boolean m_masked = false;
+        final List<Integer> m_predicates = new ArrayList<>();
+
+        ColumnRule(final boolean _kept) {
+            m_kept = _kept;
+        }
+    }
+
+    /**
+     * A comparison of a member with a constant, such as <code>STATUS=A</code> or <code>BALANCE&gt;=100</code>. Numbers
+     * are compared as numbers, and anything else as text. <code>null</code> only equals null, and null is neither
+     * less nor greater than anything.
+     */
+    private static final class Predicate {
+        final String m_name;
+        final String m_operator;
+        final String m_value;
+        final BigDecimal m_number;
+
+        private Predicate(final String _name, final String _operator, final String _value) {
+            m_name = _name;
+            m_operator = _operator;
+            m_value = _value;
+            BigDecimal number = null;
+            try {
+                number = new BigDecimal(_value);
+            } catch (NumberFormatException e) {
+                // Compared as text
+            }
+            m_number = number;
+        }
+
+        static Predicate parse(final String _text) throws IOException {
+            for (final String operator : OPERATORS) {
+                final int index = _text.indexOf(operator);
+                if (0 < index) {
+                    return new Predicate(_text.substring(0, index).trim(), operator, _text.substring(index + operator.length()).trim());
+                }
+            }
+            throw new IOException(String.format("Invalid %s entry '%s', expected NAME, one of %s, and a value", KEY_TRANSFORM_FILTER, _text,
+                    String.join(" ", OPERATORS)));
+        }
+
+        boolean testNull() {
+            final boolean isNull = "null".equals(m_value);
+            return "=".equals(m_operator) ? isNull : "!=".equals(m_operator) && !isNull;
+        }
+
+        /** Tests the scalar value that the tokenizer is on */
+        boolean test(final JsonTokenizer _tokenizer) {
+            switch (_tokenizer.getToken()) {
+                case NULL:
+                    return testNull();
+                case STRING:
+                    if ("=".equals(m_operator)) {
+                        return _tokenizer.textEquals(m_value);
+                    }
+                    if ("!=".equals(m_operator)) {
+                        return !_tokenizer.textEquals(m_value);
+                    }
+                    return compared(_tokenizer.getText().compareTo(m_value));
+                case NUMBER:
+                    if (null != m_number) {
+                        return compared(new BigDecimal(_tokenizer.getText()).compareTo(m_number));
+                    }
+                    return compared(_tokenizer.getText().compareTo(m_value));
+                default:
+                    return compared(_tokenizer.getText().compareTo(m_value));
+            }
+        }
+
+        private boolean compared(final int _comparison) {
+            switch (m_operator) {
+                case "=":
+                    return 0 == _comparison;
+                case "!=":
+                    return 0 != _comparison;
+                case "<":
+                    return _comparison < 0;
+                case "<=":
+                    return _comparison <= 0;
+                case ">":
+                    return _comparison > 0;
+                default:
+                    return _comparison >= 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return m_name + m_operator + m_value;
+        }
+    }
+
+    /** What one thread uses to transform payloads */
+    private final class State {
+        final JsonTokenizer m_tokenizer = new JsonTokenizer();
+        // Whether each predicate's member was found, and if so whether it passed, and the predicates of the current member
+        final boolean[] m_found = new boolean[m_predicates.length];
+        final boolean[] m_passed = new boolean[m_predicates.length];
+        final int[] m_named = new int[m_predicates.length];
+        byte[] m_buffer = new byte[1024];
+        int m_length;
+
+        void write(final int _b) {
+            ensure(1);
+            m_buffer[m_length++] = (byte) _b;
+        }
+
+        void write(final byte[] _bytes, final int _offset, final int _length) {
+            ensure(_length);
+            System.arraycopy(_bytes, _offset, m_buffer, m_length, _length);
+            m_length += _length;
+        }
+
+        private void ensure(final int _more) {
+            if (m_length + _more > m_buffer.length) {
+                m_buffer = Arrays.copyOf(m_buffer, Math.max(m_buffer.length * 2, m_length + _more));
+            }
+        }
+    }
+}
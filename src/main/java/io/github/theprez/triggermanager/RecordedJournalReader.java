@@ -0,0 +1,201 @@
+package io.github.theprez.triggermanager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Serves journal entries recorded in a file, so that the journal decode and translate pipeline can be tested and
+ * benchmarked without a journal. The file holds one JSON document per line. The first line may describe the
+ * table's record layout:
+ *
+ * <pre>
+ * {"layout":[{"name":"ID","type":"INTEGER","length":4,"scale":0,"ccsid":0,"storage":4}, ...]}
+ * </pre>
+ *
+ * and every other line is an entry, with the record image in hexadecimal and one null indicator per column:
+ *
+ * <pre>
+ * {"sequence":101,"code":"R","type":"PT","commitCycle":0,"data":"0000002A...","nulls":"00"}
+ * </pre>
+ *
+ * The read position is kept in memory only.
+ */
+class RecordedJournalReader implements IJournalReader {
+    private final File m_file;
+    private final List<JournalEntry> m_entries = new ArrayList<>();
+    private JournalRecordLayout m_layout;
+    private long m_savedPosition = 0;
+
+    RecordedJournalReader(final File _file) throws IOException {
+        m_file = _file;
+        final JsonTokenizer tokenizer = new JsonTokenizer();
+        try (BufferedReader reader = Files.newBufferedReader(_file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                tokenizer.reset(line.getBytes(StandardCharsets.UTF_8));
+                if (JsonTokenizer.Token.START_OBJECT != tokenizer.next()) {
+                    throw new IOException("Malformed journal recording " + _file.getPath() + ": " + line);
+                }
+                if (JsonTokenizer.Token.FIELD_NAME == tokenizer.next() && tokenizer.textEquals("layout")) {
+                    m_layout = parseLayout(tokenizer);
+                } else {
+                    m_entries.add(parseEntry(tokenizer));
+                }
+            }
+        }
+        m_entries.sort(Comparator.comparingLong(JournalEntry::getSequence));
+    }
+
+    /** The record layout recorded in the file, or null if the file does not include one. */
+    JournalRecordLayout getLayout() {
+        return m_layout;
+    }
+
+    private static JournalRecordLayout parseLayout(final JsonTokenizer _tokenizer) throws IOException {
+        final List<JournalRecordLayout.Column> columns = new ArrayList<>();
+        if (JsonTokenizer.Token.START_ARRAY != _tokenizer.next()) {
+            throw new IOException("Malformed journal recording layout");
+        }
+        while (JsonTokenizer.Token.START_OBJECT == _tokenizer.next()) {
+            String name = null;
+            String type = null;
+            int length = 0;
+            int scale = 0;
+            int ccsid = 0;
+            int storage = 0;
+            while (JsonTokenizer.Token.FIELD_NAME == _tokenizer.next()) {
+                final String field = _tokenizer.getText();
+                _tokenizer.next();
+                switch (field) {
+                    case "name":
+                        name = _tokenizer.getText();
+                        break;
+                    case "type":
+                        type = _tokenizer.getText();
+                        break;
+                    case "length":
+                        length = Integer.parseInt(_tokenizer.getText());
+                        break;
+                    case "scale":
+                        scale = Integer.parseInt(_tokenizer.getText());
+                        break;
+                    case "ccsid":
+                        ccsid = Integer.parseInt(_tokenizer.getText());
+                        break;
+                    case "storage":
+                        storage = Integer.parseInt(_tokenizer.getText());
+                        break;
+                    default:
+                        _tokenizer.skipValue();
+                }
+            }
+            if (null == name || null == type) {
+                throw new IOException("Malformed journal recording layout: column name and type are required");
+            }
+            columns.add(new JournalRecordLayout.Column(name, type, length, scale, ccsid, storage));
+        }
+        return new JournalRecordLayout(columns);
+    }
+
+    // The tokenizer is positioned on the first field name of the entry object
+    private static JournalEntry parseEntry(final JsonTokenizer _tokenizer) throws IOException {
+        long sequence = 0;
+        char code = 'R';
+        String type = null;
+        long commitCycle = 0;
+        byte[] data = new byte[0];
+        String nulls = null;
+        while (JsonTokenizer.Token.FIELD_NAME == _tokenizer.getToken()) {
+            final String field = _tokenizer.getText();
+            _tokenizer.next();
+            switch (field) {
+                case "sequence":
+                    sequence = Long.parseLong(_tokenizer.getText());
+                    break;
+                case "code":
+                    code = _tokenizer.getText().charAt(0);
+                    break;
+                case "type":
+                    type = _tokenizer.getText();
+                    break;
+                case "commitCycle":
+                    commitCycle = Long.parseLong(_tokenizer.getText());
+                    break;
+                case "data":
+                    data = fromHex(_tokenizer.getText());
+                    break;
+                case "nulls":
+                    nulls = _tokenizer.getText();
+                    break;
+                default:
+                    _tokenizer.skipValue();
+            }
+            _tokenizer.next();
+        }
+        if (null == type) {
+            throw new IOException("Malformed journal recording entry: entry type is required");
+        }
+        return new JournalEntry(sequence, code, type, commitCycle, data, nulls);
+    }
+
+    private static byte[] fromHex(final String _hex) throws IOException {
+        if (0 != _hex.length() % 2) {
+            throw new IOException("Malformed journal recording entry: odd length record image");
+        }
+        final byte[] ret = new byte[_hex.length() / 2];
+        for (int i = 0; i < ret.length; i++) {
+            final int hi = Character.digit(_hex.charAt(2 * i), 16);
+            final int lo = Character.digit(_hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IOException("Malformed journal recording entry: invalid hexadecimal in record image");
+            }
+            ret[i] = (byte) ((hi << 4) | lo);
+        }
+        return ret;
+    }
+
+    @Override
+    public synchronized List<JournalEntry> read(final long _afterSequence, final int _maxEntries) {
+        // Entries are sorted by sequence, so find the first one after the given sequence by binary search
+        int low = 0;
+        int high = m_entries.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (m_entries.get(mid).getSequence() <= _afterSequence) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return new ArrayList<>(m_entries.subList(low, Math.min(m_entries.size(), low + Math.max(1, _maxEntries))));
+    }
+
+    @Override
+    public synchronized void savePosition(final long _sequence) {
+        m_savedPosition = _sequence;
+    }
+
+    @Override
+    public synchronized long getSavedPosition() {
+        return m_savedPosition;
+    }
+
+    @Override
+    public String getDescription() {
+        return "jrnfile:" + m_file.getPath();
+    }
+
+    @Override
+    public void close() {
+        // The entries are held in memory
+    }
+}
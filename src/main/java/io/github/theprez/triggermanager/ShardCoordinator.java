@@ -0,0 +1,261 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
+
+/**
+ * Splits the monitored tables between the daemon instances that share an {@link ICoordinationStore}. Each instance
+ * renews its membership lease from a heartbeat thread, and at each reconcile places the live instances on a
+ * consistent hash ring and routes the tables that hash to it. Adding or losing an instance only moves the tables on
+ * the ring segments next to it.
+ * <p>
+ * A table is only routed by the instance that holds its lease, so during a rebalance the new owner waits until the
+ * previous one has stopped the table's route and released the lease, or until the lease has run out if the previous
+ * owner is gone.
+ * <p>
+ * Other instances take a table over once its lease has run out, whether or not its owner has noticed, so an instance
+ * that cannot renew its leases gives up its tables while its last renewal still covers them. Heartbeats are at most a
+ * heartbeat and a store time limit of half a heartbeat apart, so the instance gives up its tables once its last
+ * renewal is more than the lease time less one and a half heartbeats old. Until a heartbeat succeeds again, the
+ * instance routes no tables.
+ */
+class ShardCoordinator implements ITriggerConfigurationConstants {
+    // Points on the ring per instance, so that tables are spread evenly over a few instances
+    private static final int VIRTUAL_NODES = 128;
+    private static final long DEFAULT_LEASE_MILLIS = 30000;
+    private static final long DEFAULT_HEARTBEAT_MILLIS = 10000;
+
+    private final AppLogger m_logger;
+    private final ICoordinationStore m_store;
+    private final String m_instanceId;
+    private final long m_leaseMillis;
+    private final long m_heartbeatMillis;
+    private final LongSupplier m_clockMillis;
+    // When the last successful heartbeat started, on m_clockMillis; the leases it renewed last at least the lease time
+    private volatile long m_renewedMillis;
+    private volatile boolean m_stopped = false;
+    private Thread m_thread;
+    // Run from the heartbeat thread once the instance can no longer count on its leases
+    private Runnable m_onLeasesLost;
+    private boolean m_leasesLost = false;
+    // The live instances at the last assignment, to log changes only
+    private Set<String> m_lastInstances = new LinkedHashSet<>();
+
+    ShardCoordinator(final AppLogger _logger, final ICoordinationStore _store, final String _instanceId, final long _leaseMillis, final long _heartbeatMillis) {
+        this(_logger, _store, _instanceId, _leaseMillis, _heartbeatMillis, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    ShardCoordinator(final AppLogger _logger, final ICoordinationStore _store, final String _instanceId, final long _leaseMillis, final long _heartbeatMillis,
+            final LongSupplier _clockMillis) {
+        m_logger = _logger;
+        m_store = _store;
+        m_instanceId = _instanceId;
+        m_leaseMillis = Math.max(2, _leaseMillis);
+        m_heartbeatMillis = Math.max(1, Math.min(_heartbeatMillis, m_leaseMillis / 2));
+        m_clockMillis = _clockMillis;
+        m_renewedMillis = _clockMillis.getAsLong() - m_leaseMillis;
+    }
+
+    /**
+     * Creates the coordinator for a sharded daemon, with a lease table in the trigger manager library.
+     *
+     * @param _instanceId the instance ID given on the command line, or null for the configured or default one
+     * @return the coordinator, or null if sharding is not enabled
+     */
+    static ShardCoordinator create(final AppLogger _logger, final TriggerManager _tMan, final TableConfiguration _config, final String _instanceId)
+            throws IOException, SQLException {
+        if (!_config.getBoolean(KEY_SHARDING, false)) {
+            return null;
+        }
+        String instanceId = StringUtils.isNonEmpty(_instanceId) ? _instanceId.trim() : _config.get(KEY_SHARD_INSTANCE_ID, null);
+        if (null == instanceId) {
+            // The JVM's name is its process ID and host name
+            instanceId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        final long leaseMillis = _config.getLong(KEY_SHARD_LEASE_MS, DEFAULT_LEASE_MILLIS);
+        final long heartbeatMillis = Math.min(_config.getLong(KEY_SHARD_HEARTBEAT_MS, DEFAULT_HEARTBEAT_MILLIS), leaseMillis / 2);
+        // Each call to the store ends within half a heartbeat, see holdsLeases()
+        return new ShardCoordinator(_logger, new SqlCoordinationStore(_logger, _tMan.getSystem(), _tMan.getLibrary(), heartbeatMillis / 2), instanceId,
+                leaseMillis, heartbeatMillis);
+    }
+
+    String getInstanceId() {
+        return m_instanceId;
+    }
+
+    /** How often the instance renews its leases, which is also how often it should reevaluate its tables */
+    long getHeartbeatMillis() {
+        return m_heartbeatMillis;
+    }
+
+    /**
+     * Joins the other instances, and starts renewing the instance's leases.
+     *
+     * @param _onLeasesLost run from the heartbeat thread if the instance can no longer renew its leases, to stop routing
+     *                      its tables before other instances take them over
+     */
+    synchronized void start(final Runnable _onLeasesLost) throws IOException {
+        m_onLeasesLost = _onLeasesLost;
+        heartbeat();
+        m_logger.printfln("Daemon instance %s sharing tables through %s", m_instanceId, m_store.getDescription());
+        m_thread = DaemonThreads.newThread(this::heartbeatLoop, "AIStream-heartbeat");
+        m_thread.start();
+    }
+
+    /** Stops renewing, and gives up the instance's membership and any leases it still holds */
+    synchronized void stop() throws InterruptedException {
+        m_stopped = true;
+        if (null != m_thread) {
+            m_thread.interrupt();
+            m_thread.join();
+        }
+        try {
+            m_store.leave(m_instanceId);
+        } catch (IOException e) {
+            m_logger.printfln_warn("Warning: %s. Other instances will take over its tables when its leases run out.", e.getLocalizedMessage());
+        }
+        try {
+            m_store.close();
+        } catch (IOException e) {
+            m_logger.printfln_verbose("Error closing %s: %s", m_store.getDescription(), e.getLocalizedMessage());
+        }
+    }
+
+    private void heartbeatLoop() {
+        while (!m_stopped) {
+            try {
+                Thread.sleep(m_heartbeatMillis);
+                heartbeat();
+                if (m_leasesLost) {
+                    m_leasesLost = false;
+                    m_logger.printfln("Instance %s renewed its leases, and takes its tables back at the next reconcile", m_instanceId);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                m_logger.printfln_err("ERROR: %s", e.getLocalizedMessage());
+                if (!m_leasesLost && !holdsLeases()) {
+                    m_leasesLost = true;
+                    m_logger.printfln_err("ERROR: Instance %s has not renewed its leases for %dms. Stopping its tables before other instances take them over.",
+                            m_instanceId, m_clockMillis.getAsLong() - m_renewedMillis);
+                    m_onLeasesLost.run();
+                }
+            }
+        }
+    }
+
+    /** Renews the instance's membership lease and the leases of its tables */
+    void heartbeat() throws IOException {
+        final long started = m_clockMillis.getAsLong();
+        m_store.heartbeat(m_instanceId, m_leaseMillis);
+        m_renewedMillis = started;
+    }
+
+    /**
+     * Whether the instance can still count on its leases: its last successful heartbeat is recent enough that they do
+     * not run out before the next heartbeat has either succeeded or failed.
+     */
+    boolean holdsLeases() {
+        return m_clockMillis.getAsLong() - m_renewedMillis < m_leaseMillis - m_heartbeatMillis - m_heartbeatMillis / 2;
+    }
+
+    /**
+     * Chooses the tables this instance routes: those that hash to it, and whose lease it holds or can take. The leases
+     * of tables it already routes are renewed.
+     *
+     * @param _monitored the monitor IDs of all monitored tables
+     * @param _running   the monitor IDs of the tables this instance routes now
+     * @return the monitor IDs of the tables to route; if the store cannot be reached, the running tables that are still
+     *         monitored, so nothing is started or stopped until it can. None while the instance does not hold its
+     *         leases (see {@link #holdsLeases()}).
+     */
+    Set<String> assign(final Collection<String> _monitored, final Collection<String> _running) {
+        final Set<String> ret = new LinkedHashSet<>();
+        if (!holdsLeases()) {
+            // Other instances may already have taken the tables over
+            return ret;
+        }
+        try {
+            final Set<String> instances = m_store.getLiveInstances();
+            instances.add(m_instanceId);
+            if (!instances.equals(m_lastInstances)) {
+                m_logger.printfln("Sharding %d table(s) across %d instance(s): %s", _monitored.size(), instances.size(), instances);
+                m_lastInstances = instances;
+            }
+            final TreeMap<Integer, String> ring = buildRing(instances);
+            for (final String tableId : _monitored) {
+                if (!m_instanceId.equals(getOwner(ring, tableId))) {
+                    continue;
+                }
+                if (m_store.tryAcquire(tableId, m_instanceId, m_leaseMillis)) {
+                    ret.add(tableId);
+                } else {
+                    m_logger.printfln_verbose("Table %s is still leased by another instance", tableId);
+                }
+            }
+        } catch (IOException e) {
+            m_logger.printfln_err("ERROR: Unable to reassign tables: %s", e.getLocalizedMessage());
+            ret.clear();
+            if (!holdsLeases()) {
+                return ret;
+            }
+            for (final String tableId : _running) {
+                if (_monitored.contains(tableId)) {
+                    ret.add(tableId);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** Releases the lease of a table whose route this instance has stopped */
+    void release(final String _tableId) {
+        try {
+            m_store.release(_tableId, m_instanceId);
+        } catch (IOException e) {
+            m_logger.printfln_warn("Warning: %s. The table will be taken over when its lease runs out.", e.getLocalizedMessage());
+        }
+    }
+
+    static TreeMap<Integer, String> buildRing(final Collection<String> _instances) {
+        final TreeMap<Integer, String> ret = new TreeMap<>();
+        for (final String instance : _instances) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                // On the rare collision, the same instance wins on every member
+                ret.merge(hash(instance + "#" + i), instance, (a, b) -> (a.compareTo(b) <= 0) ? a : b);
+            }
+        }
+        return ret;
+    }
+
+    /** The instance that owns a table: the first on the ring at or after the table's hash */
+    static String getOwner(final TreeMap<Integer, String> _ring, final String _tableId) {
+        final Map.Entry<Integer, String> entry = _ring.ceilingEntry(hash(_tableId));
+        return ((null == entry) ? _ring.firstEntry() : entry).getValue();
+    }
+
+    /** A hash that every instance computes the same, whatever its JVM */
+    private static int hash(final String _key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(_key.getBytes(StandardCharsets.UTF_8));
+            return ((digest[0] & 0xff) << 24) | ((digest[1] & 0xff) << 16) | ((digest[2] & 0xff) << 8) | (digest[3] & 0xff);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
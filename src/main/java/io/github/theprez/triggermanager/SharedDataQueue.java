@@ -0,0 +1,184 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400Text;
+import com.ibm.as400.access.KeyedDataQueue;
+import com.ibm.as400.access.KeyedDataQueueEntry;
+
+/**
+ * A keyed data queue that the triggers of many tables send to, each keying its entries with its trigger ID. One
+ * watcher thread per queue peeks at the waiting entries a key at a time, in key order, and tells the
+ * {@link SharedDataQueueChangeSource} of each key it finds that it has entries to read. So the queue is polled once
+ * however many tables send to it, and a table with no changes costs no reads at all.
+ * <p>
+ * Each table's source reads its own entries by key, so an entry stays on the queue until its table has read it.
+ * Entries of tables that this daemon does not route, such as those routed by another instance, are left alone.
+ */
+class SharedDataQueue implements Runnable {
+    /** The length of the keys, which are trigger IDs */
+    static final int KEY_LENGTH = 10;
+    // How long to wait after an error before peeking again
+    private static final long ERROR_RETRY_MILLIS = 5000;
+
+    private final AppLogger m_logger;
+    private final SystemConnectionPool m_pool;
+    private final String m_path;
+    private final String m_description;
+    private final DataQueueWaitSettings m_settings;
+    // One data queue object per pooled connection, created on first use
+    private final KeyedDataQueue[] m_dataQueues;
+    // Converts between trigger IDs and keys
+    private final AS400Text m_keyType;
+    // The sources of the tables being read, by trigger ID, and the thread watching for them. Guarded by this.
+    private final Map<String, SharedDataQueueChangeSource> m_sources = new HashMap<>();
+    private Thread m_watcher = null;
+
+    /**
+     * @param _system   the signed-on system, whose CCSID the keys are in
+     * @param _settings how often the watcher looks at the queue while no table has new entries
+     */
+    SharedDataQueue(final AppLogger _logger, final AS400 _system, final SystemConnectionPool _pool, final String _library, final String _dataQueueName,
+            final DataQueueWaitSettings _settings) {
+        m_logger = _logger;
+        m_pool = _pool;
+        m_path = String.format("/qsys.lib/%s.lib/%s.dtaq", _library, _dataQueueName);
+        m_description = String.format("dtaq:%s/%s", _library, _dataQueueName);
+        m_settings = _settings;
+        m_dataQueues = new KeyedDataQueue[_pool.getSize()];
+        m_keyType = new AS400Text(KEY_LENGTH, _system);
+    }
+
+    /** Converts a trigger ID to a key, padded with blanks to the key length */
+    static byte[] toKey(final AS400 _system, final String _triggerId) {
+        return new AS400Text(KEY_LENGTH, _system).toBytes(_triggerId);
+    }
+
+    String getDescription() {
+        return m_description;
+    }
+
+    /** Opens the source of one table's entries. The queue is watched while any of its sources are open. */
+    synchronized SharedDataQueueChangeSource open(final String _triggerId) throws IOException {
+        if (m_sources.containsKey(_triggerId)) {
+            throw new IOException("Entries of " + _triggerId + " in " + m_description + " are already being read");
+        }
+        final SharedDataQueueChangeSource source = new SharedDataQueueChangeSource(this, _triggerId);
+        m_sources.put(_triggerId, source);
+        if (null == m_watcher) {
+            m_watcher = DaemonThreads.newThread(this, "AIStream-watch-" + m_description);
+            m_watcher.start();
+            m_logger.printfln_verbose("Watching %s", m_description);
+        }
+        return source;
+    }
+
+    /** Called when a source is closed. The watcher stops with the last source. */
+    void closed(final SharedDataQueueChangeSource _source) {
+        final Thread watcher;
+        synchronized (this) {
+            m_sources.remove(_source.getTriggerId(), _source);
+            if (!m_sources.isEmpty() || null == m_watcher) {
+                return;
+            }
+            watcher = m_watcher;
+            m_watcher = null;
+        }
+        watcher.interrupt();
+        m_logger.printfln_verbose("Stopped watching %s", m_description);
+    }
+
+    @Override
+    public void run() {
+        byte[] lastKey = null;
+        boolean signaled = false;
+        long backoffMillis = 0;
+        while (isWatcher()) {
+            try {
+                final KeyedDataQueueEntry entry = peekAfter(lastKey);
+                if (null == entry) {
+                    // Back to the first key. Tables told of entries in this pass are still reading them, so only
+                    // wait if there was nothing new, and the longer the more passes in a row found nothing new.
+                    backoffMillis = signaled ? 0 : m_settings.nextBackoff(backoffMillis);
+                    if (0 < backoffMillis) {
+                        Thread.sleep(backoffMillis);
+                    }
+                    lastKey = null;
+                    signaled = false;
+                    continue;
+                }
+                lastKey = entry.getKey();
+                final SharedDataQueueChangeSource source;
+                synchronized (this) {
+                    source = m_sources.get(m_keyType.toObject(lastKey).trim());
+                }
+                if (null != source && source.signal()) {
+                    signaled = true;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                m_logger.printfln_err("ERROR: Unable to watch %s: %s", m_description, e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+                try {
+                    Thread.sleep(ERROR_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isWatcher() {
+        return Thread.currentThread() == m_watcher;
+    }
+
+    /** The first entry with a key after the given one, or with any key if it is null */
+    private KeyedDataQueueEntry peekAfter(final byte[] _key) throws IOException, InterruptedException {
+        if (null == _key) {
+            final byte[] lowest = new byte[KEY_LENGTH];
+            return withDataQueue(q -> q.peek(lowest, 0, "GE"));
+        }
+        return withDataQueue(q -> q.peek(_key, 0, "GT"));
+    }
+
+    /** Reads the next entry of one table, or returns null if it has none */
+    byte[] read(final String _triggerId) throws IOException, InterruptedException {
+        final byte[] key = m_keyType.toBytes(_triggerId);
+        final KeyedDataQueueEntry entry = withDataQueue(q -> q.read(key, 0, "EQ"));
+        return (null == entry) ? null : entry.getData();
+    }
+
+    private interface Operation {
+        KeyedDataQueueEntry apply(KeyedDataQueue _dataQueue) throws Exception;
+    }
+
+    private KeyedDataQueueEntry withDataQueue(final Operation _operation) throws IOException, InterruptedException {
+        final SystemConnectionPool.PooledSystem pooled = m_pool.borrow();
+        boolean failed = true;
+        try {
+            KeyedDataQueue dataQueue = m_dataQueues[pooled.getIndex()];
+            if (null == dataQueue) {
+                dataQueue = m_dataQueues[pooled.getIndex()] = new KeyedDataQueue(pooled.getSystem(), m_path);
+            }
+            final KeyedDataQueueEntry entry = _operation.apply(dataQueue);
+            failed = false;
+            return entry;
+        } catch (IOException e) {
+            // Communication failure, have the pool check the connection before it is used again
+            throw e;
+        } catch (InterruptedException e) {
+            failed = false;
+            throw e;
+        } catch (Exception e) {
+            failed = false;
+            throw new IOException("Error reading data queue " + m_description + ": " + e.getLocalizedMessage(), e);
+        } finally {
+            m_pool.release(pooled, failed);
+        }
+    }
+}
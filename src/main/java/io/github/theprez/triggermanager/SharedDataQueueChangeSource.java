@@ -0,0 +1,97 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads one table's entries from a {@link SharedDataQueue}. The source only reads from the queue when the queue's
+ * watcher has seen entries with its key, and until then waits without using a connection, on a lock's condition so
+ * that a virtual thread does not hold on to its carrier thread while it waits.
+ */
+class SharedDataQueueChangeSource implements IChangeSource {
+    private final SharedDataQueue m_dataQueue;
+    private final String m_triggerId;
+    private final ReentrantLock m_lock = new ReentrantLock();
+    // Signalled when entries may be waiting, or the source is closed
+    private final Condition m_signalled = m_lock.newCondition();
+    // Whether entries may be waiting. Set to start with, as entries may have been sent while the table was not routed.
+    private boolean m_waiting = true;
+    private boolean m_closed = false;
+
+    SharedDataQueueChangeSource(final SharedDataQueue _dataQueue, final String _triggerId) {
+        m_dataQueue = _dataQueue;
+        m_triggerId = _triggerId;
+    }
+
+    String getTriggerId() {
+        return m_triggerId;
+    }
+
+    /**
+     * Called by the watcher when it sees entries with this source's key.
+     *
+     * @return whether the source was waiting for entries, rather than still reading earlier ones
+     */
+    boolean signal() {
+        m_lock.lock();
+        try {
+            if (m_waiting) {
+                return false;
+            }
+            m_waiting = true;
+            m_signalled.signalAll();
+            return true;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + Math.max(0, _waitMillis);
+        while (true) {
+            m_lock.lock();
+            try {
+                while (!m_waiting) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0 || m_closed) {
+                        return null;
+                    }
+                    m_signalled.await(remaining, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                m_lock.unlock();
+            }
+            final byte[] data = m_dataQueue.read(m_triggerId);
+            if (null != data) {
+                return data;
+            }
+            // Read everything the watcher saw, wait until it sees more
+            m_lock.lock();
+            try {
+                m_waiting = false;
+            } finally {
+                m_lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return m_dataQueue.getDescription() + "[" + m_triggerId + "]";
+    }
+
+    @Override
+    public void close() {
+        m_lock.lock();
+        try {
+            m_closed = true;
+            m_signalled.signalAll();
+        } finally {
+            m_lock.unlock();
+        }
+        m_dataQueue.closed(this);
+    }
+}
@@ -0,0 +1,409 @@
+package io.github.theprez.triggermanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Drains another change source into a local, append-only spool of memory-mapped segment files, and serves
+ * entries from the spool. The source (typically a data queue) is drained continuously on a dedicated thread,
+ * however slowly the entries are published, so the queues on the host stay near-empty while Kafka is slow or
+ * unavailable. After an outage the backlog is replayed sequentially from the spool.
+ * <p>
+ * Each entry is identified by its position, a sequence number that increases by one for each spooled entry.
+ * Entries stay in the spool until they are acknowledged through {@link #acknowledge(long)}; segments are deleted
+ * once every entry in them is acknowledged. The position of the first unacknowledged entry is checkpointed, so
+ * after a restart the entries from that point on are delivered again.
+ * <p>
+ * The segment files never take up more than the configured disk budget. While the budget is used up, the source
+ * is no longer drained, and entries back up on the host as they would without a spool.
+ * <p>
+ * Waits for entries or for room in the budget are on a lock's condition rather than an object monitor, so a virtual
+ * thread that waits does not hold on to its carrier thread.
+ */
+class SpoolChangeSource implements IChangeSource {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int LENGTH_BYTES = 4;
+    private static final int DRAIN_WAIT_MILLIS = 1000;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final long ERROR_RETRY_MILLIS = 5000;
+
+    private static final class Segment {
+        private final long m_firstPosition;
+        private final File m_file;
+        private final FileChannel m_channel;
+        private final MappedByteBuffer m_buffer;
+        private int m_count = 0;
+        private int m_writeOffset = 0;
+
+        private Segment(final long _firstPosition, final File _file, final int _capacity) throws IOException {
+            m_firstPosition = _firstPosition;
+            m_file = _file;
+            m_channel = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // Mapping past the end of a new file extends it with zeros, so an unwritten length reads as zero
+            m_buffer = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(_capacity, m_channel.size()));
+        }
+
+        private int getCapacity() {
+            return m_buffer.capacity();
+        }
+
+        /** The length of the entry at the given offset, or 0 if no entry has been written there */
+        private int lengthAt(final int _offset) {
+            return (_offset + LENGTH_BYTES <= m_buffer.capacity()) ? m_buffer.getInt(_offset) : 0;
+        }
+
+        private void close() {
+            try {
+                m_channel.close();
+            } catch (IOException e) {
+                // Nothing more can be done with it
+            }
+        }
+    }
+
+    private final AppLogger m_logger;
+    private final IChangeSource m_source;
+    private final File m_dir;
+    private final int m_segmentBytes;
+    private final long m_maxBytes;
+    private final List<Segment> m_segments = new ArrayList<>();
+    private final ReentrantLock m_lock = new ReentrantLock();
+    // Signalled when an entry is spooled, a checkpoint deletes segments, or the source is closed
+    private final Condition m_changed = m_lock.newCondition();
+    // Positions read but not yet acknowledged
+    private final ConcurrentSkipListSet<Long> m_unacknowledged = new ConcurrentSkipListSet<>();
+    // Positions in the drained source of the entries spooled since its last acknowledgement
+    private final List<Long> m_spooledSourcePositions = new ArrayList<>();
+    private long m_writePosition;
+    private long m_readPosition;
+    private int m_readSegment = 0;
+    private int m_readOffset = 0;
+    private long m_lastReadPosition = -1;
+    private long m_checkpoint;
+    private long m_lastCheckpointMillis = 0;
+    private boolean m_budgetWarned = false;
+    private volatile boolean m_stopped = false;
+    private final Thread m_drainer;
+
+    /**
+     * @param _dir          the directory holding this source's segment files, which is created if needed
+     * @param _segmentBytes the size of each segment file
+     * @param _maxBytes     the disk budget for all of this source's segment files
+     */
+    SpoolChangeSource(final AppLogger _logger, final IChangeSource _source, final File _dir, final int _segmentBytes, final long _maxBytes) throws IOException {
+        m_logger = _logger;
+        m_source = _source;
+        m_dir = _dir;
+        m_segmentBytes = Math.max(LENGTH_BYTES * 2, _segmentBytes);
+        m_maxBytes = Math.max(2L * m_segmentBytes, _maxBytes);
+        if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + m_dir.getPath());
+        }
+        recover();
+        m_drainer = DaemonThreads.newThread(this::drain, "AIStream-spool-" + m_source.getDescription());
+        m_drainer.start();
+    }
+
+    /** Reopens the segments left by a previous run and positions the reader at the checkpoint */
+    private void recover() throws IOException {
+        final File checkpointFile = new File(m_dir, CHECKPOINT_FILE);
+        m_checkpoint = checkpointFile.isFile() ? Long.parseLong(new String(Files.readAllBytes(checkpointFile.toPath()), StandardCharsets.US_ASCII).trim()) : 0;
+        final File[] files = m_dir.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        Arrays.sort(files);
+        for (final File file : files) {
+            final long firstPosition = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+            final Segment segment = new Segment(firstPosition, file, 0);
+            int length;
+            while (0 < (length = segment.lengthAt(segment.m_writeOffset))) {
+                segment.m_writeOffset += LENGTH_BYTES + length;
+                segment.m_count++;
+            }
+            m_segments.add(segment);
+        }
+        m_writePosition = m_segments.isEmpty() ? m_checkpoint : last().m_firstPosition + last().m_count;
+        m_checkpoint = Math.min(m_checkpoint, m_writePosition);
+        m_readPosition = m_segments.isEmpty() ? m_writePosition : Math.max(m_checkpoint, m_segments.get(0).m_firstPosition);
+        // Skip to the first entry at or after the checkpoint
+        while (m_readSegment < m_segments.size() - 1 && m_segments.get(m_readSegment + 1).m_firstPosition <= m_readPosition) {
+            m_readSegment++;
+        }
+        if (!m_segments.isEmpty()) {
+            final Segment segment = m_segments.get(m_readSegment);
+            for (long p = segment.m_firstPosition; p < m_readPosition; p++) {
+                m_readOffset += LENGTH_BYTES + segment.lengthAt(m_readOffset);
+            }
+        }
+        if (m_readPosition < m_writePosition) {
+            m_logger.printfln("Replaying %d spooled entries for %s", m_writePosition - m_readPosition, m_source.getDescription());
+        }
+        deleteAcknowledgedSegments();
+    }
+
+    private Segment last() {
+        return m_segments.get(m_segments.size() - 1);
+    }
+
+    private void drain() {
+        while (!m_stopped) {
+            try {
+                final byte[] entry = m_source.read(DRAIN_WAIT_MILLIS);
+                if (null != entry && 0 < entry.length) {
+                    append(entry, m_source.getLastReadPosition());
+                }
+                checkpointIfDue();
+            } catch (InterruptedException e) {
+                spoolReadAhead();
+                return;
+            } catch (IOException e) {
+                m_logger.printfln_err("ERROR: %s", e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+                try {
+                    Thread.sleep(ERROR_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    spoolReadAhead();
+                    return;
+                }
+            }
+        }
+        spoolReadAhead();
+    }
+
+    /** Spools the entries the source has already taken from its queue, which would be lost once it is closed */
+    private void spoolReadAhead() {
+        Thread.interrupted();
+        try {
+            while (0 < m_source.getReadAhead()) {
+                final byte[] entry = m_source.read(0);
+                if (null != entry && 0 < entry.length) {
+                    append(entry, m_source.getLastReadPosition());
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            m_logger.printfln_err("ERROR: Unable to spool the entries read ahead from %s: %s", m_source.getDescription(), e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @param _sourcePosition the entry's position in the drained source, acknowledged once the entry is on disk, or -1
+     */
+    private void append(final byte[] _entry, final long _sourcePosition) throws IOException, InterruptedException {
+        m_lock.lock();
+        try {
+            final int needed = LENGTH_BYTES + _entry.length;
+            if (m_segments.isEmpty() || last().m_writeOffset + needed > last().getCapacity()) {
+                final int capacity = Math.max(m_segmentBytes, needed + LENGTH_BYTES);
+                // The segment being read is never deleted, so a new segment is always allowed when it is the only one
+                while (1 < m_segments.size() && getSpoolBytes() + capacity > m_maxBytes) {
+                    if (!m_budgetWarned) {
+                        m_logger.printfln_warn("Warning: Spool for %s is full; waiting for entries to be published", m_source.getDescription());
+                        m_budgetWarned = true;
+                    }
+                    m_changed.await(CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    checkpointIfDue();
+                    if (m_stopped) {
+                        throw new InterruptedException();
+                    }
+                }
+                m_budgetWarned = false;
+                if (!m_segments.isEmpty()) {
+                    last().m_buffer.force();
+                }
+                m_segments.add(new Segment(m_writePosition, new File(m_dir, String.format("%020d%s", m_writePosition, SEGMENT_SUFFIX)), capacity));
+            }
+            final Segment segment = last();
+            // The data goes in before its length, so a reader never sees a length without the data behind it
+            final ByteBuffer buffer = segment.m_buffer.duplicate();
+            buffer.position(segment.m_writeOffset + LENGTH_BYTES);
+            buffer.put(_entry);
+            segment.m_buffer.putInt(segment.m_writeOffset, _entry.length);
+            segment.m_writeOffset += needed;
+            segment.m_count++;
+            m_writePosition++;
+            if (0 <= _sourcePosition) {
+                m_spooledSourcePositions.add(_sourcePosition);
+            }
+            m_changed.signalAll();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /** Lets the drained source move on past the entries spooled so far, once they are on disk */
+    private void acknowledgeSpooled() {
+        m_lock.lock();
+        try {
+            if (m_spooledSourcePositions.isEmpty()) {
+                return;
+            }
+            last().m_buffer.force();
+            for (final long position : m_spooledSourcePositions) {
+                m_source.acknowledge(position);
+            }
+            m_spooledSourcePositions.clear();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private long getSpoolBytes() {
+        long ret = 0;
+        for (final Segment segment : m_segments) {
+            ret += segment.getCapacity();
+        }
+        return ret;
+    }
+
+    @Override
+    public byte[] read(final int _waitMillis) throws IOException, InterruptedException {
+        m_lock.lock();
+        try {
+            final long deadline = System.currentTimeMillis() + Math.max(0, _waitMillis);
+            while (m_readPosition >= m_writePosition) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || m_stopped) {
+                    return null;
+                }
+                m_changed.await(remaining, TimeUnit.MILLISECONDS);
+            }
+            Segment segment = m_segments.get(m_readSegment);
+            if (m_readPosition >= segment.m_firstPosition + segment.m_count) {
+                segment = m_segments.get(++m_readSegment);
+                m_readOffset = 0;
+            }
+            final int length = segment.lengthAt(m_readOffset);
+            final byte[] ret = new byte[length];
+            final ByteBuffer buffer = segment.m_buffer.duplicate();
+            buffer.position(m_readOffset + LENGTH_BYTES);
+            buffer.get(ret);
+            m_readOffset += LENGTH_BYTES + length;
+            m_lastReadPosition = m_readPosition++;
+            m_unacknowledged.add(m_lastReadPosition);
+            return ret;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public long getLastReadPosition() {
+        m_lock.lock();
+        try {
+            return m_lastReadPosition;
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public void acknowledge(final long _position) {
+        m_unacknowledged.remove(_position);
+    }
+
+    private void checkpointIfDue() throws IOException {
+        m_lock.lock();
+        try {
+            final long now = System.currentTimeMillis();
+            if (now - m_lastCheckpointMillis < CHECKPOINT_INTERVAL_MILLIS) {
+                return;
+            }
+            m_lastCheckpointMillis = now;
+            acknowledgeSpooled();
+            checkpoint();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    private void checkpoint() throws IOException {
+        m_lock.lock();
+        try {
+            final Long firstUnacknowledged = m_unacknowledged.isEmpty() ? null : m_unacknowledged.first();
+            final long checkpoint = (null == firstUnacknowledged) ? m_readPosition : firstUnacknowledged;
+            if (checkpoint == m_checkpoint) {
+                return;
+            }
+            if (!m_segments.isEmpty()) {
+                last().m_buffer.force();
+            }
+            final File temp = new File(m_dir, CHECKPOINT_FILE + ".tmp");
+            Files.write(temp.toPath(), Long.toString(checkpoint).getBytes(StandardCharsets.US_ASCII));
+            Files.move(temp.toPath(), new File(m_dir, CHECKPOINT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            m_checkpoint = checkpoint;
+            deleteAcknowledgedSegments();
+            m_changed.signalAll();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    /** Deletes the segments before the read segment whose entries are all before the checkpoint */
+    private void deleteAcknowledgedSegments() throws IOException {
+        while (0 < m_readSegment) {
+            final Segment first = m_segments.get(0);
+            if (first.m_firstPosition + first.m_count > m_checkpoint) {
+                return;
+            }
+            first.close();
+            Files.deleteIfExists(first.m_file.toPath());
+            m_segments.remove(0);
+            m_readSegment--;
+        }
+    }
+
+    @Override
+    public int getDepth() {
+        m_lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, m_writePosition - m_readPosition);
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return m_source.getDescription() + "+spool";
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_stopped = true;
+        m_drainer.interrupt();
+        try {
+            m_drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_lock.lock();
+        try {
+            acknowledgeSpooled();
+            checkpoint();
+            for (final Segment segment : m_segments) {
+                segment.m_buffer.force();
+                segment.close();
+            }
+            m_segments.clear();
+            m_changed.signalAll();
+        } finally {
+            m_lock.unlock();
+        }
+        m_source.close();
+    }
+}
@@ -0,0 +1,194 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400JDBCDataSource;
+import com.ibm.as400.access.IFSFile;
+
+/**
+ * Keeps the coordination state in a lease table in the trigger manager library, with one row for each live instance
+ * and one for each leased table. Expiry times are taken from the database server's clock, so instances on different
+ * systems agree on when a lease runs out. The store has a connection of its own, as it is used from the heartbeat
+ * thread while the daemon's connection may be busy. Each statement is given a time limit, so that an instance whose
+ * connection hangs finds out it can no longer renew its leases before they run out.
+ */
+class SqlCoordinationStore implements ICoordinationStore {
+    static final String LEASE_TABLE = "AILEASE";
+    private static final String TYPE_INSTANCE = "INSTANCE";
+    private static final String TYPE_TABLE = "TABLE";
+    private static final String SQLSTATE_DUPLICATE_KEY = "23505";
+    private static final String SQLSTATE_ALREADY_EXISTS = "42710";
+    // The lease time is passed in milliseconds and added to the server's time in microseconds
+    private static final String EXPIRES = "CURRENT TIMESTAMP + (CAST(? AS DECIMAL(15, 0)) * 1000) MICROSECONDS";
+
+    private final AS400 m_system;
+    private final Connection m_conn;
+    private final String m_library;
+    private final int m_queryTimeoutSeconds;
+
+    /**
+     * @param _queryTimeoutMillis how long a statement may run before it fails, rounded up to whole seconds
+     */
+    SqlCoordinationStore(final AppLogger _logger, final AS400 _system, final String _library, final long _queryTimeoutMillis) throws IOException, SQLException {
+        m_system = new AS400(_system);
+        m_library = _library;
+        m_queryTimeoutSeconds = (int) Math.max(1, (_queryTimeoutMillis + 999) / 1000);
+        m_conn = new AS400JDBCDataSource(m_system).getConnection();
+        if (!new IFSFile(m_system, "/qsys.lib/" + m_library + ".lib/" + LEASE_TABLE + ".file").exists()) {
+            _logger.printfln_verbose("Creating lease table %s.%s", m_library, LEASE_TABLE);
+            try (Statement stmt = m_conn.createStatement()) {
+                stmt.execute(String.format("CREATE TABLE %s.%s (" +
+                        "LEASE_TYPE VARCHAR(10) NOT NULL, " +
+                        "LEASE_ID VARCHAR(128) NOT NULL, " +
+                        "OWNER VARCHAR(128) NOT NULL, " +
+                        "EXPIRES TIMESTAMP NOT NULL, " +
+                        "PRIMARY KEY (LEASE_TYPE, LEASE_ID))", m_library, LEASE_TABLE));
+                stmt.execute(String.format("LABEL ON TABLE %s.%s IS 'AIStream - daemon instance and table leases'", m_library, LEASE_TABLE));
+            } catch (SQLException e) {
+                // Another instance starting at the same time may have just created it
+                if (!SQLSTATE_ALREADY_EXISTS.equals(e.getSQLState())) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void heartbeat(final String _instanceId, final long _leaseMillis) throws IOException {
+        try {
+            if (0 == renew(TYPE_INSTANCE, _instanceId, _instanceId, _leaseMillis, false)) {
+                insert(TYPE_INSTANCE, _instanceId, _instanceId, _leaseMillis);
+            }
+            try (PreparedStatement stmt = prepare(String.format(
+                    "UPDATE %s.%s SET EXPIRES = %s WHERE LEASE_TYPE = ? AND OWNER = ?", m_library, LEASE_TABLE, EXPIRES))) {
+                stmt.setLong(1, _leaseMillis);
+                stmt.setString(2, TYPE_TABLE);
+                stmt.setString(3, _instanceId);
+                stmt.executeUpdate();
+            }
+            // Instances that stopped without leaving, and were given new IDs when restarted, are forgotten after a day
+            try (PreparedStatement stmt = prepare(String.format(
+                    "DELETE FROM %s.%s WHERE LEASE_TYPE = ? AND EXPIRES < CURRENT TIMESTAMP - 1 DAYS", m_library, LEASE_TABLE))) {
+                stmt.setString(1, TYPE_INSTANCE);
+                stmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error renewing leases in " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public Set<String> getLiveInstances() throws IOException {
+        final Set<String> ret = new TreeSet<>();
+        try (PreparedStatement stmt = prepare(String.format(
+                "SELECT LEASE_ID FROM %s.%s WHERE LEASE_TYPE = ? AND EXPIRES >= CURRENT TIMESTAMP", m_library, LEASE_TABLE))) {
+            stmt.setString(1, TYPE_INSTANCE);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ret.add(rs.getString(1).trim());
+            }
+        } catch (SQLException e) {
+            throw new IOException("Error listing instances in " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+        return ret;
+    }
+
+    @Override
+    public boolean tryAcquire(final String _tableId, final String _instanceId, final long _leaseMillis) throws IOException {
+        try {
+            return 0 < renew(TYPE_TABLE, _tableId, _instanceId, _leaseMillis, true) || insert(TYPE_TABLE, _tableId, _instanceId, _leaseMillis);
+        } catch (SQLException e) {
+            throw new IOException("Error acquiring lease of " + _tableId + " in " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Extends a lease held by the owner, or with _takeExpired, one whose holder's lease has run out.
+     *
+     * @return the number of rows updated
+     */
+    private int renew(final String _type, final String _id, final String _owner, final long _leaseMillis, final boolean _takeExpired) throws SQLException {
+        try (PreparedStatement stmt = prepare(String.format(
+                "UPDATE %s.%s SET OWNER = ?, EXPIRES = %s WHERE LEASE_TYPE = ? AND LEASE_ID = ? AND (OWNER = ?%s)", m_library, LEASE_TABLE, EXPIRES,
+                _takeExpired ? " OR EXPIRES < CURRENT TIMESTAMP" : ""))) {
+            stmt.setString(1, _owner);
+            stmt.setLong(2, _leaseMillis);
+            stmt.setString(3, _type);
+            stmt.setString(4, _id);
+            stmt.setString(5, _owner);
+            return stmt.executeUpdate();
+        }
+    }
+
+    /** @return false if the lease already exists, such as when another instance took it first */
+    private boolean insert(final String _type, final String _id, final String _owner, final long _leaseMillis) throws SQLException {
+        try (PreparedStatement stmt = prepare(String.format(
+                "INSERT INTO %s.%s (LEASE_TYPE, LEASE_ID, OWNER, EXPIRES) VALUES (?, ?, ?, %s)", m_library, LEASE_TABLE, EXPIRES))) {
+            stmt.setString(1, _type);
+            stmt.setString(2, _id);
+            stmt.setString(3, _owner);
+            stmt.setLong(4, _leaseMillis);
+            stmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (SQLSTATE_DUPLICATE_KEY.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(final String _tableId, final String _instanceId) throws IOException {
+        try (PreparedStatement stmt = prepare(String.format(
+                "DELETE FROM %s.%s WHERE LEASE_TYPE = ? AND LEASE_ID = ? AND OWNER = ?", m_library, LEASE_TABLE))) {
+            stmt.setString(1, TYPE_TABLE);
+            stmt.setString(2, _tableId);
+            stmt.setString(3, _instanceId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Error releasing lease of " + _tableId + " in " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    @Override
+    public void leave(final String _instanceId) throws IOException {
+        try (PreparedStatement stmt = prepare(String.format("DELETE FROM %s.%s WHERE OWNER = ?", m_library, LEASE_TABLE))) {
+            stmt.setString(1, _instanceId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new IOException("Error removing leases of " + _instanceId + " from " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        }
+    }
+
+    private PreparedStatement prepare(final String _sql) throws SQLException {
+        final PreparedStatement ret = m_conn.prepareStatement(_sql);
+        ret.setQueryTimeout(m_queryTimeoutSeconds);
+        return ret;
+    }
+
+    @Override
+    public String getDescription() {
+        return m_library + "." + LEASE_TABLE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            m_conn.close();
+        } catch (SQLException e) {
+            throw new IOException("Error closing connection of " + getDescription() + ": " + e.getLocalizedMessage(), e);
+        } finally {
+            m_system.close();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An SQL template, parsed once into a list of segments and then rendered any number of times in a single pass.
+ * Besides <code>%%KEY%%</code> placeholders, a template can contain:
+ * <ul>
+ * <li><code>%%#each ITEM in LIST%%...%%#between%%...%%/each%%</code> repeats its body for each element of the list
+ * value LIST, with <code>%%ITEM%%</code> standing for the element. The optional part after <code>%%#between%%</code>
+ * is rendered between elements.</li>
+ * <li><code>%%#if KEY%%...%%#else%%...%%/if%%</code> renders its first part if KEY is set to a value other than
+ * an empty string, <code>false</code> or an empty list, and the optional <code>%%#else%%</code> part otherwise.
+ * <code>%%#if !KEY%%</code> tests the opposite.</li>
+ * <li><code>%%&gt;NAME%%</code> includes the template NAME.sql in its place.</li>
+ * </ul>
+ * A placeholder without a value is left in the output as it is.
+ */
+final class SqlTemplate {
+    private static final Pattern TAG_PATTERN = Pattern.compile("%%([^%\\n]+)%%");
+    private static final Pattern EACH_PATTERN = Pattern.compile("#each\\s+(\\S+)\\s+in\\s+(\\S+)");
+
+    /** Reads the text of another template, for includes */
+    interface Loader {
+        String load(String _name) throws IOException;
+    }
+
+    private interface Segment {
+        void render(Scope _scope, StringBuilder _out);
+    }
+
+    /** The values in effect while rendering: the caller's values, plus the elements of any enclosing repeat blocks */
+    private static final class Scope {
+        private final Map<String, ?> m_values;
+        private final Scope m_parent;
+        private final String m_name;
+        private final Object m_value;
+
+        private Scope(final Map<String, ?> _values, final Scope _parent, final String _name, final Object _value) {
+            m_values = _values;
+            m_parent = _parent;
+            m_name = _name;
+            m_value = _value;
+        }
+
+        private Object get(final String _key) {
+            for (Scope scope = this; null != scope; scope = scope.m_parent) {
+                if (_key.equals(scope.m_name)) {
+                    return scope.m_value;
+                }
+            }
+            return m_values.get(_key);
+        }
+    }
+
+    private final String m_name;
+    private final Segment[] m_segments;
+
+    private SqlTemplate(final String _name, final Segment[] _segments) {
+        m_name = _name;
+        m_segments = _segments;
+    }
+
+    String getName() {
+        return m_name;
+    }
+
+    /** Appends the rendered template to the builder */
+    void render(final Map<String, ?> _values, final StringBuilder _out) {
+        renderAll(m_segments, new Scope(_values, null, null, null), _out);
+    }
+
+    private static void renderAll(final Segment[] _segments, final Scope _scope, final StringBuilder _out) {
+        for (final Segment segment : _segments) {
+            segment.render(_scope, _out);
+        }
+    }
+
+    private static boolean isTrue(final Object _value) {
+        if (null == _value) {
+            return false;
+        }
+        if (_value instanceof Boolean) {
+            return (Boolean) _value;
+        }
+        if (_value instanceof Collection) {
+            return !((Collection<?>) _value).isEmpty();
+        }
+        final String text = _value.toString();
+        return !text.isEmpty() && !"false".equalsIgnoreCase(text);
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param _loader reads included templates
+     * @throws IOException if the template or an included one cannot be read, or its blocks are not properly closed
+     */
+    static SqlTemplate parse(final String _name, final String _text, final Loader _loader) throws IOException {
+        final Parser parser = new Parser(_name, _loader);
+        parser.tokenize(_text, 0);
+        final List<Segment> segments = new ArrayList<>();
+        final String end = parser.parseUntil(segments);
+        if (null != end) {
+            throw parser.error("Unexpected %%" + end + "%%");
+        }
+        return new SqlTemplate(_name, segments.toArray(new Segment[0]));
+    }
+
+    private static final class Parser {
+        // Includes deeper than this are assumed to be recursive
+        private static final int MAX_INCLUDE_DEPTH = 8;
+
+        private final String m_name;
+        private final Loader m_loader;
+        // Alternating literal text and tag contents, with the literal first
+        private final List<String> m_tokens = new ArrayList<>();
+        private int m_position = 0;
+
+        private Parser(final String _name, final Loader _loader) {
+            m_name = _name;
+            m_loader = _loader;
+        }
+
+        private void tokenize(final String _text, final int _depth) throws IOException {
+            final Matcher m = TAG_PATTERN.matcher(_text);
+            int literalStart = 0;
+            while (m.find()) {
+                final String tag = m.group(1).trim();
+                if (tag.startsWith(">")) {
+                    if (MAX_INCLUDE_DEPTH <= _depth) {
+                        throw error("Includes nested too deeply at %%" + tag + "%%");
+                    }
+                    // The included text is spliced in as if it had been written in place of the tag
+                    appendLiteral(_text.substring(literalStart, m.start()));
+                    tokenize(m_loader.load(tag.substring(1).trim() + ".sql"), _depth + 1);
+                } else {
+                    appendLiteral(_text.substring(literalStart, m.start()));
+                    m_tokens.add(tag);
+                }
+                literalStart = m.end();
+            }
+            appendLiteral(_text.substring(literalStart));
+        }
+
+        // Keeps the tokens alternating, merging literals that meet at an include
+        private void appendLiteral(final String _text) {
+            if (0 == m_tokens.size() % 2) {
+                m_tokens.add(_text);
+            } else {
+                m_tokens.set(m_tokens.size() - 1, m_tokens.get(m_tokens.size() - 1) + _text);
+            }
+        }
+
+        /**
+         * Parses segments until the end of the template or a block tag that ends the current block.
+         *
+         * @return the tag that ended the block, or null at the end of the template
+         */
+        private String parseUntil(final List<Segment> _segments) throws IOException {
+            while (m_position < m_tokens.size()) {
+                final String token = m_tokens.get(m_position);
+                final boolean isTag = 1 == m_position % 2;
+                m_position++;
+                if (!isTag) {
+                    if (!token.isEmpty()) {
+                        _segments.add((scope, out) -> out.append(token));
+                    }
+                    continue;
+                }
+                if (token.startsWith("/") || "#between".equals(token) || "#else".equals(token)) {
+                    return token;
+                }
+                if (token.startsWith("#each")) {
+                    _segments.add(parseEach(token));
+                } else if (token.startsWith("#if")) {
+                    _segments.add(parseIf(token));
+                } else if (token.startsWith("#")) {
+                    throw error("Unknown directive %%" + token + "%%");
+                } else {
+                    final String raw = "%%" + token + "%%";
+                    _segments.add((scope, out) -> {
+                        final Object value = scope.get(token);
+                        out.append((null == value) ? raw : value.toString());
+                    });
+                }
+            }
+            return null;
+        }
+
+        private Segment parseEach(final String _tag) throws IOException {
+            final Matcher m = EACH_PATTERN.matcher(_tag);
+            if (!m.matches()) {
+                throw error("Expected %%#each ITEM in LIST%% but found %%" + _tag + "%%");
+            }
+            final String item = m.group(1);
+            final String list = m.group(2);
+            final List<Segment> body = new ArrayList<>();
+            final List<Segment> between = new ArrayList<>();
+            String end = parseUntil(body);
+            if ("#between".equals(end)) {
+                end = parseUntil(between);
+            }
+            if (!"/each".equals(end)) {
+                throw error("%%" + _tag + "%% is not closed by %%/each%%");
+            }
+            final Segment[] bodySegments = body.toArray(new Segment[0]);
+            final Segment[] betweenSegments = between.toArray(new Segment[0]);
+            return (scope, out) -> {
+                final Object value = scope.get(list);
+                if (!(value instanceof Iterable)) {
+                    return;
+                }
+                boolean first = true;
+                for (final Object element : (Iterable<?>) value) {
+                    if (!first) {
+                        renderAll(betweenSegments, scope, out);
+                    }
+                    first = false;
+                    renderAll(bodySegments, new Scope(scope.m_values, scope, item, element), out);
+                }
+            };
+        }
+
+        private Segment parseIf(final String _tag) throws IOException {
+            String key = _tag.substring("#if".length()).trim();
+            final boolean negate = key.startsWith("!");
+            if (negate) {
+                key = key.substring(1).trim();
+            }
+            if (key.isEmpty()) {
+                throw error("Expected %%#if KEY%% but found %%" + _tag + "%%");
+            }
+            final List<Segment> then = new ArrayList<>();
+            final List<Segment> otherwise = new ArrayList<>();
+            String end = parseUntil(then);
+            if ("#else".equals(end)) {
+                end = parseUntil(otherwise);
+            }
+            if (!"/if".equals(end)) {
+                throw error("%%" + _tag + "%% is not closed by %%/if%%");
+            }
+            final String condition = key;
+            final Segment[] thenSegments = then.toArray(new Segment[0]);
+            final Segment[] otherwiseSegments = otherwise.toArray(new Segment[0]);
+            return (scope, out) -> renderAll((isTrue(scope.get(condition)) != negate) ? thenSegments : otherwiseSegments, scope, out);
+        }
+
+        private IOException error(final String _message) {
+            return new IOException("Malformed SQL template " + m_name + ": " + _message);
+        }
+    }
+}
@@ -4,48 +4,57 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.github.theprez.jcmdutils.StringUtils;
-
-/** Utility class consisting of only static methods */
+/**
+ * Renders the SQL templates under <code>sqltemplates/</code>. Each template is read and parsed into a
+ * {@link SqlTemplate} on first use and cached, so rendering does not touch the class path again.
+ */
 final class SqlTemplateProcessor {
-    private static final Pattern REPLACEMENT_PATTERN = Pattern.compile("%%([^%\\n]+)%%");
+    // Rendering builders are reused by each thread, so generating many triggers does not regrow a builder each time
+    private static final ThreadLocal<StringBuilder> BUILDERS = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+    private static final Map<String, SqlTemplate> TEMPLATES = new ConcurrentHashMap<>();
 
     private SqlTemplateProcessor() {
         // Utility class consisting of only static methods, no instances
     }
 
-    static String getProcessed(String _templateName, Properties _values) throws IOException {
-        final String fileContents = readFile(_templateName);
-        String processed = fileContents;
-        final Matcher m = REPLACEMENT_PATTERN.matcher(fileContents);
-        while (m.find()) {
-            String key = m.group(1).trim();
-            String group = m.group();
-            String value = _values.getProperty(key);
-            if (StringUtils.isNonEmpty(value)) {
-                processed = processed.replace(group, value);
-            }
+    /**
+     * Renders a template.
+     *
+     * @param _values the placeholder values. Repeat blocks take an {@link Iterable} value, see {@link SqlTemplate}.
+     */
+    static String getProcessed(final String _templateName, final Map<String, ?> _values) throws IOException {
+        final SqlTemplate template = getTemplate(_templateName);
+        final StringBuilder out = BUILDERS.get();
+        out.setLength(0);
+        template.render(_values, out);
+        return out.toString();
+    }
+
+    static SqlTemplate getTemplate(final String _templateName) throws IOException {
+        final SqlTemplate cached = TEMPLATES.get(_templateName);
+        if (null != cached) {
+            return cached;
         }
-        return processed;
+        final SqlTemplate ret = SqlTemplate.parse(_templateName, readFile(_templateName), SqlTemplateProcessor::readFile);
+        TEMPLATES.putIfAbsent(_templateName, ret);
+        return ret;
     }
 
     private static String readFile(String _templateName) throws IOException {
         try (InputStream rawData = ClassLoader.getSystemResourceAsStream("sqltemplates/" + _templateName)) {
             if (Objects.isNull(rawData)) {
-                throw new IOException("SQL template not found");
+                throw new IOException("SQL template not found: " + _templateName);
             }
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             int bytesRead;
-            byte[] buf = new byte[12];
+            byte[] buf = new byte[8192];
             while ((bytesRead = rawData.read(buf, 0, buf.length)) != -1) {
                 baos.write(buf, 0, bytesRead);
             }
-            baos.flush();
             return new String(baos.toByteArray(), StandardCharsets.UTF_8);
         }
     }
@@ -0,0 +1,182 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+
+/**
+ * A daemon-wide pool of host server connections shared by all data queue readers. Each pooled connection is a
+ * copy of the system object the daemon signed on with, so the pool size (not the number of monitored tables)
+ * determines the number of sign-ons and host server jobs, and the readers never share a connection with the
+ * daemon's other work.
+ * <p>
+ * A reader that wants to wait on its data queue asks for that when borrowing. The pool allows it only while
+ * another connection stays free of waits, so one idle queue cannot hold up the reads of every other queue.
+ * <p>
+ * A connection is checked before it is handed out. A dead connection is reconnected, and failed reconnects
+ * are retried with exponential backoff so that an unavailable host is not hammered with sign-on attempts.
+ */
+class SystemConnectionPool implements AutoCloseable {
+    private static final long INITIAL_RETRY_MILLIS = 500;
+
+    private final AppLogger m_logger;
+    private final int m_service;
+    private final long m_maxRetryMillis;
+    private final PooledSystem[] m_all;
+    private final ReentrantLock m_lock = new ReentrantLock();
+    private final Condition m_released = m_lock.newCondition();
+    // Guarded by m_lock
+    private final Deque<PooledSystem> m_available = new ArrayDeque<>();
+    private int m_waiting = 0;
+
+    /**
+     * @param _system  the signed-on system object the pooled connections are copied from
+     * @param _service the host service the connections are used for, for instance {@link AS400#DATAQUEUE}
+     */
+    SystemConnectionPool(final AppLogger _logger, final AS400 _system, final int _service, final int _size, final long _maxRetryMillis) {
+        m_logger = _logger;
+        m_service = _service;
+        m_maxRetryMillis = Math.max(INITIAL_RETRY_MILLIS, _maxRetryMillis);
+        final int size = Math.max(1, _size);
+        m_all = new PooledSystem[size];
+        for (int i = 0; i < size; i++) {
+            final AS400 system = new AS400(_system);
+            system.setGuiAvailable(false);
+            m_all[i] = new PooledSystem(system, i);
+            m_available.add(m_all[i]);
+        }
+    }
+
+    int getSize() {
+        return m_all.length;
+    }
+
+    /** Borrows a connection that is only used for requests that do not wait */
+    PooledSystem borrow() throws IOException, InterruptedException {
+        return borrow(false);
+    }
+
+    /**
+     * Borrows a connected system object, waiting for one to be returned if all of them are in use. The caller
+     * must hand it back with {@link #release(PooledSystem, boolean)}.
+     *
+     * @param _toWait whether the caller would like to wait on its data queue. Whether it may is decided here, see
+     *                {@link PooledSystem#mayWait()}.
+     * @throws IOException if the connection is down and could not (yet) be reestablished
+     */
+    PooledSystem borrow(final boolean _toWait) throws IOException, InterruptedException {
+        final PooledSystem pooled;
+        m_lock.lockInterruptibly();
+        try {
+            while (m_available.isEmpty()) {
+                m_released.await();
+            }
+            pooled = m_available.poll();
+            pooled.m_mayWait = _toWait && m_waiting + 1 < m_all.length;
+            if (pooled.m_mayWait) {
+                m_waiting++;
+            }
+        } finally {
+            m_lock.unlock();
+        }
+        try {
+            pooled.ensureConnected();
+            return pooled;
+        } catch (IOException | RuntimeException e) {
+            giveBack(pooled);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed system object to the pool.
+     *
+     * @param _failed whether the caller's request failed in a way that suggests the connection is unusable
+     */
+    void release(final PooledSystem _pooled, final boolean _failed) {
+        if (_failed) {
+            _pooled.m_system.disconnectService(m_service);
+        }
+        giveBack(_pooled);
+    }
+
+    private void giveBack(final PooledSystem _pooled) {
+        m_lock.lock();
+        try {
+            if (_pooled.m_mayWait) {
+                _pooled.m_mayWait = false;
+                m_waiting--;
+            }
+            m_available.add(_pooled);
+            m_released.signal();
+        } finally {
+            m_lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (final PooledSystem pooled : m_all) {
+            pooled.m_system.disconnectService(m_service);
+        }
+    }
+
+    final class PooledSystem {
+        private final AS400 m_system;
+        private final int m_index;
+        private int m_failures = 0;
+        private long m_retryAtNanos = 0;
+        // Guarded by the pool's lock
+        private boolean m_mayWait = false;
+
+        private PooledSystem(final AS400 _system, final int _index) {
+            m_system = _system;
+            m_index = _index;
+        }
+
+        AS400 getSystem() {
+            return m_system;
+        }
+
+        int getIndex() {
+            return m_index;
+        }
+
+        /** Whether the borrower was allowed to wait on its data queue with this connection */
+        boolean mayWait() {
+            return m_mayWait;
+        }
+
+        private void ensureConnected() throws IOException {
+            if (m_system.isConnected(m_service) && m_system.isConnectionAlive(m_service)) {
+                return;
+            }
+            final long now = System.nanoTime();
+            if (now < m_retryAtNanos) {
+                throw new IOException(String.format("Connection %d to %s is down, next reconnect attempt in %dms", m_index, m_system.getSystemName(),
+                        TimeUnit.NANOSECONDS.toMillis(m_retryAtNanos - now)));
+            }
+            try {
+                m_system.disconnectService(m_service);
+                m_system.connectService(m_service);
+                if (0 < m_failures) {
+                    m_logger.printfln_verbose("Connection %d to %s reestablished after %d failed attempt(s)", m_index, m_system.getSystemName(), m_failures);
+                }
+                m_failures = 0;
+                m_retryAtNanos = 0;
+            } catch (Exception e) {
+                m_failures++;
+                final long backoff = Math.min(m_maxRetryMillis, INITIAL_RETRY_MILLIS << Math.min(m_failures - 1, 20));
+                m_retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                throw new IOException(String.format("Unable to connect to %s (attempt %d, retrying in %dms): %s", m_system.getSystemName(), m_failures,
+                        backoff, e.getLocalizedMessage()), e);
+            }
+        }
+    }
+}
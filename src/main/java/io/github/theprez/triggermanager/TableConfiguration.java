@@ -0,0 +1,71 @@
+package io.github.theprez.triggermanager;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * Resolves configuration values for a single monitored table. A value can be set for one table by
+ * suffixing the key with the table's system schema and system table name, for instance
+ * <code>KAFKA_LINGER_MS.MYLIB.MYTABLE=50</code>. Otherwise the daemon-wide key is used.
+ * <p>
+ * Settings that only exist daemon-wide are resolved through {@link #daemonWide(AppLogger)}.
+ */
+class TableConfiguration {
+    private final String m_tableSuffix;
+    private final AppLogger m_logger;
+
+    TableConfiguration(final AppLogger _logger, final TableDescriptor _table) {
+        this(_logger, "." + _table.getSystemSchema() + "." + _table.getSystemName());
+    }
+
+    private TableConfiguration(final AppLogger _logger, final String _tableSuffix) {
+        m_logger = _logger;
+        m_tableSuffix = _tableSuffix;
+    }
+
+    static TableConfiguration daemonWide(final AppLogger _logger) {
+        return new TableConfiguration(_logger, "");
+    }
+
+    String get(final String _key, final String _default) {
+        if (m_tableSuffix.isEmpty()) {
+            final String value = IBMiDotEnv.getDotEnv().get(_key);
+            return StringUtils.isEmpty(value) ? _default : value.trim();
+        }
+        final String tableValue = IBMiDotEnv.getDotEnv().get(_key + m_tableSuffix);
+        if (StringUtils.isNonEmpty(tableValue)) {
+            return tableValue.trim();
+        }
+        final String value = IBMiDotEnv.getDotEnv().get(_key);
+        return StringUtils.isEmpty(value) ? _default : value.trim();
+    }
+
+    int getInt(final String _key, final int _default) {
+        final long value = getLong(_key, _default);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            m_logger.printfln_warn("Warning: Invalid numeric value '%s' for property '%s'. Using default value '%d'.", get(_key, null), _key, _default);
+            return _default;
+        }
+        return (int) value;
+    }
+
+    long getLong(final String _key, final long _default) {
+        final String value = get(_key, null);
+        if (null == value) {
+            return _default;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            m_logger.printfln_warn("Warning: Invalid numeric value '%s' for property '%s'. Using default value '%d'.", value, _key, _default);
+            return _default;
+        }
+    }
+
+    boolean getBoolean(final String _key, final boolean _default) {
+        final String value = get(_key, null);
+        return null == value ? _default : Boolean.parseBoolean(value);
+    }
+}
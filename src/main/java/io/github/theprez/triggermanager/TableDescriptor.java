@@ -4,19 +4,34 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.StringJoiner;
 import java.util.stream.Stream;
 
 class TableDescriptor {
+    // Keeps the number of parameter markers in one catalog query well within the limit
+    private static final int LOOKUP_PATTERNS_PER_QUERY = 100;
+
     private final String schema;
     private final String systemSchema;
     private final String name;
     private final String systemName;
+    private final Timestamp lastAltered;
     TableDescriptor(final String _schema, final String _systemSchema, final String _name, final String _systemName) {
+        this(_schema, _systemSchema, _name, _systemName, null);
+    }
+
+    TableDescriptor(final String _schema, final String _systemSchema, final String _name, final String _systemName, final Timestamp _lastAltered) {
         schema = _schema;
         systemSchema = _systemSchema;
         name = _name;
         systemName = _systemName;
+        lastAltered = _lastAltered;
     }
 
     String getSchema() {
@@ -25,6 +40,28 @@ class TableDescriptor {
     String getName() {
         return name;
     }
+    String getSystemSchema() {
+        return systemSchema;
+    }
+    String getSystemName() {
+        return systemName;
+    }
+
+    /** The catalog's LAST_ALTERED_TIMESTAMP when the table was looked up, or null if not known */
+    Timestamp getLastAltered() {
+        return lastAltered;
+    }
+
+    /**
+     * Removes the delimiters from a name as stored in the catalog's name columns, so that it can be compared with
+     * those columns directly. Wrapping the columns in QSYS2.DELIMIT_NAME instead stops the catalog indexes being used.
+     */
+    static String undelimit(final String _name) {
+        if (2 <= _name.length() && _name.startsWith("\"") && _name.endsWith("\"")) {
+            return _name.substring(1, _name.length() - 1).replace("\"\"", "\"");
+        }
+        return _name;
+    }
 
     /**
      * Returns a string that can be used as a label for a related object (trigger, global variable, data queue)
@@ -48,8 +85,9 @@ class TableDescriptor {
         return String.format("%s.%s", schema, name);
     }
 
-    String getColumnData(final Connection m_conn) throws SQLException {
-        final StringJoiner sjColumnData = new StringJoiner(",\n");
+    /** Returns the delimited names of all of the table's columns, in column order */
+    List<String> getColumnNames(final Connection m_conn) throws SQLException {
+        final List<String> ret = new LinkedList<>();
         // Query the SYSCOLUMNS catalog to get the column data for the specified table.
         // This ensures that implicitly hidden columns are included, where using the
         // ResultSetMetaData from a `SELECT * FROM x` query they would not be.
@@ -57,16 +95,104 @@ class TableDescriptor {
                 "SELECT " +
                 "QSYS2.DELIMIT_NAME(COLUMN_NAME) " +
                 "FROM QSYS2.SYSCOLUMNS " +
-                "WHERE QSYS2.DELIMIT_NAME(TABLE_SCHEMA) = ? AND QSYS2.DELIMIT_NAME(TABLE_NAME) = ? ORDER BY ORDINAL_POSITION")) {
-            stmt.setString(1, schema);
-            stmt.setString(2, name);
+                "WHERE SYSTEM_TABLE_SCHEMA = ? AND SYSTEM_TABLE_NAME = ? ORDER BY ORDINAL_POSITION")) {
+            stmt.setString(1, systemSchema);
+            stmt.setString(2, systemName);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ret.add(rs.getString(1));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns, by delimited column name, the most UTF-8 bytes a column can take up as a <code>"name":value</code>
+     * member of a JSON object, including the separating comma. The estimate assumes every character is escaped, so
+     * it is an upper bound rather than a typical size.
+     */
+    Map<String, Long> getColumnJsonWidths(final Connection m_conn) throws SQLException {
+        final Map<String, Long> ret = new LinkedHashMap<>();
+        try (PreparedStatement stmt = m_conn.prepareStatement(
+                "SELECT " +
+                "QSYS2.DELIMIT_NAME(COLUMN_NAME), DATA_TYPE, LENGTH " +
+                "FROM QSYS2.SYSCOLUMNS " +
+                "WHERE SYSTEM_TABLE_SCHEMA = ? AND SYSTEM_TABLE_NAME = ? ORDER BY ORDINAL_POSITION")) {
+            stmt.setString(1, systemSchema);
+            stmt.setString(2, systemName);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                String columnName = rs.getString(1);
-                sjColumnData.add(String.format("            KEY '%s' VALUE n.%s", columnName, columnName));
+                final String column = rs.getString(1);
+                // An escaped character takes six bytes. The name is quoted and followed by a colon and a comma.
+                ret.put(column, 6L * column.length() + 4 + getValueJsonWidth(rs.getString(2).trim(), rs.getLong(3)));
             }
         }
-        return sjColumnData.toString();
+        return ret;
+    }
+
+    /** The most characters a value of the given SYSCOLUMNS DATA_TYPE and LENGTH can take up in JSON */
+    private static long getValueJsonWidth(final String _type, final long _length) {
+        switch (_type) {
+            case "SMALLINT":
+            case "INTEGER":
+            case "BIGINT":
+                return 20;
+            case "DECIMAL":
+            case "NUMERIC":
+                // Digits, sign and decimal point
+                return _length + 2;
+            case "REAL":
+            case "DOUBLE":
+            case "FLOAT":
+            case "DECFLOAT":
+                return 48;
+            case "DATE":
+            case "TIME":
+            case "TIMESTMP":
+                return 34;
+            case "BOOLEAN":
+                return 5;
+            case "BINARY":
+            case "VARBINARY":
+            case "BLOB":
+            case "ROWID":
+                // Hexadecimal, quoted
+                return 2 * _length + 2;
+            default:
+                // Text, quoted, every character possibly escaped
+                return 6 * Math.max(1, _length) + 2;
+        }
+    }
+
+    /**
+     * Returns the delimited names of the table's primary key columns, in key order. A table without a primary key
+     * uses its first unique constraint instead. The list is empty if the table has neither.
+     */
+    List<String> getKeyColumns(final Connection m_conn) throws SQLException {
+        final List<String> ret = new LinkedList<>();
+        try (PreparedStatement stmt = m_conn.prepareStatement(
+                "SELECT " +
+                "C.CONSTRAINT_SCHEMA, C.CONSTRAINT_NAME, " +
+                "QSYS2.DELIMIT_NAME(K.COLUMN_NAME) " +
+                "FROM QSYS2.SYSCST C " +
+                "JOIN QSYS2.SYSKEYCST K ON K.CONSTRAINT_SCHEMA = C.CONSTRAINT_SCHEMA AND K.CONSTRAINT_NAME = C.CONSTRAINT_NAME " +
+                "WHERE C.CONSTRAINT_TYPE IN ('PRIMARY KEY', 'UNIQUE') " +
+                "AND C.TABLE_SCHEMA = ? AND C.TABLE_NAME = ? " +
+                "ORDER BY CASE C.CONSTRAINT_TYPE WHEN 'PRIMARY KEY' THEN 0 ELSE 1 END, C.CONSTRAINT_SCHEMA, C.CONSTRAINT_NAME, K.ORDINAL_POSITION")) {
+            stmt.setString(1, undelimit(schema));
+            stmt.setString(2, undelimit(name));
+            ResultSet rs = stmt.executeQuery();
+            String constraint = null;
+            while (rs.next()) {
+                final String current = rs.getString(1) + "." + rs.getString(2);
+                if (null != constraint && !constraint.equals(current)) {
+                    break;
+                }
+                constraint = current;
+                ret.add(rs.getString(3));
+            }
+        }
+        return ret;
     }
 
     static TableDescriptor lookup(final String _schema, final String _table, final Connection connection) throws SQLException {
@@ -75,19 +201,68 @@ class TableDescriptor {
                 "QSYS2.DELIMIT_NAME(TABLE_SCHEMA), " +
                 "SYSTEM_TABLE_SCHEMA, " +
                 "QSYS2.DELIMIT_NAME(TABLE_NAME), " +
-                "SYSTEM_TABLE_NAME " +
+                "SYSTEM_TABLE_NAME, " +
+                "LAST_ALTERED_TIMESTAMP " +
                 "FROM QSYS2.SYSTABLES " + 
-                "WHERE (QSYS2.DELIMIT_NAME(TABLE_SCHEMA) = ? OR SYSTEM_TABLE_SCHEMA = ?) " +
-                "AND (QSYS2.DELIMIT_NAME(TABLE_NAME) = ? OR SYSTEM_TABLE_NAME = ?)")) {
-            stmt.setString(1, _schema);
+                "WHERE (TABLE_SCHEMA = ? OR SYSTEM_TABLE_SCHEMA = ?) " +
+                "AND (TABLE_NAME = ? OR SYSTEM_TABLE_NAME = ?)")) {
+            stmt.setString(1, undelimit(_schema));
             stmt.setString(2, _schema);
-            stmt.setString(3, _table);
+            stmt.setString(3, undelimit(_table));
             stmt.setString(4, _table);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                return new TableDescriptor(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4));
+                return new TableDescriptor(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5));
             }
         }
         return null;
     }
+
+    /**
+     * Looks up every table matching any of the given schema and table name patterns, in which <code>*</code> matches
+     * any characters. Only tables and physical files are returned, since views and logical files cannot be monitored.
+     *
+     * @param _patterns pairs of schema and table name patterns
+     */
+    static List<TableDescriptor> lookupAll(final List<String[]> _patterns, final Connection connection) throws SQLException {
+        final Map<String, TableDescriptor> ret = new LinkedHashMap<>();
+        for (int start = 0; start < _patterns.size(); start += LOOKUP_PATTERNS_PER_QUERY) {
+            final List<String[]> patterns = _patterns.subList(start, Math.min(_patterns.size(), start + LOOKUP_PATTERNS_PER_QUERY));
+            final StringJoiner where = new StringJoiner(" OR ", "(", ")");
+            for (int i = 0; i < patterns.size(); i++) {
+                where.add("((TABLE_SCHEMA LIKE ? ESCAPE '\\' OR SYSTEM_TABLE_SCHEMA LIKE ? ESCAPE '\\') " +
+                        "AND (TABLE_NAME LIKE ? ESCAPE '\\' OR SYSTEM_TABLE_NAME LIKE ? ESCAPE '\\'))");
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT " +
+                    "QSYS2.DELIMIT_NAME(TABLE_SCHEMA), " +
+                    "SYSTEM_TABLE_SCHEMA, " +
+                    "QSYS2.DELIMIT_NAME(TABLE_NAME), " +
+                    "SYSTEM_TABLE_NAME, " +
+                    "LAST_ALTERED_TIMESTAMP " +
+                    "FROM QSYS2.SYSTABLES " +
+                    "WHERE TABLE_TYPE IN ('T', 'P') AND " + where +
+                    " ORDER BY 1, 3")) {
+                int param = 1;
+                // Compare the undelimited patterns with the SQL names and the patterns as given with the system names,
+                // like lookup() does, so the name columns' indexes can be used
+                for (final String[] pattern : patterns) {
+                    stmt.setString(param++, toLikePattern(undelimit(pattern[0])));
+                    stmt.setString(param++, toLikePattern(pattern[0]));
+                    stmt.setString(param++, toLikePattern(undelimit(pattern[1])));
+                    stmt.setString(param++, toLikePattern(pattern[1]));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final TableDescriptor table = new TableDescriptor(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5));
+                    ret.putIfAbsent(table.toString(), table);
+                }
+            }
+        }
+        return new ArrayList<>(ret.values());
+    }
+
+    private static String toLikePattern(final String _name) {
+        return _name.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_").replace('*', '%');
+    }
 }
@@ -0,0 +1,176 @@
+package io.github.theprez.triggermanager;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, lag and latency counters for one monitored table's route. The counters are updated by the table's
+ * pump and consumer threads; the rates and the data queue depth are updated by {@link DaemonMetrics}'s sampler.
+ */
+class TableMetrics implements TableMetricsMBean {
+    private final TriggerDescriptor m_trigger;
+    private final LongAdder m_read = new LongAdder();
+    private final LongAdder m_published = new LongAdder();
+    private final LongAdder m_failures = new LongAdder();
+    private final LongAdder m_filtered = new LongAdder();
+    private final LatencyHistogram m_publishLatency = new LatencyHistogram();
+    private final LatencyHistogram m_lag = new LatencyHistogram();
+    private volatile ConsumerPool m_consumers;
+    private volatile long m_queueDepth = -1;
+    private volatile long m_buffered = -1;
+    private volatile double m_readRate;
+    private volatile double m_publishRate;
+    // The counts and time at the previous sample, only used by the sampler thread
+    private long m_lastSampleNanos = System.nanoTime();
+    private long m_lastRead;
+    private long m_lastPublished;
+
+    TableMetrics(final TriggerDescriptor _trigger) {
+        m_trigger = _trigger;
+    }
+
+    TriggerDescriptor getTrigger() {
+        return m_trigger;
+    }
+
+    /** Connects the metrics to the route's consumers, whose backlog is reported as a gauge */
+    void attach(final ConsumerPool _consumers) {
+        m_consumers = _consumers;
+    }
+
+    void recordRead() {
+        m_read.increment();
+    }
+
+    /** Records an entry that the table's {@link PayloadTransform} dropped instead of publishing */
+    void recordFiltered() {
+        m_filtered.increment();
+    }
+
+    /** Records the change source's own depth, as last seen by the pump */
+    void recordBuffered(final int _depth) {
+        m_buffered = _depth;
+    }
+
+    /** Wraps the handler that publishes the table's entries, recording each publish attempt */
+    IChangeHandler instrument(final IChangeHandler _handler) {
+        return entry -> {
+            final long start = System.nanoTime();
+            try {
+                _handler.handle(entry);
+            } catch (Exception e) {
+                m_failures.increment();
+                throw e;
+            }
+            final long end = System.nanoTime();
+            m_published.increment();
+            m_publishLatency.record(end - start);
+            m_lag.record(end - entry.getReceivedNanos());
+        };
+    }
+
+    /** Updates the rates from the counts since the previous sample, and records the sampled data queue depth */
+    void sample(final long _queueDepth) {
+        final long now = System.nanoTime();
+        final long read = m_read.sum();
+        final long published = m_published.sum();
+        final double seconds = (now - m_lastSampleNanos) / 1e9;
+        if (0 < seconds) {
+            m_readRate = (read - m_lastRead) / seconds;
+            m_publishRate = (published - m_lastPublished) / seconds;
+        }
+        m_lastSampleNanos = now;
+        m_lastRead = read;
+        m_lastPublished = published;
+        m_queueDepth = _queueDepth;
+    }
+
+    LatencyHistogram getPublishLatency() {
+        return m_publishLatency;
+    }
+
+    LatencyHistogram getLag() {
+        return m_lag;
+    }
+
+    @Override
+    public String getTable() {
+        return m_trigger.getTableDescriptor().toString();
+    }
+
+    @Override
+    public String getMonitorId() {
+        return m_trigger.getTriggerId();
+    }
+
+    @Override
+    public long getEntriesRead() {
+        return m_read.sum();
+    }
+
+    @Override
+    public long getEntriesPublished() {
+        return m_published.sum();
+    }
+
+    @Override
+    public long getPublishFailures() {
+        return m_failures.sum();
+    }
+
+    @Override
+    public long getEntriesFiltered() {
+        return m_filtered.sum();
+    }
+
+    @Override
+    public double getReadRate() {
+        return m_readRate;
+    }
+
+    @Override
+    public double getPublishRate() {
+        return m_publishRate;
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return m_queueDepth;
+    }
+
+    @Override
+    public long getBufferedEntries() {
+        return m_buffered;
+    }
+
+    @Override
+    public long getPendingEntries() {
+        final ConsumerPool consumers = m_consumers;
+        return (null == consumers) ? 0 : consumers.getPending();
+    }
+
+    @Override
+    public int getConsumers() {
+        final ConsumerPool consumers = m_consumers;
+        return (null == consumers) ? 0 : consumers.getConsumerCount();
+    }
+
+    @Override
+    public double getPublishLatencyMeanMillis() {
+        return m_publishLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getPublishLatencyP99Millis() {
+        return m_publishLatency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getLagMeanMillis() {
+        return m_lag.getMeanMillis();
+    }
+
+    @Override
+    public double getLagP99Millis() {
+        return m_lag.getPercentileMillis(99);
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.theprez.triggermanager;
+
+/**
+ * The JMX view of a monitored table's {@link TableMetrics}. JMX requires standard MBean interfaces to be public.
+ */
+public interface TableMetricsMBean {
+
+    String getTable();
+
+    String getMonitorId();
+
+    long getEntriesRead();
+
+    long getEntriesPublished();
+
+    long getPublishFailures();
+
+    /** Entries dropped by the table's transform instead of being published */
+    long getEntriesFiltered();
+
+    /** Entries read per second, over the last sampling interval */
+    double getReadRate();
+
+    /** Entries published per second, over the last sampling interval */
+    double getPublishRate();
+
+    /** Entries waiting in the table's data queue when last sampled, or -1 if unknown */
+    long getQueueDepth();
+
+    /** Entries buffered by the daemon's change source (for example in the spool), or -1 if unknown */
+    long getBufferedEntries();
+
+    /** Entries handed to the consumers but not yet published */
+    long getPendingEntries();
+
+    int getConsumers();
+
+    double getPublishLatencyMeanMillis();
+
+    double getPublishLatencyP99Millis();
+
+    /** The mean time from reading an entry to publishing it */
+    double getLagMeanMillis();
+
+    double getLagP99Millis();
+}
@@ -0,0 +1,47 @@
+package io.github.theprez.triggermanager;
+
+/**
+ * A monitored table's running route: what publishes the table's changes to Kafka (its Camel route or a
+ * {@link DirectKafkaForwarder}), and the {@link ChangeSourcePump} that feeds it. Routes are started and stopped individually as tables are added to and
+ * removed from monitoring, without disturbing the routes of other tables.
+ */
+final class TableRoute {
+    private final TriggerDescriptor m_trigger;
+    private final ChangeSourcePump m_pump;
+    private final TableMetrics m_metrics;
+    private final AutoCloseable m_publisher;
+
+    /**
+     * @param _publisher closed once the pump has stopped, to publish what it still holds and release it; for a Camel
+     *                   route, this stops the route and removes it from the context
+     */
+    TableRoute(final TriggerDescriptor _trigger, final ChangeSourcePump _pump, final TableMetrics _metrics, final AutoCloseable _publisher) {
+        m_trigger = _trigger;
+        m_pump = _pump;
+        m_metrics = _metrics;
+        m_publisher = _publisher;
+    }
+
+    TriggerDescriptor getTrigger() {
+        return m_trigger;
+    }
+
+    /** Starts reading the table's changes. A Camel route must already have been added to the context. */
+    void start() {
+        m_pump.start();
+    }
+
+    /**
+     * Stops reading, waits for the entries already read to be handed to the publisher, and then closes it and the
+     * change source. A batched route or producer publishes its last partial batch as it stops.
+     */
+    void stop(final DaemonMetrics _metrics) throws Exception {
+        m_pump.stop();
+        try {
+            m_publisher.close();
+        } finally {
+            m_pump.close();
+        }
+        _metrics.unregister(m_metrics);
+    }
+}
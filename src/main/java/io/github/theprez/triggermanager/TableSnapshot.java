@@ -0,0 +1,240 @@
+package io.github.theprez.triggermanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.impl.DefaultCamelContext;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400JDBCDataSource;
+import com.ibm.as400.access.DataQueue;
+import com.ibm.as400.access.KeyedDataQueue;
+
+/**
+ * Publishes the current rows of a monitored table to its Kafka topic, in the same table/operation/row shape as its
+ * changes, with an operation of {@link #OPERATION_ROW}. The table is read in relative record number ranges by a
+ * bounded number of worker threads, each with its own connection, and every row is streamed from the result set
+ * to Kafka as it is fetched.
+ * <p>
+ * The snapshot is bracketed by {@link #OPERATION_START} and {@link #OPERATION_END} watermarks carrying the snapshot
+ * ID, and are published to every partition of the topic. For a trigger-captured table they are written to the
+ * table's data queue, and the daemon publishes each one after the changes read before it and before those read after
+ * it, so on every partition they are in order with the live changes. Every change after the start watermark is at least as new as any snapshot row for the same
+ * key, so a consumer that ignores a snapshot row for a key it has seen a change for since the start watermark ends
+ * up with the table's current contents. The end watermark is written after the last snapshot row has been sent.
+ */
+class TableSnapshot {
+    static final String OPERATION_ROW = "SNAPSHOT";
+    static final String OPERATION_START = "SNAPSHOT_START";
+    static final String OPERATION_END = "SNAPSHOT_END";
+    /** More ranges than workers, so that a worker that finishes early can take another range */
+    private static final int RANGES_PER_WORKER = 4;
+    private static final long MIN_RANGE_ROWS = 10000;
+
+    private final AppLogger m_logger;
+    private final AS400 m_system;
+    private final TriggerDescriptor m_trigger;
+    private final List<String> m_columns;
+    private final List<String> m_keyColumns;
+    private final PayloadTransform m_transform;
+    private final int m_parallelism;
+    private final int m_fetchSize;
+    private final String m_snapshotId = UUID.randomUUID().toString();
+
+    /**
+     * @param _system      the signed-on system, copied for each worker's connection
+     * @param _columns     the delimited names of the columns to publish
+     * @param _keyColumns  the row key columns, whose values become each row's Kafka record key
+     * @param _transform   the table's transform, applied to each row as the daemon applies it to changes, or null
+     * @param _parallelism the number of ranges read at the same time
+     * @param _fetchSize   the number of rows fetched from the server at a time
+     */
+    TableSnapshot(final AppLogger _logger, final AS400 _system, final TriggerDescriptor _trigger, final List<String> _columns,
+            final List<String> _keyColumns, final PayloadTransform _transform, final int _parallelism, final int _fetchSize) {
+        m_logger = _logger;
+        m_system = _system;
+        m_trigger = _trigger;
+        m_columns = _columns;
+        m_keyColumns = _keyColumns;
+        m_transform = _transform;
+        m_parallelism = Math.max(1, _parallelism);
+        m_fetchSize = Math.max(1, _fetchSize);
+    }
+
+    String getSnapshotId() {
+        return m_snapshotId;
+    }
+
+    /**
+     * Publishes the table's rows to the topic, and waits until Kafka has them.
+     *
+     * @return the number of rows published
+     */
+    long run(final Connection _conn, final String _topicName, final String _kafkaBrokerUri, final KafkaPublishSettings _settings) throws Exception {
+        final TableDescriptor table = m_trigger.getTableDescriptor();
+        final String routeUri = "direct:snapshot-" + m_trigger.getTriggerId();
+        final KafkaRouteBuilder routeBuilder = new KafkaRouteBuilder(m_logger, routeUri, "aistream-snapshot-" + m_trigger.getTriggerId(), _topicName,
+                _kafkaBrokerUri, _settings);
+        m_logger.printfln_verbose("Snapshot %s of %s --> %s [%s]", m_snapshotId, table, routeBuilder.getKafkaUri(), _settings);
+
+        final long rows;
+        try (CamelContext context = new DefaultCamelContext()) {
+            context.addRoutes(routeBuilder);
+            context.start();
+            final ProducerTemplate producer = context.createProducerTemplate();
+            final int partitions = (TriggerDescriptor.CaptureMode.TRIGGER == m_trigger.getCaptureMode()) ? 0 : _settings.getPartitionCount(_topicName, _kafkaBrokerUri);
+            sendWatermark(producer, routeUri, partitions, OPERATION_START, -1);
+            // Rows added from here on have a higher record number than the bound or reuse a deleted row's, and
+            // either way they are sent by the trigger after the start watermark
+            rows = readRanges(producer, routeUri, getRecordNumberBound(_conn));
+            if (TriggerDescriptor.CaptureMode.TRIGGER != m_trigger.getCaptureMode()) {
+                sendWatermark(producer, routeUri, partitions, OPERATION_END, rows);
+            }
+            // Stopping publishes the last partial batch and waits for the producer to flush
+            context.stop();
+        }
+        if (TriggerDescriptor.CaptureMode.TRIGGER == m_trigger.getCaptureMode()) {
+            sendWatermark(null, routeUri, 0, OPERATION_END, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes a watermark to the table's data queue, or for tables without one, straight to each of the topic's
+     * partitions. A journal-captured table's watermarks are therefore not ordered with its changes, and only mark the
+     * snapshot's time span.
+     */
+    private void sendWatermark(final ProducerTemplate _producer, final String _routeUri, final int _partitions, final String _operation, final long _rows)
+            throws Exception {
+        final StringBuilder json = new StringBuilder("{\"table\":\"");
+        PayloadKeyExtractor.appendEscaped(json, m_trigger.getTableDescriptor().getName());
+        json.append("\",\"operation\":\"").append(_operation).append("\",\"snapshot\":\"").append(m_snapshotId);
+        json.append("\",\"watermark\":\"").append(Instant.now()).append('"');
+        if (0 <= _rows) {
+            json.append(",\"rows\":").append(_rows);
+        }
+        json.append('}');
+        if (TriggerDescriptor.CaptureMode.TRIGGER == m_trigger.getCaptureMode()) {
+            final String path = String.format("/qsys.lib/%s.lib/%s.dtaq", m_trigger.getLibrary(), m_trigger.getDataQueueName());
+            final byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+            if (m_trigger.isSharedDataQueue()) {
+                new KeyedDataQueue(m_system, path).write(SharedDataQueue.toKey(m_system, m_trigger.getTriggerId()), data);
+            } else {
+                new DataQueue(m_system, path).write(data);
+            }
+        } else {
+            KafkaRouteBuilder.sendToAllPartitions(_producer, _routeUri, new ChangeEntry(json.toString().getBytes(StandardCharsets.UTF_8), null), _partitions);
+        }
+        m_logger.printfln_verbose("Sent %s watermark for %s", _operation, m_trigger.getTableDescriptor());
+    }
+
+    /** The number of rows and deleted rows in all of the table's members, which bounds the record numbers in use */
+    private long getRecordNumberBound(final Connection _conn) throws SQLException {
+        try (PreparedStatement stmt = _conn.prepareStatement(
+                "SELECT SUM(NUMBER_ROWS + NUMBER_DELETED_ROWS) FROM QSYS2.SYSTABLESTAT WHERE SYSTEM_TABLE_SCHEMA = ? AND SYSTEM_TABLE_NAME = ?")) {
+            stmt.setString(1, m_trigger.getTableDescriptor().getSystemSchema());
+            stmt.setString(2, m_trigger.getTableDescriptor().getSystemName());
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private long readRanges(final ProducerTemplate _producer, final String _routeUri, final long _bound) throws Exception {
+        final long rangeSize = Math.max(MIN_RANGE_ROWS, (_bound + (long) m_parallelism * RANGES_PER_WORKER - 1) / ((long) m_parallelism * RANGES_PER_WORKER));
+        final int rangeCount = (int) Math.max(1, (_bound + rangeSize - 1) / rangeSize);
+        final String sql = getSelectStatement();
+        m_logger.printfln_verbose("Reading %s in %d range(s) of up to %d record(s):\n%s", m_trigger.getTableDescriptor(), rangeCount, rangeSize, sql);
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicLong rows = new AtomicLong();
+        final List<Exception> failures = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(m_parallelism, rangeCount); i++) {
+            final Thread worker = new Thread(() -> {
+                try (AS400 system = new AS400(m_system);
+                        Connection connection = new AS400JDBCDataSource(system).getConnection();
+                        PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    stmt.setFetchSize(m_fetchSize);
+                    final PayloadKeyExtractor keyExtractor = new PayloadKeyExtractor(m_keyColumns);
+                    for (int index; (index = next.getAndIncrement()) < rangeCount;) {
+                        synchronized (failures) {
+                            if (!failures.isEmpty()) {
+                                return;
+                            }
+                        }
+                        final long first = index * rangeSize + 1;
+                        final long last = (index == rangeCount - 1) ? Long.MAX_VALUE : first + rangeSize - 1;
+                        stmt.setLong(1, first);
+                        stmt.setLong(2, last);
+                        long rangeRows = 0;
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                final byte[] payload = rs.getString(1).getBytes(StandardCharsets.UTF_8);
+                                final byte[] transformed = (null == m_transform) ? payload : m_transform.apply(payload);
+                                if (null == transformed) {
+                                    continue;
+                                }
+                                // The key is taken before the transform, as it is for changes. The transform does not
+                                // change the key columns.
+                                KafkaRouteBuilder.send(_producer, _routeUri, transformed, keyExtractor.extractKey(payload));
+                                rangeRows++;
+                            }
+                        }
+                        rows.addAndGet(rangeRows);
+                        m_logger.printfln_verbose("[%d/%d] Records %d-%s: %d row(s)", done.incrementAndGet(), rangeCount, first,
+                                (Long.MAX_VALUE == last) ? "end" : Long.toString(last), rangeRows);
+                    }
+                } catch (Exception e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "AIStream-snapshot-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+        return rows.get();
+    }
+
+    /**
+     * Builds each row's payload on the server. A filter set with the table's WHEN option is applied as it would be to
+     * an inserted row.
+     */
+    private String getSelectStatement() throws IOException {
+        final TableDescriptor table = m_trigger.getTableDescriptor();
+        final Map<String, Object> p = new HashMap<>();
+        p.put("SOURCE_SCHEMA", table.getSchema());
+        p.put("SOURCE_TABLE", table.getName());
+        p.put("OPERATION", OPERATION_ROW);
+        p.put("SNAPSHOT_ID", m_snapshotId);
+        p.put("COLUMNS", m_columns);
+        final String when = m_trigger.getOptions().getProperty(TriggerManager.OPTION_WHEN);
+        if (StringUtils.isNonEmpty(when)) {
+            p.put("WHEN", when);
+        }
+        return SqlTemplateProcessor.getProcessed("snapshot.sql", p);
+    }
+}
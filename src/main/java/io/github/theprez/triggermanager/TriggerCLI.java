@@ -1,11 +1,20 @@
 package io.github.theprez.triggermanager;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.StringJoiner;
 
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.StringUtils;
@@ -17,6 +26,9 @@ import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
 
 public final class TriggerCLI {
     private static final String DEFAULT_TRIGGER_MANAGER_LIBRARY = "triggerman";
+    private static final int DEFAULT_BULK_PARALLELISM = 4;
+    private static final int DEFAULT_SNAPSHOT_PARALLELISM = 4;
+    private static final int DEFAULT_SNAPSHOT_FETCH_SIZE = 1000;
     private static AppLogger logger;
 
     private TriggerCLI() {
@@ -32,6 +44,8 @@ public final class TriggerCLI {
         GET(true),
         /** Remove the table from monitoring */
         REMOVE(true),
+        /** Publish the current rows of a monitored table */
+        SNAPSHOT(true),
         /** Start the router job */
         DAEMONSTART(false),
         /** Stop the daemon */
@@ -61,6 +75,12 @@ public final class TriggerCLI {
         CLIActions action = null;
         String schemaName = null;
         String tableName = null;
+        TriggerDescriptor.CaptureMode captureMode = TriggerDescriptor.CaptureMode.TRIGGER;
+        Properties captureOptions = new Properties();
+        boolean showStats = false;
+        String tablesFile = null;
+        Integer parallelism = null;
+        String instanceId = null;
         try {
             while (!argsList.isEmpty()) {
                 String currentArg = argsList.removeFirst();
@@ -74,12 +94,48 @@ public final class TriggerCLI {
                     case "--table":
                         tableName = normalizeName(argsList.removeFirst());
                         break;
+                    case "--capture":
+                        captureMode = TriggerDescriptor.CaptureMode.valueOf(argsList.removeFirst().trim().toUpperCase());
+                        break;
+                    case "--columns":
+                        captureOptions.setProperty(TriggerManager.OPTION_COLUMNS, normalizeNameList(argsList.removeFirst()));
+                        break;
+                    case "--exclude-columns":
+                        captureOptions.setProperty(TriggerManager.OPTION_EXCLUDE_COLUMNS, normalizeNameList(argsList.removeFirst()));
+                        break;
+                    case "--format":
+                        captureOptions.setProperty(TriggerManager.OPTION_PAYLOAD_FORMAT,
+                                TriggerDescriptor.PayloadFormat.valueOf(argsList.removeFirst().trim().toUpperCase()).name());
+                        break;
+                    case "--update-mode":
+                        captureOptions.setProperty(TriggerManager.OPTION_UPDATE_MODE,
+                                TriggerDescriptor.UpdateMode.valueOf(argsList.removeFirst().trim().toUpperCase().replace('-', '_')).name());
+                        break;
+                    case "--trigger-type":
+                        captureOptions.setProperty(TriggerManager.OPTION_TRIGGER_TYPE,
+                                TriggerDescriptor.TriggerType.valueOf(argsList.removeFirst().trim().toUpperCase().replace('-', '_')).name());
+                        break;
+                    case "--when":
+                        captureOptions.setProperty(TriggerManager.OPTION_WHEN, argsList.removeFirst().trim());
+                        break;
+                    case "--stats":
+                        showStats = true;
+                        break;
+                    case "--tables-file":
+                        tablesFile = argsList.removeFirst().trim();
+                        break;
+                    case "--parallel":
+                        parallelism = Integer.parseInt(argsList.removeFirst().trim());
+                        break;
+                    case "--instance":
+                        instanceId = argsList.removeFirst().trim();
+                        break;
                     default:
                         logFatalErrorAndExit(String.format("Unrecognized argument: '%s'", currentArg));
                         break;
                 }
             }
-        } catch (NoSuchElementException oops) {
+        } catch (NoSuchElementException | NumberFormatException oops) {
             logFatalErrorAndExit("ERROR: malformed input arguments");
         }
 
@@ -89,7 +145,10 @@ public final class TriggerCLI {
         if (action == null) {
             logFatalErrorAndExit("ERROR: No action specified");
             return; // Not necessary at runtime, just makes the IDE happy knowing we aren't dereferencing a null pointer when processing the requested action
-        } else if (action.isTableAndSchemaRequired()) {
+        }
+        final boolean isBulk = (CLIActions.ADD == action || CLIActions.REMOVE == action)
+                && (null != tablesFile || (null != schemaName && schemaName.contains("*")) || (null != tableName && tableName.contains("*")));
+        if (action.isTableAndSchemaRequired() && (!isBulk || null == tablesFile)) {
             if (StringUtils.isEmpty(tableName)) {
                 logFatalErrorAndExit("ERROR: No table specified");
             }
@@ -124,12 +183,13 @@ public final class TriggerCLI {
         // Validation successful, process the request
         ///////////////////////////////////////////////
 
+        CatalogCache catalog = CatalogCache.open(logger);
         try (AS400 as400 = IBMiDotEnv.getCachedSystemConnection(true);
              Connection connection = new AS400JDBCDataSource(as400).getConnection()) {
 
             TableDescriptor table = null;
-            if (action.isTableAndSchemaRequired()) {
-                table = TableDescriptor.lookup(schemaName, tableName, connection);
+            if (action.isTableAndSchemaRequired() && !isBulk) {
+                table = catalog.lookup(connection, schemaName, tableName);
                 if (table == null) {
                     logger.println_err("ERROR: Specified table could not found.");
                     return;
@@ -142,11 +202,23 @@ public final class TriggerCLI {
                     ITriggerConfigurationConstants.KEY_TRIGGER_MANAGER_LIBRARY, DEFAULT_TRIGGER_MANAGER_LIBRARY);
                 dq_library = DEFAULT_TRIGGER_MANAGER_LIBRARY;
             }
-            TriggerManager tMan = new TriggerManager(as400, connection, dq_library.toUpperCase(), logger);
+            TriggerManager tMan = new TriggerManager(as400, connection, dq_library.toUpperCase(), logger, catalog);
+            if (isBulk) {
+                List<String[]> patterns = new LinkedList<>();
+                if (null != tablesFile) {
+                    patterns.addAll(readTablePatterns(new File(tablesFile)));
+                } else {
+                    patterns.add(new String[] { schemaName, tableName });
+                }
+                runBulk(as400, connection, tMan, dq_library.toUpperCase(), action, patterns, captureMode, captureOptions,
+                        (null == parallelism) ? DEFAULT_BULK_PARALLELISM : parallelism);
+                return;
+            }
             switch (action) {
                 case ADD:
-                    TriggerDescriptor newTrigger = tMan.createTrigger(table);
+                    TriggerDescriptor newTrigger = tMan.createTrigger(table, captureMode, captureOptions);
                     logger.println_success("Table monitoring started: " + newTrigger);
+                    tMan.notifyDaemon();
                     break;
                 case GET:
                     TriggerDescriptor existingTrigger = tMan.getExistingTriggerForTable(table);
@@ -160,13 +232,17 @@ public final class TriggerCLI {
                     TriggerDescriptor deletedTrigger = tMan.deleteTriggerFromTable(table);
                     if (null != deletedTrigger) {
                         logger.println_success("Table no longer monitored: " + deletedTrigger);
+                        tMan.notifyDaemon();
                     }
                     break;
+                case SNAPSHOT:
+                    runSnapshot(as400, tMan, table, parallelism);
+                    break;
                 case DAEMONSTART:
-                    new TriggerDaemon(logger, tMan).start();
+                    new TriggerDaemon(logger, tMan, instanceId).start();
                     break;
                 case DAEMONSTOP:
-                    new TriggerDaemon(logger, tMan).stop();
+                    new TriggerDaemon(logger, tMan, instanceId).stop();
                     break;
                 case LIST:
                 default:
@@ -175,8 +251,20 @@ public final class TriggerCLI {
                     if (triggerList.isEmpty()) {
                         logger.println_warn("No tables currently monitored");
                     }
+                    if (!showStats) {
+                        for (TriggerDescriptor l : triggerList) {
+                            logger.println("       " + l);
+                        }
+                        break;
+                    }
+                    Map<String, Long> depths = tMan.getDataQueueDepths();
+                    Map<String, Double> rates = fetchPublishRates();
                     for (TriggerDescriptor l : triggerList) {
-                        logger.println("       " + l);
+                        Long depth = depths.get(l.getTriggerId());
+                        Double rate = rates.get(l.getTriggerId());
+                        logger.println(String.format("       %s  depth=%s rate=%s", l,
+                                (null == depth || TriggerDescriptor.CaptureMode.JOURNAL == l.getCaptureMode()) ? "n/a" : depth.toString(),
+                                (null == rate) ? "n/a" : String.format("%.1f/s", rate)));
                     }
             }
 
@@ -199,6 +287,154 @@ public final class TriggerCLI {
         } catch (Exception e) {
             logger.println_err("ERROR: " + e.getClass().getSimpleName() +  " -> " + e.getLocalizedMessage());
             logger.printExceptionStack_verbose(e);
+        } finally {
+            catalog.save();
+        }
+    }
+
+    /**
+     * Adds or removes every table matching the patterns, reporting the outcome for each table at the end.
+     * Tables that are already monitored (for ADD) or not monitored (for REMOVE) are skipped.
+     */
+    private static void runBulk(final AS400 as400, final Connection connection, final TriggerManager tMan, final String library, final CLIActions action,
+            final List<String[]> patterns, final TriggerDescriptor.CaptureMode captureMode, final Properties captureOptions, final int parallelism)
+            throws Exception {
+        List<TableDescriptor> tables = TableDescriptor.lookupAll(patterns, connection);
+        for (TableDescriptor table : tables) {
+            tMan.getCatalog().put(table);
+        }
+        if (tables.isEmpty()) {
+            logger.println_warn("No matching tables found");
+            return;
+        }
+        Map<String, TriggerDescriptor> monitored = new HashMap<>();
+        for (TriggerDescriptor trigger : tMan.listTriggers()) {
+            monitored.put(trigger.getTableDescriptor().toString(), trigger);
+        }
+        BulkProvisioner provisioner = new BulkProvisioner(logger, as400, library, parallelism, tMan.getCatalog());
+        List<BulkProvisioner.Result> results;
+        int skipped;
+        if (CLIActions.ADD == action) {
+            List<TableDescriptor> toAdd = new LinkedList<>();
+            for (TableDescriptor table : tables) {
+                if (!monitored.containsKey(table.toString())) {
+                    toAdd.add(table);
+                }
+            }
+            skipped = tables.size() - toAdd.size();
+            logger.printfln("Adding %d table(s), %d already monitored...", toAdd.size(), skipped);
+            results = provisioner.add(new ArrayList<>(toAdd), tMan.getUniqueTriggerNames(toAdd.size()), captureMode, captureOptions);
+        } else {
+            List<TriggerDescriptor> toRemove = new LinkedList<>();
+            for (TableDescriptor table : tables) {
+                TriggerDescriptor trigger = monitored.get(table.toString());
+                if (null != trigger) {
+                    toRemove.add(trigger);
+                }
+            }
+            skipped = tables.size() - toRemove.size();
+            logger.printfln("Removing %d table(s), %d not monitored...", toRemove.size(), skipped);
+            results = provisioner.remove(new ArrayList<>(toRemove));
+        }
+
+        int failed = 0;
+        for (BulkProvisioner.Result result : results) {
+            if (null == result.getError()) {
+                logger.println_success("    OK      " + result.getTrigger());
+            } else {
+                failed++;
+                logger.println_err("    FAILED  " + result.getTable() + ": " + result.getError());
+            }
+        }
+        logger.printfln("%d succeeded, %d failed, %d skipped", results.size() - failed, failed, skipped);
+        if (failed < results.size()) {
+            tMan.notifyDaemon();
+        }
+        if (0 < failed) {
+            tMan.getCatalog().save();
+            logFatalErrorAndExit("ERROR: %d table(s) failed", failed);
+        }
+    }
+
+    /**
+     * Publishes the current rows of a monitored table to its topic, between watermarks that let consumers hand over
+     * to the table's live changes.
+     *
+     * @param parallelism the number of ranges read at the same time, or null for the configured number
+     */
+    private static void runSnapshot(final AS400 as400, final TriggerManager tMan, final TableDescriptor table, final Integer parallelism) throws Exception {
+        TriggerDescriptor trigger = tMan.getExistingTriggerForTable(table);
+        if (null == trigger) {
+            logger.println_err("ERROR: Table is not monitored: " + table);
+            return;
+        }
+        String kafkaBrokerUri = IBMiDotEnv.getDotEnv().get(ITriggerConfigurationConstants.KEY_KAFKA_BROKER_URI);
+        if (null == kafkaBrokerUri) {
+            logger.printfln_err("Error: Property is not set in configuration file or environment variable: %s", ITriggerConfigurationConstants.KEY_KAFKA_BROKER_URI);
+            return;
+        }
+        // The same columns as the table's changes carry
+        String captured = trigger.getOptions().getProperty(TriggerManager.OPTION_CAPTURED_COLUMNS);
+        List<String> columns = (null == captured) ? tMan.getCatalog().getColumnNames(tMan.getConnection(), table) : TriggerManager.splitColumns(captured);
+        TableConfiguration config = new TableConfiguration(logger, table);
+        List<String> rowKeyColumns = tMan.getRowKeyColumns(table, config);
+        TableSnapshot snapshot = new TableSnapshot(logger, as400, trigger, columns, rowKeyColumns,
+                PayloadTransform.forTable(logger, config, rowKeyColumns, trigger.getUpdateMode()),
+                (null == parallelism) ? config.getInt(ITriggerConfigurationConstants.KEY_SNAPSHOT_PARALLELISM, DEFAULT_SNAPSHOT_PARALLELISM) : parallelism,
+                config.getInt(ITriggerConfigurationConstants.KEY_SNAPSHOT_FETCH_SIZE, DEFAULT_SNAPSHOT_FETCH_SIZE));
+        logger.printfln("Publishing snapshot %s of %s...", snapshot.getSnapshotId(), table);
+        long start = System.currentTimeMillis();
+        long rows = snapshot.run(tMan.getConnection(), KafkaPublishSettings.getTopicName(IBMiDotEnv.getDotEnv().get("IBMI_HOSTNAME", "localhost"), table),
+                kafkaBrokerUri, KafkaPublishSettings.forTable(logger, config).asBatched());
+        logger.println_success(String.format("Published %d row(s) of %s in %.1f seconds", rows, table, (System.currentTimeMillis() - start) / 1000.0));
+    }
+
+    /**
+     * Reads a table list file. Each line names one table as <code>SCHEMA.TABLE</code> or <code>SCHEMA/TABLE</code>,
+     * where either name can contain <code>*</code> wildcards. Blank lines and lines starting with # are ignored.
+     */
+    private static List<String[]> readTablePatterns(final File file) throws IOException {
+        List<String[]> ret = new LinkedList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int separator = -1;
+            boolean quoted = false;
+            for (int i = 0; i < line.length() && separator < 0; i++) {
+                char c = line.charAt(i);
+                if ('"' == c) {
+                    quoted = !quoted;
+                } else if (!quoted && ('.' == c || '/' == c)) {
+                    separator = i;
+                }
+            }
+            if (separator <= 0 || separator == line.length() - 1) {
+                throw new IOException("Expected SCHEMA.TABLE in " + file.getPath() + ": " + line);
+            }
+            ret.add(new String[] { normalizeName(line.substring(0, separator).trim()), normalizeName(line.substring(separator + 1).trim()) });
+        }
+        return ret;
+    }
+
+    /** The publish rates of the running daemon, or none if its metrics endpoint is not configured or not reachable */
+    private static Map<String, Double> fetchPublishRates() {
+        TableConfiguration config = TableConfiguration.daemonWide(logger);
+        int port = config.getInt(ITriggerConfigurationConstants.KEY_METRICS_PORT, 0);
+        if (0 >= port) {
+            logger.printfln_verbose("Property '%s' is not set, so publish rates are not available", ITriggerConfigurationConstants.KEY_METRICS_PORT);
+            return Collections.emptyMap();
+        }
+        String host = config.get(ITriggerConfigurationConstants.KEY_METRICS_HOST, DaemonMetrics.DEFAULT_HOST);
+        if ("0.0.0.0".equals(host)) {
+            host = DaemonMetrics.DEFAULT_HOST;
+        }
+        try {
+            return DaemonMetrics.fetchPublishRates(host, port);
+        } catch (IOException e) {
+            logger.printfln_verbose("Unable to read publish rates from the daemon: %s", e.getLocalizedMessage());
+            return Collections.emptyMap();
         }
     }
 
@@ -215,6 +451,14 @@ public final class TriggerCLI {
         return name.toUpperCase();
     }
 
+    private static String normalizeNameList(final String names) {
+        final StringJoiner ret = new StringJoiner(",");
+        for (final String name : TriggerManager.splitColumns(names)) {
+            ret.add(normalizeName(name));
+        }
+        return ret.toString();
+    }
+
     public static void logFatalErrorAndExit(final String message) {
         logger.println_err(message);
         // Terminate the JVM
@@ -1,25 +1,51 @@
 package io.github.theprez.triggermanager;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.camel.CamelContext;
-import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.ProducerTemplate;
 import org.apache.camel.impl.DefaultCamelContext;
 
 import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.DataQueue;
 
 import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
 
 class TriggerDaemon implements ITriggerConfigurationConstants {
 
+    private static final long DEFAULT_RECONCILE_INTERVAL_MILLIS = 30000;
+
     private final TriggerManager m_triggerManager;
     private final AppLogger m_logger;
+    private final String m_instanceId;
+    // The running routes by trigger ID
+    private final Map<String, TableRoute> m_routes = new LinkedHashMap<>();
+    private CamelContext m_context;
+    private ProducerTemplate m_producer;
+    private ChangeSourceFactory m_sourceFactory;
+    private DaemonMetrics m_metrics;
+    private String m_kafkaBrokerUri;
+    private String m_hostname;
+    // Null unless several daemon instances share the tables
+    private ShardCoordinator m_coordinator;
 
-    TriggerDaemon(final AppLogger _logger, final TriggerManager _tMan) {
+    /**
+     * @param _instanceId the name of this instance among sharded daemon instances, or null for the configured or default
+     *                    one. It also picks the instance that DAEMONSTOP stops.
+     */
+    TriggerDaemon(final AppLogger _logger, final TriggerManager _tMan, final String _instanceId) {
         m_logger = _logger;
         m_triggerManager = _tMan;
+        m_instanceId = _instanceId;
     }
 
     void start() throws Exception {
@@ -33,57 +59,253 @@ class TriggerDaemon implements ITriggerConfigurationConstants {
                 TriggerCLI.logFatalErrorAndExit("Error: Property is not set in configuration file or environment variable: %s", ITriggerConfigurationConstants.KEY_KAFKA_BROKER_URI);
             }
 
-            final List<TriggerDescriptor> triggers = m_triggerManager.listTriggers();
-            if (!triggers.isEmpty()) {
-                m_logger.printfln_verbose("Adding Kafka routing for %d tables...", triggers.size());
-            }
-
-            for (final TriggerDescriptor trigger : triggers) {
-
-                final String password = IBMiDotEnv.getDotEnv().get("IBMI_PASSWORD", "*CURRENT");
-                final String username = IBMiDotEnv.getDotEnv().get("IBMI_USERNAME", "*CURRENT");
-                final String hostname = IBMiDotEnv.getDotEnv().get("IBMI_HOSTNAME", "localhost");
-
-                // Create Kafka topic name using hostname, schema name and table name
-                final String topicName = hostname + "_" + trigger.getTableDescriptor().getSchema() 
-                    + "_" + trigger.getTableDescriptor().getName();
-                final String kafkaUri = String.format("kafka:%s?brokers=%s", topicName, kafkaBrokerUri);
-
-                final String dtaqUri = String.format(
-                        "jt400://%s:%s@%s/qsys.lib/%s.lib/%s.dtaq?keyed=false&format=binary&guiAvailable=false",
-                        username, password, hostname, trigger.getLibrary(), trigger.getTriggerId());
-                
-                // Hide the password in the dtaqUri in verbose mode
-                final String maskedDtaqUri = String.format(
-                    "jt400://%s:%s@%s/qsys.lib/%s.lib/%s.dtaq?keyed=false&format=binary&guiAvailable=false",
-                    username, "xxxxx", hostname, trigger.getLibrary(), trigger.getTriggerId());
-                m_logger.printfln_verbose("%s --> %s", maskedDtaqUri, kafkaUri);
-                
-               context.addRoutes(new RouteBuilder() {
-                    @Override
-                    public void configure() {
-                        from(dtaqUri)
-                                // We do this to convert the bytes from the data queue (UTF-8 JSON data) into a
-                                // String object in the message
-                                .convertBodyTo(String.class, "UTF-8")
-                                .to(kafkaUri);
-                    }
-                });
+            // All data queue readers share one pool of host server connections, copied from the
+            // connection the CLI signed on with
+            final TableConfiguration daemonConfig = TableConfiguration.daemonWide(m_logger);
+            DaemonThreads.configure(m_logger, daemonConfig);
+            final SystemConnectionPool connectionPool = new SystemConnectionPool(m_logger, m_triggerManager.getSystem(), AS400.DATAQUEUE,
+                    daemonConfig.getInt(KEY_CONNECTION_POOL_SIZE, 4),
+                    daemonConfig.getLong(KEY_CONNECTION_RETRY_MAX_MS, 60000));
+            m_logger.printfln_verbose("Using %d shared connection(s) for data queue reads", connectionPool.getSize());
+            m_context = context;
+            m_kafkaBrokerUri = kafkaBrokerUri;
+            m_hostname = IBMiDotEnv.getDotEnv().get("IBMI_HOSTNAME", "localhost");
+            m_sourceFactory = new ChangeSourceFactory(m_logger, connectionPool, m_triggerManager);
+            m_metrics = new DaemonMetrics(m_logger, m_triggerManager);
+            m_producer = context.createProducerTemplate();
+            m_coordinator = ShardCoordinator.create(m_logger, m_triggerManager, daemonConfig, m_instanceId);
+            if (null != m_coordinator) {
+                m_coordinator.start(this::stopRoutes);
             }
 
-            // This actually "starts" the route, so Camel will start monitoring and routing
-            // activity here.
+            // Routes are added to the running context, each one starting as soon as it is added
             context.start();
+            reconcile();
+            m_metrics.start(daemonConfig.getLong(KEY_METRICS_SAMPLE_INTERVAL_MS, 10000), daemonConfig.get(KEY_METRICS_HOST, DaemonMetrics.DEFAULT_HOST),
+                    daemonConfig.getInt(KEY_METRICS_PORT, 0));
 
-            // Since this program is designed to just run forever (until user cancel), we can just sleep the
-            // main thread. Camel's work will happen in secondary threads.
-            Thread.sleep(Long.MAX_VALUE);
+            // Since this program is designed to just run forever (until user cancel), the main thread just waits
+            // for tables to be added or removed. Camel's work will happen in secondary threads.
+            long reconcileInterval = daemonConfig.getLong(KEY_RECONCILE_INTERVAL_MS, DEFAULT_RECONCILE_INTERVAL_MILLIS);
+            if (null != m_coordinator && (0 >= reconcileInterval || m_coordinator.getHeartbeatMillis() < reconcileInterval)) {
+                // A sharded instance also reconciles at each heartbeat, to pick up tables that other instances give up
+                reconcileInterval = m_coordinator.getHeartbeatMillis();
+            }
+            try (AS400 notifySystem = new AS400(m_triggerManager.getSystem())) {
+                final DataQueue notifyQueue = new DataQueue(notifySystem, m_triggerManager.getNotifyQueuePath());
+                while (true) {
+                    waitForNotification(notifyQueue, reconcileInterval);
+                    try {
+                        reconcile();
+                    } catch (SQLException e) {
+                        m_logger.printfln_err("ERROR: Unable to list monitored tables: %s", e.getLocalizedMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                m_logger.printfln_verbose("Daemon interrupted, stopping");
+            }
+            m_metrics.stop();
+            stopRoutes();
+            if (null != m_coordinator) {
+                m_coordinator.stop();
+            }
             context.stop();
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Waits until the CLI reports that tables were added or removed, or until the reconcile interval passes.
+     * If the notification queue cannot be read, the daemon falls back to checking on the interval only.
+     *
+     * @param _intervalMillis the longest time to wait, or 0 to wait for a notification indefinitely
+     */
+    private void waitForNotification(final DataQueue _notifyQueue, final long _intervalMillis) throws InterruptedException {
+        try {
+            final int waitSeconds = (0 >= _intervalMillis) ? -1 : (int) Math.max(1, _intervalMillis / 1000);
+            if (null != _notifyQueue.read(waitSeconds)) {
+                // Several tables may have been added in a row, one reconcile covers them all
+                while (null != _notifyQueue.read(0)) {
+                    // Discard the rest
+                }
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            m_logger.printfln_verbose("Unable to read notification data queue: %s", e.getLocalizedMessage());
+            Thread.sleep((0 >= _intervalMillis) ? DEFAULT_RECONCILE_INTERVAL_MILLIS : _intervalMillis);
+        }
+    }
+
+    /**
+     * Compares the running routes with the monitored tables, stopping the routes of tables that are no longer monitored
+     * and starting routes for newly monitored tables. Routes of other tables are left running. A sharded instance only
+     * keeps the tables assigned to it.
+     */
+    synchronized void reconcile() throws SQLException {
+        final Map<String, TriggerDescriptor> monitored = new LinkedHashMap<>();
+        for (final TriggerDescriptor trigger : m_triggerManager.listTriggers()) {
+            monitored.put(trigger.getTriggerId(), trigger);
+        }
+        if (null != m_coordinator) {
+            monitored.keySet().retainAll(m_coordinator.assign(monitored.keySet(), m_routes.keySet()));
+        }
+        for (final Iterator<Map.Entry<String, TableRoute>> it = m_routes.entrySet().iterator(); it.hasNext();) {
+            final TableRoute route = it.next().getValue();
+            if (monitored.containsKey(route.getTrigger().getTriggerId())) {
+                continue;
+            }
+            m_logger.printfln("Stopping Kafka routing for %s", route.getTrigger().getTableDescriptor());
+            try {
+                route.stop(m_metrics);
+            } catch (Exception e) {
+                m_logger.printfln_err("ERROR: Error stopping route for %s: %s", route.getTrigger().getTableDescriptor(), e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+            }
+            it.remove();
+            if (null != m_coordinator) {
+                m_coordinator.release(route.getTrigger().getTriggerId());
+            }
+        }
+        for (final TriggerDescriptor trigger : monitored.values()) {
+            if (m_routes.containsKey(trigger.getTriggerId())) {
+                continue;
+            }
+            m_logger.printfln_verbose("Adding Kafka routing for %s", trigger.getTableDescriptor());
+            try {
+                final TableRoute route = createRoute(trigger);
+                if (null != route) {
+                    route.start();
+                    m_routes.put(trigger.getTriggerId(), route);
+                }
+            } catch (Exception e) {
+                m_logger.printfln_err("ERROR: Unable to route table %s: %s", trigger.getTableDescriptor(), e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+            }
+            if (null != m_coordinator && !m_routes.containsKey(trigger.getTriggerId())) {
+                // Do not keep a lease on a table that is not routed; it is tried again at the next reconcile
+                m_coordinator.release(trigger.getTriggerId());
+            }
+        }
+        m_triggerManager.getCatalog().save();
+    }
+
+    /** Stops routing every table, for a daemon that is stopping or whose sharded instance has lost its leases */
+    private synchronized void stopRoutes() {
+        for (final TableRoute route : m_routes.values()) {
+            m_logger.printfln("Stopping Kafka routing for %s", route.getTrigger().getTableDescriptor());
+            try {
+                route.stop(m_metrics);
+            } catch (Exception e) {
+                m_logger.printfln_err("ERROR: Error stopping route for %s: %s", route.getTrigger().getTableDescriptor(), e.getLocalizedMessage());
+                m_logger.printExceptionStack_verbose(e);
+            }
+        }
+        m_routes.clear();
+    }
+
+    /** Adds the table's Camel route to the context, or creates its Kafka producer, and builds the pump that feeds it */
+    private TableRoute createRoute(final TriggerDescriptor trigger) throws Exception {
+        final String topicName = KafkaPublishSettings.getTopicName(m_hostname, trigger.getTableDescriptor());
+        final TableConfiguration tableConfig = new TableConfiguration(m_logger, trigger.getTableDescriptor());
+        final KafkaPublishSettings publishSettings = KafkaPublishSettings.forTable(m_logger, tableConfig);
+        final List<String> rowKeyColumns = getRowKeyColumns(trigger, tableConfig);
+
+        final PayloadTransform transform;
+        final IChangeSource source;
+        try {
+            transform = PayloadTransform.forTable(m_logger, tableConfig, rowKeyColumns, trigger.getUpdateMode());
+            if (null != transform && TriggerDescriptor.PayloadFormat.COMPACT == trigger.getPayloadFormat() && !tableConfig.getBoolean(KEY_COMPACT_PAYLOAD_EXPAND, true)) {
+                throw new IOException("A transform cannot be applied to compact records that are not expanded");
+            }
+            source = m_sourceFactory.create(trigger, tableConfig);
+        } catch (IOException e) {
+            m_logger.printfln_err("ERROR: Unable to route table %s: %s", trigger.getTableDescriptor(), e.getLocalizedMessage());
+            return null;
+        }
+        final IChangeHandler publisher;
+        final AutoCloseable closer;
+        if (publishSettings.isDirect()) {
+            final DirectKafkaForwarder forwarder;
+            try {
+                forwarder = new DirectKafkaForwarder(m_logger, topicName, m_kafkaBrokerUri, publishSettings);
+            } catch (Exception e) {
+                source.close();
+                throw e;
+            }
+            m_logger.printfln_verbose("%s --> kafka:%s [%s]", source.getDescription(), topicName, publishSettings);
+            publisher = forwarder;
+            closer = forwarder;
+        } else {
+            // Entries are handed from the change source to the route through an in-JVM direct endpoint
+            final String routeUri = "direct:" + trigger.getTriggerId();
+            final String routeId = "aistream-" + trigger.getTriggerId();
+            final KafkaRouteBuilder routeBuilder = new KafkaRouteBuilder(m_logger, routeUri, routeId, topicName, m_kafkaBrokerUri, publishSettings);
+            m_logger.printfln_verbose("%s --> %s [%s]", source.getDescription(), routeBuilder.getKafkaUri(), publishSettings);
+            try {
+                m_context.addRoutes(routeBuilder);
+            } catch (Exception e) {
+                source.close();
+                throw e;
+            }
+            final ProducerTemplate producer = m_producer;
+            final CamelContext context = m_context;
+            final String brokers = m_kafkaBrokerUri;
+            // Asking the brokers can block for as long as the producer's max.block.ms, so the topic's partition count
+            // is only looked up for the route's first broadcast entry, and again after a broadcast fails
+            final AtomicInteger partitions = new AtomicInteger(0);
+            publisher = entry -> {
+                if (!entry.isBroadcast()) {
+                    KafkaRouteBuilder.send(producer, routeUri, entry);
+                    return;
+                }
+                if (0 == partitions.get()) {
+                    partitions.set(publishSettings.getPartitionCount(topicName, brokers));
+                }
+                try {
+                    KafkaRouteBuilder.sendToAllPartitions(producer, routeUri, entry, partitions.get());
+                } catch (Exception e) {
+                    partitions.set(0);
+                    throw e;
+                }
+            };
+            closer = () -> {
+                context.getRouteController().stopRoute(routeId);
+                context.removeRoute(routeId);
+            };
+        }
+        final TableMetrics tableMetrics = m_metrics.register(trigger);
+        // The transform reshapes each entry between the consumer and the publisher, after its row key is taken. It
+        // leaves the key columns as they are, so the key holds nothing the published payload does not.
+        final IChangeHandler handler = tableMetrics.instrument(publisher);
+        if (null != transform) {
+            m_logger.printfln_verbose("Transforming %s: %s", trigger.getTableDescriptor(), transform);
+        }
+        final PayloadKeyExtractor keyExtractor = new PayloadKeyExtractor(rowKeyColumns);
+        // Without a row key every entry goes to the same consumer, so there is nothing to gain from more
+        final int minConsumers = tableConfig.getInt(KEY_CONSUMERS_MIN, 1);
+        final int maxConsumers = keyExtractor.hasKeyColumns() ? tableConfig.getInt(KEY_CONSUMERS_MAX, 1) : 1;
+        final ConsumerPool consumers = new ConsumerPool(m_logger, trigger.getTriggerId(),
+                new AcknowledgingChangeHandler(m_logger, source, (null == transform) ? handler : transform.wrap(handler, tableMetrics)),
+                keyExtractor.hasKeyColumns() ? minConsumers : 1,
+                maxConsumers,
+                tableConfig.getInt(KEY_CONSUMERS_SCALE_UP_BACKLOG, 100),
+                tableConfig.getLong(KEY_CONSUMERS_SCALE_UP_LAG_MS, 500),
+                tableConfig.getLong(KEY_CONSUMERS_CHECK_INTERVAL_MS, 1000));
+        return new TableRoute(trigger, new ChangeSourcePump(m_logger, source, keyExtractor, consumers, tableMetrics), tableMetrics, closer);
+    }
+
+    private List<String> getRowKeyColumns(final TriggerDescriptor _trigger, final TableConfiguration _config) throws SQLException {
+        final List<String> ret = m_triggerManager.getRowKeyColumns(_trigger.getTableDescriptor(), _config);
+        if (ret.isEmpty()) {
+            m_logger.printfln_warn("Warning: Table %s has no primary or unique key and '%s' is not set. Its changes will be published without a Kafka key%s.",
+                    _trigger.getTableDescriptor(), KEY_ROW_KEY_COLUMNS, (1 < _config.getInt(KEY_CONSUMERS_MAX, 1)) ? " by a single consumer" : "");
         }
+        return ret;
     }
 
     void stop() throws Exception {
-        Process process = Runtime.getRuntime().exec(new String[] {STOP_DAEMON_SCRIPT_PATH});
+        Process process = Runtime.getRuntime().exec((null == m_instanceId) ? new String[] {STOP_DAEMON_SCRIPT_PATH} : new String[] {STOP_DAEMON_SCRIPT_PATH, m_instanceId});
         BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
         String line;
         while ((line=br.readLine()) != null) {
@@ -1,14 +1,57 @@
 package io.github.theprez.triggermanager;
 
+import java.util.Properties;
+
 class TriggerDescriptor {
+
+    enum CaptureMode {
+        /** Changes are captured by an SQL trigger on the table and sent to a data queue */
+        TRIGGER,
+        /** Changes are read asynchronously from the table's journal */
+        JOURNAL
+    }
+
+    enum PayloadFormat {
+        /** The trigger writes the table/operation/row JSON object */
+        JSON,
+        /** The trigger writes a positional record without column names, which the daemon expands */
+        COMPACT
+    }
+
+    enum UpdateMode {
+        /** Updates carry the whole new row */
+        FULL,
+        /** Updates carry the row key and only the columns whose values changed */
+        CHANGES,
+        /** As CHANGES, plus the old values of the changed columns */
+        CHANGES_WITH_BEFORE
+    }
+
+    enum TriggerType {
+        /** A row trigger that builds each payload in a global variable */
+        ROW,
+        /** A row trigger that builds each payload in a variable of its own, with no global variable to assign */
+        ROW_DIRECT,
+        /** A statement trigger that sends the rows a statement changed from its transition table, several per message */
+        STATEMENT
+    }
+
     private final String m_library;
     private final String m_triggerId;
     private final TableDescriptor m_table;
+    private final CaptureMode m_captureMode;
+    private final Properties m_options;
 
     TriggerDescriptor(final String _library, final String _triggerId, final TableDescriptor _table) {
+        this(_library, _triggerId, _table, CaptureMode.TRIGGER, new Properties());
+    }
+
+    TriggerDescriptor(final String _library, final String _triggerId, final TableDescriptor _table, final CaptureMode _captureMode, final Properties _options) {
         m_library = _library;
         m_triggerId = _triggerId;
         m_table = _table;
+        m_captureMode = _captureMode;
+        m_options = _options;
     }
 
     String getLibrary() {
@@ -22,9 +65,46 @@ class TriggerDescriptor {
     TableDescriptor getTableDescriptor() {
         return m_table;
     }
-    
+
+    CaptureMode getCaptureMode() {
+        return m_captureMode;
+    }
+
+    /** The monitoring options chosen when the table was added, as recorded in the {@link MonitorRegistry} */
+    Properties getOptions() {
+        return m_options;
+    }
+
+    TriggerType getTriggerType() {
+        return TriggerType.valueOf(m_options.getProperty(TriggerManager.OPTION_TRIGGER_TYPE, TriggerType.ROW.name()));
+    }
+
+    /** The data queue the trigger sends to: a shared keyed one, or otherwise its own, named after the trigger */
+    String getDataQueueName() {
+        return m_options.getProperty(TriggerManager.OPTION_DATA_QUEUE, m_triggerId);
+    }
+
+    /** Whether the trigger sends to a shared data queue, keyed by trigger ID */
+    boolean isSharedDataQueue() {
+        return m_options.containsKey(TriggerManager.OPTION_DATA_QUEUE);
+    }
+
+    UpdateMode getUpdateMode() {
+        return UpdateMode.valueOf(m_options.getProperty(TriggerManager.OPTION_UPDATE_MODE, UpdateMode.FULL.name()));
+    }
+
+    PayloadFormat getPayloadFormat() {
+        return PayloadFormat.valueOf(m_options.getProperty(TriggerManager.OPTION_PAYLOAD_FORMAT, PayloadFormat.JSON.name()));
+    }
+
    @Override
    public String toString() {
+       if (CaptureMode.JOURNAL == m_captureMode) {
+           return String.format("(%s) -> [%s/%s] (journal)", m_table, m_library, m_triggerId);
+       }
+       if (isSharedDataQueue()) {
+           return String.format("(%s) -> [%s/%s] (shared %s)", m_table, m_library, m_triggerId, getDataQueueName());
+       }
        return String.format("(%s) -> [%s/%s]", m_table, m_library, m_triggerId);
    }
 }
@@ -1,32 +1,80 @@
 package io.github.theprez.triggermanager;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 
 import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
 import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.DataQueue;
 import com.ibm.as400.access.IFSFile;
+import com.ibm.as400.access.KeyedDataQueue;
 
 class TriggerManager {
     private static final String GENERATED_NAME_PREFIX = "AI";
+    // The data queue entry size. Larger payloads are sent in chunks.
+    private static final int MAX_ENTRY_BYTES = 64512;
+    // Characters per chunk, leaving room for the chunk header even if every character takes four bytes in UTF-8
+    private static final int CHUNK_CHARACTERS = 16000;
+    private static final long DEFAULT_MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final int DEFAULT_STATEMENT_ROWS_PER_MESSAGE = 100;
+    // The data queue that tells a running daemon to reconcile its routes. Generated names never contain letters after the prefix.
+    private static final String NOTIFY_QUEUE_NAME = "AINOTIFY";
+    private static final byte[] RECONCILE_NOTIFICATION = "RECONCILE".getBytes(StandardCharsets.US_ASCII);
+    // The names of the shared keyed data queues, numbered from 1. Generated trigger names never start with this.
+    private static final String SHARED_QUEUE_NAME_FORMAT = "AISHARE%03d";
+    // The largest number of shared data queues, as limited by the three digits in their names
+    private static final int MAX_SHARED_QUEUES = 999;
+    /** Option recording the library of the journal that a journal-captured table is read from */
+    static final String OPTION_JOURNAL_LIBRARY = "JOURNAL_LIBRARY";
+    /** Option recording the name of the journal that a journal-captured table is read from */
+    static final String OPTION_JOURNAL_NAME = "JOURNAL_NAME";
+    /** Option listing the only columns to capture, comma-separated */
+    static final String OPTION_COLUMNS = "COLUMNS";
+    /** Option listing columns not to capture, comma-separated */
+    static final String OPTION_EXCLUDE_COLUMNS = "EXCLUDE_COLUMNS";
+    /** Option holding the SQL predicate that a change must satisfy to be captured */
+    static final String OPTION_WHEN = "WHEN";
+    /** Option holding the {@link TriggerDescriptor.PayloadFormat} that the trigger writes */
+    static final String OPTION_PAYLOAD_FORMAT = "PAYLOAD_FORMAT";
+    /** Option holding the {@link TriggerDescriptor.UpdateMode} of the trigger */
+    static final String OPTION_UPDATE_MODE = "UPDATE_MODE";
+    /** Option recording the columns the trigger captures, in order, as needed to expand compact records */
+    static final String OPTION_CAPTURED_COLUMNS = "CAPTURED_COLUMNS";
+    /** Option naming the shared keyed data queue that the trigger sends to, if it does not have a data queue of its own */
+    static final String OPTION_DATA_QUEUE = "DATA_QUEUE";
+    /** Option holding the {@link TriggerDescriptor.TriggerType} of the trigger */
+    static final String OPTION_TRIGGER_TYPE = "TRIGGER_TYPE";
 
+    private final AS400 m_system;
     private final String m_dq_library;
     private final Connection m_conn;
     private final AppLogger m_logger;
     private final QCmdExc m_clCommandExecutor;
+    private final MonitorRegistry m_registry;
+    private final CatalogCache m_catalog;
 
-    TriggerManager(final AS400 as400, final Connection _connection, final String _dq_library, final AppLogger _logger) throws IOException, SQLException {
+    TriggerManager(final AS400 as400, final Connection _connection, final String _dq_library, final AppLogger _logger, final CatalogCache _catalog)
+            throws IOException, SQLException {
+        m_system = as400;
         m_conn = _connection;
         m_logger = _logger;
+        m_catalog = _catalog;
         m_clCommandExecutor = new QCmdExc(m_logger, m_conn);
 
         // The library where the triggers, variables, and data queues are saved
@@ -43,76 +91,410 @@ class TriggerManager {
                 // Failed to set the text, oh well
             }
         }
+        m_registry = new MonitorRegistry(as400, m_conn, m_dq_library, m_logger);
+        if (!new IFSFile(as400, getNotifyQueuePath()).exists()) {
+            try {
+                m_clCommandExecutor.execute(String.format("QSYS/CRTDTAQ DTAQ(%s/%s) MAXLEN(64) TEXT('AIStream daemon notifications')", m_dq_library, NOTIFY_QUEUE_NAME));
+            } catch (SQLException e) {
+                m_logger.printfln_warn("Warning: Unable to create notification data queue: %s", e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /** The IFS path of the data queue that {@link #notifyDaemon()} writes to */
+    String getNotifyQueuePath() {
+        return String.format("/qsys.lib/%s.lib/%s.dtaq", m_dq_library, NOTIFY_QUEUE_NAME);
+    }
+
+    /** Tells a running daemon that tables were added or removed, so it starts or stops their routes without waiting */
+    void notifyDaemon() {
+        try {
+            new DataQueue(m_system, getNotifyQueuePath()).write(RECONCILE_NOTIFICATION);
+        } catch (Exception e) {
+            m_logger.printfln_warn("Warning: Unable to notify the daemon, it will pick up the change at its next periodic check: %s", e.getLocalizedMessage());
+        }
+    }
+
+    AS400 getSystem() {
+        return m_system;
+    }
+
+    /** The trigger manager library, where the triggers, variables and data queues are kept */
+    String getLibrary() {
+        return m_dq_library;
+    }
+
+    Connection getConnection() {
+        return m_conn;
+    }
+
+    MonitorRegistry getRegistry() {
+        return m_registry;
+    }
+
+    CatalogCache getCatalog() {
+        return m_catalog;
     }
 
     synchronized TriggerDescriptor createTrigger(final TableDescriptor table) throws IOException, SQLException {
+        return createTrigger(table, TriggerDescriptor.CaptureMode.TRIGGER, new Properties());
+    }
+
+    /**
+     * Adds the table to monitoring.
+     *
+     * @param _options the capture options, see {@link #OPTION_COLUMNS}, {@link #OPTION_EXCLUDE_COLUMNS}, {@link #OPTION_WHEN}
+     *                 {@link #OPTION_PAYLOAD_FORMAT}, {@link #OPTION_UPDATE_MODE} and {@link #OPTION_TRIGGER_TYPE}
+     */
+    synchronized TriggerDescriptor createTrigger(final TableDescriptor table, final TriggerDescriptor.CaptureMode _mode, final Properties _options) throws IOException, SQLException {
+        return createTrigger(table, _mode, _options, null);
+    }
+
+    /**
+     * Adds the table to monitoring under a trigger ID reserved by {@link #getUniqueTriggerNames(int)}, or a newly
+     * generated one if the ID is null.
+     */
+    synchronized TriggerDescriptor createTrigger(final TableDescriptor table, final TriggerDescriptor.CaptureMode _mode, final Properties _options,
+            final String _triggerId) throws IOException, SQLException {
         TriggerDescriptor existingTrigger = getExistingTriggerForTable(table);
         // If there is an existing trigger for the specified table, we're already monitoring it
         if (Objects.nonNull(existingTrigger)) {
             throw new IOException("Table already monitored: " + existingTrigger);
         }
-        String triggerId = getUniqueTriggerName().trim();
-        Properties p = new Properties();
-        p.setProperty("LIBRARY", m_dq_library);
-        p.setProperty("TRIGGER_NAME", triggerId);
-        p.setProperty("SOURCE_SCHEMA", table.getSchema());
-
-        p.setProperty("SOURCE_TABLE", table.getName());
-
-        String columnData = table.getColumnData(m_conn);
-        if (columnData.isEmpty()) {
-            throw new IOException("Table lookup failed!");
+        List<String> columns = selectColumns(m_catalog.getColumnNames(m_conn, table), _options);
+        warnIfKeyNotCaptured(table, columns);
+        String triggerId = (null == _triggerId) ? getUniqueTriggerName().trim() : _triggerId;
+        if (TriggerDescriptor.CaptureMode.JOURNAL == _mode) {
+            return createJournalMonitor(table, triggerId, _options);
+        }
+        Properties options = new Properties();
+        options.putAll(_options);
+        options.setProperty(OPTION_CAPTURED_COLUMNS, String.join(",", columns));
+        boolean compact = TriggerDescriptor.PayloadFormat.COMPACT.name().equals(options.getProperty(OPTION_PAYLOAD_FORMAT));
+        TriggerDescriptor.UpdateMode updateMode = TriggerDescriptor.UpdateMode.valueOf(options.getProperty(OPTION_UPDATE_MODE, TriggerDescriptor.UpdateMode.FULL.name()));
+        TriggerDescriptor.TriggerType triggerType = TriggerDescriptor.TriggerType.valueOf(options.getProperty(OPTION_TRIGGER_TYPE, TriggerDescriptor.TriggerType.ROW.name()));
+        if (TriggerDescriptor.TriggerType.STATEMENT == triggerType) {
+            // A statement trigger sees the changed rows as a whole, without pairing each new row with its old row
+            if (StringUtils.isNonEmpty(options.getProperty(OPTION_WHEN))) {
+                throw new IOException("A row filter cannot be used with a statement trigger");
+            }
+            if (compact) {
+                throw new IOException("The compact payload format cannot be used with a statement trigger");
+            }
+            if (TriggerDescriptor.UpdateMode.FULL != updateMode) {
+                throw new IOException("Changed-column updates cannot be used with a statement trigger");
+            }
+        }
+        List<String> keyColumns = m_catalog.getKeyColumns(m_conn, table);
+        if (TriggerDescriptor.UpdateMode.FULL != updateMode) {
+            if (compact) {
+                throw new IOException("Changed-column updates cannot be used with the compact payload format");
+            }
+            if (keyColumns.isEmpty()) {
+                throw new IOException("Changed-column updates need a primary or unique key on " + table);
+            }
+        }
+        TableConfiguration config = new TableConfiguration(m_logger, table);
+        long maxPayloadSize = config.getLong(ITriggerConfigurationConstants.KEY_MAX_PAYLOAD_SIZE, DEFAULT_MAX_PAYLOAD_SIZE);
+        int sharedQueues = Math.min(MAX_SHARED_QUEUES, config.getInt(ITriggerConfigurationConstants.KEY_SHARED_DATA_QUEUES, 0));
+        if (0 < sharedQueues) {
+            // The trigger ID picks the queue, so the tables are spread evenly over the queues
+            options.setProperty(OPTION_DATA_QUEUE, String.format(SHARED_QUEUE_NAME_FORMAT, Math.floorMod(triggerId.hashCode(), sharedQueues) + 1));
         }
-        p.setProperty("COLUMN_DATA", columnData);
-        p.setProperty("COLUMN_DATA_ON_DELETE", columnData.replace(" n.", " o."));
-        p.setProperty("DATA_QUEUE_NAME", triggerId);
-        String processedSQL = SqlTemplateProcessor.getProcessed("create.sql", p);
+        String dataQueueName = options.getProperty(OPTION_DATA_QUEUE, triggerId);
+        Map<String, Object> p = new HashMap<>();
+        p.put("LIBRARY", m_dq_library);
+        p.put("TRIGGER_NAME", triggerId);
+        p.put("SOURCE_SCHEMA", table.getSchema());
+        p.put("SOURCE_TABLE", table.getName());
+        p.put("COLUMNS", columns);
+        p.put("KEY_COLUMNS", keyColumns);
+        p.put("COMPACT_FORMAT_VERSION", CompactPayloadExpander.FORMAT_VERSION);
+        p.put("INCLUDE_BEFORE", TriggerDescriptor.UpdateMode.CHANGES_WITH_BEFORE == updateMode);
+        // A ROW trigger builds the payload in a global variable named after it, the others in a local variable
+        p.put("LOCAL_PAYLOAD", TriggerDescriptor.TriggerType.ROW != triggerType);
+        p.put("PAYLOAD", (TriggerDescriptor.TriggerType.ROW == triggerType) ? m_dq_library + "." + triggerId : "payload");
+        int rowsPerMessage = Math.max(1, config.getInt(ITriggerConfigurationConstants.KEY_STATEMENT_ROWS_PER_MESSAGE, DEFAULT_STATEMENT_ROWS_PER_MESSAGE));
+        p.put("ROWS_PER_MESSAGE", rowsPerMessage);
+        putLocalSizes(p, table, columns, keyColumns, (TriggerDescriptor.TriggerType.STATEMENT == triggerType) ? rowsPerMessage : 1, maxPayloadSize);
+        p.put("DATA_QUEUE_NAME", dataQueueName);
+        if (0 < sharedQueues) {
+            p.put("DATA_QUEUE_KEY", triggerId);
+        }
+        p.put("MAX_ENTRY_BYTES", MAX_ENTRY_BYTES);
+        p.put("CHUNK_CHARACTERS", CHUNK_CHARACTERS);
+        String when = options.getProperty(OPTION_WHEN);
+        p.put("WHEN_CONDITION", StringUtils.isEmpty(when) ? "inserting or updating or deleting" : "(inserting or updating or deleting) and (" + when + ")");
+        String template = (TriggerDescriptor.TriggerType.STATEMENT == triggerType) ? "create_statement.sql"
+                : compact ? "create_compact.sql" : (TriggerDescriptor.UpdateMode.FULL == updateMode) ? "create.sql" : "create_changes.sql";
+        String processedSQL = SqlTemplateProcessor.getProcessed(template, p);
         m_logger.printfln_verbose("Full SQL statement is:\n%s\n=================================================",
                 processedSQL);
 
-        // Create the global variable
-        String createVarSql = String.format("CREATE OR REPLACE VARIABLE %s.%s CLOB(64000) CCSID 1208", m_dq_library, triggerId); // TODO: remediate SQL injection
-        executeSQLInNewStatement(createVarSql);
-        // Set the global variable label
+        // Register first, so that objects left behind by a failure part way through can be found and removed
+        TriggerDescriptor ret = new TriggerDescriptor(m_dq_library, triggerId, table, TriggerDescriptor.CaptureMode.TRIGGER, options);
+        m_registry.register(ret);
         try {
-            executeSQLInNewStatement(String.format("LABEL ON VARIABLE %s.%s IS '%s'",
-                    m_dq_library,
-                    triggerId,
-                    table.getLabelText())); // TODO: remediate SQL injection
+            // Create the global variable
+            if (TriggerDescriptor.TriggerType.ROW == triggerType) {
+                String createVarSql = String.format("CREATE OR REPLACE VARIABLE %s.%s CLOB(%d) CCSID 1208", m_dq_library, triggerId, maxPayloadSize); // TODO: remediate SQL injection
+                executeSQLInNewStatement(createVarSql);
+                // Set the global variable label
+                try {
+                    executeSQLInNewStatement(String.format("LABEL ON VARIABLE %s.%s IS '%s'",
+                            m_dq_library,
+                            triggerId,
+                            table.getLabelText())); // TODO: remediate SQL injection
+                } catch (SQLException e) {
+                    // Failed to set the label, oh well
+                }
+            }
+        
+            // Create the data queue
+            if (0 < sharedQueues) {
+                createSharedDataQueue(dataQueueName);
+            } else {
+                // TODO is it really necessary to attempt the delete first?  the triggerId should be unique, so we should *never* encounter an existing data queue by that name
+                String deleteDqCmd = String.format("QSYS/DLTDTAQ DTAQ(%s/%s) ", m_dq_library, triggerId);
+                m_clCommandExecutor.executeAndIgnoreErrors(deleteDqCmd);
+                String createDqCmd = String.format("QSYS/CRTDTAQ DTAQ(%s/%s) MAXLEN(%d) SENDERID(*YES) SIZE(*MAX2GB) AUTORCL(*YES) TEXT('%s')",
+                         m_dq_library,
+                        triggerId,
+                        MAX_ENTRY_BYTES,
+                        table.getLabelText());
+                m_clCommandExecutor.execute(createDqCmd);
+            }
+
+            // Now create the trigger
+            // TODO *USER does not have authority to the create trigger command
+            //      [SQL0552] Not authorized to CREATE TRIGGER.
+            //      https://www.ibm.com/docs/en/i/latest?topic=statements-create-trigger
+            executeSQLInNewStatement(processedSQL);
+            // Set the trigger label
+            try {
+                executeSQLInNewStatement(String.format("LABEL ON TRIGGER %s.%s IS '%s'",
+                        m_dq_library,
+                        triggerId,
+                        table.getLabelText())); // TODO: remediate SQL injection
+            } catch (SQLException e) {
+                // Failed to set the label, oh well
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            undoCreateTrigger(ret);
+            throw e;
+        }
+        return ret;
+    }
+
+    /** Removes whatever a failed {@link #createTrigger} created, ignoring the objects it did not get to */
+    private void undoCreateTrigger(final TriggerDescriptor _trigger) {
+        m_logger.printfln_verbose("Removing the partly created monitor %s", _trigger.getTriggerId());
+        try (Statement stmt = m_conn.createStatement()) {
+            try {
+                stmt.execute(String.format("DROP TRIGGER %s.%s", _trigger.getLibrary(), _trigger.getTriggerId()));
+            } catch (SQLException e) {
+                // Not created
+            }
+            if (TriggerDescriptor.TriggerType.ROW == _trigger.getTriggerType()) {
+                try {
+                    stmt.execute(String.format("DROP VARIABLE %s.%s", _trigger.getLibrary(), _trigger.getTriggerId()));
+                } catch (SQLException e) {
+                    // Not created
+                }
+            }
         } catch (SQLException e) {
-            // Failed to set the label, oh well
+            m_logger.printfln_warn("Warning: Unable to remove the trigger of %s: %s", _trigger.getTriggerId(), e.getLocalizedMessage());
+        }
+        // A shared data queue is kept for the other tables that use it
+        if (!_trigger.isSharedDataQueue()) {
+            m_clCommandExecutor.executeAndIgnoreErrors(String.format("QSYS/DLTDTAQ DTAQ(%s/%s)", m_dq_library, _trigger.getTriggerId()));
         }
-        
-        // Create the data queue
-        // TODO is it really necessary to attempt the delete first?  the triggerId should be unique, so we should *never* encounter an existing data queue by that name
-        String deleteDqCmd = String.format("QSYS/DLTDTAQ DTAQ(%s/%s) ", m_dq_library, triggerId);
-        m_clCommandExecutor.executeAndIgnoreErrors(deleteDqCmd);
-        String createDqCmd = String.format("QSYS/CRTDTAQ DTAQ(%s/%s) MAXLEN(64512) SENDERID(*YES) SIZE(*MAX2GB) AUTORCL(*YES) TEXT('%s')",
-                 m_dq_library,
-                triggerId,
-                table.getLabelText());
-        m_clCommandExecutor.execute(createDqCmd);
-
-        // Now create the trigger
-        // TODO *USER does not have authority to the create trigger command
-        //      [SQL0552] Not authorized to CREATE TRIGGER.
-        //      https://www.ibm.com/docs/en/i/latest?topic=statements-create-trigger
-        executeSQLInNewStatement(processedSQL);
-        // Set the trigger label
         try {
-            executeSQLInNewStatement(String.format("LABEL ON TRIGGER %s.%s IS '%s'",
-                    m_dq_library,
-                    triggerId,
-                    table.getLabelText())); // TODO: remediate SQL injection
+            m_registry.unregister(_trigger.getTriggerId());
         } catch (SQLException e) {
-            // Failed to set the label, oh well
+            m_logger.printfln_warn("Warning: Unable to unregister %s: %s", _trigger.getTriggerId(), e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Sizes the trigger's local CLOB variables from the widths of the captured columns, capped at the maximum payload
+     * size, since each firing allocates them at their declared size.
+     */
+    private void putLocalSizes(final Map<String, Object> _p, final TableDescriptor _table, final List<String> _columns, final List<String> _keyColumns,
+            final int _rowsPerPayload, final long _maxPayloadSize) throws SQLException {
+        Map<String, Long> widths = _table.getColumnJsonWidths(m_conn);
+        long rowWidth = 2;
+        long maxColumnWidth = 2;
+        for (String column : _columns) {
+            long width = widths.getOrDefault(column, _maxPayloadSize);
+            rowWidth += width;
+            maxColumnWidth = Math.max(maxColumnWidth, width);
+        }
+        long keyWidth = 2;
+        for (String column : _keyColumns) {
+            keyWidth += widths.getOrDefault(column, _maxPayloadSize);
+        }
+        // The table name, operation and other members around the rows
+        long envelope = 256 + 6L * _table.getName().length();
+        // The largest payload is an update with the key, the changed columns and their old values
+        long payloadSize = envelope + Math.max(_rowsPerPayload * rowWidth, keyWidth + 2 * rowWidth);
+        _p.put("PAYLOAD_SIZE", Math.min(_maxPayloadSize, payloadSize));
+        _p.put("CHANGES_SIZE", Math.min(_maxPayloadSize, rowWidth));
+        _p.put("CHANGED_VALUE_SIZE", Math.min(_maxPayloadSize, maxColumnWidth));
+    }
+
+    /**
+     * Creates a shared keyed data queue unless it already exists. It is never deleted, as tables added later may be
+     * assigned to it.
+     */
+    private void createSharedDataQueue(final String _name) throws IOException, SQLException {
+        final String path = String.format("/qsys.lib/%s.lib/%s.dtaq", m_dq_library, _name);
+        if (new IFSFile(m_system, path).exists()) {
+            return;
+        }
+        // Another ADD may create it at the same time, so only fail if it still does not exist
+        m_clCommandExecutor.executeAndIgnoreErrors(String.format(
+                "QSYS/CRTDTAQ DTAQ(%s/%s) MAXLEN(%d) SEQ(*KEYED) KEYLEN(%d) SENDERID(*YES) SIZE(*MAX2GB) AUTORCL(*YES) TEXT('AIStream shared changes')",
+                m_dq_library, _name, MAX_ENTRY_BYTES, SharedDataQueue.KEY_LENGTH));
+        if (!new IFSFile(m_system, path).exists()) {
+            throw new IOException("Unable to create shared data queue " + m_dq_library + "/" + _name);
+        }
+    }
+
+    /**
+     * Journal-captured tables need no trigger, variable or data queue. The daemon reads the table's journal
+     * directly, so the table only has to be journaled with after images and recorded in the registry.
+     */
+    private TriggerDescriptor createJournalMonitor(final TableDescriptor table, final String triggerId, final Properties _options) throws IOException, SQLException {
+        if (StringUtils.isNonEmpty(_options.getProperty(OPTION_WHEN))) {
+            throw new IOException("A row filter cannot be used with journal capture");
+        }
+        if (TriggerDescriptor.PayloadFormat.COMPACT.name().equals(_options.getProperty(OPTION_PAYLOAD_FORMAT))) {
+            throw new IOException("The compact payload format cannot be used with journal capture");
+        }
+        if (StringUtils.isNonEmpty(_options.getProperty(OPTION_UPDATE_MODE)) && !TriggerDescriptor.UpdateMode.FULL.name().equals(_options.getProperty(OPTION_UPDATE_MODE))) {
+            throw new IOException("Changed-column updates cannot be used with journal capture");
+        }
+        if (StringUtils.isNonEmpty(_options.getProperty(OPTION_TRIGGER_TYPE)) && !TriggerDescriptor.TriggerType.ROW.name().equals(_options.getProperty(OPTION_TRIGGER_TYPE))) {
+            throw new IOException("A trigger type cannot be chosen with journal capture");
+        }
+        Properties options = new Properties();
+        options.putAll(_options);
+        try (PreparedStatement stmt = m_conn.prepareStatement(
+                "SELECT O.JOURNAL_LIBRARY, O.JOURNAL_NAME, O.JOURNAL_IMAGES, J.MINIMIZED_DATA " +
+                "FROM QSYS2.JOURNALED_OBJECTS O " +
+                "LEFT JOIN QSYS2.JOURNAL_INFO J ON J.JOURNAL_LIBRARY = O.JOURNAL_LIBRARY AND J.JOURNAL_NAME = O.JOURNAL_NAME " +
+                "WHERE O.OBJECT_TYPE = '*FILE' AND O.OBJECT_LIBRARY = ? AND O.OBJECT_NAME = ?")) {
+            stmt.setString(1, table.getSystemSchema());
+            stmt.setString(2, table.getSystemName());
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                throw new IOException("Table is not journaled: " + table);
+            }
+            options.setProperty(OPTION_JOURNAL_LIBRARY, rs.getString(1).trim());
+            options.setProperty(OPTION_JOURNAL_NAME, rs.getString(2).trim());
+            m_logger.printfln_verbose("Table %s is journaled to %s/%s with images %s", table, rs.getString(1).trim(), rs.getString(2).trim(), rs.getString(3));
+            // Minimized entries only hold the bytes of the record that changed, which cannot be decoded as a row
+            String minimized = rs.getString(4);
+            if (null != minimized && (minimized.contains("*FILE") || minimized.contains("*FLDBDY"))) {
+                throw new IOException(String.format("Journal %s/%s minimizes the entry data of files (%s), so its entries do not hold whole rows. "
+                        + "Change the journal to MINENTDTA(*NONE) to capture %s from it.", rs.getString(1).trim(), rs.getString(2).trim(), minimized.trim(), table));
+            }
         }
+        TriggerDescriptor ret = new TriggerDescriptor(m_dq_library, triggerId, table, TriggerDescriptor.CaptureMode.JOURNAL, options);
+        m_registry.register(ret);
+        return ret;
+    }
 
-        return new TriggerDescriptor(m_dq_library, triggerId, table);
+    /**
+     * Applies the column options to the table's columns. Columns are captured in table order, whatever order
+     * they are listed in.
+     *
+     * @param _allColumns the delimited names of all of the table's columns
+     * @return the delimited names of the columns to capture
+     */
+    static List<String> selectColumns(final List<String> _allColumns, final Properties _options) throws IOException {
+        final List<String> included = splitColumns(_options.getProperty(OPTION_COLUMNS));
+        final List<String> excluded = splitColumns(_options.getProperty(OPTION_EXCLUDE_COLUMNS));
+        for (final String column : included) {
+            if (!_allColumns.contains(column)) {
+                throw new IOException("Column not found: " + column);
+            }
+        }
+        for (final String column : excluded) {
+            if (!_allColumns.contains(column)) {
+                throw new IOException("Column not found: " + column);
+            }
+        }
+        final List<String> ret = new LinkedList<>();
+        for (final String column : _allColumns) {
+            if ((included.isEmpty() || included.contains(column)) && !excluded.contains(column)) {
+                ret.add(column);
+            }
+        }
+        if (ret.isEmpty()) {
+            throw new IOException("No columns left to capture");
+        }
+        return ret;
+    }
+
+    /** Splits a comma-separated list of column names. Commas within delimited names do not separate. */
+    static List<String> splitColumns(final String _columns) {
+        final List<String> ret = new LinkedList<>();
+        if (StringUtils.isEmpty(_columns)) {
+            return ret;
+        }
+        boolean delimited = false;
+        int start = 0;
+        for (int i = 0; i <= _columns.length(); i++) {
+            final char c = (i < _columns.length()) ? _columns.charAt(i) : ',';
+            if ('"' == c) {
+                delimited = !delimited;
+            } else if (',' == c && !delimited) {
+                final String column = _columns.substring(start, i).trim();
+                if (!column.isEmpty()) {
+                    ret.add(column);
+                }
+                start = i + 1;
+            }
+        }
+        return ret;
+    }
+
+    private void warnIfKeyNotCaptured(final TableDescriptor _table, final List<String> _columns) throws SQLException {
+        for (final String keyColumn : m_catalog.getKeyColumns(m_conn, _table)) {
+            if (!_columns.contains(keyColumn)) {
+                m_logger.printfln_warn("Warning: Key column %s is not captured, so changes to %s cannot be ordered by row", keyColumn, _table);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The columns that identify a row of the table in its payloads: the ROW_KEY_COLUMNS setting if there is one,
+     * otherwise the table's primary or unique key. Empty if the table has no row key.
+     */
+    List<String> getRowKeyColumns(final TableDescriptor _table, final TableConfiguration _config) throws SQLException {
+        final String configured = _config.get(ITriggerConfigurationConstants.KEY_ROW_KEY_COLUMNS, null);
+        if (null == configured) {
+            return m_catalog.getKeyColumns(m_conn, _table);
+        }
+        final List<String> ret = new LinkedList<>();
+        for (final String column : configured.split(",")) {
+            if (!column.trim().isEmpty()) {
+                ret.add(column.trim());
+            }
+        }
+        return ret;
     }
 
     List<TriggerDescriptor> listTriggers() throws SQLException {
         LinkedList<TriggerDescriptor> ret = new LinkedList<>();
+        // The registry is read once, rather than once per trigger
+        Map<String, TriggerDescriptor> registered = new HashMap<>();
+        for (TriggerDescriptor monitor : m_registry.listAll()) {
+            registered.put(monitor.getTriggerId(), monitor);
+        }
         try (PreparedStatement stmt = m_conn.prepareStatement(
                 "SELECT " + 
                 "TRIGGER_NAME, " +
@@ -131,10 +513,30 @@ class TriggerManager {
                 final String systemSchema = rs.getString(3);
                 final String table = rs.getString(4);
                 final String systemTable = rs.getString(5);
-                ret.add(new TriggerDescriptor(m_dq_library, triggerId, new TableDescriptor(schema, systemSchema, table, systemTable)));
+                ret.add(withRegisteredOptions(new TriggerDescriptor(m_dq_library, triggerId, new TableDescriptor(schema, systemSchema, table, systemTable)),
+                        registered.get(triggerId.trim())));
+            }
+        }
+        for (TriggerDescriptor monitor : registered.values()) {
+            if (TriggerDescriptor.CaptureMode.JOURNAL == monitor.getCaptureMode()) {
+                ret.add(monitor);
+            }
+        }
+        return ret;
+    }
+
+    /** The number of entries waiting in each of the trigger data queues, by trigger ID */
+    Map<String, Long> getDataQueueDepths() throws SQLException {
+        final Map<String, Long> ret = new HashMap<>();
+        try (PreparedStatement stmt = m_conn.prepareStatement(
+                "SELECT DATA_QUEUE_NAME, CURRENT_MESSAGES FROM QSYS2.DATA_QUEUE_INFO WHERE DATA_QUEUE_LIBRARY = ?")) {
+            stmt.setString(1, m_dq_library);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ret.put(rs.getString(1).trim(), rs.getLong(2));
             }
-            return ret;
         }
+        return ret;
     }
 
     TriggerDescriptor getExistingTriggerForTable(final TableDescriptor table) throws SQLException {
@@ -142,16 +544,32 @@ class TriggerManager {
                 "SELECT " +
                 "TRIGGER_NAME " +
                 "FROM QSYS2.SYSTRIGGERS " +
-                "WHERE TRIGGER_SCHEMA = ? AND QSYS2.DELIMIT_NAME(EVENT_OBJECT_SCHEMA) = ? AND QSYS2.DELIMIT_NAME(EVENT_OBJECT_TABLE) = ?")) {
+                "WHERE TRIGGER_SCHEMA = ? AND SYSTEM_EVENT_OBJECT_SCHEMA = ? AND SYSTEM_EVENT_OBJECT_TABLE = ?")) {
             stmt.setString(1, m_dq_library);
-            stmt.setString(2, table.getSchema());
-            stmt.setString(3, table.getName());
+            stmt.setString(2, table.getSystemSchema());
+            stmt.setString(3, table.getSystemName());
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                return new TriggerDescriptor(m_dq_library, rs.getString(1), table);
+                return withRegisteredOptions(new TriggerDescriptor(m_dq_library, rs.getString(1), table), m_registry.get(rs.getString(1).trim()));
             }
-            return null;
         }
+        TriggerDescriptor registered = m_registry.getForTable(table);
+        if (null != registered && TriggerDescriptor.CaptureMode.JOURNAL == registered.getCaptureMode()) {
+            return registered;
+        }
+        return null;
+    }
+
+    /**
+     * Picks up the options recorded when the trigger was created, from its registration. Triggers created before the
+     * registry existed have none.
+     */
+    private static TriggerDescriptor withRegisteredOptions(final TriggerDescriptor _trigger, final TriggerDescriptor _registered) {
+        if (null == _registered) {
+            return _trigger;
+        }
+        return new TriggerDescriptor(_trigger.getLibrary(), _trigger.getTriggerId(), _trigger.getTableDescriptor(), TriggerDescriptor.CaptureMode.TRIGGER,
+                _registered.getOptions());
     }
 
     private void executeSQLInNewStatement(String processedSQL) throws SQLException {
@@ -180,26 +598,90 @@ class TriggerManager {
             m_logger.printfln_warn("No trigger exists for table %s", table);
             return null;
         }
+        return deleteTrigger(existingTrigger);
+    }
+
+    /** Removes a table from monitoring, given its trigger as returned by {@link #listTriggers()} */
+    TriggerDescriptor deleteTrigger(final TriggerDescriptor existingTrigger) throws SQLException {
+        if (TriggerDescriptor.CaptureMode.JOURNAL == existingTrigger.getCaptureMode()) {
+            // Nothing was created on the system for a journal-captured table
+            m_registry.unregister(existingTrigger.getTriggerId());
+            return existingTrigger;
+        }
 
         // drop the trigger and global variable
         try (Statement stmt = m_conn.createStatement()) {
             stmt.execute(
                     String.format("DROP TRIGGER %s.%s", existingTrigger.getLibrary(), existingTrigger.getTriggerId()));
-            stmt.execute(
-                    String.format("DROP VARIABLE %s.%s", existingTrigger.getLibrary(), existingTrigger.getTriggerId()));
+            if (TriggerDescriptor.TriggerType.ROW == existingTrigger.getTriggerType()) {
+                stmt.execute(
+                        String.format("DROP VARIABLE %s.%s", existingTrigger.getLibrary(), existingTrigger.getTriggerId()));
+            }
+        }
+        // delete the data queue, or the table's entries in a shared one
+        if (existingTrigger.isSharedDataQueue()) {
+            removeSharedEntries(existingTrigger);
+        } else {
+            m_clCommandExecutor.execute(String.format("QSYS/DLTDTAQ DTAQ(%s/%s)", m_dq_library, existingTrigger.getTriggerId()));
         }
-        // delete the data queue
-        m_clCommandExecutor.execute(String.format("QSYS/DLTDTAQ DTAQ(%s/%s)", m_dq_library, existingTrigger.getTriggerId()));
+        m_registry.unregister(existingTrigger.getTriggerId());
 
         return existingTrigger;
     }
 
+    /** Reads and discards the entries that a removed table left in its shared data queue, as the daemon no longer reads them */
+    private void removeSharedEntries(final TriggerDescriptor _trigger) {
+        try {
+            final KeyedDataQueue dataQueue = new KeyedDataQueue(m_system,
+                    String.format("/qsys.lib/%s.lib/%s.dtaq", m_dq_library, _trigger.getDataQueueName()));
+            final byte[] key = SharedDataQueue.toKey(m_system, _trigger.getTriggerId());
+            int removed = 0;
+            while (null != dataQueue.read(key, 0, "EQ")) {
+                removed++;
+            }
+            m_logger.printfln_verbose("Removed %d unread entr(ies) of %s from %s", removed, _trigger.getTriggerId(), _trigger.getDataQueueName());
+        } catch (Exception e) {
+            m_logger.printfln_warn("Warning: Unable to remove the unread entries of %s from %s: %s", _trigger.getTriggerId(), _trigger.getDataQueueName(),
+                    e.getLocalizedMessage());
+        }
+    }
+
     private synchronized String getUniqueTriggerName() throws SQLException {
         while (true) {
-            String tryMe = (GENERATED_NAME_PREFIX + UUID.randomUUID().toString().replaceAll("[^A-Z0-9]+", "")).substring(0, 10);
-            if (!doesTriggerExistWithId(tryMe)) {
+            String tryMe = newTriggerName();
+            if (!doesTriggerExistWithId(tryMe) && !m_registry.isRegistered(tryMe)) {
                 return tryMe;
             }
         }
     }
+
+    /**
+     * Generates trigger IDs for a bulk ADD, checking them against the existing triggers and monitored tables with
+     * one catalog query instead of one per attempt.
+     */
+    synchronized List<String> getUniqueTriggerNames(final int _count) throws SQLException {
+        Set<String> taken = new HashSet<>();
+        try (PreparedStatement stmt = m_conn.prepareStatement("SELECT TRIGGER_NAME FROM QSYS2.SYSTRIGGERS WHERE TRIGGER_SCHEMA = ?")) {
+            stmt.setString(1, m_dq_library);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                taken.add(rs.getString(1).trim());
+            }
+        }
+        for (TriggerDescriptor registered : m_registry.listAll()) {
+            taken.add(registered.getTriggerId());
+        }
+        List<String> ret = new ArrayList<>(_count);
+        while (ret.size() < _count) {
+            String tryMe = newTriggerName();
+            if (taken.add(tryMe)) {
+                ret.add(tryMe);
+            }
+        }
+        return ret;
+    }
+
+    private static String newTriggerName() {
+        return (GENERATED_NAME_PREFIX + UUID.randomUUID().toString().replaceAll("[^A-Z0-9]+", "")).substring(0, 10);
+    }
 }
@@ -18,4 +18,5 @@ if [ -n "${JAVA_HOME}" ]; then
     java_command=${JAVA_HOME}/bin/java
 fi
 
-exec ${java_command} -jar ${aistream_jar} --action DAEMONSTART -v
+# Any arguments are passed to the daemon, for instance "--instance <id>" to name one of several sharded instances.
+exec ${java_command} -jar ${aistream_jar} --action DAEMONSTART -v "$@"
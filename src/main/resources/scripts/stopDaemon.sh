@@ -3,24 +3,33 @@
 # This script need to be invoked under BASH. 
 # The behaviour of the ps command is different under different shells.
 #
-# Find out the process entry for the aistream daemon java process. 
+# Find out the process entries for the aistream daemon java processes.
 # The aistream daemon is started with the following command:
-# > java -jar /path/aistream.jar --action DAEMONSTART
+# > java -jar /path/aistream.jar --action DAEMONSTART [--instance <id>]
 #
 # The aistream jar file name may contain a version number.
 #
+# With an instance ID argument, only the daemon started with "--instance <id>" is stopped. Otherwise every
+# aistream daemon on this system is stopped, as several sharded instances may be running.
+#
+instance_id=$1
 daemon_java_ps_output=`/bin/ps -Af | grep "java \-jar " | grep "aistream" | grep "\-\-action DAEMONSTART"`
+if [ -n "$instance_id" ]; then
+    daemon_java_ps_output=`echo "$daemon_java_ps_output" | grep -- "--instance ${instance_id}\( \|$\)"`
+fi
 if [ -z "$daemon_java_ps_output" ]; then
     echo "AIStream daemon java process is not found."
     exit 1
 fi
 
-# xargs is used to remove the leading and trailing empty spaces in the ps output.
-# For the cut command, we use empty space as the delimiter. The second field is PID. 
-daemon_java_pid=`echo $daemon_java_ps_output | xargs | cut -d " " -f 2`
-if [ -z "$daemon_java_pid" ]; then
-    echo "Invalid PID for AIStream daemon java process."
-else
+echo "$daemon_java_ps_output" | while read -r daemon_java_ps_line; do
+    # xargs is used to remove the leading and trailing empty spaces in the ps output.
+    # For the cut command, we use empty space as the delimiter. The second field is PID. 
+    daemon_java_pid=`echo $daemon_java_ps_line | xargs | cut -d " " -f 2`
+    if [ -z "$daemon_java_pid" ]; then
+        echo "Invalid PID for AIStream daemon java process."
+        continue
+    fi
     process_to_kill=${daemon_java_pid}
   
     # If we can find a PASE process for the corresponding java process, then we need to kill the PASE process.
@@ -40,4 +49,4 @@ else
     # Kill either the java process or the jvm Pase process, depending on whether the PASE process is found.
     kill ${process_to_kill}
     echo "Terminated AIStream daemon process: ${process_to_kill}"
-fi
+done
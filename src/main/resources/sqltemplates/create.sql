@@ -1,9 +1,13 @@
 create or replace trigger %%LIBRARY%%.%%TRIGGER_NAME%%
     after update or insert or delete on %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%%
     referencing new as n old as o for each row
-  when (inserting or updating or deleting)
+  when (%%WHEN_CONDITION%%)
   begin atomic
-    declare operation varchar(10) for sbcs data;
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+%%#if LOCAL_PAYLOAD%%    declare payload clob(%%PAYLOAD_SIZE%%) ccsid 1208;
+%%/if%%    declare operation varchar(10) for sbcs data;
     if inserting then
       set operation = 'INSERT';
     end if;
@@ -14,19 +18,18 @@ create or replace trigger %%LIBRARY%%.%%TRIGGER_NAME%%
       set operation = 'UPDATE';
     end if;
     if (inserting or updating) then
-    set %%LIBRARY%%.%%DATA_QUEUE_NAME%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation, 
+    set %%PAYLOAD%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation, 
                                       KEY 'row' VALUE 
                                       JSON_OBJECT(
-                                        %%COLUMN_DATA%%
+%%#each COLUMN in COLUMNS%%                                        KEY '%%COLUMN%%' VALUE n.%%COLUMN%%%%#between%%,
+%%/each%%
                                       ));
     else 
-    set %%LIBRARY%%.%%DATA_QUEUE_NAME%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation, 
+    set %%PAYLOAD%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation, 
                                       KEY 'row' VALUE 
                                       JSON_OBJECT(
-                                        %%COLUMN_DATA_ON_DELETE%%
+%%#each COLUMN in COLUMNS%%                                        KEY '%%COLUMN%%' VALUE o.%%COLUMN%%%%#between%%,
+%%/each%%
                                       ));    end if;
-    call qsys2.send_data_queue_utf8(
-        message_data       => %%LIBRARY%%.%%DATA_QUEUE_NAME%%, 
-        data_queue         => '%%DATA_QUEUE_NAME%%',
-        data_queue_library => '%%LIBRARY%%');
+%%>send_payload%%
   end
\ No newline at end of file
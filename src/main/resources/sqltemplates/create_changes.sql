@@ -0,0 +1,49 @@
+create or replace trigger %%LIBRARY%%.%%TRIGGER_NAME%%
+    after update or insert or delete on %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%%
+    referencing new as n old as o for each row
+  when (%%WHEN_CONDITION%%)
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+%%#if LOCAL_PAYLOAD%%    declare payload clob(%%PAYLOAD_SIZE%%) ccsid 1208;
+%%/if%%    declare changed_value clob(%%CHANGED_VALUE_SIZE%%) ccsid 1208;
+    declare changes clob(%%CHANGES_SIZE%%) ccsid 1208 default '';
+    declare before_values clob(%%CHANGES_SIZE%%) ccsid 1208 default '';
+    if inserting then
+    set %%PAYLOAD%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE 'INSERT', 
+                                      KEY 'row' VALUE 
+                                      JSON_OBJECT(
+%%#each COLUMN in COLUMNS%%                                        KEY '%%COLUMN%%' VALUE n.%%COLUMN%%%%#between%%,
+%%/each%%
+                                      ));
+    end if;
+    if updating then
+    -- Each changed column is added as a "name":value member, taken from a one member JSON_OBJECT so that
+    -- values are rendered exactly as they are in the full row
+%%#each COLUMN in COLUMNS%%    if n.%%COLUMN%% is distinct from o.%%COLUMN%% then
+      set changed_value = JSON_OBJECT(KEY '%%COLUMN%%' VALUE n.%%COLUMN%% NULL ON NULL);
+      set changes = changes concat case when length(changes) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+%%#if INCLUDE_BEFORE%%      set changed_value = JSON_OBJECT(KEY '%%COLUMN%%' VALUE o.%%COLUMN%% NULL ON NULL);
+      set before_values = before_values concat case when length(before_values) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+%%/if%%    end if;
+%%/each%%
+    set %%PAYLOAD%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE 'UPDATE', 
+                                      KEY 'key' VALUE 
+                                      JSON_OBJECT(
+%%#each COLUMN in KEY_COLUMNS%%                                        KEY '%%COLUMN%%' VALUE o.%%COLUMN%%%%#between%%,
+%%/each%%
+                                      ),
+                                      KEY 'changes' VALUE ('{' concat changes concat '}') FORMAT JSON%%#if INCLUDE_BEFORE%%,
+                                      KEY 'before' VALUE ('{' concat before_values concat '}') FORMAT JSON%%/if%%);
+    end if;
+    if deleting then
+    set %%PAYLOAD%% = JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE 'DELETE', 
+                                      KEY 'row' VALUE 
+                                      JSON_OBJECT(
+%%#each COLUMN in COLUMNS%%                                        KEY '%%COLUMN%%' VALUE o.%%COLUMN%%%%#between%%,
+%%/each%%
+                                      ));
+    end if;
+%%>send_payload%%
+  end
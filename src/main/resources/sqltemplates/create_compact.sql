@@ -0,0 +1,32 @@
+create or replace trigger %%LIBRARY%%.%%TRIGGER_NAME%%
+    after update or insert or delete on %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%%
+    referencing new as n old as o for each row
+  when (%%WHEN_CONDITION%%)
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+%%#if LOCAL_PAYLOAD%%    declare payload clob(%%PAYLOAD_SIZE%%) ccsid 1208;
+%%/if%%    declare operation char(1) for sbcs data;
+    if inserting then
+      set operation = 'I';
+    end if;
+    if deleting then
+      set operation = 'D';
+    end if;
+    if updating then
+      set operation = 'U';
+    end if;
+    -- Positional record: [format version, operation, column values...]. The daemon holds the column names.
+    if (inserting or updating) then
+    set %%PAYLOAD%% = JSON_ARRAY(%%COMPACT_FORMAT_VERSION%%, operation,
+%%#each COLUMN in COLUMNS%%                                        n.%%COLUMN%%%%#between%%,
+%%/each%%
+                                      NULL ON NULL);
+    else 
+    set %%PAYLOAD%% = JSON_ARRAY(%%COMPACT_FORMAT_VERSION%%, operation,
+%%#each COLUMN in COLUMNS%%                                        o.%%COLUMN%%%%#between%%,
+%%/each%%
+                                      NULL ON NULL);    end if;
+%%>send_payload%%
+  end
@@ -0,0 +1,54 @@
+create or replace trigger %%LIBRARY%%.%%TRIGGER_NAME%%
+    after update or insert or delete on %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%%
+    referencing new table as new_rows old table as old_rows for each statement
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+    declare payload clob(%%PAYLOAD_SIZE%%) ccsid 1208;
+    declare operation varchar(10) for sbcs data;
+    if inserting then
+      set operation = 'INSERT';
+    end if;
+    if deleting then
+      set operation = 'DELETE';
+    end if;
+    if updating then
+      set operation = 'UPDATE';
+    end if;
+    -- The changed rows are sent %%ROWS_PER_MESSAGE%% at a time, as {"table":...,"operation":...,"rows":[...]}.
+    -- The daemon splits each message into the payloads a row trigger would have sent.
+    if (inserting or updating) then
+      for message as
+          select JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation,
+                             KEY 'rows' VALUE JSON_ARRAYAGG(row_data FORMAT JSON ORDER BY row_seq)) as rows_payload
+            from (select ROW_NUMBER() OVER () as row_seq,
+                         JSON_OBJECT(
+%%#each COLUMN in COLUMNS%%                           KEY '%%COLUMN%%' VALUE n.%%COLUMN%%%%#between%%,
+%%/each%%
+                         ) as row_data
+                    from new_rows n) numbered_rows
+           group by (row_seq - 1) / %%ROWS_PER_MESSAGE%%
+           order by (row_seq - 1) / %%ROWS_PER_MESSAGE%%
+      do
+        set payload = rows_payload;
+%%>send_payload%%
+      end for;
+    else
+      for message as
+          select JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE operation,
+                             KEY 'rows' VALUE JSON_ARRAYAGG(row_data FORMAT JSON ORDER BY row_seq)) as rows_payload
+            from (select ROW_NUMBER() OVER () as row_seq,
+                         JSON_OBJECT(
+%%#each COLUMN in COLUMNS%%                           KEY '%%COLUMN%%' VALUE o.%%COLUMN%%%%#between%%,
+%%/each%%
+                         ) as row_data
+                    from old_rows o) numbered_rows
+           group by (row_seq - 1) / %%ROWS_PER_MESSAGE%%
+           order by (row_seq - 1) / %%ROWS_PER_MESSAGE%%
+      do
+        set payload = rows_payload;
+%%>send_payload%%
+      end for;
+    end if;
+  end
\ No newline at end of file
@@ -0,0 +1,23 @@
+    -- Payloads that fit in one data queue entry are sent as they are. Larger payloads are split into
+    -- chunks of whole characters, each sent with a header of #<chunk id>:<index>:<count>: for the daemon
+    -- to reassemble. A trigger that sends to a shared keyed data queue keys its entries with its name.
+    if OCTET_LENGTH(%%PAYLOAD%%) <= %%MAX_ENTRY_BYTES%% then
+      call qsys2.send_data_queue_utf8(
+          message_data       => %%PAYLOAD%%, 
+          data_queue         => '%%DATA_QUEUE_NAME%%',
+          data_queue_library => '%%LIBRARY%%'%%#if DATA_QUEUE_KEY%%,
+          key_data           => '%%DATA_QUEUE_KEY%%'%%/if%%);
+    else
+      set chunk_id = HEX(GENERATE_UNIQUE());
+      set chunk_count = (CHARACTER_LENGTH(%%PAYLOAD%% USING CODEUNITS32) + %%CHUNK_CHARACTERS%% - 1) / %%CHUNK_CHARACTERS%%;
+      set chunk_index = 0;
+      while chunk_index < chunk_count do
+        call qsys2.send_data_queue_utf8(
+            message_data       => '#' concat chunk_id concat ':' concat VARCHAR(chunk_index) concat ':' concat VARCHAR(chunk_count) concat ':' concat
+                                  SUBSTRING(%%PAYLOAD%%, chunk_index * %%CHUNK_CHARACTERS%% + 1, %%CHUNK_CHARACTERS%% USING CODEUNITS32),
+            data_queue         => '%%DATA_QUEUE_NAME%%',
+            data_queue_library => '%%LIBRARY%%'%%#if DATA_QUEUE_KEY%%,
+            key_data           => '%%DATA_QUEUE_KEY%%'%%/if%%);
+        set chunk_index = chunk_index + 1;
+      end while;
+    end if;
@@ -0,0 +1,11 @@
+select JSON_OBJECT(KEY 'table' VALUE '%%SOURCE_TABLE%%', KEY 'operation' VALUE '%%OPERATION%%', KEY 'snapshot' VALUE '%%SNAPSHOT_ID%%',
+                   KEY 'row' VALUE
+                   JSON_OBJECT(
+%%#each COLUMN in COLUMNS%%                     KEY '%%COLUMN%%' VALUE n.%%COLUMN%%%%#between%%,
+%%/each%%
+                   ))
+  from %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%% n%%#if WHEN%%
+    -- The filter sees the row as the trigger sees an inserted row, with a null old row
+    left join %%SOURCE_SCHEMA%%.%%SOURCE_TABLE%% o on 1 = 0%%/if%%
+  where RRN(n) between ? and ?%%#if WHEN%% and (%%WHEN%%)%%/if%%
+  for fetch only
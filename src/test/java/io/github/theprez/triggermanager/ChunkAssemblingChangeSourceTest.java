@@ -0,0 +1,138 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Reassembling chunked payloads from an in-memory source with a {@link ChunkAssemblingChangeSource}, whose partial
+ * payloads are kept in a temporary directory.
+ */
+public class ChunkAssemblingChangeSourceTest {
+    private File m_dir;
+    private QueueSource m_source;
+    private ChunkAssemblingChangeSource m_chunks;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = Files.createTempDirectory("aistream-chunks").toFile();
+        m_source = new QueueSource();
+        open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        m_chunks.close();
+        for (final File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    private void open() throws IOException {
+        m_chunks = new ChunkAssemblingChangeSource(AppLogger.getSingleton(false), m_source, m_dir, 60000);
+    }
+
+    private void add(final String... _entries) {
+        for (final String entry : _entries) {
+            m_source.m_queue.add(entry.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** The next payload, or null once the source has nothing left that completes one */
+    private String next() throws IOException, InterruptedException {
+        while (!m_source.m_queue.isEmpty()) {
+            final byte[] ret = m_chunks.read(0);
+            if (null != ret) {
+                return new String(ret, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void interleavedPayloadsAreReassembled() throws Exception {
+        add("#A1:0:3:one ", "#B2:0:2:two ", "plain", "#A1:1:3:two ", "#B2:1:2:parts", "#A1:2:3:three parts");
+        assertEquals("plain", next());
+        assertEquals("two parts", next());
+        assertEquals("one two three parts", next());
+        assertNull(next());
+        assertEquals(0, m_dir.list().length);
+    }
+
+    @Test
+    public void partialPayloadIsResumedAfterClose() throws Exception {
+        add("#A1:0:3:one ", "#A1:1:3:two ");
+        assertNull(next());
+        m_chunks.close();
+        assertTrue(new File(m_dir, "A1.part").isFile());
+        assertTrue(new File(m_dir, "A1.idx").isFile());
+        // Bytes written after the index was last saved are dropped
+        Files.write(new File(m_dir, "A1.part").toPath(), "junk".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+
+        open();
+        add("#A1:2:3:three");
+        assertEquals("one two three", next());
+        assertEquals(0, m_dir.list().length);
+    }
+
+    @Test
+    public void truncatedPartFileIsDiscarded() throws Exception {
+        add("#A1:0:3:one ", "#A1:1:3:two ");
+        assertNull(next());
+        m_chunks.close();
+        try (RandomAccessFile part = new RandomAccessFile(new File(m_dir, "A1.part"), "rw")) {
+            part.setLength(4);
+        }
+
+        open();
+        assertEquals(0, m_dir.list().length);
+        // The rest of the payload no longer has a start to go with
+        add("#A1:2:3:three", "plain");
+        assertEquals("plain", next());
+        assertEquals(0, m_dir.list().length);
+    }
+
+    @Test
+    public void malformedHeadersAreSkipped() throws Exception {
+        add("#A1:x:3:data", "#A1:0", "#../A1:0:2:data", "#:0:2:data", "plain");
+        assertEquals("plain", next());
+        assertEquals(0, m_dir.list().length);
+        assertEquals(0, m_dir.getParentFile().list((dir, name) -> name.equals("A1.part")).length);
+    }
+
+    /** A source that hands out the entries put in its queue without waiting */
+    private static class QueueSource implements IChangeSource {
+        private final Deque<byte[]> m_queue = new ArrayDeque<>();
+
+        @Override
+        public byte[] read(final int _waitMillis) {
+            return m_queue.poll();
+        }
+
+        @Override
+        public String getDescription() {
+            return "queue";
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
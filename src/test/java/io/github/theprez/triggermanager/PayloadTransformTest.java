@@ -0,0 +1,170 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * The payloads that a {@link PayloadTransform} read from TRANSFORM_ settings produces.
+ */
+public class PayloadTransformTest {
+    private static final List<String> KEY_COLUMNS = Collections.singletonList("ID");
+    private static final String INSERT = "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"NAME\":\"Ann\",\"STATUS\":\"A\",\"TAXID\":\"123\"}}";
+
+    private static PayloadTransform load(final TriggerDescriptor.UpdateMode _updateMode, final String... _settings) throws IOException {
+        final File config = File.createTempFile("aistream-test", ".conf");
+        try {
+            Files.write(config.toPath(), String.join("\n", _settings).getBytes(StandardCharsets.UTF_8));
+            IBMiDotEnv.loadDotEnv(config);
+        } finally {
+            config.delete();
+        }
+        final AppLogger logger = AppLogger.getSingleton(false);
+        return PayloadTransform.forTable(logger, new TableConfiguration(logger, new TableDescriptor("TESTLIB", "TESTLIB", "CUSTOMER", "CUSTOMER")),
+                KEY_COLUMNS, _updateMode);
+    }
+
+    private static PayloadTransform load(final String... _settings) throws IOException {
+        return load(TriggerDescriptor.UpdateMode.FULL, _settings);
+    }
+
+    private static String apply(final PayloadTransform _transform, final String _payload) throws IOException {
+        final byte[] ret = _transform.apply(_payload.getBytes(StandardCharsets.UTF_8));
+        return (null == ret) ? null : new String(ret, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void changesUpdatesCannotBeFilteredOnOtherColumns() throws IOException {
+        // The same filter is fine for full updates
+        assertTrue(null != load("TRANSFORM_FILTER=STATUS=A"));
+        for (final TriggerDescriptor.UpdateMode mode : new TriggerDescriptor.UpdateMode[] { TriggerDescriptor.UpdateMode.CHANGES,
+                TriggerDescriptor.UpdateMode.CHANGES_WITH_BEFORE }) {
+            try {
+                load(mode, "TRANSFORM_FILTER=ID>0,STATUS=A");
+                fail("STATUS is not in every " + mode + " update");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("STATUS"));
+            }
+        }
+    }
+
+    @Test
+    public void changesUpdatesAreFilteredOnTheKeyAndOperation() throws IOException {
+        final PayloadTransform transform = load(TriggerDescriptor.UpdateMode.CHANGES, "TRANSFORM_FILTER=ID>=10,operation!=DELETE");
+        final String update = "{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":12},\"changes\":{\"NAME\":\"New\"}}";
+        assertEquals(update, apply(transform, update));
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":3},\"changes\":{\"NAME\":\"New\"}}"));
+        final String insert = "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":12,\"NAME\":\"Old\"}}";
+        assertEquals(insert, apply(transform, insert));
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"DELETE\",\"row\":{\"ID\":12,\"NAME\":\"Old\"}}"));
+    }
+
+    @Test
+    public void projectionKeepsOnlyTheListedColumns() throws IOException {
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"NAME\":\"Ann\"}}", apply(load("TRANSFORM_COLUMNS=ID,NAME"), INSERT));
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"NAME\":\"Ann\",\"STATUS\":\"A\"}}",
+                apply(load("TRANSFORM_EXCLUDE_COLUMNS=TAXID"), INSERT));
+    }
+
+    @Test
+    public void columnsAreRenamedAndMaskedAndMembersAdded() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_RENAME=NAME=CUSTOMER_NAME", "TRANSFORM_MASK=TAXID", "TRANSFORM_ADD=source=erp,region=eu");
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"CUSTOMER_NAME\":\"Ann\",\"STATUS\":\"A\",\"TAXID\":\"*****\"},"
+                + "\"source\":\"erp\",\"region\":\"eu\"}", apply(transform, INSERT));
+        // Null values stay null when masked
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":2,\"TAXID\":null},\"source\":\"erp\",\"region\":\"eu\"}",
+                apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":2,\"TAXID\":null}}"));
+    }
+
+    @Test
+    public void rowKeyColumnsCannotBeTransformed() {
+        for (final String setting : new String[] { "TRANSFORM_COLUMNS=NAME", "TRANSFORM_EXCLUDE_COLUMNS=ID", "TRANSFORM_RENAME=ID=CUSTOMER_ID", "TRANSFORM_MASK=ID" }) {
+            try {
+                load(setting);
+                fail(setting);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("ID"));
+            }
+        }
+    }
+
+    @Test
+    public void rulesApplyToEveryRowImage() throws IOException {
+        final PayloadTransform transform = load(TriggerDescriptor.UpdateMode.CHANGES_WITH_BEFORE, "TRANSFORM_EXCLUDE_COLUMNS=TAXID", "TRANSFORM_MASK=NAME");
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":1},\"changes\":{\"NAME\":\"*****\"},\"before\":{\"NAME\":\"*****\"}}",
+                apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":1},\"changes\":{\"NAME\":\"New\",\"TAXID\":\"9\"},"
+                        + "\"before\":{\"NAME\":\"Old\",\"TAXID\":\"8\"}}"));
+    }
+
+    @Test
+    public void filtersTestTheRow() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_FILTER=STATUS=A,BALANCE>=100");
+        final String passing = "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"STATUS\":\"A\",\"BALANCE\":100.00}}";
+        assertEquals(passing, apply(transform, passing));
+        // Numbers are compared as numbers, not as text
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"STATUS\":\"A\",\"BALANCE\":99.5}}"));
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"STATUS\":\"B\",\"BALANCE\":500}}"));
+        // A missing column is null, which is not greater than anything
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"STATUS\":\"A\"}}"));
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"STATUS\":\"A\",\"BALANCE\":null}}"));
+    }
+
+    @Test
+    public void filtersTestTheChangesButNotTheBeforeImage() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_FILTER=STATUS=A");
+        final String changedToA = "{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":1},\"changes\":{\"STATUS\":\"A\"},\"before\":{\"STATUS\":\"B\"}}";
+        assertEquals(changedToA, apply(transform, changedToA));
+        assertNull(apply(transform, "{\"table\":\"CUSTOMER\",\"operation\":\"UPDATE\",\"key\":{\"ID\":1},\"changes\":{\"STATUS\":\"B\"},\"before\":{\"STATUS\":\"A\"}}"));
+    }
+
+    @Test
+    public void filtersTestPayloadMembers() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_FILTER=operation!=DELETE,table=CUSTOMER");
+        assertEquals(INSERT, apply(transform, INSERT));
+        assertNull(apply(transform, INSERT.replace("INSERT", "DELETE")));
+        assertNull(apply(transform, INSERT.replace("CUSTOMER", "ORDERS")));
+    }
+
+    @Test
+    public void escapedNamesAreMatchedAndWritten() throws IOException {
+        // The row has NAME with its M escaped
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1}}",
+                apply(load("TRANSFORM_EXCLUDE_COLUMNS=NAME"), "{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"NA\\u004dE\":\"Ann\"}}"));
+        assertEquals("{\"table\":\"CUSTOMER\",\"operation\":\"INSERT\",\"row\":{\"ID\":1,\"NAME\":\"Ann\",\"the \\\"status\\\"\":\"A\",\"TAXID\":\"123\"}}",
+                apply(load("TRANSFORM_RENAME=STATUS=the \"status\""), INSERT));
+    }
+
+    @Test
+    public void payloadsWithoutARowImagePassUnchanged() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_FILTER=STATUS=A", "TRANSFORM_ADD=source=erp");
+        final byte[] watermark = "{\"table\":\"CUSTOMER\",\"operation\":\"SNAPSHOT_START\",\"snapshot\":\"S1\",\"watermark\":\"2026-01-01T00:00:00Z\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        assertTrue(watermark == transform.apply(watermark));
+    }
+
+    @Test
+    public void payloadsThatAreNotObjectsAreRejected() throws IOException {
+        final PayloadTransform transform = load("TRANSFORM_MASK=TAXID");
+        try {
+            transform.apply("[1,2]".getBytes(StandardCharsets.UTF_8));
+            fail("Transformed an array");
+        } catch (IOException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Rebalancing between {@link ShardCoordinator}s that share an {@link InMemoryCoordinationStore}, on a clock the test
+ * advances.
+ */
+public class ShardCoordinatorTest {
+    private static final long LEASE_MILLIS = 30000;
+    private static final long HEARTBEAT_MILLIS = 10000;
+
+    private final AtomicLong m_clock = new AtomicLong(1000000);
+    private InMemoryCoordinationStore m_store;
+    private List<String> m_tables;
+
+    @Before
+    public void setUp() {
+        m_store = new InMemoryCoordinationStore(m_clock::get);
+        m_tables = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            m_tables.add("TABLE" + i);
+        }
+    }
+
+    private ShardCoordinator join(final String _instanceId) throws IOException {
+        final ShardCoordinator ret = new ShardCoordinator(AppLogger.getSingleton(false), m_store, _instanceId, LEASE_MILLIS, HEARTBEAT_MILLIS, m_clock::get);
+        ret.heartbeat();
+        return ret;
+    }
+
+    @Test
+    public void everyTableHasOneOwner() {
+        final TreeMap<Integer, String> ring = ShardCoordinator.buildRing(Arrays.asList("A", "B", "C"));
+        final TreeMap<Integer, String> reordered = ShardCoordinator.buildRing(Arrays.asList("C", "A", "B"));
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final String table : m_tables) {
+            final String owner = ShardCoordinator.getOwner(ring, table);
+            assertEquals(owner, ShardCoordinator.getOwner(reordered, table));
+            counts.merge(owner, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (final int count : counts.values()) {
+            assertTrue("uneven split " + counts, count > m_tables.size() / 6);
+        }
+    }
+
+    @Test
+    public void instancesSplitTheTables() throws IOException {
+        final ShardCoordinator a = join("A");
+        final ShardCoordinator b = join("B");
+        final Set<String> assignedA = a.assign(m_tables, Collections.emptySet());
+        final Set<String> assignedB = b.assign(m_tables, Collections.emptySet());
+        assertTrue(Collections.disjoint(assignedA, assignedB));
+        assertEquals(m_tables.size(), assignedA.size() + assignedB.size());
+    }
+
+    @Test
+    public void joinAndLeaveOnlyMoveTheNewInstancesTables() throws IOException {
+        final ShardCoordinator a = join("A");
+        final ShardCoordinator b = join("B");
+        final Set<String> beforeA = a.assign(m_tables, Collections.emptySet());
+        final Set<String> beforeB = b.assign(m_tables, Collections.emptySet());
+
+        final ShardCoordinator c = join("C");
+        final TreeMap<Integer, String> ring = ShardCoordinator.buildRing(Arrays.asList("A", "B", "C"));
+        final Set<String> movedToC = new LinkedHashSet<>();
+        for (final String table : m_tables) {
+            final String owner = ShardCoordinator.getOwner(ring, table);
+            if ("C".equals(owner)) {
+                movedToC.add(table);
+            } else {
+                // A table that does not move to the new instance keeps its owner
+                assertTrue((beforeA.contains(table) ? "A" : "B").equals(owner));
+            }
+        }
+        assertFalse(movedToC.isEmpty());
+
+        // C only gets the moved tables once their previous owners have stopped them and released the leases
+        final Set<String> afterA = a.assign(m_tables, beforeA);
+        final Set<String> afterB = b.assign(m_tables, beforeB);
+        assertTrue(c.assign(m_tables, Collections.emptySet()).isEmpty());
+        for (final String table : movedToC) {
+            assertFalse(afterA.contains(table) || afterB.contains(table));
+            m_store.release(table, beforeA.contains(table) ? "A" : "B");
+        }
+        assertEquals(movedToC, c.assign(m_tables, Collections.emptySet()));
+
+        // When C leaves, its tables go back to the owners they had before it joined
+        m_store.leave("C");
+        final Set<String> backA = a.assign(m_tables, afterA);
+        final Set<String> backB = b.assign(m_tables, afterB);
+        assertEquals(beforeA, backA);
+        assertEquals(beforeB, backB);
+    }
+
+    @Test
+    public void leaseIsTakenOverOnceItRunsOut() throws IOException {
+        final ShardCoordinator a = join("A");
+        final Set<String> assignedA = a.assign(m_tables, Collections.emptySet());
+        assertEquals(m_tables.size(), assignedA.size());
+
+        // B joins while A still holds every lease, so B waits for them
+        final ShardCoordinator b = join("B");
+        assertTrue(b.assign(m_tables, Collections.emptySet()).isEmpty());
+
+        // A stops renewing. Before its leases run out, it stops routing its tables
+        m_clock.addAndGet(LEASE_MILLIS - HEARTBEAT_MILLIS);
+        b.heartbeat();
+        assertFalse(a.holdsLeases());
+        assertTrue(a.assign(m_tables, assignedA).isEmpty());
+        assertTrue(b.assign(m_tables, Collections.emptySet()).isEmpty());
+
+        // Once they have run out, B takes A's tables over
+        m_clock.addAndGet(HEARTBEAT_MILLIS + 1);
+        b.heartbeat();
+        assertEquals(new LinkedHashSet<>(m_tables), b.assign(m_tables, Collections.emptySet()));
+    }
+
+    @Test
+    public void instanceKeepsItsTablesWhileTheStoreIsUnreachable() throws IOException {
+        final UnreachableStore store = new UnreachableStore(m_store);
+        final ShardCoordinator a = new ShardCoordinator(AppLogger.getSingleton(false), store, "A", LEASE_MILLIS, HEARTBEAT_MILLIS, m_clock::get);
+        a.heartbeat();
+        final Set<String> running = new LinkedHashSet<>(m_tables.subList(0, 10));
+        store.m_unreachable = true;
+        assertEquals(running, a.assign(m_tables, running));
+
+        m_clock.addAndGet(LEASE_MILLIS - HEARTBEAT_MILLIS);
+        assertTrue(a.assign(m_tables, running).isEmpty());
+    }
+
+    @Test
+    public void heartbeatStopsTheTablesWhenTheLeasesLapse() throws Exception {
+        final UnreachableStore store = new UnreachableStore(new InMemoryCoordinationStore());
+        final ShardCoordinator a = new ShardCoordinator(AppLogger.getSingleton(false), store, "A", 300, 50);
+        final CountDownLatch lost = new CountDownLatch(1);
+        final long started = System.nanoTime();
+        a.start(lost::countDown);
+        try {
+            store.m_unreachable = true;
+            assertTrue(lost.await(5, TimeUnit.SECONDS));
+            // Before the lease the last heartbeat renewed has run out
+            assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(300));
+            assertFalse(a.holdsLeases());
+        } finally {
+            store.m_unreachable = false;
+            a.stop();
+        }
+    }
+
+    /** A store that fails every call once it is made unreachable */
+    private static class UnreachableStore implements ICoordinationStore {
+        private final ICoordinationStore m_store;
+        private volatile boolean m_unreachable = false;
+
+        UnreachableStore(final ICoordinationStore _store) {
+            m_store = _store;
+        }
+
+        private void check() throws IOException {
+            if (m_unreachable) {
+                throw new IOException("unreachable");
+            }
+        }
+
+        @Override
+        public void heartbeat(final String _instanceId, final long _leaseMillis) throws IOException {
+            check();
+            m_store.heartbeat(_instanceId, _leaseMillis);
+        }
+
+        @Override
+        public Set<String> getLiveInstances() throws IOException {
+            check();
+            return m_store.getLiveInstances();
+        }
+
+        @Override
+        public boolean tryAcquire(final String _tableId, final String _instanceId, final long _leaseMillis) throws IOException {
+            check();
+            return m_store.tryAcquire(_tableId, _instanceId, _leaseMillis);
+        }
+
+        @Override
+        public void release(final String _tableId, final String _instanceId) throws IOException {
+            check();
+            m_store.release(_tableId, _instanceId);
+        }
+
+        @Override
+        public void leave(final String _instanceId) throws IOException {
+            check();
+            m_store.leave(_instanceId);
+        }
+
+        @Override
+        public String getDescription() {
+            return "unreachable " + m_store.getDescription();
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_store.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Spooling, acknowledging and replaying the entries of an in-memory source through a {@link SpoolChangeSource} in a
+ * temporary directory.
+ */
+public class SpoolChangeSourceTest {
+    private static final long WAIT_MILLIS = 5000;
+
+    private File m_dir;
+    private QueueSource m_source;
+    private SpoolChangeSource m_spool;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = Files.createTempDirectory("aistream-spool").toFile();
+        m_source = new QueueSource();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (null != m_spool) {
+            m_spool.close();
+        }
+        for (final File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    private void open(final int _segmentBytes, final long _maxBytes) throws IOException {
+        m_spool = new SpoolChangeSource(AppLogger.getSingleton(false), m_source, m_dir, _segmentBytes, _maxBytes);
+    }
+
+    /** Closes the spool and opens it again on the same directory, with a new, empty source */
+    private void reopen() throws IOException {
+        m_spool.close();
+        m_source = new QueueSource();
+        open(4096, 65536);
+    }
+
+    /** An entry of 20 bytes */
+    private static byte[] entry(final int _index) {
+        return String.format("%020d", _index).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void add(final int _from, final int _to) {
+        for (int i = _from; i < _to; i++) {
+            m_source.m_queue.add(entry(i));
+        }
+    }
+
+    /** Reads the next entry, which must be the given one, and returns its position */
+    private long expect(final int _index) throws IOException, InterruptedException {
+        final byte[] entry = m_spool.read((int) WAIT_MILLIS);
+        assertArrayEquals(entry(_index), entry);
+        return m_spool.getLastReadPosition();
+    }
+
+    private void awaitDepth(final int _depth) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS);
+        while (m_spool.getDepth() < _depth && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private int countSegments() {
+        return m_dir.list((dir, name) -> name.endsWith(".seg")).length;
+    }
+
+    @Test
+    public void entriesAreSpooledAndServedInOrder() throws Exception {
+        open(4096, 65536);
+        add(0, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, expect(i));
+            m_spool.acknowledge(i);
+        }
+        assertNull(m_spool.read(100));
+        assertEquals(0, m_spool.getDepth());
+        // The drained source is acknowledged once the entries are on disk
+        m_spool.close();
+        m_spool = null;
+        assertEquals(100, m_source.m_acknowledged.size());
+    }
+
+    @Test
+    public void reopenedSpoolReplaysFromTheCheckpoint() throws Exception {
+        open(4096, 65536);
+        add(0, 10);
+        for (int i = 0; i < 5; i++) {
+            m_spool.acknowledge(expect(i));
+        }
+        reopen();
+        for (int i = 5; i < 10; i++) {
+            expect(i);
+        }
+        assertNull(m_spool.read(100));
+    }
+
+    @Test
+    public void checkpointStopsAtTheFirstUnacknowledgedEntry() throws Exception {
+        open(4096, 65536);
+        add(0, 10);
+        for (int i = 0; i < 10; i++) {
+            final long position = expect(i);
+            if (3 != i) {
+                m_spool.acknowledge(position);
+            }
+        }
+        // The entries after the unacknowledged one are delivered again too
+        reopen();
+        for (int i = 3; i < 10; i++) {
+            expect(i);
+        }
+        assertNull(m_spool.read(100));
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws Exception {
+        // Ten 24 byte records fit in each segment
+        open(256, 65536);
+        add(0, 45);
+        awaitDepth(45);
+        assertEquals(5, countSegments());
+        for (int i = 0; i < 45; i++) {
+            m_spool.acknowledge(expect(i));
+        }
+        // Only the segment being read is kept
+        m_spool.close();
+        m_spool = null;
+        assertEquals(1, countSegments());
+        assertTrue(new File(m_dir, "00000000000000000040.seg").isFile());
+    }
+
+    @Test
+    public void drainingWaitsWhileTheBudgetIsUsedUp() throws Exception {
+        // Two segments of ten entries each use up the budget
+        open(256, 512);
+        add(0, 40);
+        awaitDepth(20);
+        Thread.sleep(300);
+        assertEquals(20, m_spool.getDepth());
+        // The drainer holds the entry that did not fit, and the rest wait in the source
+        assertEquals(19, m_source.m_queue.size());
+        assertEquals(2, countSegments());
+
+        // Segments that are published make room for the rest
+        for (int i = 0; i < 40; i++) {
+            m_spool.acknowledge(expect(i));
+        }
+        assertTrue(countSegments() <= 2);
+    }
+
+    /** A source that hands out the entries put in its queue, numbering them from 0 */
+    private static class QueueSource implements IChangeSource {
+        private final BlockingQueue<byte[]> m_queue = new LinkedBlockingQueue<>();
+        private final Set<Long> m_acknowledged = new ConcurrentSkipListSet<>();
+        private long m_lastReadPosition = -1;
+
+        @Override
+        public byte[] read(final int _waitMillis) throws InterruptedException {
+            final byte[] ret = m_queue.poll(_waitMillis, TimeUnit.MILLISECONDS);
+            if (null != ret) {
+                m_lastReadPosition++;
+            }
+            return ret;
+        }
+
+        @Override
+        public long getLastReadPosition() {
+            return m_lastReadPosition;
+        }
+
+        @Override
+        public void acknowledge(final long _position) {
+            m_acknowledged.add(_position);
+        }
+
+        @Override
+        public String getDescription() {
+            return "queue";
+        }
+
+        @Override
+        public void close() {
+            // Nothing to release
+        }
+    }
+}
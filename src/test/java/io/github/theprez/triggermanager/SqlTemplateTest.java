@@ -0,0 +1,156 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Parsing and rendering of {@link SqlTemplate}s, and the trigger templates rendered from fixed values compared with
+ * the expected SQL under <code>golden/</code>.
+ */
+public class SqlTemplateTest {
+
+    /** The values {@link TriggerManager} renders a trigger with, for a three column table keyed by ID */
+    static Map<String, Object> triggerValues(final TriggerDescriptor.TriggerType _triggerType, final boolean _sharedQueue, final boolean _includeBefore) {
+        final Map<String, Object> ret = new HashMap<>();
+        ret.put("LIBRARY", "AISTREAM");
+        ret.put("TRIGGER_NAME", "AITRG0001");
+        ret.put("SOURCE_SCHEMA", "MYLIB");
+        ret.put("SOURCE_TABLE", "CUSTOMER");
+        ret.put("COLUMNS", Arrays.asList("ID", "NAME", "STATUS"));
+        ret.put("KEY_COLUMNS", Collections.singletonList("ID"));
+        ret.put("COMPACT_FORMAT_VERSION", 1);
+        ret.put("INCLUDE_BEFORE", _includeBefore);
+        ret.put("LOCAL_PAYLOAD", TriggerDescriptor.TriggerType.ROW != _triggerType);
+        ret.put("PAYLOAD", (TriggerDescriptor.TriggerType.ROW == _triggerType) ? "AISTREAM.AITRG0001" : "payload");
+        ret.put("ROWS_PER_MESSAGE", 50);
+        ret.put("PAYLOAD_SIZE", 2048);
+        ret.put("CHANGES_SIZE", 1024);
+        ret.put("CHANGED_VALUE_SIZE", 512);
+        ret.put("DATA_QUEUE_NAME", _sharedQueue ? "AISTREAM01" : "AITRG0001");
+        if (_sharedQueue) {
+            ret.put("DATA_QUEUE_KEY", "AITRG0001");
+        }
+        ret.put("MAX_ENTRY_BYTES", 64512);
+        ret.put("CHUNK_CHARACTERS", 16000);
+        ret.put("WHEN_CONDITION", "inserting or updating or deleting");
+        return ret;
+    }
+
+    static String readGolden(final String _name) throws IOException {
+        try (InputStream in = SqlTemplateTest.class.getResourceAsStream("/golden/" + _name)) {
+            if (null == in) {
+                throw new IOException("Golden file not found: " + _name);
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while (-1 != (read = in.read(buffer))) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String render(final String _text, final Map<String, ?> _values) throws IOException {
+        final Map<String, String> includes = new HashMap<>();
+        includes.put("footer.sql", "-- %%NAME%% ends");
+        final StringBuilder ret = new StringBuilder();
+        SqlTemplate.parse("test.sql", _text, includes::get).render(_values, ret);
+        return ret.toString();
+    }
+
+    @Test
+    public void eachRendersTheBodyPerElementWithTheSeparatorBetween() throws IOException {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("COLUMNS", Arrays.asList("A", "B", "C"));
+        values.put("TABLE", "T");
+        assertEquals("select A as T_A, B as T_B, C as T_C", render("select %%#each C in COLUMNS%%%%C%% as %%TABLE%%_%%C%%%%#between%%, %%/each%%", values));
+        values.put("COLUMNS", Collections.emptyList());
+        assertEquals("()", render("(%%#each C in COLUMNS%%%%C%%%%#between%%,%%/each%%)", values));
+    }
+
+    @Test
+    public void ifRendersOneOfItsParts() throws IOException {
+        final String template = "%%#if FLAG%%yes%%#else%%no%%/if%% %%#if !FLAG%%not%%/if%%";
+        final Map<String, Object> values = new HashMap<>();
+        assertEquals("no not", render(template, values));
+        for (final Object value : new Object[] { "", "false", Boolean.FALSE, Collections.emptyList() }) {
+            values.put("FLAG", value);
+            assertEquals("no not", render(template, values));
+        }
+        for (final Object value : new Object[] { "X", Boolean.TRUE, 0, Collections.singletonList("A") }) {
+            values.put("FLAG", value);
+            assertEquals("yes ", render(template, values));
+        }
+    }
+
+    @Test
+    public void includesAreSplicedInPlace() throws IOException {
+        assertEquals("select 1\n-- Q ends", render("select 1\n%%>footer%%", Collections.singletonMap("NAME", "Q")));
+    }
+
+    @Test
+    public void placeholdersWithoutValuesAreKept() throws IOException {
+        assertEquals("a %%MISSING%% b", render("a %%MISSING%% b", Collections.emptyMap()));
+    }
+
+    @Test
+    public void malformedTemplatesAreRejected() {
+        for (final String template : new String[] { "%%#each C in COLUMNS%%x", "%%#if A%%x%%/each%%", "x%%/if%%", "%%#unknown%%", "%%#each COLUMNS%%%%/each%%",
+                "%%>loop%%" }) {
+            try {
+                SqlTemplate.parse("test.sql", template, name -> "%%>loop%%");
+                fail("Parsed " + template);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed SQL template test.sql"));
+            }
+        }
+    }
+
+    @Test
+    public void parsedTemplatesAreCachedAndRenderedWithEachCallsValues() throws IOException {
+        assertTrue(SqlTemplateProcessor.getTemplate("create.sql") == SqlTemplateProcessor.getTemplate("create.sql"));
+        final Map<String, Object> values = triggerValues(TriggerDescriptor.TriggerType.ROW, false, false);
+        final String first = SqlTemplateProcessor.getProcessed("create.sql", values);
+        values.put("COLUMNS", Arrays.asList("ID", "NAME"));
+        final String second = SqlTemplateProcessor.getProcessed("create.sql", values);
+        assertTrue(first.contains("n.STATUS"));
+        assertTrue(!second.contains("n.STATUS"));
+        assertEquals(first, SqlTemplateProcessor.getProcessed("create.sql", triggerValues(TriggerDescriptor.TriggerType.ROW, false, false)));
+    }
+
+    @Test
+    public void rowTriggerMatchesGolden() throws IOException {
+        assertEquals(readGolden("create.sql"), SqlTemplateProcessor.getProcessed("create.sql", triggerValues(TriggerDescriptor.TriggerType.ROW, false, false)));
+    }
+
+    @Test
+    public void changesTriggerMatchesGolden() throws IOException {
+        assertEquals(readGolden("create_changes.sql"),
+                SqlTemplateProcessor.getProcessed("create_changes.sql", triggerValues(TriggerDescriptor.TriggerType.ROW_DIRECT, true, true)));
+    }
+
+    @Test
+    public void compactTriggerMatchesGolden() throws IOException {
+        assertEquals(readGolden("create_compact.sql"),
+                SqlTemplateProcessor.getProcessed("create_compact.sql", triggerValues(TriggerDescriptor.TriggerType.ROW, false, false)));
+    }
+
+    @Test
+    public void statementTriggerMatchesGolden() throws IOException {
+        assertEquals(readGolden("create_statement.sql"),
+                SqlTemplateProcessor.getProcessed("create_statement.sql", triggerValues(TriggerDescriptor.TriggerType.STATEMENT, false, false)));
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.theprez.triggermanager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+import io.github.theprez.dotenv_ibmi.IBMiDotEnv;
+
+/**
+ * Resolving numeric settings through a {@link TableConfiguration}.
+ */
+public class TableConfigurationTest {
+    private TableConfiguration m_config;
+
+    @Before
+    public void setUp() throws IOException {
+        final File config = File.createTempFile("aistream-test", ".conf");
+        try {
+            Files.write(config.toPath(), String.join("\n", "SMALL=42", "SMALL.MYLIB.CUSTOMER=7", "LARGE=4294967296", "NEGATIVE=-2147483649", "TEXT=many")
+                    .getBytes(StandardCharsets.UTF_8));
+            IBMiDotEnv.loadDotEnv(config);
+        } finally {
+            config.delete();
+        }
+        final AppLogger logger = AppLogger.getSingleton(false);
+        m_config = new TableConfiguration(logger, new TableDescriptor("MYLIB", "MYLIB", "CUSTOMER", "CUSTOMER"));
+    }
+
+    @Test
+    public void tableValueOverridesTheDaemonWideValue() {
+        assertEquals(7, m_config.getInt("SMALL", 1));
+        assertEquals(42, TableConfiguration.daemonWide(AppLogger.getSingleton(false)).getInt("SMALL", 1));
+        assertEquals(1, m_config.getInt("UNSET", 1));
+    }
+
+    @Test
+    public void intOutOfRangeFallsBackToTheDefault() {
+        assertEquals(5, m_config.getInt("LARGE", 5));
+        assertEquals(5, m_config.getInt("NEGATIVE", 5));
+        assertEquals(4294967296L, m_config.getLong("LARGE", 5));
+    }
+
+    @Test
+    public void invalidNumberFallsBackToTheDefault() {
+        assertEquals(5, m_config.getInt("TEXT", 5));
+        assertEquals(5, m_config.getLong("TEXT", 5));
+    }
+}
@@ -0,0 +1,85 @@
+create or replace trigger AISTREAM.AITRG0001
+    after update or insert or delete on MYLIB.CUSTOMER
+    referencing new as n old as o for each row
+  when (inserting or updating or deleting)
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+    declare payload clob(2048) ccsid 1208;
+    declare changed_value clob(512) ccsid 1208;
+    declare changes clob(1024) ccsid 1208 default '';
+    declare before_values clob(1024) ccsid 1208 default '';
+    if inserting then
+    set payload = JSON_OBJECT(KEY 'table' VALUE 'CUSTOMER', KEY 'operation' VALUE 'INSERT', 
+                                      KEY 'row' VALUE 
+                                      JSON_OBJECT(
+                                        KEY 'ID' VALUE n.ID,
+                                        KEY 'NAME' VALUE n.NAME,
+                                        KEY 'STATUS' VALUE n.STATUS
+                                      ));
+    end if;
+    if updating then
+    -- Each changed column is added as a "name":value member, taken from a one member JSON_OBJECT so that
+    -- values are rendered exactly as they are in the full row
+    if n.ID is distinct from o.ID then
+      set changed_value = JSON_OBJECT(KEY 'ID' VALUE n.ID NULL ON NULL);
+      set changes = changes concat case when length(changes) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+      set changed_value = JSON_OBJECT(KEY 'ID' VALUE o.ID NULL ON NULL);
+      set before_values = before_values concat case when length(before_values) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+    end if;
+    if n.NAME is distinct from o.NAME then
+      set changed_value = JSON_OBJECT(KEY 'NAME' VALUE n.NAME NULL ON NULL);
+      set changes = changes concat case when length(changes) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+      set changed_value = JSON_OBJECT(KEY 'NAME' VALUE o.NAME NULL ON NULL);
+      set before_values = before_values concat case when length(before_values) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+    end if;
+    if n.STATUS is distinct from o.STATUS then
+      set changed_value = JSON_OBJECT(KEY 'STATUS' VALUE n.STATUS NULL ON NULL);
+      set changes = changes concat case when length(changes) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+      set changed_value = JSON_OBJECT(KEY 'STATUS' VALUE o.STATUS NULL ON NULL);
+      set before_values = before_values concat case when length(before_values) = 0 then '' else ',' end concat substr(changed_value, 2, length(changed_value) - 2);
+    end if;
+
+    set payload = JSON_OBJECT(KEY 'table' VALUE 'CUSTOMER', KEY 'operation' VALUE 'UPDATE', 
+                                      KEY 'key' VALUE 
+                                      JSON_OBJECT(
+                                        KEY 'ID' VALUE o.ID
+                                      ),
+                                      KEY 'changes' VALUE ('{' concat changes concat '}') FORMAT JSON,
+                                      KEY 'before' VALUE ('{' concat before_values concat '}') FORMAT JSON);
+    end if;
+    if deleting then
+    set payload = JSON_OBJECT(KEY 'table' VALUE 'CUSTOMER', KEY 'operation' VALUE 'DELETE', 
+                                      KEY 'row' VALUE 
+                                      JSON_OBJECT(
+                                        KEY 'ID' VALUE o.ID,
+                                        KEY 'NAME' VALUE o.NAME,
+                                        KEY 'STATUS' VALUE o.STATUS
+                                      ));
+    end if;
+    -- Payloads that fit in one data queue entry are sent as they are. Larger payloads are split into
+    -- chunks of whole characters, each sent with a header of #<chunk id>:<index>:<count>: for the daemon
+    -- to reassemble. A trigger that sends to a shared keyed data queue keys its entries with its name.
+    if OCTET_LENGTH(payload) <= 64512 then
+      call qsys2.send_data_queue_utf8(
+          message_data       => payload, 
+          data_queue         => 'AISTREAM01',
+          data_queue_library => 'AISTREAM',
+          key_data           => 'AITRG0001');
+    else
+      set chunk_id = HEX(GENERATE_UNIQUE());
+      set chunk_count = (CHARACTER_LENGTH(payload USING CODEUNITS32) + 16000 - 1) / 16000;
+      set chunk_index = 0;
+      while chunk_index < chunk_count do
+        call qsys2.send_data_queue_utf8(
+            message_data       => '#' concat chunk_id concat ':' concat VARCHAR(chunk_index) concat ':' concat VARCHAR(chunk_count) concat ':' concat
+                                  SUBSTRING(payload, chunk_index * 16000 + 1, 16000 USING CODEUNITS32),
+            data_queue         => 'AISTREAM01',
+            data_queue_library => 'AISTREAM',
+            key_data           => 'AITRG0001');
+        set chunk_index = chunk_index + 1;
+      end while;
+    end if;
+
+  end
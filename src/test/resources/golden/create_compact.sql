@@ -0,0 +1,54 @@
+create or replace trigger AISTREAM.AITRG0001
+    after update or insert or delete on MYLIB.CUSTOMER
+    referencing new as n old as o for each row
+  when (inserting or updating or deleting)
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+    declare operation char(1) for sbcs data;
+    if inserting then
+      set operation = 'I';
+    end if;
+    if deleting then
+      set operation = 'D';
+    end if;
+    if updating then
+      set operation = 'U';
+    end if;
+    -- Positional record: [format version, operation, column values...]. The daemon holds the column names.
+    if (inserting or updating) then
+    set AISTREAM.AITRG0001 = JSON_ARRAY(1, operation,
+                                        n.ID,
+                                        n.NAME,
+                                        n.STATUS
+                                      NULL ON NULL);
+    else 
+    set AISTREAM.AITRG0001 = JSON_ARRAY(1, operation,
+                                        o.ID,
+                                        o.NAME,
+                                        o.STATUS
+                                      NULL ON NULL);    end if;
+    -- Payloads that fit in one data queue entry are sent as they are. Larger payloads are split into
+    -- chunks of whole characters, each sent with a header of #<chunk id>:<index>:<count>: for the daemon
+    -- to reassemble. A trigger that sends to a shared keyed data queue keys its entries with its name.
+    if OCTET_LENGTH(AISTREAM.AITRG0001) <= 64512 then
+      call qsys2.send_data_queue_utf8(
+          message_data       => AISTREAM.AITRG0001, 
+          data_queue         => 'AITRG0001',
+          data_queue_library => 'AISTREAM');
+    else
+      set chunk_id = HEX(GENERATE_UNIQUE());
+      set chunk_count = (CHARACTER_LENGTH(AISTREAM.AITRG0001 USING CODEUNITS32) + 16000 - 1) / 16000;
+      set chunk_index = 0;
+      while chunk_index < chunk_count do
+        call qsys2.send_data_queue_utf8(
+            message_data       => '#' concat chunk_id concat ':' concat VARCHAR(chunk_index) concat ':' concat VARCHAR(chunk_count) concat ':' concat
+                                  SUBSTRING(AISTREAM.AITRG0001, chunk_index * 16000 + 1, 16000 USING CODEUNITS32),
+            data_queue         => 'AITRG0001',
+            data_queue_library => 'AISTREAM');
+        set chunk_index = chunk_index + 1;
+      end while;
+    end if;
+
+  end
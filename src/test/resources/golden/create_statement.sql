@@ -0,0 +1,98 @@
+create or replace trigger AISTREAM.AITRG0001
+    after update or insert or delete on MYLIB.CUSTOMER
+    referencing new table as new_rows old table as old_rows for each statement
+  begin atomic
+    declare chunk_id char(26);
+    declare chunk_index integer;
+    declare chunk_count integer;
+    declare payload clob(2048) ccsid 1208;
+    declare operation varchar(10) for sbcs data;
+    if inserting then
+      set operation = 'INSERT';
+    end if;
+    if deleting then
+      set operation = 'DELETE';
+    end if;
+    if updating then
+      set operation = 'UPDATE';
+    end if;
+    -- The changed rows are sent 50 at a time, as {"table":...,"operation":...,"rows":[...]}.
+    -- The daemon splits each message into the payloads a row trigger would have sent.
+    if (inserting or updating) then
+      for message as
+          select JSON_OBJECT(KEY 'table' VALUE 'CUSTOMER', KEY 'operation' VALUE operation,
+                             KEY 'rows' VALUE JSON_ARRAYAGG(row_data FORMAT JSON ORDER BY row_seq)) as rows_payload
+            from (select ROW_NUMBER() OVER () as row_seq,
+                         JSON_OBJECT(
+                           KEY 'ID' VALUE n.ID,
+                           KEY 'NAME' VALUE n.NAME,
+                           KEY 'STATUS' VALUE n.STATUS
+                         ) as row_data
+                    from new_rows n) numbered_rows
+           group by (row_seq - 1) / 50
+           order by (row_seq - 1) / 50
+      do
+        set payload = rows_payload;
+    -- Payloads that fit in one data queue entry are sent as they are. Larger payloads are split into
+    -- chunks of whole characters, each sent with a header of #<chunk id>:<index>:<count>: for the daemon
+    -- to reassemble. A trigger that sends to a shared keyed data queue keys its entries with its name.
+    if OCTET_LENGTH(payload) <= 64512 then
+      call qsys2.send_data_queue_utf8(
+          message_data       => payload, 
+          data_queue         => 'AITRG0001',
+          data_queue_library => 'AISTREAM');
+    else
+      set chunk_id = HEX(GENERATE_UNIQUE());
+      set chunk_count = (CHARACTER_LENGTH(payload USING CODEUNITS32) + 16000 - 1) / 16000;
+      set chunk_index = 0;
+      while chunk_index < chunk_count do
+        call qsys2.send_data_queue_utf8(
+            message_data       => '#' concat chunk_id concat ':' concat VARCHAR(chunk_index) concat ':' concat VARCHAR(chunk_count) concat ':' concat
+                                  SUBSTRING(payload, chunk_index * 16000 + 1, 16000 USING CODEUNITS32),
+            data_queue         => 'AITRG0001',
+            data_queue_library => 'AISTREAM');
+        set chunk_index = chunk_index + 1;
+      end while;
+    end if;
+
+      end for;
+    else
+      for message as
+          select JSON_OBJECT(KEY 'table' VALUE 'CUSTOMER', KEY 'operation' VALUE operation,
+                             KEY 'rows' VALUE JSON_ARRAYAGG(row_data FORMAT JSON ORDER BY row_seq)) as rows_payload
+            from (select ROW_NUMBER() OVER () as row_seq,
+                         JSON_OBJECT(
+                           KEY 'ID' VALUE o.ID,
+                           KEY 'NAME' VALUE o.NAME,
+                           KEY 'STATUS' VALUE o.STATUS
+                         ) as row_data
+                    from old_rows o) numbered_rows
+           group by (row_seq - 1) / 50
+           order by (row_seq - 1) / 50
+      do
+        set payload = rows_payload;
+    -- Payloads that fit in one data queue entry are sent as they are. Larger payloads are split into
+    -- chunks of whole characters, each sent with a header of #<chunk id>:<index>:<count>: for the daemon
+    -- to reassemble. A trigger that sends to a shared keyed data queue keys its entries with its name.
+    if OCTET_LENGTH(payload) <= 64512 then
+      call qsys2.send_data_queue_utf8(
+          message_data       => payload, 
+          data_queue         => 'AITRG0001',
+          data_queue_library => 'AISTREAM');
+    else
+      set chunk_id = HEX(GENERATE_UNIQUE());
+      set chunk_count = (CHARACTER_LENGTH(payload USING CODEUNITS32) + 16000 - 1) / 16000;
+      set chunk_index = 0;
+      while chunk_index < chunk_count do
+        call qsys2.send_data_queue_utf8(
+            message_data       => '#' concat chunk_id concat ':' concat VARCHAR(chunk_index) concat ':' concat VARCHAR(chunk_count) concat ':' concat
+                                  SUBSTRING(payload, chunk_index * 16000 + 1, 16000 USING CODEUNITS32),
+            data_queue         => 'AITRG0001',
+            data_queue_library => 'AISTREAM');
+        set chunk_index = chunk_index + 1;
+      end while;
+    end if;
+
+      end for;
+    end if;
+  end
\ No newline at end of file